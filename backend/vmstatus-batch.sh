@@ -0,0 +1,104 @@
+#!/bin/bash
+
+# Copyright 2013 University of Michigan
+# 
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+# 
+#     http://www.apache.org/licenses/LICENSE-2.0
+# 
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+SCRIPT_DIR=$(cd $(dirname $0); pwd)
+. $SCRIPT_DIR/capsules.cfg
+
+STAT_RUNNING="Running"
+STAT_NOT_RUNNING="Not_Running"
+STAT_MISSING="Missing"
+
+usage () {
+
+  echo "Usage: $0 --wdir <Directory for VM> [--wdir <Directory for VM> ...]"
+  echo ""
+  echo "Determines the operational status of every VM in the given directories"
+  echo "and prints one line per VM: the directory and its status, separated by"
+  echo "a tab. The status is $STAT_RUNNING, $STAT_NOT_RUNNING, or $STAT_MISSING if"
+  echo "the directory does not exist."
+  echo ""
+  echo "(--wdir)  Directory: The directory where a VM's data is held, may be repeated."
+  echo ""
+  echo "-h|--help Show help."
+
+}
+
+# Initialize all the option variables.
+# This ensures we are not contaminated by variables from the environment.
+VM_DIRS=()
+
+while :; do
+    case $1 in
+        -h|-\?|--help)
+            usage    # Display a usage synopsis.
+            exit
+            ;;
+        --wdir)       # Takes an option argument; ensure it has been specified.
+            if [ "$2" ]; then
+                VM_DIRS+=("$2")
+                shift
+            else
+                die 'ERROR: "--wdir" requires a non-empty option argument.'
+            fi
+            ;;
+        --wdir=?*)
+            VM_DIRS+=("${1#*=}") # Delete everything up to "=" and add the remainder.
+            ;;
+        --wdir=)         # Handle the case of an empty --wdir=
+            die 'ERROR: "--wdir" requires a non-empty option argument.'
+            ;;
+        --)              # End of all options.
+            shift
+            break
+            ;;
+        -?*)
+            printf 'WARN: Unknown option (ignored): %s\n' "$1" >&2
+            usage
+            exit 1
+            ;;
+        *)               # Default case: No more options, so break out of the loop.
+            break
+    esac
+
+    shift
+done
+
+if [ ${#VM_DIRS[@]} -eq 0 ]; then
+  printf 'WARN: Missing required argument working dir (--wdir)'  >&2
+  usage
+  exit 1
+fi
+
+# Look up the running QEMU processes once for all VMs
+QEMU_PIDS=" $(/usr/sbin/pidof `basename $QEMU`) "
+
+for VM_DIR in "${VM_DIRS[@]}"; do
+
+  if [ ! -d "$VM_DIR" ]; then
+    STATUS=$STAT_MISSING
+  elif [ -e "$VM_DIR/pid" ] && [[ "$QEMU_PIDS" == *" $(cat "$VM_DIR/pid") "* ]]; then
+    STATUS=$STAT_RUNNING
+  else
+    # If no process is running with that pid, then it probably shut down naturally;
+    # if pid file doesn't exist, then VM isn't running
+    STATUS=$STAT_NOT_RUNNING
+  fi
+
+  printf '%s\t%s\n' "$VM_DIR" "$STATUS"
+
+done
+
+exit 0
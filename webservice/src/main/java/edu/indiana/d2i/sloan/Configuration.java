@@ -59,6 +59,69 @@ public final class Configuration {
 		
 		// optional properties
 		public static final String WORKER_POOL_SIZE = "sloan.ws.hyper.workers";
+		/*
+		 * per command lane, the lane name in lower case is appended followed
+		 * by the suffix, e.g. sloan.ws.hyper.lane.query.workers
+		 */
+		public static final String HYPERVISOR_LANE_PREFIX = "sloan.ws.hyper.lane.";
+		/* workers running commands of the lane at the same time, 0 for no limit */
+		public static final String HYPERVISOR_LANE_WORKERS_SUFFIX = ".workers";
+		/* commands that may wait in the lane */
+		public static final String HYPERVISOR_LANE_QUEUE_SIZE_SUFFIX = ".queue.size";
+		/* how long a status query of a VM is not repeated after it succeeded */
+		public static final String HYPERVISOR_LANE_FRESH_MS_SUFFIX = ".fresh.ms";
+		/* commands of one VM that may be queued or running, they run one at a time in order */
+		public static final String HYPERVISOR_MAILBOX_MAX_DEPTH = "sloan.ws.hyper.mailbox.max.depth";
+		/* share the workers fairly between users instead of first in, first out */
+		public static final String HYPERVISOR_FAIRSHARE_ENABLED = "sloan.ws.hyper.fairshare.enabled";
+		/* commands of one user running at the same time, 0 for no limit */
+		public static final String HYPERVISOR_FAIRSHARE_USER_MAX_RUNNING = "sloan.ws.hyper.fairshare.user.max.running";
+		/* guids of the admin operators separated by ';', they get the admin weight instead of 1 */
+		public static final String HYPERVISOR_FAIRSHARE_ADMIN_OPERATORS = "sloan.ws.hyper.fairshare.admin.operators";
+		public static final String HYPERVISOR_FAIRSHARE_ADMIN_WEIGHT = "sloan.ws.hyper.fairshare.admin.weight";
+		/* probe the status of all VMs of each host this often, 0 to probe VMs when queried */
+		public static final String STATUS_SWEEP_PERIOD_MS = "sloan.ws.status.sweep.period.ms";
+		/* recent operations kept for clients waiting on them */
+		public static final String OPERATION_HISTORY_SIZE = "sloan.ws.operation.history.size";
+		/* longest a request waits for an operation to finish */
+		public static final String OPERATION_MAX_WAIT_MS = "sloan.ws.operation.max.wait.ms";
+		/* requests waiting for operations at once, each holds a request thread */
+		public static final String OPERATION_MAX_WAITERS = "sloan.ws.operation.max.waiters";
+		/* vm events a subscriber may fall behind by before it is dropped */
+		public static final String EVENTS_BUFFER_SIZE = "sloan.ws.events.buffer.size";
+		/*
+		 * open event streams, each holds a request thread for up to the
+		 * longest stream, sized together with the connector's thread count
+		 */
+		public static final String EVENTS_MAX_SUBSCRIBERS = "sloan.ws.events.max.subscribers";
+		/* a comment is sent on an idle event stream this often */
+		public static final String EVENTS_HEARTBEAT_MS = "sloan.ws.events.heartbeat.ms";
+		/* an event stream is ended after this long, the client reconnects */
+		public static final String EVENTS_MAX_STREAM_MS = "sloan.ws.events.max.stream.ms";
+		/* file the hypervisor commands are journaled in until they finish, empty to not journal them */
+		public static final String HYPERVISOR_JOURNAL_PATH = "sloan.ws.hyper.journal.path";
+		/* force each journal record to the disk */
+		public static final String HYPERVISOR_JOURNAL_SYNC = "sloan.ws.hyper.journal.sync";
+		/* finished commands after which the journal is rewritten with the unfinished ones */
+		public static final String HYPERVISOR_JOURNAL_COMPACT_THRESHOLD = "sloan.ws.hyper.journal.compact.threshold";
+		/* hosts probed at the same time to recover the commands lost in a restart */
+		public static final String HYPERVISOR_RECOVERY_PARALLELISM = "sloan.ws.hyper.recovery.parallelism";
+		public static final String HYPERVISOR_RECOVERY_TIMEOUT_MS = "sloan.ws.hyper.recovery.timeout.ms";
+		/* per host circuit breaker of the ssh calls to the hosts */
+		public static final String HOST_BREAKER_ENABLED = "sloan.ws.host.breaker.enabled";
+		/* the failure rate is taken over this many most recent calls to a host */
+		public static final String HOST_BREAKER_WINDOW_SIZE = "sloan.ws.host.breaker.window.size";
+		/* calls in the window before the breaker may open */
+		public static final String HOST_BREAKER_MIN_CALLS = "sloan.ws.host.breaker.min.calls";
+		/* value between [0.0 1.0] */
+		public static final String HOST_BREAKER_FAILURE_RATE = "sloan.ws.host.breaker.failure.rate";
+		/* how long an open breaker rejects calls before one call probes the host */
+		public static final String HOST_BREAKER_OPEN_MS = "sloan.ws.host.breaker.open.ms";
+		/* semicolon separated exceptions that count as failures to reach a host */
+		public static final String HOST_BREAKER_FAILURE_EXPS = "sloan.ws.host.breaker.failure.exps";
+		/* ssh calls a host runs at the same time, and how long a call waits for its turn */
+		public static final String HOST_BULKHEAD_MAX_CALLS = "sloan.ws.host.bulkhead.max.calls";
+		public static final String HOST_BULKHEAD_WAIT_MS = "sloan.ws.host.bulkhead.wait.ms";
 		public static final String MAX_RETRY = "sloan.ws.hyper.maxretry";
 		public static final String OPERATION_TIMEOUT_MS = "sloan.ws.hyper.timeout.sec";
 		public static final String VOLUME_SIZE_IN_GB = "sloan.ws.volume.size.gb";
@@ -71,6 +134,16 @@ public final class Configuration {
 		// scheduler related properties
 		public static final String SCHEDULER_IMPL_CLASS = "scheduler.impl.class";
 		public static final String SCHEDULER_MAX_NUM_ATTEMPTS = "scheduler.max.num.attempts";
+		/* load aware scheduler, BEST_FIT or LEAST_LOADED */
+		public static final String SCHEDULER_PLACEMENT_POLICY = "scheduler.loadaware.policy";
+		/* how many times the physical capacity of a host may be handed out */
+		public static final String SCHEDULER_CPU_OVERCOMMIT = "scheduler.loadaware.cpu.overcommit";
+		public static final String SCHEDULER_MEMORY_OVERCOMMIT = "scheduler.loadaware.memory.overcommit";
+		public static final String SCHEDULER_DISK_OVERCOMMIT = "scheduler.loadaware.disk.overcommit";
+		/* disk of each host, vmhosts has no such column; 0 does not check disk */
+		public static final String SCHEDULER_HOST_DISK_GB = "scheduler.loadaware.host.disk.gb";
+		/* the in-memory view of host load is read again from DB after this */
+		public static final String SCHEDULER_REFRESH_PERIOD_MS = "scheduler.loadaware.refresh.period.ms";
 
 		// mandatory properties
 		public static final String DB_DRIVER_CLASS = "sloan.ws.db.driverclass";
@@ -78,9 +151,30 @@ public final class Configuration {
 		public static final String DB_USER = "sloan.ws.db.user";
 		public static final String DB_PWD = "sloan.ws.db.pwd";
 
+		// optional database properties
+		/* connection pool implementation, c3p0 (default) or hikari */
+		public static final String DB_POOL_IMPL = "sloan.ws.db.pool.impl";
+		public static final String DB_POOL_MIN_SIZE = "sloan.ws.db.pool.min.size";
+		public static final String DB_POOL_MAX_SIZE = "sloan.ws.db.pool.max.size";
+		public static final String DB_POOL_ACQUIRE_INCREMENT = "sloan.ws.db.pool.acquire.increment";
+		/* 0 waits forever for a free connection */
+		public static final String DB_POOL_CHECKOUT_TIMEOUT_MS = "sloan.ws.db.pool.checkout.timeout.ms";
+		public static final String DB_POOL_TEST_ON_CHECKIN = "sloan.ws.db.pool.test.on.checkin";
+		public static final String DB_POOL_MAX_IDLE_TIME_SEC = "sloan.ws.db.pool.max.idle.time.sec";
+		public static final String DB_POOL_IDLE_TEST_PERIOD_SEC = "sloan.ws.db.pool.idle.test.period.sec";
+		/* statement cache size */
+		public static final String DB_MAX_STATEMENTS = "sloan.ws.db.max.statements";
+		public static final String DB_MAX_STATEMENTS_PER_CONNECTION = "sloan.ws.db.max.statements.per.connection";
+		/* cache of vm info and vm user roles */
+		public static final String DB_CACHE_ENABLED = "sloan.ws.db.cache.enabled";
+		public static final String DB_CACHE_MAX_VMS = "sloan.ws.db.cache.max.vms";
+		public static final String DB_CACHE_TTL_MS = "sloan.ws.db.cache.ttl.ms";
+
 		public static final String PORT_RANGE_MIN = "sloan.ws.port.range.min";
 		public static final String PORT_RANGE_MAX = "sloan.ws.port.range.max";
 		public static final String HOSTS = "sloan.ws.hosts";
+		/* ports in memory are checked against the ports table, 0 disables it */
+		public static final String PORT_RECONCILE_PERIOD_MS = "sloan.ws.port.reconcile.period.ms";
 
 		// hypervisor related properties
 
@@ -91,11 +185,17 @@ public final class Configuration {
 
 		/* timeout in milliseconds */
 		public static final String HYPERVISOR_TASK_TIMEOUT = "hypervisor.task.timeout.in.ms";
+		/*
+		 * per command type timeout, the command name in lower case is
+		 * appended, e.g. hypervisor.task.timeout.in.ms.query_vm; 0 disables it
+		 */
+		public static final String HYPERVISOR_TASK_TIMEOUT_PREFIX = "hypervisor.task.timeout.in.ms.";
 
 		/* hypervisor commands */
 		public static final String CMD_CREATE_VM = "cmd.create.vm";
 		public static final String CMD_LAUNCH_VM = "cmd.launch.vm";
 		public static final String CMD_QUERY_VM = "cmd.query.vm";
+		public static final String CMD_QUERY_VMS = "cmd.query.vms";
 		public static final String CMD_SWITCH_VM = "cmd.switch.vm";
 		public static final String CMD_STOP_VM = "cmd.stop.vm";
 		public static final String CMD_DELETE_VM = "cmd.delete.vm";
@@ -121,6 +221,16 @@ public final class Configuration {
 		 * that can be retried
 		 */
 		public static final String RETRY_TASK_RETRIABLE_EXPS = "retry.task.retriable.exps";
+		/* the wait grows by the multiplier with each retry, up to the max wait */
+		public static final String RETRY_TASK_MAX_WAIT_IN_MILLIS = "retry.task.max.wait.in.millis";
+		public static final String RETRY_TASK_BACKOFF_MULTIPLIER = "retry.task.backoff.multiplier";
+		/* fraction of the wait that is randomly taken off, [0.0 1.0] */
+		public static final String RETRY_TASK_JITTER = "retry.task.jitter";
+		/*
+		 * retry failed hypervisor commands from the hypervisor proxy without
+		 * holding a worker, instead of sleeping in the hypervisor call
+		 */
+		public static final String RETRY_TASK_ASYNC = "retry.task.async";
 
 		/* properties for random fail hypervisor */
 
@@ -148,8 +258,20 @@ public final class Configuration {
 		public static final String RESULT_HUMAN_REVIEW_EMAIL = "result.review.email";
 		public static final String RESULT_FILES_DIR = "result.files.dir";
 		public static final String RESULT_BACKUP_FILES_DIR = "result.backup.file.dir";
+		/* staging of chunked uploads, should be on the file system of result.files.dir */
+		public static final String RESULT_UPLOAD_DIR = "result.upload.dir";
+		/* an upload without any chunk for this long is dropped */
+		public static final String RESULT_UPLOAD_EXPIRE_MS = "result.upload.expire.ms";
+		/* how often idle uploads are looked for, also when no upload is opened */
+		public static final String RESULT_UPLOAD_EXPIRE_CHECK_PERIOD_MS = "result.upload.expire.check.period.ms";
 
-		public static final String THREAD_SLEEP_DURATION = "ssh.proxy.thread.sleep.duration";
+		/* ssh session pool */
+		public static final String SSH_POOL_ENABLED = "ssh.pool.enabled";
+		public static final String SSH_POOL_MAX_SESSIONS_PER_HOST = "ssh.pool.max.sessions.per.host";
+		public static final String SSH_POOL_MAX_CHANNELS_PER_SESSION = "ssh.pool.max.channels.per.session";
+		public static final String SSH_POOL_IDLE_TIMEOUT_MS = "ssh.pool.idle.timeout.ms";
+		public static final String SSH_POOL_HEALTH_CHECK_PERIOD_MS = "ssh.pool.health.check.period.ms";
+		public static final String SSH_POOL_BORROW_TIMEOUT_MS = "ssh.pool.borrow.timeout.ms";
 		
 		/*support user email and guid*/
 		public static final String SUPPORT_USER_EMAIL = "support.user.email";
@@ -192,6 +314,10 @@ public final class Configuration {
 		return Long.parseLong(getString(name, String.valueOf(defaultVal)));
 	}
 	
+	public double getDouble(String name, double defaultVal) {
+		return Double.parseDouble(getString(name, String.valueOf(defaultVal)));
+	}
+	
 	public boolean getBoolean(String name) {
 		return Boolean.parseBoolean(getString(name));
 	}
@@ -25,10 +25,38 @@ public class Constants {
 	/** hypervisor relative variables */
 	public static final String DEFAULT_HYPER_WORKERS = "1024";
 	public static final String DEFAULT_HYPER_MAX_RETRY = "3";
+	public static final long DEFAULT_RETRY_TASK_WAIT_IN_MILLIS = 500;
+	public static final int DEFAULT_RETRY_TASK_MAX_ATTEMPT = 5;
+	public static final long DEFAULT_RETRY_TASK_MAX_WAIT_IN_MILLIS = 120000;
+	public static final double DEFAULT_RETRY_TASK_BACKOFF_MULTIPLIER = 2.0;
+	public static final double DEFAULT_RETRY_TASK_JITTER = 0.5;
+	public static final boolean DEFAULT_RETRY_TASK_ASYNC = true;
+	/* failures of the ssh call itself or calls a host turned away, a failed script is never retried */
+	public static final String DEFAULT_RETRY_TASK_RETRIABLE_EXPS =
+		"com.jcraft.jsch.JSchException;java.io.IOException;java.util.concurrent.TimeoutException;"
+		+ "edu.indiana.d2i.sloan.exception.HostUnavailableException";
 	public static final String DEFAULT_HYPER_TIMEOUT_SEC = "30";
 	public static final String DEFAULT_VOLUME_SIZE_IN_GB = "10";
 
 	/** database relative variables */
+	public static final String DEFAULT_DB_POOL_IMPL = "c3p0";
+	public static final int DEFAULT_DB_POOL_MIN_SIZE = 3;
+	public static final int DEFAULT_DB_POOL_MAX_SIZE = 20;
+	public static final int DEFAULT_DB_POOL_ACQUIRE_INCREMENT = 3;
+	public static final int DEFAULT_DB_POOL_CHECKOUT_TIMEOUT_MS = 30000;
+	public static final boolean DEFAULT_DB_POOL_TEST_ON_CHECKIN = false;
+	public static final int DEFAULT_DB_POOL_MAX_IDLE_TIME_SEC = 60;
+	public static final int DEFAULT_DB_POOL_IDLE_TEST_PERIOD_SEC = 55;
+	/* prepared statement cache */
+	public static final int DEFAULT_DB_MAX_STATEMENTS = 500;
+	public static final int DEFAULT_DB_MAX_STATEMENTS_PER_CONNECTION = 50;
+	/* vm info and vm user role cache */
+	public static final boolean DEFAULT_DB_CACHE_ENABLED = true;
+	public static final int DEFAULT_DB_CACHE_MAX_VMS = 2000;
+	public static final long DEFAULT_DB_CACHE_TTL_MS = 30000;
+
+	/* port allocation */
+	public static final long DEFAULT_PORT_RECONCILE_PERIOD_MS = 300000;
 
 	/* user related parameters */
 	public static final String DEFAULT_USER_DISK_QUOTA_IN_GB = "300";
@@ -38,13 +66,66 @@ public class Constants {
 	/* scheduler related properties */
 	public static final String DEFAULT_SCHEDULER_IMPL_CLASS = "edu.indiana.d2i.sloan.scheduler.RoundRobinScheduler";
 	public static final String DEFAULT_SCHEDULER_MAX_NUM_ATTEMPTS = "5";
+	public static final String DEFAULT_SCHEDULER_PLACEMENT_POLICY = "BEST_FIT";
+	public static final double DEFAULT_SCHEDULER_CPU_OVERCOMMIT = 4.0;
+	public static final double DEFAULT_SCHEDULER_MEMORY_OVERCOMMIT = 1.0;
+	public static final double DEFAULT_SCHEDULER_DISK_OVERCOMMIT = 1.0;
+	public static final int DEFAULT_SCHEDULER_HOST_DISK_GB = 0;
+	public static final long DEFAULT_SCHEDULER_REFRESH_PERIOD_MS = 60000;
 
 	/* hypervisor related properties */
 	/* timeout in milliseconds */
 	public static final String DEFAULT_HYPERVISOR_TASK_TIMEOUT = "3000";
+	/* hypervisor command lanes, other lanes have no worker limit */
+	public static final int DEFAULT_HYPERVISOR_LANE_QUEUE_SIZE = 1000;
+	public static final int DEFAULT_HYPERVISOR_QUERY_LANE_WORKERS = 16;
+	public static final int DEFAULT_HYPERVISOR_QUERY_LANE_QUEUE_SIZE = 256;
+	public static final long DEFAULT_HYPERVISOR_QUERY_LANE_FRESH_MS = 10000;
+	public static final int DEFAULT_HYPERVISOR_MAILBOX_MAX_DEPTH = 8;
+	public static final boolean DEFAULT_HYPERVISOR_FAIRSHARE_ENABLED = true;
+	public static final int DEFAULT_HYPERVISOR_FAIRSHARE_USER_MAX_RUNNING = 64;
+	public static final String DEFAULT_HYPERVISOR_FAIRSHARE_ADMIN_OPERATORS = "admin";
+	public static final int DEFAULT_HYPERVISOR_FAIRSHARE_ADMIN_WEIGHT = 4;
+	public static final long DEFAULT_STATUS_SWEEP_PERIOD_MS = 60000;
+	public static final int DEFAULT_OPERATION_HISTORY_SIZE = 10000;
+	public static final long DEFAULT_OPERATION_MAX_WAIT_MS = 10000;
+	public static final int DEFAULT_OPERATION_MAX_WAITERS = 32;
+	public static final int DEFAULT_EVENTS_BUFFER_SIZE = 256;
+	public static final int DEFAULT_EVENTS_MAX_SUBSCRIBERS = 32;
+	public static final long DEFAULT_EVENTS_HEARTBEAT_MS = 15000;
+	public static final long DEFAULT_EVENTS_MAX_STREAM_MS = 600000;
+	public static final String DEFAULT_HYPERVISOR_JOURNAL_PATH = "";
+	public static final boolean DEFAULT_HYPERVISOR_JOURNAL_SYNC = true;
+	public static final int DEFAULT_HYPERVISOR_JOURNAL_COMPACT_THRESHOLD = 1000;
+	public static final int DEFAULT_HYPERVISOR_RECOVERY_PARALLELISM = 16;
+	public static final long DEFAULT_HYPERVISOR_RECOVERY_TIMEOUT_MS = 60000;
+	public static final boolean DEFAULT_HOST_BREAKER_ENABLED = true;
+	public static final int DEFAULT_HOST_BREAKER_WINDOW_SIZE = 20;
+	public static final int DEFAULT_HOST_BREAKER_MIN_CALLS = 5;
+	public static final double DEFAULT_HOST_BREAKER_FAILURE_RATE = 0.5;
+	public static final long DEFAULT_HOST_BREAKER_OPEN_MS = 30000;
+	/* the ssh connection or call failed, a failed script means the host is up */
+	public static final String DEFAULT_HOST_BREAKER_FAILURE_EXPS =
+		"com.jcraft.jsch.JSchException;java.io.IOException;java.util.concurrent.TimeoutException";
+	public static final int DEFAULT_HOST_BULKHEAD_MAX_CALLS = 16;
+	public static final long DEFAULT_HOST_BULKHEAD_WAIT_MS = 1000;
+
+	/* ssh session pool */
+	public static final boolean DEFAULT_SSH_POOL_ENABLED = true;
+	public static final int DEFAULT_SSH_POOL_MAX_SESSIONS_PER_HOST = 4;
+	/* sshd allows 10 sessions (channels) per connection by default */
+	public static final int DEFAULT_SSH_POOL_MAX_CHANNELS_PER_SESSION = 8;
+	public static final long DEFAULT_SSH_POOL_IDLE_TIMEOUT_MS = 300000;
+	public static final long DEFAULT_SSH_POOL_HEALTH_CHECK_PERIOD_MS = 60000;
+	public static final long DEFAULT_SSH_POOL_BORROW_TIMEOUT_MS = 30000;
 
 	public static final String DEFAULT_HYPERVISOR_FULL_CLASS_NAME = "edu.indiana.d2i.sloan.hyper.CapsuleHypervisor";
 
 	public static final int DEFAULT_MAX_NO_OF_SHAREES = 6;
 
+	/* chunked result upload */
+	public static final String DEFAULT_RESULT_UPLOAD_DIR_NAME = ".uploads";
+	public static final long DEFAULT_RESULT_UPLOAD_EXPIRE_MS = 24 * 3600 * 1000L;
+	public static final long DEFAULT_RESULT_UPLOAD_EXPIRE_CHECK_PERIOD_MS = 10 * 60 * 1000L;
+
 }
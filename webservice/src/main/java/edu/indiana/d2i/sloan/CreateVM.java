@@ -30,6 +30,8 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import edu.indiana.d2i.sloan.exception.CommandQueueFullException;
+import edu.indiana.d2i.sloan.exception.NoResourceAvailableException;
 import edu.indiana.d2i.sloan.exception.NoItemIsFoundInDBException;
 import edu.indiana.d2i.sloan.vm.PortsPool;
 import org.apache.commons.io.FilenameUtils;
@@ -42,6 +44,7 @@ import edu.indiana.d2i.sloan.bean.VmInfoBean;
 import edu.indiana.d2i.sloan.db.DBOperations;
 import edu.indiana.d2i.sloan.hyper.CreateVMCommand;
 import edu.indiana.d2i.sloan.hyper.HypervisorProxy;
+import edu.indiana.d2i.sloan.hyper.Operation;
 import edu.indiana.d2i.sloan.scheduler.SchedulerFactory;
 
 @Path("/createvm")
@@ -137,14 +140,20 @@ public class CreateVM {
 
 			// nonblocking call to hypervisor
 			vminfo.setImagePath(imagePath);
-			HypervisorProxy.getInstance().addCommand(new CreateVMCommand(vminfo, userName, pubkey));
+			Operation operation = HypervisorProxy.getInstance().addTrackedCommand(
+				new CreateVMCommand(vminfo, userName, pubkey), userName);
 
-			return Response.status(200).entity(new CreateVmResponseBean(vmid)).build();
+			return Response.status(200).entity(new CreateVmResponseBean(vmid, operation.getId())).build();
+		} catch (CommandQueueFullException e) {
+			// the command was cleaned up as a failed one
+			logger.error(e.getMessage(), e);
+			return Response.status(503)
+					.entity(new ErrorBean(503, e.getMessage())).build();
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
 
-			// if because of port unavailable error, restore user quota
-            if (e.getMessage().equals("No port resource available.")) {
+			// if no host has room for the VM, restore user quota
+            if (e instanceof NoResourceAvailableException) {
 				try {
 					DBOperations.getInstance().restoreQuota(userName, vcpu, memory, volumeSizeInGB);
 				} catch (SQLException e1) {
@@ -24,6 +24,7 @@ import javax.ws.rs.core.Response;
 
 import edu.indiana.d2i.sloan.bean.UserBean;
 import edu.indiana.d2i.sloan.bean.VmUserRole;
+import edu.indiana.d2i.sloan.exception.CommandQueueFullException;
 import edu.indiana.d2i.sloan.exception.InvalidHostNameException;
 import edu.indiana.d2i.sloan.utils.RolePermissionUtils;
 import edu.indiana.d2i.sloan.vm.*;
@@ -109,6 +110,11 @@ public class DeleteVM {
 					.status(400)
 					.entity(new ErrorBean(400, "Cannot find VM " + vmid
 							+ " with username " + userName)).build();
+		} catch (CommandQueueFullException e) {
+			// the command was cleaned up as a failed one
+			logger.error(e.getMessage(), e);
+			return Response.status(503)
+					.entity(new ErrorBean(503, e.getMessage())).build();
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
 			return Response.status(500)
@@ -155,6 +161,7 @@ public class DeleteVM {
 
 			//Update the database(state:DELETED, mode:NOT_DEFINED)
 			DBOperations.getInstance().updateVMState(vmid, VMState.DELETED, userName);
+			VMEventBus.getInstance().publishState(vmid, null, VMState.DELETED, userName);
 			DBOperations.getInstance().updateVMMode(vmid, VMMode.NOT_DEFINED, userName);
 
 			//Release ports of the vm from 'ports' table
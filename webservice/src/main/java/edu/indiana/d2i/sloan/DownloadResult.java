@@ -22,9 +22,9 @@ import edu.indiana.d2i.sloan.bean.VmInfoBean;
 import edu.indiana.d2i.sloan.db.DBOperations;
 import edu.indiana.d2i.sloan.exception.NoItemIsFoundInDBException;
 import edu.indiana.d2i.sloan.exception.ResultExpireException;
+import edu.indiana.d2i.sloan.utils.FileDownload;
 import edu.indiana.d2i.sloan.utils.ResultUtils;
 import edu.indiana.d2i.sloan.utils.RolePermissionUtils;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import javax.servlet.http.HttpServletRequest;
@@ -103,10 +103,9 @@ public class DownloadResult {
 				throw new ResultExpireException(randomid + " has been expired!");
 
 			logger.info("Result with " + randomid + " is being downloaded.");
-			return Response.ok(IOUtils.toByteArray(ResultUtils.getResultFile(randomid)))
-					.type("application/zip")
-					.header("Content-Disposition", "attachment; filename=\"" + filename + ".zip\"")
-					.build();
+			// streamed from disk, supports resuming with a Range request
+			return FileDownload.download(ResultUtils.getResultFilePath(randomid), "application/zip",
+					filename + ".zip", httpServletRequest);
 
 		} catch (NoItemIsFoundInDBException e) {
 			logger.error("No Result with id " + randomid + " is found for the user " + userName + " !", e);
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.indiana.d2i.sloan.bean.ErrorBean;
+import edu.indiana.d2i.sloan.bean.OperationBean;
+import edu.indiana.d2i.sloan.hyper.Operation;
+import edu.indiana.d2i.sloan.hyper.OperationTracker;
+import edu.indiana.d2i.sloan.utils.RolePermissionUtils;
+
+/**
+ * param:
+ *   id: operation id returned by /launchvm, /stopvm and /createvm
+ *   wait: milliseconds to wait for the operation to finish, capped by
+ *     sloan.ws.operation.max.wait.ms, 0 returns at once; returns at once too
+ *     while sloan.ws.operation.max.waiters requests are waiting
+ *
+ *   return: the operation, with the final vm state and script output once
+ *     it finished
+ */
+@Path("/operation")
+public class GetOperation {
+	private static Logger logger = LoggerFactory.getLogger(GetOperation.class);
+	/* bounds the request threads blocked on operations */
+	private static Semaphore waiters = null;
+
+	private static synchronized Semaphore getWaiters() {
+		if (waiters == null) {
+			waiters = new Semaphore(Configuration.getInstance().getInt(
+					Configuration.PropertyName.OPERATION_MAX_WAITERS, Constants.DEFAULT_OPERATION_MAX_WAITERS));
+		}
+		return waiters;
+	}
+
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getOperation(
+			@QueryParam("id") String id,
+			@QueryParam("wait") long waitInMillis,
+			@Context HttpHeaders httpHeaders,
+			@Context HttpServletRequest httpServletRequest) {
+		String userName = httpServletRequest.getHeader(Constants.USER_NAME);
+
+		if (userName == null) {
+			logger.error("Username is not present in http header.");
+			return Response
+					.status(500)
+					.entity(new ErrorBean(500,
+							"Username is not present in http header.")).build();
+		}
+
+		if (id == null) {
+			return Response.status(400)
+					.entity(new ErrorBean(400, "id cannot be empty!")).build();
+		}
+
+		try {
+			Operation operation = OperationTracker.getInstance().get(id);
+			if (operation == null) {
+				return Response.status(404)
+						.entity(new ErrorBean(404, "No operation " + id + " is known")).build();
+			}
+
+			if (!userName.equals(operation.getOperator()) && !RolePermissionUtils.isPermittedCommand(
+					userName, operation.getVmid(), RolePermissionUtils.API_CMD.QUERY_VM)) {
+				return Response.status(400).entity(new ErrorBean(400,
+						"User " + userName + " cannot view operation " + id)).build();
+			}
+
+			long maxWait = Configuration.getInstance().getLong(
+					Configuration.PropertyName.OPERATION_MAX_WAIT_MS, Constants.DEFAULT_OPERATION_MAX_WAIT_MS);
+			long wait = Math.min(Math.max(waitInMillis, 0), maxWait);
+			// too many waiting, the client polls instead
+			if (wait > 0 && !operation.isDone() && getWaiters().tryAcquire()) {
+				try {
+					OperationBean done = operation.getResult().get(wait, TimeUnit.MILLISECONDS);
+					return Response.status(200).entity(done).build();
+				} catch (TimeoutException e) {
+					// still queued or running, the client asks again
+				} finally {
+					getWaiters().release();
+				}
+			}
+			return Response.status(200).entity(operation.toBean()).build();
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+			return Response.status(500)
+					.entity(new ErrorBean(500, e.getMessage())).build();
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.indiana.d2i.sloan.bean.ErrorBean;
+import edu.indiana.d2i.sloan.bean.ServiceStatsBean;
+import edu.indiana.d2i.sloan.db.DBConnections;
+import edu.indiana.d2i.sloan.db.DBOperations;
+import edu.indiana.d2i.sloan.hyper.HostCircuitBreaker;
+import edu.indiana.d2i.sloan.hyper.HypervisorProxy;
+import edu.indiana.d2i.sloan.hyper.VMStatusSweeper;
+import edu.indiana.d2i.sloan.utils.AsyncRetrier;
+import edu.indiana.d2i.sloan.utils.SSHSessionPool;
+import edu.indiana.d2i.sloan.vm.VMEventBus;
+
+/**
+ * admin endpoint that reports runtime statistics of the service
+ */
+@Path("/servicestats")
+public class GetServiceStats {
+	private static Logger logger = LoggerFactory.getLogger(GetServiceStats.class);
+
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getServiceStats() {
+		try {
+			ServiceStatsBean stats = new ServiceStatsBean();
+			stats.setSshSessionPool(SSHSessionPool.getInstance().getStats());
+			stats.setDbConnectionPool(DBConnections.getInstance().getStats());
+			stats.setVmCache(DBOperations.getInstance().getCacheStats());
+			stats.setHypervisorQueue(HypervisorProxy.getInstance().getStats());
+			stats.setStatusSweeper(VMStatusSweeper.getInstance().getStats());
+			stats.setEventBus(VMEventBus.getInstance().getStats());
+			stats.setRetries(AsyncRetrier.getInstance().getStats());
+			stats.setHosts(HostCircuitBreaker.getInstance().getStats());
+			return Response.status(200).entity(stats).build();
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+			return Response.status(500)
+					.entity(new ErrorBean(500, e.getMessage())).build();
+		}
+	}
+}
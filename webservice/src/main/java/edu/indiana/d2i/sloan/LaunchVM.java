@@ -33,9 +33,11 @@ import org.slf4j.LoggerFactory;
 import edu.indiana.d2i.sloan.bean.ErrorBean;
 import edu.indiana.d2i.sloan.bean.VmInfoBean;
 import edu.indiana.d2i.sloan.db.DBOperations;
+import edu.indiana.d2i.sloan.exception.CommandQueueFullException;
 import edu.indiana.d2i.sloan.exception.NoItemIsFoundInDBException;
 import edu.indiana.d2i.sloan.hyper.HypervisorProxy;
 import edu.indiana.d2i.sloan.hyper.LaunchVMCommand;
+import edu.indiana.d2i.sloan.hyper.Operation;
 import edu.indiana.d2i.sloan.vm.VMMode;
 import edu.indiana.d2i.sloan.vm.VMState;
 import edu.indiana.d2i.sloan.vm.VMStateManager;
@@ -109,9 +111,10 @@ public class LaunchVM {
 			vmInfo.setPolicypath(Configuration.getInstance().getString(
 				Configuration.PropertyName.MAINTENANCE_FIREWALL_POLICY));
 			
-			HypervisorProxy.getInstance().addCommand(new LaunchVMCommand(vmInfo, userName));
+			Operation operation = HypervisorProxy.getInstance().addTrackedCommand(
+				new LaunchVMCommand(vmInfo, userName), userName);
 
-			return Response.status(200).build();
+			return Response.status(200).entity(operation.toBean()).build();
 		} catch (NoItemIsFoundInDBException e) {
 			logger.error(e.getMessage(), e);
 			return Response
@@ -119,6 +122,11 @@ public class LaunchVM {
 					.entity(new ErrorBean(400,
 							"VM " + vmid + " is not associated with user " + userName))
 					.build();
+		} catch (CommandQueueFullException e) {
+			// the command was cleaned up as a failed one
+			logger.error(e.getMessage(), e);
+			return Response.status(503)
+					.entity(new ErrorBean(503, e.getMessage())).build();
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
 			return Response.status(500)
@@ -18,6 +18,7 @@ package edu.indiana.d2i.sloan;
 import edu.indiana.d2i.sloan.bean.ErrorBean;
 import edu.indiana.d2i.sloan.bean.VmInfoBean;
 import edu.indiana.d2i.sloan.db.DBOperations;
+import edu.indiana.d2i.sloan.exception.CommandQueueFullException;
 import edu.indiana.d2i.sloan.exception.InvalidHostNameException;
 import edu.indiana.d2i.sloan.exception.NoItemIsFoundInDBException;
 import edu.indiana.d2i.sloan.exception.NoResourceAvailableException;
@@ -134,6 +135,11 @@ public class MigrateVM {
 					.status(400)
 					.entity(new ErrorBean(400, "Cannot find VM " + vmid
 							+ " associated with username " + userName)).build();
+		} catch (CommandQueueFullException e) {
+			// the command was cleaned up as a failed one
+			logger.error(e.getMessage(), e);
+			return Response.status(503)
+					.entity(new ErrorBean(503, e.getMessage())).build();
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
 			return Response.status(500)
@@ -162,6 +168,7 @@ public class MigrateVM {
 
 			//Update the database(state:SHUTDOWN) and update vms table with new ports and host values
 			DBOperations.getInstance().updateVMState(vmid, VMState.SHUTDOWN, userName);
+			VMEventBus.getInstance().publishState(vmid, VMState.MIGRATE_PENDING, VMState.SHUTDOWN, userName);
 			DBOperations.getInstance().updateVmHostAndPorts(vmid, vmport);
 
 			//Release old ports of the vm from 'ports' table
@@ -41,6 +41,7 @@ import edu.indiana.d2i.sloan.db.DBOperations;
 import edu.indiana.d2i.sloan.exception.NoItemIsFoundInDBException;
 import edu.indiana.d2i.sloan.hyper.HypervisorProxy;
 import edu.indiana.d2i.sloan.hyper.QueryVMCommand;
+import edu.indiana.d2i.sloan.hyper.VMStatusSweeper;
 import edu.indiana.d2i.sloan.vm.VMStateManager;
 
 @Path("/show")
@@ -92,8 +93,15 @@ public class QueryVM {
 			if (vmid == null) {
 				vmInfoList = DBOperations.getInstance().getVmInfo(userName);
 				for (VmInfoBean vminfo : vmInfoList) {
-					VmUserRole vmUserRole = DBOperations.getInstance().getUserRoleWithVmid(userName, vminfo.getVmid());
-					if (!RolePermissionUtils.isPermittedCommand(userName, vminfo.getVmid(), RolePermissionUtils.API_CMD.QUERY_VM)) {
+					// roles of each vm come with its info, no need to read them again
+					VmUserRole vmUserRole = RolePermissionUtils.findRole(vminfo.getRoles(), userName);
+					if (vmUserRole == null)
+						vmUserRole = DBOperations.getInstance().getUserRoleWithVmid(userName, vminfo.getVmid());
+					VmUserRole owner = RolePermissionUtils.findOwner(vminfo.getRoles());
+					if (owner == null)
+						owner = DBOperations.getInstance().getOwnerOfVM(vminfo.getVmid());
+					if (!RolePermissionUtils.isPermittedCommand(vmUserRole, owner,
+							RolePermissionUtils.API_CMD.QUERY_VM)) {
 						vminfo = new VmInfoBean(vminfo.getVmid(), vminfo.getRoles(), vminfo.isFull_access()
 								, vminfo.getCreated_at());
 					}
@@ -111,11 +119,14 @@ public class QueryVM {
 
 			logger.info("User " + userName + " tries to query VM " + vmInfoList.toString());
 			
-			for (VmInfoBean vminfo : vmInfoList) {
-				// query the back-end script only when vm state is not in pending
-				if (!VMStateManager.isPendingState(vminfo.getVmstate())) {
-					HypervisorProxy.getInstance().addCommand(
-							new QueryVMCommand(vminfo, userName));
+			// the sweeper probes all VMs of a host at once, otherwise probe the queried ones
+			if (!VMStatusSweeper.getInstance().isEnabled()) {
+				for (VmInfoBean vminfo : vmInfoList) {
+					// query the back-end script only when vm state is not in pending
+					if (!VMStateManager.isPendingState(vminfo.getVmstate())) {
+						HypervisorProxy.getInstance().addCommand(
+								new QueryVMCommand(vminfo, userName));
+					}
 				}
 			}
 
@@ -20,8 +20,8 @@ import edu.indiana.d2i.sloan.bean.ResultBean;
 import edu.indiana.d2i.sloan.db.DBOperations;
 import edu.indiana.d2i.sloan.exception.NoItemIsFoundInDBException;
 import edu.indiana.d2i.sloan.exception.NoResultFileFoundException;
+import edu.indiana.d2i.sloan.utils.FileDownload;
 import edu.indiana.d2i.sloan.utils.ResultUtils;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import javax.servlet.http.HttpServletRequest;
@@ -61,10 +61,9 @@ public class RetrieveResultFile {
 			ResultBean result = DBOperations.getInstance().getResult(randomid);
 			logger.info("Result with " + randomid + " is being downloaded.");
 
-			return Response.ok(IOUtils.toByteArray(ResultUtils.getResultFile(randomid)))
-					.type("application/zip")
-					.header("Content-Disposition", "attachment; filename=\"" + filename + ".zip\"")
-					.build();
+			// streamed from disk, supports resuming with a Range request
+			return FileDownload.download(ResultUtils.getResultFilePath(randomid), "application/zip",
+					filename + ".zip", httpServletRequest);
 
 		} catch (NoItemIsFoundInDBException | NoResultFileFoundException e) {
 			logger.error("No Result with id " + randomid + " is found!", e);
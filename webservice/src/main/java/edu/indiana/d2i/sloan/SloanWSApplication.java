@@ -27,6 +27,8 @@ import javax.ws.rs.core.Context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.indiana.d2i.sloan.hyper.HypervisorProxy;
+
 public class SloanWSApplication extends Application {
 	private static Logger logger = LoggerFactory.getLogger(SloanWSApplication.class);
 
@@ -51,6 +53,7 @@ public class SloanWSApplication extends Application {
 	@PostConstruct
 	private void init() {
 		Configuration.getInstance(); // load configurations at first
+		HypervisorProxy.getInstance(); // recover the commands lost in the last restart
 		//configureLogger(servletConfig);
 	}
 
@@ -33,8 +33,10 @@ import org.slf4j.LoggerFactory;
 import edu.indiana.d2i.sloan.bean.ErrorBean;
 import edu.indiana.d2i.sloan.bean.VmInfoBean;
 import edu.indiana.d2i.sloan.db.DBOperations;
+import edu.indiana.d2i.sloan.exception.CommandQueueFullException;
 import edu.indiana.d2i.sloan.exception.NoItemIsFoundInDBException;
 import edu.indiana.d2i.sloan.hyper.HypervisorProxy;
+import edu.indiana.d2i.sloan.hyper.Operation;
 import edu.indiana.d2i.sloan.hyper.StopVMCommand;
 import edu.indiana.d2i.sloan.vm.VMState;
 import edu.indiana.d2i.sloan.vm.VMStateManager;
@@ -97,15 +99,21 @@ public class StopVM {
 			logger.info(userName + " requests to stop VM " + vmInfo.getVmid());
 
 			vmInfo.setVmState(VMState.SHUTDOWN_PENDING);
-			HypervisorProxy.getInstance().addCommand(new StopVMCommand(vmInfo, userName));
+			Operation operation = HypervisorProxy.getInstance().addTrackedCommand(
+				new StopVMCommand(vmInfo, userName), userName);
 
-			return Response.status(200).build();
+			return Response.status(200).entity(operation.toBean()).build();
 		} catch (NoItemIsFoundInDBException e) {
 			logger.error(e.getMessage(), e);
 			return Response
 					.status(400)
 					.entity(new ErrorBean(400, "Cannot find VM " + vmid
 							+ " associated with username " + userName)).build();
+		} catch (CommandQueueFullException e) {
+			// the command was cleaned up as a failed one
+			logger.error(e.getMessage(), e);
+			return Response.status(503)
+					.entity(new ErrorBean(503, e.getMessage())).build();
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
 			return Response.status(500)
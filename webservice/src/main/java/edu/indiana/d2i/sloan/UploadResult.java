@@ -16,6 +16,7 @@
 package edu.indiana.d2i.sloan;
 
 import java.io.InputStream;
+import java.nio.file.Files;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.List;
@@ -24,8 +25,15 @@ import java.util.stream.Collectors;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.FormParam;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
@@ -33,6 +41,7 @@ import javax.ws.rs.core.Response;
 
 import edu.indiana.d2i.sloan.bean.VmUserRole;
 import edu.indiana.d2i.sloan.exception.NoItemIsFoundInDBException;
+import edu.indiana.d2i.sloan.exception.ResultUploadException;
 import edu.indiana.d2i.sloan.utils.ResultUtils;
 import edu.indiana.d2i.sloan.utils.RolePermissionUtils;
 import edu.indiana.d2i.sloan.vm.VMRole;
@@ -44,6 +53,7 @@ import edu.indiana.d2i.sloan.bean.ErrorBean;
 import edu.indiana.d2i.sloan.bean.UserBean;
 import edu.indiana.d2i.sloan.bean.UserResultBean;
 import edu.indiana.d2i.sloan.db.DBOperations;
+import edu.indiana.d2i.sloan.result.ChunkedResultUpload;
 import edu.indiana.d2i.sloan.result.UploadPostprocess;
 import edu.indiana.d2i.sloan.utils.EmailUtil;
 
@@ -67,9 +77,133 @@ public class UploadResult {
 				new ErrorBean(400, "vmid and file cannot be empty!")).build();
 		}
 		
+		ChunkedResultUpload uploads = ChunkedResultUpload.getInstance();
+		String uploadId = null;
 		try {
-			// check upload file type ??			
+			// a single shot upload is one chunk of unknown size
+			uploadId = uploads.init(vmid, -1, null).getUploadId();
+			uploads.putChunk(uploadId, 0, input);
+			java.nio.file.Path resultFile = uploads.complete(uploadId, null);
+			uploadId = null;
+			publishResult(vmid, resultFile);
 
+			return Response.status(200).build();
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+			return Response.status(500)
+					.entity(new ErrorBean(500, e.getMessage())).build();
+		} finally {
+			if (uploadId != null)
+				abortQuietly(uploadId);
+		}
+	}
+
+	/**
+	 * open a resumable upload of a result of the given size, the checksum
+	 * may also be given at completion
+	 */
+	@POST
+	@Path("/init")
+	@Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response initUpload(@FormParam("vmid") String vmid,
+		@FormParam("size") Long size, @FormParam("sha256") String sha256) {
+		if (vmid == null || size == null || size < 0) {
+			return Response.status(400).entity(
+				new ErrorBean(400, "vmid and size cannot be empty!")).build();
+		}
+
+		try {
+			// make sure the vm exists before accepting data for it
+			DBOperations.getInstance().getOwnerOfVM(vmid);
+			return Response.status(200).entity(
+				ChunkedResultUpload.getInstance().init(vmid, size, sha256)).build();
+		} catch (NoItemIsFoundInDBException e) {
+			logger.error(e.getMessage(), e);
+			return Response.status(400).entity(new ErrorBean(400, e.getMessage())).build();
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+			return Response.status(500).entity(new ErrorBean(500, e.getMessage())).build();
+		}
+	}
+
+	/**
+	 * write the request body at the offset, a chunk that was cut off is
+	 * resent from the nextOffset of the status
+	 */
+	@PUT
+	@Path("/{uploadId}")
+	@Consumes(MediaType.APPLICATION_OCTET_STREAM)
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response putChunk(@PathParam("uploadId") String uploadId,
+		@QueryParam("offset") Long offset, InputStream input) {
+		if (offset == null || input == null) {
+			return Response.status(400).entity(
+				new ErrorBean(400, "offset and chunk cannot be empty!")).build();
+		}
+
+		try {
+			return Response.status(200).entity(
+				ChunkedResultUpload.getInstance().putChunk(uploadId, offset, input)).build();
+		} catch (ResultUploadException e) {
+			logger.error(e.getMessage(), e);
+			return Response.status(400).entity(new ErrorBean(400, e.getMessage())).build();
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+			return Response.status(500).entity(new ErrorBean(500, e.getMessage())).build();
+		}
+	}
+
+	@GET
+	@Path("/{uploadId}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getUploadStatus(@PathParam("uploadId") String uploadId) {
+		try {
+			return Response.status(200).entity(
+				ChunkedResultUpload.getInstance().getStatus(uploadId)).build();
+		} catch (ResultUploadException e) {
+			return Response.status(404).entity(new ErrorBean(404, e.getMessage())).build();
+		}
+	}
+
+	/**
+	 * verify the upload and hand the result over to review or delivery
+	 */
+	@POST
+	@Path("/{uploadId}/complete")
+	@Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+	public Response completeUpload(@PathParam("uploadId") String uploadId,
+		@FormParam("sha256") String sha256) {
+		try {
+			ChunkedResultUpload uploads = ChunkedResultUpload.getInstance();
+			String vmid = uploads.getStatus(uploadId).getVmid();
+			publishResult(vmid, uploads.complete(uploadId, sha256));
+			return Response.status(200).build();
+		} catch (ResultUploadException e) {
+			logger.error(e.getMessage(), e);
+			return Response.status(400).entity(new ErrorBean(400, e.getMessage())).build();
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+			return Response.status(500).entity(new ErrorBean(500, e.getMessage())).build();
+		}
+	}
+
+	@DELETE
+	@Path("/{uploadId}")
+	public Response abortUpload(@PathParam("uploadId") String uploadId) {
+		try {
+			ChunkedResultUpload.getInstance().abort(uploadId);
+			return Response.status(200).build();
+		} catch (ResultUploadException e) {
+			return Response.status(404).entity(new ErrorBean(404, e.getMessage())).build();
+		}
+	}
+
+	/**
+	 * store a completely received result file and notify reviewers or users
+	 */
+	private void publishResult(String vmid, java.nio.file.Path resultFile) throws Exception {
+		try {
 			// check if vmid is associated with a user in uservm table
 			//UserBean userbean = DBOperations.getInstance().getUserWithVmid(vmid); -- now there're multiple users
 
@@ -87,7 +221,7 @@ public class UploadResult {
 			} while(!uniqueResultId(randomid));
 
 			// save file in File System
-			ResultUtils.saveResultFile(randomid, input);
+			ResultUtils.moveToResultFile(randomid, resultFile);
 			// write to DB
 			//DBOperations.getInstance().insertResult(vmid, randomid, input);
 			DBOperations.getInstance().insertResult(vmid, randomid);
@@ -116,13 +250,18 @@ public class UploadResult {
 			}
 			
 			logger.info("Upload result for " + vmid + ", " + allowedVmUserRoles + " successfully.");
-			
-			return Response.status(200).build();
-		} catch (Exception e) {
-			logger.error(e.getMessage(), e);
-			return Response.status(500)
-					.entity(new ErrorBean(500, e.getMessage())).build();
-		}		
+		} finally {
+			// still there if it could not be moved into place
+			Files.deleteIfExists(resultFile);
+		}
+	}
+
+	private void abortQuietly(String uploadId) {
+		try {
+			ChunkedResultUpload.getInstance().abort(uploadId);
+		} catch (ResultUploadException e) {
+			logger.debug(e.getMessage());
+		}
 	}
 
 	private boolean uniqueResultId(String resultId) throws SQLException, ParseException {
@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.indiana.d2i.sloan.bean.ErrorBean;
+import edu.indiana.d2i.sloan.bean.VMEventBean;
+import edu.indiana.d2i.sloan.exception.NoItemIsFoundInDBException;
+import edu.indiana.d2i.sloan.utils.RolePermissionUtils;
+import edu.indiana.d2i.sloan.vm.VMEventBus;
+import edu.indiana.d2i.sloan.vm.VMState;
+
+/**
+ * param:
+ *   vmid: only events of this VM, optional
+ *
+ *   return: server-sent events of state and mode changes of the VMs the
+ *     user can query; the stream ends after sloan.ws.events.max.stream.ms or
+ *     with a "dropped" event if the client reads too slowly, the client then
+ *     reconnects and reads /show once to catch up
+ */
+@Path("/events")
+public class VMEvents {
+	private static Logger logger = LoggerFactory.getLogger(VMEvents.class);
+
+	private static final String TEXT_EVENT_STREAM = "text/event-stream";
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String DROPPED_EVENT = "dropped";
+	/* how long whether a user can see a VM is remembered by a stream */
+	private static final long PERMISSION_TTL_IN_MS = 30000;
+
+	@GET
+	@Produces(TEXT_EVENT_STREAM)
+	public Response getEvents(
+			@QueryParam("vmid") String vmid,
+			@Context HttpHeaders httpHeaders,
+			@Context HttpServletRequest httpServletRequest) {
+		String userName = httpServletRequest.getHeader(Constants.USER_NAME);
+
+		if (userName == null) {
+			logger.error("Username is not present in http header.");
+			return Response
+					.status(500)
+					.entity(new ErrorBean(500,
+							"Username is not present in http header.")).build();
+		}
+
+		try {
+			if (vmid != null && !RolePermissionUtils.isPermittedCommand(userName, vmid,
+					RolePermissionUtils.API_CMD.QUERY_VM)) {
+				return Response.status(400).entity(new ErrorBean(400,
+						"User " + userName + " cannot perform task "
+								+ RolePermissionUtils.API_CMD.QUERY_VM + " on VM " + vmid)).build();
+			}
+
+			VMEventBus.Subscription subscription = VMEventBus.getInstance().subscribe(userName);
+			if (subscription == null) {
+				return Response.status(503)
+						.entity(new ErrorBean(503, "Too many event subscribers, try again later")).build();
+			}
+
+			Configuration conf = Configuration.getInstance();
+			EventStream stream = new EventStream(subscription, userName, vmid,
+					conf.getLong(Configuration.PropertyName.EVENTS_HEARTBEAT_MS,
+							Constants.DEFAULT_EVENTS_HEARTBEAT_MS),
+					conf.getLong(Configuration.PropertyName.EVENTS_MAX_STREAM_MS,
+							Constants.DEFAULT_EVENTS_MAX_STREAM_MS));
+			return Response.status(200).entity(stream).type(TEXT_EVENT_STREAM)
+					.header("Cache-Control", "no-cache").build();
+		} catch (NoItemIsFoundInDBException e) {
+			logger.error(e.getMessage(), e);
+			return Response.status(400)
+					.entity(new ErrorBean(400, "VM " + vmid + " is not associated with user " + userName))
+					.build();
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+			return Response.status(500)
+					.entity(new ErrorBean(500, e.getMessage())).build();
+		}
+	}
+
+	/**
+	 * writes the events of a subscription until the stream is over, the
+	 * client goes away or the subscription is dropped
+	 */
+	private static class EventStream implements StreamingOutput {
+		private final VMEventBus.Subscription subscription;
+		private final String userName;
+		private final String vmid;
+		private final long heartbeatInMillis;
+		private final long maxStreamInMillis;
+		/* vmid -> whether the user can see it, with the time it was checked */
+		private final Map<String, Boolean> visible = new HashMap<String, Boolean>();
+		private final Map<String, Long> checkedAt = new HashMap<String, Long>();
+
+		EventStream(VMEventBus.Subscription subscription, String userName, String vmid,
+				long heartbeatInMillis, long maxStreamInMillis) {
+			this.subscription = subscription;
+			this.userName = userName;
+			this.vmid = vmid;
+			this.heartbeatInMillis = heartbeatInMillis;
+			this.maxStreamInMillis = maxStreamInMillis;
+		}
+
+		@Override
+		public void write(OutputStream output) throws IOException {
+			long deadline = System.currentTimeMillis() + maxStreamInMillis;
+			try {
+				// a comment, so that the client sees the stream is open
+				send(output, ": subscribed\n\n");
+				while (System.currentTimeMillis() < deadline) {
+					VMEventBean event = subscription.poll(heartbeatInMillis, TimeUnit.MILLISECONDS);
+					if (event == null) {
+						if (subscription.isDropped()) {
+							send(output, "event: " + DROPPED_EVENT + "\ndata: {}\n\n");
+							logger.info("Event stream of " + userName + " is dropped, the client is too slow");
+							return;
+						}
+						send(output, ": keepalive\n\n");
+					} else if (isVisible(event)) {
+						send(output, toMessage(event));
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				subscription.close();
+			}
+		}
+
+		private boolean isVisible(VMEventBean event) {
+			if (vmid != null)
+				return vmid.equals(event.getVmid());
+
+			// the last event of a VM, whoever saw it before sees it go even
+			// if its roles are gone by now
+			if (isDeleted(event)) {
+				checkedAt.remove(event.getVmid());
+				Boolean wasVisible = visible.remove(event.getVmid());
+				if (wasVisible != null)
+					return wasVisible;
+			}
+
+			long now = System.currentTimeMillis();
+			Long checked = checkedAt.get(event.getVmid());
+			if (checked == null || now - checked > PERMISSION_TTL_IN_MS) {
+				boolean permitted;
+				try {
+					permitted = RolePermissionUtils.isPermittedCommand(userName, event.getVmid(),
+							RolePermissionUtils.API_CMD.QUERY_VM);
+				} catch (NoItemIsFoundInDBException e) {
+					permitted = false;
+				} catch (Exception e) {
+					logger.error("Cannot check if " + userName + " can see events of " + event.getVmid(), e);
+					// keep the last answer, or hide the event if there is none
+					return Boolean.TRUE.equals(visible.get(event.getVmid()));
+				}
+				visible.put(event.getVmid(), permitted);
+				checkedAt.put(event.getVmid(), now);
+			}
+			return visible.get(event.getVmid());
+		}
+
+		private static boolean isDeleted(VMEventBean event) {
+			return VMEventBean.TYPE_STATE.equals(event.getType())
+					&& VMState.DELETED.toString().equals(event.getTo());
+		}
+
+		private static void send(OutputStream output, String message) throws IOException {
+			output.write(message.getBytes(UTF_8));
+			output.flush();
+		}
+
+		static String toMessage(VMEventBean event) throws IOException {
+			try {
+				JSONObject data = new JSONObject()
+						.put("vmid", event.getVmid())
+						.put("from", event.getFrom())
+						.put("to", event.getTo())
+						.put("operator", event.getOperator())
+						.put("time", event.getTime());
+				return "id: " + event.getId() + "\nevent: " + event.getType() + "\ndata: " + data + "\n\n";
+			} catch (JSONException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+}
@@ -17,11 +17,17 @@ package edu.indiana.d2i.sloan.bean;
 
 public class CreateVmResponseBean {
 	private String vmid;
+	private String operationId;
 
 	public CreateVmResponseBean(String vmid) {
 		this.vmid = vmid;
 	}
 
+	public CreateVmResponseBean(String vmid, String operationId) {
+		this.vmid = vmid;
+		this.operationId = operationId;
+	}
+
 	public String getVmid() {
 		return vmid;
 	}
@@ -30,8 +36,16 @@ public class CreateVmResponseBean {
 		this.vmid = vmid;
 	}
 
+	public String getOperationId() {
+		return operationId;
+	}
+
+	public void setOperationId(String operationId) {
+		this.operationId = operationId;
+	}
+
 	@Override
 	public String toString() {
-		return String.format("createvm response [vmid=%s]", vmid);
+		return String.format("createvm response [vmid=%s, operationId=%s]", vmid, operationId);
 	}
 }
@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.bean;
+
+public class HostCapacityBean {
+	private String host;
+	private int cpuCores, memoryGB;
+
+	public HostCapacityBean(String host, int cpuCores, int memoryGB) {
+		this.host = host;
+		this.cpuCores = cpuCores;
+		this.memoryGB = memoryGB;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getCpuCores() {
+		return cpuCores;
+	}
+
+	public int getMemoryGB() {
+		return memoryGB;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("[host=%s, cpuCores=%d, memoryGB=%d]", host, cpuCores, memoryGB);
+	}
+}
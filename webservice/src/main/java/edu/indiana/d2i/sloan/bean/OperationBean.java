@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.bean;
+
+import edu.indiana.d2i.sloan.vm.VMState;
+
+/**
+ * state of a tracked hypervisor operation; the VM state, exit code and script
+ * output are set once it finished
+ */
+public class OperationBean {
+	private String operationId;
+	private String vmid;
+	private String command;
+	private String status;
+	private VMState vmState;
+	private Integer exitCode;
+	private String output;
+	private String error;
+	private long submittedAt;
+	private long completedAt;
+
+	public OperationBean(String operationId, String vmid, String command, String status,
+			long submittedAt) {
+		this.operationId = operationId;
+		this.vmid = vmid;
+		this.command = command;
+		this.status = status;
+		this.submittedAt = submittedAt;
+	}
+
+	public void setResult(VMState vmState, Integer exitCode, String output, String error,
+			long completedAt) {
+		this.vmState = vmState;
+		this.exitCode = exitCode;
+		this.output = output;
+		this.error = error;
+		this.completedAt = completedAt;
+	}
+
+	public String getOperationId() {
+		return operationId;
+	}
+
+	public String getVmid() {
+		return vmid;
+	}
+
+	public String getCommand() {
+		return command;
+	}
+
+	/**
+	 * QUEUED, RUNNING, SUCCEEDED or FAILED
+	 */
+	public String getStatus() {
+		return status;
+	}
+
+	/**
+	 * state of the VM once the operation finished
+	 */
+	public VMState getVmState() {
+		return vmState;
+	}
+
+	/**
+	 * exit code of the hypervisor script, null if it did not run
+	 */
+	public Integer getExitCode() {
+		return exitCode;
+	}
+
+	/**
+	 * output of the hypervisor script
+	 */
+	public String getOutput() {
+		return output;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * in ms since the epoch
+	 */
+	public long getSubmittedAt() {
+		return submittedAt;
+	}
+
+	/**
+	 * in ms since the epoch, 0 while running
+	 */
+	public long getCompletedAt() {
+		return completedAt;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("[operationId=%s, vmid=%s, command=%s, status=%s, vmState=%s]",
+			operationId, vmid, command, status, vmState);
+	}
+}
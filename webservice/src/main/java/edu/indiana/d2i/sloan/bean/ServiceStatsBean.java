@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.bean;
+
+import java.util.List;
+
+import edu.indiana.d2i.sloan.db.DBConnections;
+import edu.indiana.d2i.sloan.db.VmCache;
+import edu.indiana.d2i.sloan.hyper.CommandQueue;
+import edu.indiana.d2i.sloan.hyper.HostCircuitBreaker;
+import edu.indiana.d2i.sloan.hyper.VMStatusSweeper;
+import edu.indiana.d2i.sloan.utils.AsyncRetrier;
+import edu.indiana.d2i.sloan.vm.VMEventBus;
+import edu.indiana.d2i.sloan.utils.SSHSessionPool;
+
+/**
+ * runtime statistics of the service, returned by the admin stats endpoint
+ */
+public class ServiceStatsBean {
+	private SSHSessionPool.PoolStats sshSessionPool;
+	private DBConnections.PoolStats dbConnectionPool;
+	private VmCache.CacheStats vmCache;
+	private CommandQueue.QueueStats hypervisorQueue;
+	private VMStatusSweeper.SweepStats statusSweeper;
+	private VMEventBus.BusStats eventBus;
+	private AsyncRetrier.RetryStats retries;
+	private List<HostCircuitBreaker.HostStats> hosts;
+
+	public ServiceStatsBean() {
+	}
+
+	public SSHSessionPool.PoolStats getSshSessionPool() {
+		return sshSessionPool;
+	}
+
+	public void setSshSessionPool(SSHSessionPool.PoolStats sshSessionPool) {
+		this.sshSessionPool = sshSessionPool;
+	}
+
+	public DBConnections.PoolStats getDbConnectionPool() {
+		return dbConnectionPool;
+	}
+
+	public void setDbConnectionPool(DBConnections.PoolStats dbConnectionPool) {
+		this.dbConnectionPool = dbConnectionPool;
+	}
+
+	public VmCache.CacheStats getVmCache() {
+		return vmCache;
+	}
+
+	public void setVmCache(VmCache.CacheStats vmCache) {
+		this.vmCache = vmCache;
+	}
+
+	public CommandQueue.QueueStats getHypervisorQueue() {
+		return hypervisorQueue;
+	}
+
+	public void setHypervisorQueue(CommandQueue.QueueStats hypervisorQueue) {
+		this.hypervisorQueue = hypervisorQueue;
+	}
+
+	public VMStatusSweeper.SweepStats getStatusSweeper() {
+		return statusSweeper;
+	}
+
+	public void setStatusSweeper(VMStatusSweeper.SweepStats statusSweeper) {
+		this.statusSweeper = statusSweeper;
+	}
+
+	public VMEventBus.BusStats getEventBus() {
+		return eventBus;
+	}
+
+	public void setEventBus(VMEventBus.BusStats eventBus) {
+		this.eventBus = eventBus;
+	}
+
+	public AsyncRetrier.RetryStats getRetries() {
+		return retries;
+	}
+
+	public void setRetries(AsyncRetrier.RetryStats retries) {
+		this.retries = retries;
+	}
+
+	public List<HostCircuitBreaker.HostStats> getHosts() {
+		return hosts;
+	}
+
+	public void setHosts(List<HostCircuitBreaker.HostStats> hosts) {
+		this.hosts = hosts;
+	}
+}
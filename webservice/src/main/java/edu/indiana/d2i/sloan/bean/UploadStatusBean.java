@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.bean;
+
+/**
+ * state of a chunked result upload, a client resumes an interrupted upload
+ * by sending the bytes from nextOffset on
+ */
+public class UploadStatusBean {
+	private String uploadId;
+	private String vmid;
+	private long size;
+	private long received;
+	private long nextOffset;
+
+	public UploadStatusBean(String uploadId, String vmid, long size, long received, long nextOffset) {
+		this.uploadId = uploadId;
+		this.vmid = vmid;
+		this.size = size;
+		this.received = received;
+		this.nextOffset = nextOffset;
+	}
+
+	public String getUploadId() {
+		return uploadId;
+	}
+
+	public String getVmid() {
+		return vmid;
+	}
+
+	/* -1 if the size was not given at init */
+	public long getSize() {
+		return size;
+	}
+
+	public long getReceived() {
+		return received;
+	}
+
+	public long getNextOffset() {
+		return nextOffset;
+	}
+}
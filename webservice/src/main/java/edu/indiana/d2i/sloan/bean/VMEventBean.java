@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.bean;
+
+/**
+ * a change of the state or the mode of a VM, from may be null if the old
+ * value is not known
+ */
+public class VMEventBean {
+	public static final String TYPE_STATE = "state";
+	public static final String TYPE_MODE = "mode";
+
+	private long id;
+	private String vmid, type, from, to, operator;
+	private long time;
+
+	public VMEventBean(String vmid, String type, String from, String to, String operator) {
+		this.vmid = vmid;
+		this.type = type;
+		this.from = from;
+		this.to = to;
+		this.operator = operator;
+		this.time = System.currentTimeMillis();
+	}
+
+	/**
+	 * sequence number assigned by the bus, increases with each event
+	 */
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public String getVmid() {
+		return vmid;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getFrom() {
+		return from;
+	}
+
+	public String getTo() {
+		return to;
+	}
+
+	public String getOperator() {
+		return operator;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("[id=%d, vmid=%s, %s %s -> %s, operator=%s]", id, vmid, type, from, to, operator);
+	}
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.bean;
+
+/**
+ * resources a VM takes on its host
+ */
+public class VmFootprintBean {
+	private String vmid, host;
+	private int numCPUs, memorySizeInMB, volumeSizeInGB;
+
+	public VmFootprintBean(String vmid, String host, int numCPUs, int memorySizeInMB,
+			int volumeSizeInGB) {
+		this.vmid = vmid;
+		this.host = host;
+		this.numCPUs = numCPUs;
+		this.memorySizeInMB = memorySizeInMB;
+		this.volumeSizeInGB = volumeSizeInGB;
+	}
+
+	public String getVmid() {
+		return vmid;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getNumCPUs() {
+		return numCPUs;
+	}
+
+	public int getMemorySizeInMB() {
+		return memorySizeInMB;
+	}
+
+	public int getVolumeSizeInGB() {
+		return volumeSizeInGB;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("[vmid=%s, host=%s, numCPUs=%d, memorySizeInMB=%d, volumeSizeInGB=%d]",
+				vmid, host, numCPUs, memorySizeInMB, volumeSizeInGB);
+	}
+}
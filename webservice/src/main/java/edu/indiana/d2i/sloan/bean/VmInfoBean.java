@@ -18,6 +18,7 @@ package edu.indiana.d2i.sloan.bean;
 import edu.indiana.d2i.sloan.vm.VMMode;
 import edu.indiana.d2i.sloan.vm.VMState;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class VmInfoBean {
@@ -127,6 +128,26 @@ public class VmInfoBean {
 		this.roles = roles;
 	}
 
+	/**
+	 * copy whose mutable state (vm state, requested mode, paths, roles) is
+	 * independent of the original
+	 */
+	public VmInfoBean(VmInfoBean other) {
+		this(other.vmid, other.publicip, other.created_at, other.workDir,
+			other.imagepath, other.policypath, other.sshport, other.vncport,
+			other.numCPUs, other.memorySize, other.volumeSize, other.vmmode,
+			other.vmstate, other.vncloginId, other.vncloginPwd,
+			other.vmloginid, other.vmloginpwd,
+			other.imagename, other.policyname, other.requestedVMMode, other.type, other.title,
+			other.consent, other.desc_nature, other.desc_requirement, other.desc_links, other.desc_outside_data,
+			other.rr_data_files, other.rr_result_usage, other.full_access, null, other.desc_shared);
+		if (other.roles != null) {
+			this.roles = new ArrayList<VmUserRole>(other.roles.size());
+			for (VmUserRole role : other.roles)
+				this.roles.add(new VmUserRole(role));
+		}
+	}
+
 	public String getVmid() {
 		return vmid;
 	}
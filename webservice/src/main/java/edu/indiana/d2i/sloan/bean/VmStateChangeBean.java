@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.bean;
+
+import edu.indiana.d2i.sloan.vm.VMMode;
+import edu.indiana.d2i.sloan.vm.VMState;
+
+/**
+ * a state change of a VM that only applies if the VM is still in the state
+ * it was made from
+ */
+public class VmStateChangeBean {
+	private String vmid, operator;
+	private VMMode vmmode, toVmmode;
+	private VMState from, to;
+
+	/**
+	 * @param toVmmode
+	 *            mode set along with the state, null to keep the mode
+	 */
+	public VmStateChangeBean(String vmid, VMMode vmmode, VMState from, VMState to, VMMode toVmmode,
+			String operator) {
+		this.vmid = vmid;
+		this.vmmode = vmmode;
+		this.from = from;
+		this.to = to;
+		this.toVmmode = toVmmode;
+		this.operator = operator;
+	}
+
+	public VmStateChangeBean(String vmid, VMMode vmmode, VMState from, VMState to, String operator) {
+		this(vmid, vmmode, from, to, null, operator);
+	}
+
+	public String getVmid() {
+		return vmid;
+	}
+
+	public VMMode getVmmode() {
+		return vmmode;
+	}
+
+	/**
+	 * null if the mode is kept
+	 */
+	public VMMode getToVmmode() {
+		return toVmmode;
+	}
+
+	public VMState getFrom() {
+		return from;
+	}
+
+	public VMState getTo() {
+		return to;
+	}
+
+	public String getOperator() {
+		return operator;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("[vmid=%s, %s -> %s, operator=%s]", vmid, from, to, operator);
+	}
+}
@@ -40,6 +40,10 @@ public class VmUserRole {
 		this.full_access = full_access;
 	}
 
+	public VmUserRole(VmUserRole other) {
+		this(other.email, other.role, other.tou, other.guid, other.full_access);
+	}
+
 	public String getEmail() {
 		return email;
 	}
@@ -19,40 +19,151 @@ import java.beans.PropertyVetoException;
 import java.sql.Connection;
 import java.sql.SQLException;
 
+import javax.sql.DataSource;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.mchange.v2.c3p0.ComboPooledDataSource;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 
 import edu.indiana.d2i.sloan.Configuration;
+import edu.indiana.d2i.sloan.Constants;
+import edu.indiana.d2i.sloan.utils.LatencyHistogram;
 
 public class DBConnections {
 	private static Logger logger = LoggerFactory.getLogger(DBConnections.class);
 	private static DBConnections instance = null;
-	private static ComboPooledDataSource dataSource = null; 
+	private static DataSource dataSource = null; 
+
+	/* values of sloan.ws.db.pool.impl */
+	public static final String POOL_IMPL_C3P0 = "c3p0";
+	public static final String POOL_IMPL_HIKARI = "hikari";
+
+	private final String poolImpl;
+	private final LatencyHistogram checkoutLatency = new LatencyHistogram();
+
+	public static class PoolStats {
+		private String impl;
+		private int maxPoolSize;
+		private int busyConnections;
+		private int idleConnections;
+		private int threadsAwaitingCheckout;
+		private LatencyHistogram.Snapshot checkoutLatency;
+
+		public String getImpl() {
+			return impl;
+		}
+
+		public int getMaxPoolSize() {
+			return maxPoolSize;
+		}
+
+		public int getBusyConnections() {
+			return busyConnections;
+		}
+
+		public int getIdleConnections() {
+			return idleConnections;
+		}
+
+		public int getThreadsAwaitingCheckout() {
+			return threadsAwaitingCheckout;
+		}
+
+		public LatencyHistogram.Snapshot getCheckoutLatency() {
+			return checkoutLatency;
+		}
+	}
 	
 	private DBConnections() {
+		Configuration conf = Configuration.getInstance();
+		poolImpl = conf.getString(Configuration.PropertyName.DB_POOL_IMPL,
+			Constants.DEFAULT_DB_POOL_IMPL).trim().toLowerCase();
+		if (POOL_IMPL_HIKARI.equals(poolImpl)) {
+			dataSource = createHikariDataSource(conf);
+		} else {
+			dataSource = createC3P0DataSource(conf);
+		}
+		logger.info("Database connection pool: " + poolImpl);
+	}
+
+	private static DataSource createC3P0DataSource(Configuration conf) {
 		try {
-			dataSource = new ComboPooledDataSource();
-			dataSource.setDriverClass(Configuration.getInstance().getString(
+			ComboPooledDataSource c3p0 = new ComboPooledDataSource();
+			c3p0.setDriverClass(conf.getString(
 				Configuration.PropertyName.DB_DRIVER_CLASS));
-			dataSource.setJdbcUrl(Configuration.getInstance().getString(
+			c3p0.setJdbcUrl(conf.getString(
 				Configuration.PropertyName.JDBC_URL));
-			dataSource.setUser(Configuration.getInstance().getString(
+			c3p0.setUser(conf.getString(
 				Configuration.PropertyName.DB_USER));
-			dataSource.setPassword(Configuration.getInstance().getString(
+			c3p0.setPassword(conf.getString(
 				Configuration.PropertyName.DB_PWD));
-			
-//			dataSource.setMinPoolSize(5);
-//			dataSource.setAcquireIncrement(5);
-//			dataSource.setMaxPoolSize(20);
-			
-			dataSource.setMaxIdleTime(60); // 60 seconds
-			dataSource.setIdleConnectionTestPeriod(55); // 55 seconds
+
+			int minPoolSize = conf.getInt(Configuration.PropertyName.DB_POOL_MIN_SIZE,
+				Constants.DEFAULT_DB_POOL_MIN_SIZE);
+			c3p0.setMinPoolSize(minPoolSize);
+			c3p0.setInitialPoolSize(minPoolSize);
+			c3p0.setMaxPoolSize(conf.getInt(Configuration.PropertyName.DB_POOL_MAX_SIZE,
+				Constants.DEFAULT_DB_POOL_MAX_SIZE));
+			c3p0.setAcquireIncrement(conf.getInt(Configuration.PropertyName.DB_POOL_ACQUIRE_INCREMENT,
+				Constants.DEFAULT_DB_POOL_ACQUIRE_INCREMENT));
+			c3p0.setCheckoutTimeout(conf.getInt(Configuration.PropertyName.DB_POOL_CHECKOUT_TIMEOUT_MS,
+				Constants.DEFAULT_DB_POOL_CHECKOUT_TIMEOUT_MS));
+			c3p0.setTestConnectionOnCheckin(conf.getBoolean(Configuration.PropertyName.DB_POOL_TEST_ON_CHECKIN,
+				Constants.DEFAULT_DB_POOL_TEST_ON_CHECKIN));
+
+			c3p0.setMaxIdleTime(conf.getInt(Configuration.PropertyName.DB_POOL_MAX_IDLE_TIME_SEC,
+				Constants.DEFAULT_DB_POOL_MAX_IDLE_TIME_SEC));
+			c3p0.setIdleConnectionTestPeriod(conf.getInt(Configuration.PropertyName.DB_POOL_IDLE_TEST_PERIOD_SEC,
+				Constants.DEFAULT_DB_POOL_IDLE_TEST_PERIOD_SEC));
+
+			/* cache prepared statements, queries bind their values so the SQL text repeats */
+			c3p0.setMaxStatements(conf.getInt(
+				Configuration.PropertyName.DB_MAX_STATEMENTS, Constants.DEFAULT_DB_MAX_STATEMENTS));
+			c3p0.setMaxStatementsPerConnection(conf.getInt(
+				Configuration.PropertyName.DB_MAX_STATEMENTS_PER_CONNECTION,
+				Constants.DEFAULT_DB_MAX_STATEMENTS_PER_CONNECTION));
+			return c3p0;
 		} catch (PropertyVetoException ex) {
 			logger.error(ex.getMessage(), ex);
 			throw new RuntimeException(ex);
 		}
 	}
+
+	/**
+	 * HikariCP validates connections on checkout and has no statement cache of
+	 * its own, the statement cache size is handed to the MySQL driver instead
+	 */
+	private static DataSource createHikariDataSource(Configuration conf) {
+		HikariConfig hikari = new HikariConfig();
+		hikari.setPoolName("sloan-db");
+		hikari.setDriverClassName(conf.getString(
+			Configuration.PropertyName.DB_DRIVER_CLASS));
+		hikari.setJdbcUrl(conf.getString(
+			Configuration.PropertyName.JDBC_URL));
+		hikari.setUsername(conf.getString(
+			Configuration.PropertyName.DB_USER));
+		hikari.setPassword(conf.getString(
+			Configuration.PropertyName.DB_PWD));
+
+		hikari.setMinimumIdle(conf.getInt(Configuration.PropertyName.DB_POOL_MIN_SIZE,
+			Constants.DEFAULT_DB_POOL_MIN_SIZE));
+		hikari.setMaximumPoolSize(conf.getInt(Configuration.PropertyName.DB_POOL_MAX_SIZE,
+			Constants.DEFAULT_DB_POOL_MAX_SIZE));
+		hikari.setConnectionTimeout(conf.getInt(Configuration.PropertyName.DB_POOL_CHECKOUT_TIMEOUT_MS,
+			Constants.DEFAULT_DB_POOL_CHECKOUT_TIMEOUT_MS));
+		hikari.setIdleTimeout(1000L * conf.getInt(Configuration.PropertyName.DB_POOL_MAX_IDLE_TIME_SEC,
+			Constants.DEFAULT_DB_POOL_MAX_IDLE_TIME_SEC));
+
+		hikari.addDataSourceProperty("cachePrepStmts", "true");
+		hikari.addDataSourceProperty("prepStmtCacheSize", String.valueOf(conf.getInt(
+			Configuration.PropertyName.DB_MAX_STATEMENTS_PER_CONNECTION,
+			Constants.DEFAULT_DB_MAX_STATEMENTS_PER_CONNECTION)));
+		hikari.addDataSourceProperty("prepStmtCacheSqlLimit", "4096");
+		return new HikariDataSource(hikari);
+	}
 	
 	static {
 		instance = new DBConnections();
@@ -63,10 +174,52 @@ public class DBConnections {
 	}
 	
 	public void close() {
-		dataSource.close();
+		if (dataSource instanceof ComboPooledDataSource) {
+			((ComboPooledDataSource) dataSource).close();
+		} else if (dataSource instanceof HikariDataSource) {
+			((HikariDataSource) dataSource).close();
+		}
 	}
 	
+	/* unit test purpose */
+	static DataSource getDataSource() {
+		return dataSource;
+	}
+
+	/* unit test purpose */
+	static void setDataSource(DataSource ds) {
+		dataSource = ds;
+	}
+
 	public Connection getConnection() throws SQLException {
-		return dataSource.getConnection();
+		long start = System.nanoTime();
+		try {
+			return dataSource.getConnection();
+		} finally {
+			checkoutLatency.recordNanosSince(start);
+		}
+	}
+
+	public PoolStats getStats() throws SQLException {
+		PoolStats stats = new PoolStats();
+		stats.impl = poolImpl;
+		if (dataSource instanceof ComboPooledDataSource) {
+			ComboPooledDataSource c3p0 = (ComboPooledDataSource) dataSource;
+			stats.maxPoolSize = c3p0.getMaxPoolSize();
+			stats.busyConnections = c3p0.getNumBusyConnectionsDefaultUser();
+			stats.idleConnections = c3p0.getNumIdleConnectionsDefaultUser();
+			stats.threadsAwaitingCheckout = c3p0.getNumThreadsAwaitingCheckoutDefaultUser();
+		} else if (dataSource instanceof HikariDataSource) {
+			HikariDataSource hikari = (HikariDataSource) dataSource;
+			stats.maxPoolSize = hikari.getMaximumPoolSize();
+			HikariPoolMXBean pool = hikari.getHikariPoolMXBean();
+			if (pool != null) {
+				stats.busyConnections = pool.getActiveConnections();
+				stats.idleConnections = pool.getIdleConnections();
+				stats.threadsAwaitingCheckout = pool.getThreadsAwaitingConnection();
+			}
+		}
+		stats.checkoutLatency = checkoutLatency.snapshot();
+		return stats;
 	}
 }
@@ -16,14 +16,17 @@
 package edu.indiana.d2i.sloan.db;
 
 import edu.indiana.d2i.sloan.Configuration;
+import edu.indiana.d2i.sloan.Constants;
 import edu.indiana.d2i.sloan.bean.*;
 import edu.indiana.d2i.sloan.exception.NoItemIsFoundInDBException;
 import edu.indiana.d2i.sloan.exception.ResultExpireException;
 import edu.indiana.d2i.sloan.result.ResultState;
+import edu.indiana.d2i.sloan.vm.VMEventBus;
 import edu.indiana.d2i.sloan.vm.VMMode;
 import edu.indiana.d2i.sloan.vm.VMPorts;
 import edu.indiana.d2i.sloan.vm.VMRole;
 import edu.indiana.d2i.sloan.vm.VMState;
+import edu.indiana.d2i.sloan.vm.VMStateManager;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
@@ -35,8 +38,12 @@ import java.sql.*;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 
@@ -47,9 +54,177 @@ public class DBOperations {
 	private final java.text.SimpleDateFormat DATE_FORMATOR = 
 		     new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 	private static final String DELETE = "DELETE";
+	/* max number of vmids in the IN list of one role query */
+	private static final int ROLE_BATCH_SIZE = 500;
 
-	private DBOperations() {
+	/* parameterized queries, their SQL text is constant so statements are reused */
+	private static final SqlQuery VM_INFO_OF_USER = new SqlQuery(
+			"SELECT " + DBSchema.VmTable.VM_MODE + ","
+				+ DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.VM_ID
+				+ "," + DBSchema.VmTable.HOST + "," + DBSchema.VmTable.CREATED_AT + ","
+				+ DBSchema.VmTable.STATE + "," + DBSchema.VmTable.SSH_PORT
+				+ "," + DBSchema.VmTable.VNC_PORT + ","
+				+ DBSchema.VmTable.WORKING_DIR + ","
+				+ DBSchema.VmTable.VNC_PASSWORD + ","
+				+ DBSchema.VmTable.VNC_USERNAME + ","
+				+ DBSchema.VmTable.NUM_CPUS + ","
+				+ DBSchema.VmTable.MEMORY_SIZE + ","
+				+ DBSchema.VmTable.DISK_SPACE + ","
+				+ DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.IMAGE_NAME + ","
+				+ DBSchema.VmTable.TYPE + "," + DBSchema.VmTable.TITLE + ","
+				+ DBSchema.VmTable.CONSENT + "," + DBSchema.VmTable.DESC_NATURE + ","
+				+ DBSchema.VmTable.DESC_REQUIREMENT + "," + DBSchema.VmTable.DESC_LINKS + ","
+				+ DBSchema.VmTable.DESC_OUTSIDE_DATA + "," + DBSchema.VmTable.RR_DATA_FILES + ","
+				+ DBSchema.VmTable.RR_RESULT_USAGE + "," + DBSchema.VmTable.DESC_SHARED + ","
+				+ DBSchema.ImageTable.IMAGE_LOGIN_ID + ","
+				+ DBSchema.ImageTable.IMAGE_LOGIN_PASSWORD
+				// + image path & policy path
+				+ " FROM " + DBSchema.ImageTable.TABLE_NAME + ","
+				+ DBSchema.VmTable.TABLE_NAME
+				+ "," + DBSchema.UserVmMapTable.TABLE_NAME
+				+ " WHERE "
+				+ DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.IMAGE_NAME + "="
+				+ DBSchema.ImageTable.TABLE_NAME + "." + DBSchema.ImageTable.IMAGE_NAME
+				+ " AND " + DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.GUID + "=?"
+				+ " AND " + DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.VM_ID + "="
+				+ DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.VM_ID
+				+ " AND " + DBSchema.VmTable.STATE + " NOT LIKE \"%" + DELETE + "%\"");
 
+	private static final SqlQuery VM_INFO_OF_USER_AND_VM = new SqlQuery(
+			"SELECT " + DBSchema.VmTable.VM_MODE + ","
+				+ DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.VM_ID
+				+ "," + DBSchema.VmTable.HOST + "," + DBSchema.VmTable.CREATED_AT + ","
+				+ DBSchema.VmTable.STATE + "," + DBSchema.VmTable.SSH_PORT
+				+ "," + DBSchema.VmTable.VNC_PORT + ","
+				+ DBSchema.VmTable.WORKING_DIR + ","
+				+ DBSchema.VmTable.VNC_PASSWORD + ","
+				+ DBSchema.VmTable.VNC_USERNAME + ","
+				+ DBSchema.VmTable.NUM_CPUS + ","
+				+ DBSchema.VmTable.MEMORY_SIZE + ","
+				+ DBSchema.VmTable.DISK_SPACE + ","
+				+ DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.IMAGE_NAME + ","
+				+ DBSchema.VmTable.TYPE + "," + DBSchema.VmTable.TITLE + ","
+				+ DBSchema.VmTable.CONSENT + "," + DBSchema.VmTable.DESC_NATURE + ","
+				+ DBSchema.VmTable.DESC_REQUIREMENT + "," + DBSchema.VmTable.DESC_LINKS + ","
+				+ DBSchema.VmTable.DESC_OUTSIDE_DATA + "," + DBSchema.VmTable.RR_DATA_FILES + ","
+				+ DBSchema.VmTable.RR_RESULT_USAGE + "," + DBSchema.VmTable.DESC_SHARED + ","
+				+ DBSchema.ImageTable.IMAGE_LOGIN_ID + ","
+				+ DBSchema.ImageTable.IMAGE_LOGIN_PASSWORD
+				// + image path & policy path
+				+ " FROM " + DBSchema.VmTable.TABLE_NAME + "," + DBSchema.ImageTable.TABLE_NAME
+				+ "," + DBSchema.UserVmMapTable.TABLE_NAME
+				+ " WHERE "
+				+ DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.IMAGE_NAME + "="
+				+ DBSchema.ImageTable.TABLE_NAME + "." + DBSchema.ImageTable.IMAGE_NAME
+				+ " AND " + DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.GUID + "=?"
+				+ " AND " + DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.VM_ID + "=?"
+				+ " AND " + DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.VM_ID + "="
+				+ DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.VM_ID
+				+ " AND " + DBSchema.VmTable.STATE + " NOT LIKE \"%" + DELETE + "%\"");
+
+	private static final SqlQuery RESULT_NOTIFIED_TIME = new SqlQuery(
+			"SELECT " + DBSchema.ResultTable.NOTIFIED_TIME + " FROM " + DBSchema.ResultTable.TABLE_NAME +
+			" WHERE " + DBSchema.ResultTable.RESULT_ID + "=?");
+
+	private static final SqlQuery USER_ROLE_WITH_VMID = new SqlQuery(String.format(
+			"SELECT %s, %s, %s, %s, %s FROM %s, %s WHERE %s=%s AND %s=? AND %s=?",
+			DBSchema.UserTable.USER_EMAIL, DBSchema.UserVmMapTable.ROLE,
+			DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.GUID,
+			DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.TOU,
+			DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS,
+			DBSchema.UserVmMapTable.TABLE_NAME, DBSchema.UserTable.TABLE_NAME,
+			DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.GUID,
+			DBSchema.UserTable.TABLE_NAME + "." + DBSchema.UserTable.GUID,
+			DBSchema.UserVmMapTable.VM_ID,
+			DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.GUID));
+
+	private static final SqlQuery OWNER_OF_VM = new SqlQuery("SELECT " +
+			DBSchema.UserTable.TABLE_NAME + "." + DBSchema.UserTable.GUID + ", " +
+			DBSchema.UserTable.TABLE_NAME + "." + DBSchema.UserTable.USER_EMAIL + ", " +
+			DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.ROLE + ", " +
+			DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.TOU + ", " +
+			DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS + " " +
+			"FROM " +
+			DBSchema.UserTable.TABLE_NAME + ", " + DBSchema.UserVmMapTable.TABLE_NAME + " " +
+			"WHERE " + DBSchema.UserTable.TABLE_NAME + "." + DBSchema.UserTable.GUID + "=" +
+			DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.GUID + " " +
+			"AND " + DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.VM_ID + "=? " +
+			"AND " + DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.ROLE + " LIKE ?");
+
+	private static final SqlQuery USER_PUB_KEY = new SqlQuery(String.format(
+			"SELECT %s FROM %s WHERE %s=?",
+			DBSchema.UserTable.PUB_KEY, DBSchema.UserTable.TABLE_NAME,
+			DBSchema.UserTable.TABLE_NAME + "." + DBSchema.UserTable.GUID));
+
+	private static final SqlQuery PORTS_OF_HOST = new SqlQuery(String.format(
+			"SELECT %s, %s FROM %s WHERE %s=?",
+			DBSchema.PortTable.SSH_PORT, DBSchema.PortTable.VNC_PORT,
+			DBSchema.PortTable.TABLE_NAME, DBSchema.PortTable.HOST));
+
+	private static final SqlQuery HOST_CAPACITIES = new SqlQuery(String.format(
+			"SELECT %s, %s, %s FROM %s",
+			DBSchema.HostTable.HOST_NAME, DBSchema.HostTable.CPU_CORES,
+			DBSchema.HostTable.MEMORY_GB, DBSchema.HostTable.TABLE_NAME));
+
+	/* a VM that is being deleted or failed to be deleted is still on its host */
+	private static final SqlQuery VM_FOOTPRINTS = new SqlQuery(String.format(
+			"SELECT %s, %s, %s, %s, %s FROM %s WHERE %s<>\"%s\"",
+			DBSchema.VmTable.VM_ID, DBSchema.VmTable.HOST, DBSchema.VmTable.NUM_CPUS,
+			DBSchema.VmTable.MEMORY_SIZE, DBSchema.VmTable.DISK_SPACE,
+			DBSchema.VmTable.TABLE_NAME, DBSchema.VmTable.STATE, VMState.DELETED));
+
+	private static final SqlQuery VM_STATE = new SqlQuery(String.format(
+			"SELECT %s FROM %s WHERE %s=?",
+			DBSchema.VmTable.STATE, DBSchema.VmTable.TABLE_NAME, DBSchema.VmTable.VM_ID));
+
+	private static final SqlQuery UPDATE_VM_STATE_IF_UNCHANGED = new SqlQuery(String.format(
+			"UPDATE %s SET %s=? WHERE %s=? AND %s=?",
+			DBSchema.VmTable.TABLE_NAME, DBSchema.VmTable.STATE,
+			DBSchema.VmTable.VM_ID, DBSchema.VmTable.STATE));
+
+	/* the mode is kept if null */
+	private static final SqlQuery UPDATE_VM_STATE_AND_MODE_IF_UNCHANGED = new SqlQuery(String.format(
+			"UPDATE %1$s SET %2$s=?, %3$s=COALESCE(?, %3$s) WHERE %4$s=? AND %2$s=?",
+			DBSchema.VmTable.TABLE_NAME, DBSchema.VmTable.STATE, DBSchema.VmTable.VM_MODE,
+			DBSchema.VmTable.VM_ID));
+
+	private static final SqlQuery INSERT_ACTIVITY = new SqlQuery(String.format(
+			"INSERT INTO %s (%s, %s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?, ?)",
+			DBSchema.ActivityTable.TABLE_NAME, DBSchema.ActivityTable.VM_ID,
+			DBSchema.ActivityTable.PREV_MODE, DBSchema.ActivityTable.CURR_MODE,
+			DBSchema.ActivityTable.PREV_STATE, DBSchema.ActivityTable.CURR_STATE,
+			DBSchema.ActivityTable.GUID));
+
+	private static final SqlQuery RESERVE_QUOTA = new SqlQuery(String.format(
+			"UPDATE %1$s SET %2$s=%2$s-?, %3$s=%3$s-?, %4$s=%4$s-? WHERE %5$s=? AND %2$s>=? AND %3$s>=? AND %4$s>=?",
+			DBSchema.UserTable.TABLE_NAME, DBSchema.UserTable.DISK_LEFT_QUOTA,
+			DBSchema.UserTable.CPU_LEFT_QUOTA, DBSchema.UserTable.MEMORY_LEFT_QUOTA,
+			DBSchema.UserTable.GUID));
+
+	private static final SqlQuery RESTORE_QUOTA = new SqlQuery(String.format(
+			"UPDATE %1$s SET %2$s=%2$s+?, %3$s=%3$s+?, %4$s=%4$s+? WHERE %5$s=?",
+			DBSchema.UserTable.TABLE_NAME, DBSchema.UserTable.DISK_LEFT_QUOTA,
+			DBSchema.UserTable.CPU_LEFT_QUOTA, DBSchema.UserTable.MEMORY_LEFT_QUOTA,
+			DBSchema.UserTable.GUID));
+
+	/* the mode is copied from the VM in the same statement, it is not changed by a state change */
+	private static final SqlQuery INSERT_STATE_ACTIVITY = new SqlQuery(String.format(
+			"INSERT INTO %s (%s, %s, %s, %s, %s, %s) SELECT %s, %s, %s, ?, ?, ? FROM %s WHERE %s=?",
+			DBSchema.ActivityTable.TABLE_NAME, DBSchema.ActivityTable.VM_ID,
+			DBSchema.ActivityTable.PREV_MODE, DBSchema.ActivityTable.CURR_MODE,
+			DBSchema.ActivityTable.PREV_STATE, DBSchema.ActivityTable.CURR_STATE,
+			DBSchema.ActivityTable.GUID,
+			DBSchema.VmTable.VM_ID, DBSchema.VmTable.VM_MODE, DBSchema.VmTable.VM_MODE,
+			DBSchema.VmTable.TABLE_NAME, DBSchema.VmTable.VM_ID));
+
+	private final VmCache cache;
+
+	private DBOperations() {
+		Configuration conf = Configuration.getInstance();
+		cache = new VmCache(
+				conf.getBoolean(Configuration.PropertyName.DB_CACHE_ENABLED, Constants.DEFAULT_DB_CACHE_ENABLED),
+				conf.getInt(Configuration.PropertyName.DB_CACHE_MAX_VMS, Constants.DEFAULT_DB_CACHE_MAX_VMS),
+				conf.getLong(Configuration.PropertyName.DB_CACHE_TTL_MS, Constants.DEFAULT_DB_CACHE_TTL_MS));
 	}
 
 	static {
@@ -58,6 +233,15 @@ public class DBOperations {
 
 	private void executeTransaction(final List<String> updates)
 			throws SQLException {
+		executeTransaction(updates, false);
+	}
+
+	/**
+	 * @param rethrow
+	 *            throw the error after rolling back instead of only logging it
+	 */
+	private void executeTransaction(final List<String> updates, boolean rethrow)
+			throws SQLException {
 		Connection connection = null;
 		Statement st = null;
 
@@ -81,6 +265,8 @@ public class DBOperations {
 					throw ex1;
 				}
 			}
+			if (rethrow)
+				throw e;
 		} finally {
 			if (st != null)
 				st.close();
@@ -108,6 +294,7 @@ public class DBOperations {
 				+ DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.STATE + " NOT LIKE \"%%" + DELETE + "%%\"";
 		logger.debug(sql);
 		List<VmKeyInfoBean> res = new ArrayList<VmKeyInfoBean>();
+		Map<String, List<VmUserRole>> rolesByVmid = new HashMap<String, List<VmUserRole>>();
 		Connection connection = null;
 		PreparedStatement pst = null;
 		ResultSet rs = null;
@@ -117,7 +304,7 @@ public class DBOperations {
 			rs = pst.executeQuery();
 			while (rs.next()) {
 				String vmid = rs.getString(DBSchema.VmTable.VM_ID);
-				List<VmUserRole> roles = getRolesWithVmid(vmid, true);
+				List<VmUserRole> roles = getRoleList(rolesByVmid, vmid);
 
 				VmKeyInfoBean vmKeyInfoBean = new VmKeyInfoBean(
 						vmid,
@@ -138,6 +325,9 @@ public class DBOperations {
 				);
                 res.add(vmKeyInfoBean);
 			}
+			rs.close();
+			pst.close();
+			loadRolesWithVmids(connection, rolesByVmid, true);
 		} finally {
 			if (rs != null)
 				rs.close();
@@ -151,9 +341,14 @@ public class DBOperations {
 
 	private List<VmInfoBean> getVmInfoInternal(final String sql)
 			throws SQLException {
-		logger.debug(sql);
+		return getVmInfoInternal(new SqlQuery(sql));
+	}
+
+	private List<VmInfoBean> getVmInfoInternal(final SqlQuery query, Object... params)
+			throws SQLException {
 
 		List<VmInfoBean> res = new ArrayList<VmInfoBean>();
+		Map<String, List<VmUserRole>> rolesByVmid = new HashMap<String, List<VmUserRole>>();
 		Connection connection = null;
 		PreparedStatement pst = null;
 		ResultSet rs = null;
@@ -161,14 +356,11 @@ public class DBOperations {
 		try {
 			connection = DBConnections.getInstance()
 					.getConnection();
-			pst = connection.prepareStatement(sql);
+			pst = query.prepare(connection, params);
 			rs = pst.executeQuery();
 			while (rs.next()) {
 				String vmid = rs.getString(DBSchema.VmTable.VM_ID);
-				List<VmUserRole> roles = getRolesWithVmid(vmid, true);
-				VmUserRole owner = roles.stream()
-						.filter(role -> role.getRole().equals(VMRole.OWNER_CONTROLLER) || role.getRole().equals(VMRole.OWNER))
-						.collect(Collectors.toList()).get(0);
+				List<VmUserRole> roles = getRoleList(rolesByVmid, vmid);
 				VmInfoBean vminfo = new VmInfoBean(
 						rs.getString(DBSchema.VmTable.VM_ID),
 						rs.getString(DBSchema.VmTable.HOST),
@@ -200,11 +392,22 @@ public class DBOperations {
 						rs.getString(DBSchema.VmTable.DESC_OUTSIDE_DATA),
 						rs.getString(DBSchema.VmTable.RR_DATA_FILES),
 						rs.getString(DBSchema.VmTable.RR_RESULT_USAGE),
-						owner.isFull_access(), // owner's full_access is the real full_access of the VM
+						null, // full_access is set from the owner once roles are loaded
 						roles,
 						rs.getString(DBSchema.VmTable.DESC_SHARED));
 				res.add(vminfo);
 			}
+			rs.close();
+			pst.close();
+			loadRolesWithVmids(connection, rolesByVmid, true);
+
+			for (VmInfoBean vminfo : res) {
+				VmUserRole owner = vminfo.getRoles().stream()
+						.filter(role -> role.getRole().equals(VMRole.OWNER_CONTROLLER) || role.getRole().equals(VMRole.OWNER))
+						.collect(Collectors.toList()).get(0);
+				// owner's full_access is the real full_access of the VM
+				vminfo.setFull_access(owner.isFull_access());
+			}
 		} finally {
 			if (rs != null)
 				rs.close();
@@ -220,81 +423,24 @@ public class DBOperations {
 		return instance;
 	}
 
+	public VmCache.CacheStats getCacheStats() {
+		return cache.getStats();
+	}
+
+	/* unit test purpose */
+	VmCache getCache() {
+		return cache;
+	}
+
 	public boolean quotasNotExceedLimit(CreateVmRequestBean request)
 			throws SQLException {
 		int requestedDiskAmount = request.getVolumeSizeInGB();
 		int requestedCPUNum = request.getVcpu();
 		int requestedMemory = request.getMemory();
 
-		StringBuilder sql = new StringBuilder();
-
-		sql.append("SELECT ").append(DBSchema.UserTable.DISK_LEFT_QUOTA)
-				.append(",").append(DBSchema.UserTable.CPU_LEFT_QUOTA)
-				.append(",").append(DBSchema.UserTable.MEMORY_LEFT_QUOTA)
-				.append(" FROM ").append(DBSchema.UserTable.TABLE_NAME)
-				.append(" WHERE ").append(DBSchema.UserTable.GUID)
-				.append("=")
-				.append(String.format("\"%s\"", request.getUserName()));
-
-		Connection connection = null;
-		PreparedStatement pst = null;
-		ResultSet rs = null;
-
-		boolean satisfiable = false;
-
-		try {
-			connection = DBConnections.getInstance().getConnection();
-
-			pst = connection.prepareStatement(sql.toString());
-
-			rs = pst.executeQuery();
-			if (rs.next()) {
-				int leftDiskQuota = rs
-						.getInt(DBSchema.UserTable.DISK_LEFT_QUOTA);
-				int leftCPUQuota = rs.getInt(DBSchema.UserTable.CPU_LEFT_QUOTA);
-				int leftMemoryQuota = rs
-						.getInt(DBSchema.UserTable.MEMORY_LEFT_QUOTA);
-
-				satisfiable = (leftDiskQuota >= requestedDiskAmount)
-						&& (leftCPUQuota >= requestedCPUNum)
-						&& (leftMemoryQuota >= requestedMemory);
-
-				if (satisfiable) {
-					/* update user table */
-					StringBuilder updateSql = new StringBuilder();
-					updateSql
-							.append("UPDATE ")
-							.append(DBSchema.UserTable.TABLE_NAME)
-							.append(" SET ")
-							.append(String.format("%s=%d, %s=%d, %s=%d",
-									DBSchema.UserTable.DISK_LEFT_QUOTA,
-									leftDiskQuota - requestedDiskAmount,
-									DBSchema.UserTable.CPU_LEFT_QUOTA,
-									leftCPUQuota - requestedCPUNum,
-									DBSchema.UserTable.MEMORY_LEFT_QUOTA,
-									leftMemoryQuota - requestedMemory))
-							.append(" WHERE ")
-							.append(DBSchema.UserTable.GUID)
-							.append("=")
-							.append(String.format("\"%s\"",
-									request.getUserName()));
-
-					executeTransaction(Collections
-							.<String> singletonList(updateSql.toString()));
-
-				}
-
-			}
-		} finally {
-			if (rs != null)
-				rs.close();
-			if (pst != null)
-				pst.close();
-			if (connection != null)
-				connection.close();
-		}
-
-		return satisfiable;
+		// check and take the quota in one statement, concurrent creates of a user cannot both pass
+		return RESERVE_QUOTA.update(requestedDiskAmount, requestedCPUNum, requestedMemory,
+				request.getUserName(), requestedDiskAmount, requestedCPUNum, requestedMemory) > 0;
 	}
 
 	public boolean userExists(String username) throws SQLException {
@@ -467,8 +613,17 @@ public class DBOperations {
 		return getVmInfoInternal(sql);
 	}
 
-	public List<VmInfoBean> getVmInfo(String userName) throws SQLException {
-		String sql = String.format("SELECT " + DBSchema.VmTable.VM_MODE + ","
+	/**
+	 * VMs in a pending state, including the ones being deleted
+	 */
+	public List<VmInfoBean> getPendingVmInfo() throws SQLException {
+		List<String> pendingStates = new ArrayList<String>();
+		for (VMState state : VMState.values()) {
+			if (VMStateManager.isPendingState(state))
+				pendingStates.add("\"" + state.toString() + "\"");
+		}
+
+		String sql = "SELECT " + DBSchema.VmTable.VM_MODE + ","
 				+ DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.VM_ID
 				+ "," + DBSchema.VmTable.HOST + "," + DBSchema.VmTable.CREATED_AT + ","
 				+ DBSchema.VmTable.STATE + "," + DBSchema.VmTable.SSH_PORT
@@ -487,59 +642,30 @@ public class DBOperations {
 				+ DBSchema.VmTable.RR_RESULT_USAGE + "," + DBSchema.VmTable.DESC_SHARED + ","
 				+ DBSchema.ImageTable.IMAGE_LOGIN_ID + ","
 				+ DBSchema.ImageTable.IMAGE_LOGIN_PASSWORD
-				// + image path & policy path
-				+ " FROM " + DBSchema.ImageTable.TABLE_NAME + ","
-				+ DBSchema.VmTable.TABLE_NAME
-				+ "," + DBSchema.UserVmMapTable.TABLE_NAME
-				+ " WHERE "
-				+ DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.IMAGE_NAME + "="
+				+ " FROM " + DBSchema.VmTable.TABLE_NAME + "," + DBSchema.ImageTable.TABLE_NAME
+				+ " WHERE " + DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.IMAGE_NAME + "="
 				+ DBSchema.ImageTable.TABLE_NAME + "." + DBSchema.ImageTable.IMAGE_NAME
-				+ " AND " + DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.GUID + "=\"%s\""
-				+ " AND " + DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.VM_ID + "="
-				+ DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.VM_ID
-				+ " AND " + DBSchema.VmTable.STATE + " NOT LIKE \"%%" + DELETE + "%%\"", userName);
+				+ " AND " + DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.STATE + " IN ("
+				+ String.join(",", pendingStates) + ")";
 		return getVmInfoInternal(sql);
 	}
 
+	public List<VmInfoBean> getVmInfo(String userName) throws SQLException {
+		return getVmInfoInternal(VM_INFO_OF_USER, userName);
+	}
+
 	public VmInfoBean getVmInfo(String userName, String vmid)
 			throws SQLException, NoItemIsFoundInDBException {
-		String sql = String.format("SELECT " + DBSchema.VmTable.VM_MODE + ","
-				+ DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.VM_ID
-				+ "," + DBSchema.VmTable.HOST + "," + DBSchema.VmTable.CREATED_AT + ","
-				+ DBSchema.VmTable.STATE + "," + DBSchema.VmTable.SSH_PORT
-				+ "," + DBSchema.VmTable.VNC_PORT + ","
-				+ DBSchema.VmTable.WORKING_DIR + ","
-				+ DBSchema.VmTable.VNC_PASSWORD + ","
-				+ DBSchema.VmTable.VNC_USERNAME + ","
-				+ DBSchema.VmTable.NUM_CPUS + ","
-				+ DBSchema.VmTable.MEMORY_SIZE + ","
-				+ DBSchema.VmTable.DISK_SPACE + ","
-				+ DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.IMAGE_NAME + ","
-				+ DBSchema.VmTable.TYPE + "," + DBSchema.VmTable.TITLE + ","
-				+ DBSchema.VmTable.CONSENT + "," + DBSchema.VmTable.DESC_NATURE + ","
-				+ DBSchema.VmTable.DESC_REQUIREMENT + "," + DBSchema.VmTable.DESC_LINKS + ","
-				+ DBSchema.VmTable.DESC_OUTSIDE_DATA + "," + DBSchema.VmTable.RR_DATA_FILES + ","
-				+ DBSchema.VmTable.RR_RESULT_USAGE + "," + DBSchema.VmTable.DESC_SHARED + ","
-				+ DBSchema.ImageTable.IMAGE_LOGIN_ID + ","
-				+ DBSchema.ImageTable.IMAGE_LOGIN_PASSWORD 
-				// + image path & policy path
-				+ " FROM " + DBSchema.VmTable.TABLE_NAME + "," + DBSchema.ImageTable.TABLE_NAME
-				+ "," + DBSchema.UserVmMapTable.TABLE_NAME
-				+ " WHERE "
-				+ DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.IMAGE_NAME + "="
-				+ DBSchema.ImageTable.TABLE_NAME + "." + DBSchema.ImageTable.IMAGE_NAME
-				+ " AND " + DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.GUID + "=\"%s\""
-				+ " AND " + DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.VM_ID + "=\"%s\""
-				+ " AND " + DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.VM_ID + "="
-				+ DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.VM_ID
-				+ " AND " + DBSchema.VmTable.STATE + " NOT LIKE \"%%" + DELETE + "%%\"", userName, vmid);
-
-		logger.debug(sql);
+		VmInfoBean cached = cache.getVmInfo(vmid, userName);
+		if (cached != null)
+			return cached;
 
-		List<VmInfoBean> res = getVmInfoInternal(sql);
+		long generation = cache.generation();
+		List<VmInfoBean> res = getVmInfoInternal(VM_INFO_OF_USER_AND_VM, userName, vmid);
 		if (res.size() == 0)
 			throw new NoItemIsFoundInDBException(String.format(
 					"VM %s with user %s is not found in DB.", vmid, userName));
+		cache.putVmInfo(vmid, userName, res.get(0), generation);
 		return res.get(0);
 	}
 
@@ -582,6 +708,9 @@ public class DBOperations {
 		return res.get(0);
 	}
 
+	/**
+	 * store the VM, its owner and its ports in one transaction
+	 */
 	public void addVM(String userName, String vmid, String imageName,
 			String vncLoginId, String vncLoginPwd, VMPorts host, String created_at,
 			String workDir, int numCPUs, int memorySize, int diskSpace, String type, String title, Boolean consent,
@@ -688,7 +817,18 @@ public class DBOperations {
 		logger.debug(insertActivitySQL);
 		updates.add(insertActivitySQL);
 
-		executeTransaction(updates);
+		String insertPortsSQL = String.format(
+				"INSERT INTO " + DBSchema.PortTable.TABLE_NAME + " (%s, %s, %s, %s) VALUES"
+						+ "(\"%s\", \"%s\", %d, %d)",
+				DBSchema.PortTable.VM_ID, DBSchema.PortTable.HOST,
+				DBSchema.PortTable.SSH_PORT, DBSchema.PortTable.VNC_PORT,
+				vmid, host.publicip, host.sshport, host.vncport);
+		logger.debug(insertPortsSQL);
+		updates.add(insertPortsSQL);
+
+		// the scheduler gives the ports back if the VM could not be stored
+		executeTransaction(updates, true);
+		cache.invalidate(vmid);
 	}
 
 	public void addVmSharee(String vmid, VmUserRole vmUserRole, String desc_shared) throws SQLException {
@@ -722,6 +862,7 @@ public class DBOperations {
 			updates.add(updateDescShared);
 		}
 		executeTransaction(updates);
+		cache.invalidate(vmid);
 	}
 
 	public void removeVmSharee(String vmid, List<String> guid_list) throws SQLException {
@@ -750,6 +891,7 @@ public class DBOperations {
 			updates.add(deleteUser);
 		}
 		executeTransaction(updates);
+		cache.invalidate(vmid);
 	}
 
 	// assign owner_role to owner_guid and sharee_role to sharee_guid
@@ -772,6 +914,7 @@ public class DBOperations {
 		updates.add(updateshareesql);
 
 		executeTransaction(updates);
+		cache.invalidate(vmid);
 	}
 
 	private String getInsertActivitySQL(String vmid, String prevMode, String curMode,
@@ -804,74 +947,22 @@ public class DBOperations {
 	public void deleteVMs(String username, String operator, VmInfoBean vmInfo)
 			throws SQLException, NoItemIsFoundInDBException {
 
-		Connection connection = null;
-		PreparedStatement pst = null;
-		ResultSet rs = null;
-		
 		List<String> updates = new ArrayList<String>();
 
 		String markdeletedsql = String.format("UPDATE %s SET %s=\"%s\" WHERE %s=\"%s\"",
 			DBSchema.VmTable.TABLE_NAME, DBSchema.VmTable.STATE, VMState.DELETED.toString(),
 			DBSchema.VmTable.VM_ID,	vmInfo.getVmid());
 
-		/* restore quota */
-
-		// first query remaining quota
-		StringBuilder sql = new StringBuilder();
-
-		sql.append("SELECT ").append(DBSchema.UserTable.DISK_LEFT_QUOTA)
-				.append(",").append(DBSchema.UserTable.CPU_LEFT_QUOTA)
-				.append(",").append(DBSchema.UserTable.MEMORY_LEFT_QUOTA)
-				.append(" FROM ").append(DBSchema.UserTable.TABLE_NAME)
-				.append(" WHERE ").append(DBSchema.UserTable.GUID)
-				.append("=").append(String.format("\"%s\"", username));
-
-		StringBuilder updateUserTableSql = new StringBuilder();
-
-		try {
-			connection = DBConnections.getInstance().getConnection();
-
-			pst = connection.prepareStatement(sql.toString());
-
-			rs = pst.executeQuery();
-			if (rs.next()) {
-				int leftDiskQuota = rs
-						.getInt(DBSchema.UserTable.DISK_LEFT_QUOTA);
-				int leftCPUQuota = rs.getInt(DBSchema.UserTable.CPU_LEFT_QUOTA);
-				int leftMemoryQuota = rs
-						.getInt(DBSchema.UserTable.MEMORY_LEFT_QUOTA);
-
-				// compose update sql
-				updateUserTableSql = new StringBuilder();
-				updateUserTableSql
-						.append("UPDATE ")
-						.append(DBSchema.UserTable.TABLE_NAME)
-						.append(" SET ")
-						.append(String.format("%s=%d, %s=%d, %s=%d",
-								DBSchema.UserTable.DISK_LEFT_QUOTA,
-								leftDiskQuota + vmInfo.getVolumeSizeInGB(),
-								DBSchema.UserTable.CPU_LEFT_QUOTA, leftCPUQuota
-										+ vmInfo.getNumCPUs(),
-								DBSchema.UserTable.MEMORY_LEFT_QUOTA,
-								leftMemoryQuota + vmInfo.getMemorySizeInMB()))
-						.append(" WHERE ").append(DBSchema.UserTable.GUID)
-						.append("=").append(String.format("\"%s\"", username));
-			}
-
-		} finally {
-			if (rs != null)
-				rs.close();
-			if (pst != null)
-				pst.close();
-			if (connection != null)
-				connection.close();
-		}
+		/* restore quota, relative to what is left now so that concurrent changes are kept */
+		String restoreQuotaSql = String.format("UPDATE %s SET %s=%s+%d, %s=%s+%d, %s=%s+%d WHERE %s=\"%s\"",
+			DBSchema.UserTable.TABLE_NAME,
+			DBSchema.UserTable.DISK_LEFT_QUOTA, DBSchema.UserTable.DISK_LEFT_QUOTA, vmInfo.getVolumeSizeInGB(),
+			DBSchema.UserTable.CPU_LEFT_QUOTA, DBSchema.UserTable.CPU_LEFT_QUOTA, vmInfo.getNumCPUs(),
+			DBSchema.UserTable.MEMORY_LEFT_QUOTA, DBSchema.UserTable.MEMORY_LEFT_QUOTA, vmInfo.getMemorySizeInMB(),
+			DBSchema.UserTable.GUID, username);
 
 		updates.add(markdeletedsql);
-
-		if (updateUserTableSql.length() > 0) {
-			updates.add(updateUserTableSql.toString());
-		}
+		updates.add(restoreQuotaSql);
 
 		String insertActivitySQL = getInsertActivitySQL(vmInfo.getVmid(), vmInfo.getVmmode().toString(),
 				VMMode.NOT_DEFINED.toString(), vmInfo.getVmstate().toString(),
@@ -880,75 +971,13 @@ public class DBOperations {
 		updates.add(insertActivitySQL);
 
 		executeTransaction(updates);
+		cache.invalidate(vmInfo.getVmid());
 	}
 
 	public void restoreQuota(String username, int cpu, int memory, int diskspace)
 			throws SQLException, NoItemIsFoundInDBException {
-
-			Connection connection = null;
-			PreparedStatement pst = null;
-			ResultSet rs = null;
-
-			List<String> updates = new ArrayList<String>();
-
-
-			/* restore quota */
-
-			// first query remaining quota
-			StringBuilder sql = new StringBuilder();
-
-			sql.append("SELECT ").append(DBSchema.UserTable.DISK_LEFT_QUOTA)
-					.append(",").append(DBSchema.UserTable.CPU_LEFT_QUOTA)
-					.append(",").append(DBSchema.UserTable.MEMORY_LEFT_QUOTA)
-					.append(" FROM ").append(DBSchema.UserTable.TABLE_NAME)
-					.append(" WHERE ").append(DBSchema.UserTable.GUID)
-					.append("=").append(String.format("\"%s\"", username));
-
-			StringBuilder updateUserTableSql = new StringBuilder();
-
-			try {
-				connection = DBConnections.getInstance().getConnection();
-
-				pst = connection.prepareStatement(sql.toString());
-
-				rs = pst.executeQuery();
-				if (rs.next()) {
-					int leftDiskQuota = rs
-							.getInt(DBSchema.UserTable.DISK_LEFT_QUOTA);
-					int leftCPUQuota = rs.getInt(DBSchema.UserTable.CPU_LEFT_QUOTA);
-					int leftMemoryQuota = rs
-							.getInt(DBSchema.UserTable.MEMORY_LEFT_QUOTA);
-
-					// compose update sql
-					updateUserTableSql = new StringBuilder();
-					updateUserTableSql
-							.append("UPDATE ")
-							.append(DBSchema.UserTable.TABLE_NAME)
-							.append(" SET ")
-							.append(String.format("%s=%d, %s=%d, %s=%d",
-									DBSchema.UserTable.DISK_LEFT_QUOTA,
-									leftDiskQuota + diskspace,
-									DBSchema.UserTable.CPU_LEFT_QUOTA, leftCPUQuota
-											+ cpu,
-									DBSchema.UserTable.MEMORY_LEFT_QUOTA,
-									leftMemoryQuota + memory))
-							.append(" WHERE ").append(DBSchema.UserTable.GUID)
-							.append("=").append(String.format("\"%s\"", username));
-				}
-
-			} finally {
-				if (rs != null)
-					rs.close();
-				if (pst != null)
-					pst.close();
-				if (connection != null)
-					connection.close();
-			}
-
-			if (updateUserTableSql.length() > 0) {
-				updates.add(updateUserTableSql.toString());
-				executeTransaction(updates);
-			}
+		if (RESTORE_QUOTA.update(diskspace, cpu, memory, username) == 0)
+			logger.warn("Cannot restore quota of unknown user " + username);
 	}
 
 	// This function is just for test purpose and should not be called
@@ -982,6 +1011,117 @@ public class DBOperations {
 			updates.add(insertActivitySQL);
 		}
 		executeTransaction(updates);
+		cache.invalidate(vmid);
+	}
+
+	/**
+	 * set the state of the VM only if it is still expected, and record the
+	 * change as an activity in the same transaction; the row lock taken by
+	 * the update orders concurrent changes of the VM, also across service
+	 * instances
+	 * 
+	 * @return false if the VM is not in the expected state, nothing is
+	 *         changed then
+	 */
+	public boolean compareAndSetVMState(String vmid, VMState expected, VMState state, String operator)
+			throws SQLException {
+		Connection connection = null;
+		boolean updated;
+		try {
+			connection = DBConnections.getInstance().getConnection();
+			connection.setAutoCommit(false);
+			updated = UPDATE_VM_STATE_IF_UNCHANGED.update(connection, state, vmid, expected) > 0;
+			if (updated)
+				INSERT_STATE_ACTIVITY.update(connection, expected, state, operator, vmid);
+			connection.commit();
+		} catch (SQLException e) {
+			logger.error(e.getMessage(), e);
+			if (connection != null) {
+				connection.rollback();
+				logger.info("Rollback vm state change of " + vmid + " from " + expected + " to " + state);
+			}
+			throw e;
+		} finally {
+			if (connection != null)
+				connection.close();
+		}
+
+		if (updated)
+			cache.invalidate(vmid);
+		return updated;
+	}
+
+	/**
+	 * @return the state of the VM, deleted ones included, null if there is
+	 *         no such VM
+	 */
+	public VMState getVMState(String vmid) throws SQLException {
+		return VM_STATE.first(rs -> VMState.valueOf(rs.getString(DBSchema.VmTable.STATE)), vmid);
+	}
+
+	/**
+	 * apply the state changes and record them as activities in one
+	 * transaction, a change is skipped if the VM is no longer in the state
+	 * it was made from
+	 * 
+	 * @return the changes that were applied
+	 */
+	public List<VmStateChangeBean> updateVMStates(List<VmStateChangeBean> changes) throws SQLException {
+		List<VmStateChangeBean> applied = new ArrayList<VmStateChangeBean>();
+		if (changes.isEmpty())
+			return applied;
+
+		Connection connection = null;
+		try {
+			connection = DBConnections.getInstance().getConnection();
+			connection.setAutoCommit(false);
+
+			List<Object[]> updates = new ArrayList<Object[]>();
+			for (VmStateChangeBean change : changes) {
+				updates.add(new Object[] {change.getTo(), change.getToVmmode(), change.getVmid(),
+					change.getFrom()});
+			}
+			int[] counts = UPDATE_VM_STATE_AND_MODE_IF_UNCHANGED.batchUpdate(connection, updates);
+			for (int count : counts) {
+				if (count == Statement.SUCCESS_NO_INFO) {
+					// the driver does not tell which rows were still in their state
+					connection.rollback();
+					for (int i = 0; i < counts.length; i++)
+						counts[i] = UPDATE_VM_STATE_AND_MODE_IF_UNCHANGED.update(connection, updates.get(i));
+					break;
+				}
+			}
+
+			List<Object[]> activities = new ArrayList<Object[]>();
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] > 0) {
+					VmStateChangeBean change = changes.get(i);
+					applied.add(change);
+					activities.add(new Object[] {change.getVmid(), change.getVmmode(),
+						(change.getToVmmode() != null) ? change.getToVmmode() : change.getVmmode(),
+						change.getFrom(), change.getTo(), change.getOperator()});
+				}
+			}
+			if (!activities.isEmpty())
+				INSERT_ACTIVITY.batchUpdate(connection, activities);
+			connection.commit();
+			logger.info("Commit vm state changes " + applied);
+		} catch (SQLException e) {
+			logger.error(e.getMessage(), e);
+			if (connection != null) {
+				connection.rollback();
+				logger.info("Rollback vm state changes " + changes);
+			}
+			throw e;
+		} finally {
+			if (connection != null)
+				connection.close();
+		}
+
+		for (VmStateChangeBean change : applied) {
+			cache.invalidate(change.getVmid());
+		}
+		return applied;
 	}
 
 	// This function is just for test purpose and should not be called
@@ -1016,6 +1156,9 @@ public class DBOperations {
 			updates.add(insertActivitySQL);
 		}
 		executeTransaction(updates);
+		cache.invalidate(vmid);
+		VMEventBus.getInstance().publishMode(vmid,
+			(vmInfo == null) ? null : vmInfo.getVmmode(), mode, operator);
 	}
 
 	public String getImagePath(String imageName) throws SQLException {
@@ -1081,32 +1224,16 @@ public class DBOperations {
 	
 	public ResultBean getResult(String randomid) throws 
 		SQLException, NoItemIsFoundInDBException, ParseException {
-		Connection connection = null;
-		PreparedStatement pst = null;
-		ResultSet rs = null;
+		List<String> notifiedTimes = RESULT_NOTIFIED_TIME.list(
+				rs -> rs.getString(DBSchema.ResultTable.NOTIFIED_TIME), randomid);
+		if (notifiedTimes.isEmpty())
+			throw new NoItemIsFoundInDBException("Result of " + randomid + " can't be found in db!");
 
-		try {
-			String sql = "SELECT * FROM " + DBSchema.ResultTable.TABLE_NAME +
-				" WHERE " + DBSchema.ResultTable.RESULT_ID + "=\"" + randomid + "\"";			
-			connection = DBConnections.getInstance().getConnection();
-			pst = connection.prepareStatement(sql);
-			rs = pst.executeQuery();
-
-			if (rs.next()) {
-				java.util.Date startDate = rs.getString(DBSchema.ResultTable.NOTIFIED_TIME) != null
-						? DATE_FORMATOR.parse(rs.getString(DBSchema.ResultTable.NOTIFIED_TIME))
-						: null;
-				//return new ResultBean(rs.getBinaryStream(DBSchema.ResultTable.DATA_FIELD), startDate);
-				return new ResultBean(startDate);
-			} else {
-				throw new NoItemIsFoundInDBException("Result of " + randomid + " can't be found in db!");
-			}
-		} finally {
-			if (pst != null)
-				pst.close();
-			if (connection != null)
-				connection.close();
-		}
+		java.util.Date startDate = notifiedTimes.get(0) != null
+				? DATE_FORMATOR.parse(notifiedTimes.get(0))
+				: null;
+		//return new ResultBean(rs.getBinaryStream(DBSchema.ResultTable.DATA_FIELD), startDate);
+		return new ResultBean(startDate);
 	}
 
 	public List<ResultInfoBean> getVMResults(String vmid) throws SQLException, ParseException {
@@ -1269,6 +1396,7 @@ public class DBOperations {
 		logger.debug(sql);
 
 		List<ReviewInfoBean> res = new ArrayList<ReviewInfoBean>();
+		Map<String, List<VmUserRole>> rolesByVmid = new HashMap<String, List<VmUserRole>>();
 
 		Connection conn = null;
 		PreparedStatement pst = null;
@@ -1282,7 +1410,7 @@ public class DBOperations {
 			while (rs.next()) {
 				//get roles of the VM
 				String vmid = rs.getString("vmid");
-				List<VmUserRole> roles = getRolesWithVmid(vmid, true);
+				List<VmUserRole> roles = getRoleList(rolesByVmid, vmid);
 
 				ReviewInfoBean result = new ReviewInfoBean(
 						vmid,
@@ -1300,6 +1428,9 @@ public class DBOperations {
 				);
 				res.add(result);
 			}
+			rs.close();
+			pst.close();
+			loadRolesWithVmids(conn, rolesByVmid, true);
 		} catch (SQLException e) {
 			e.printStackTrace();
 		} finally {
@@ -1332,6 +1463,7 @@ public class DBOperations {
 		logger.debug(sql);
 
         List<ReviewInfoBean> res = new ArrayList<ReviewInfoBean>();
+        Map<String, List<VmUserRole>> rolesByVmid = new HashMap<String, List<VmUserRole>>();
 
         Connection conn = null;
         PreparedStatement pst = null;
@@ -1344,7 +1476,7 @@ public class DBOperations {
             while (rs.next()) {
 				//get roles of the VM
 				String vmid = rs.getString("vmid");
-				List<VmUserRole> roles = getRolesWithVmid(vmid, true);
+				List<VmUserRole> roles = getRoleList(rolesByVmid, vmid);
 
                 ReviewInfoBean result = new ReviewInfoBean(
 						vmid,
@@ -1362,6 +1494,9 @@ public class DBOperations {
                 );
                 res.add(result);
             }
+            rs.close();
+            pst.close();
+            loadRolesWithVmids(conn, rolesByVmid, true);
         } catch (SQLException e) {
             e.printStackTrace();
         } finally {
@@ -1395,6 +1530,7 @@ public class DBOperations {
 		logger.debug(sql);
 
 		List<ReviewInfoBean> res = new ArrayList<ReviewInfoBean>();
+		Map<String, List<VmUserRole>> rolesByVmid = new HashMap<String, List<VmUserRole>>();
 
 		Connection conn = null;
 		PreparedStatement pst = null;
@@ -1407,7 +1543,7 @@ public class DBOperations {
 			while (rs.next()) {
 				//get roles of the VM
 				String vmid = rs.getString("vmid");
-				List<VmUserRole> roles = getRolesWithVmid(vmid, true);
+				List<VmUserRole> roles = getRoleList(rolesByVmid, vmid);
 
 				ReviewInfoBean result = new ReviewInfoBean(
 						vmid,
@@ -1425,6 +1561,9 @@ public class DBOperations {
 				);
 				res.add(result);
 			}
+			rs.close();
+			pst.close();
+			loadRolesWithVmids(conn, rolesByVmid, true);
 		} catch (SQLException e) {
 			e.printStackTrace();
 		} finally {
@@ -1539,6 +1678,7 @@ public class DBOperations {
 	
 	public List<UserResultBean> getResultsUnnotified() throws SQLException {
 		List<UserResultBean> res = new ArrayList<UserResultBean>();
+		Map<String, List<VmUserRole>> rolesByVmid = new HashMap<String, List<VmUserRole>>();
 		Connection connection = null;
 		PreparedStatement pst = null;
 		ResultSet rs = null;
@@ -1562,12 +1702,15 @@ public class DBOperations {
 			while (rs.next()) {
 				//get roles of the vm
 				String vmid = rs.getString(DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.VM_ID);
-				List<VmUserRole> vmUserRoles = DBOperations.getInstance().getRolesWithVmid(vmid, true);
+				List<VmUserRole> vmUserRoles = getRoleList(rolesByVmid, vmid);
 				String resultId = rs.getString(DBSchema.ResultTable.TABLE_NAME + "." + DBSchema.ResultTable.RESULT_ID);
 
 				UserResultBean bean = new UserResultBean(null, null, resultId, vmid, vmUserRoles);
 				res.add(bean);
 			}
+			rs.close();
+			pst.close();
+			loadRolesWithVmids(connection, rolesByVmid, true);
 		} finally {
 			if (rs != null)
 				rs.close();
@@ -1708,149 +1851,173 @@ public class DBOperations {
 
 	public VmUserRole getUserRoleWithVmid(String username, String vmid) throws SQLException,
 		NoItemIsFoundInDBException {
+		VmUserRole cached = cache.getUserRole(vmid, username);
+		if (cached != null)
+			return cached;
+
+		long generation = cache.generation();
+		VmUserRole role = USER_ROLE_WITH_VMID.first(result -> new VmUserRole(
+				result.getString(DBSchema.UserTable.USER_EMAIL),
+				VMRole.fromName(result.getString(DBSchema.UserVmMapTable.ROLE)),
+				result.getBoolean(DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.TOU),
+				result.getString(DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.GUID),
+				result.getObject(
+						DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS) == null
+						? null
+						: result.getBoolean(DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS)),
+				vmid, username);
+		if (role == null)
+			throw new NoItemIsFoundInDBException(vmid + " is not associated with any user!");
+		cache.putUserRole(vmid, username, role, generation);
+		return role;
+	}
+
+	public VmUserRole getOwnerOfVM(String vmid) throws SQLException, NoItemIsFoundInDBException {
+		VmUserRole cached = cache.getOwner(vmid);
+		if (cached != null)
+			return cached;
+
+		long generation = cache.generation();
+		VmUserRole owner = OWNER_OF_VM.first(result -> toVmUserRole(result, true),
+				vmid, "%" + VMRole.OWNER + "%");
+		if (owner == null)
+			throw new NoItemIsFoundInDBException(vmid + " is not associated with any user!");
+		cache.putOwner(vmid, owner, generation);
+		return owner;
+	}
+
+	public List<VmUserRole> getRolesWithVmid(String vmid, boolean getUsername) throws SQLException {
 		Connection connection = null;
 		PreparedStatement pst = null;
+		ResultSet rs = null;
+		List<VmUserRole> roles = new ArrayList<VmUserRole>();
 
 		try {
 			connection = DBConnections.getInstance().getConnection();
-			String query = String.format(
-				"SELECT %s, %s, %s, %s, %s FROM %s, %s WHERE %s=%s AND %s=\"%s\" AND %s=\"%s\"",
-				DBSchema.UserTable.USER_EMAIL, DBSchema.UserVmMapTable.ROLE,
-				DBSchema.UserVmMapTable.TABLE_NAME + "." + 	DBSchema.UserVmMapTable.GUID,
-				DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.TOU,
-				DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS,
-				DBSchema.UserVmMapTable.TABLE_NAME, DBSchema.UserTable.TABLE_NAME,
-				DBSchema.UserVmMapTable.TABLE_NAME+"."+DBSchema.UserVmMapTable.GUID,
-				DBSchema.UserTable.TABLE_NAME+"."+DBSchema.UserTable.GUID,
-				DBSchema.UserVmMapTable.VM_ID, vmid,
-				DBSchema.UserVmMapTable.TABLE_NAME+"."+DBSchema.UserVmMapTable.GUID, username);
-			pst = connection.prepareStatement(query);
-
-			ResultSet result = pst.executeQuery();
-			if (result.next()) {
-				return new VmUserRole(result.getString(DBSchema.UserTable.USER_EMAIL),
-					VMRole.fromName(result.getString(DBSchema.UserVmMapTable.ROLE)),
-					result.getBoolean(DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.TOU),
-					result.getString(DBSchema.UserVmMapTable.TABLE_NAME + "." + 	DBSchema.UserVmMapTable.GUID),
-					result.getObject(
-							DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS) == null
-							? null
-							: result.getBoolean(DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS)
-				);
-			} else {
-				throw new NoItemIsFoundInDBException(vmid + " is not associated with any user!");
+			String role_sql = getRolesSQL() +
+					"AND " + DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.VM_ID + "=\"" + vmid + "\"";
+			pst = connection.prepareStatement(role_sql);
+			rs = pst.executeQuery();
+			while (rs.next()) {
+				roles.add(toVmUserRole(rs, getUsername));
 			}
-
 		} finally {
 			if (pst != null)
 				pst.close();
 			if (connection != null)
 				connection.close();
 		}
+		return roles;
 	}
 
-	public VmUserRole getOwnerOfVM(String vmid) throws SQLException, NoItemIsFoundInDBException {
-		Connection connection = null;
-		PreparedStatement pst = null;
+	/**
+	 * Roles of several VMs fetched with one query instead of one query per VM.
+	 * Every requested vmid is present in the returned map, VMs without any
+	 * role map to an empty list.
+	 */
+	public Map<String, List<VmUserRole>> getRolesWithVmids(Collection<String> vmids, boolean getUsername)
+			throws SQLException {
+		Map<String, List<VmUserRole>> rolesByVmid = new LinkedHashMap<String, List<VmUserRole>>();
+		for (String vmid : vmids) {
+			rolesByVmid.put(vmid, new ArrayList<VmUserRole>());
+		}
 
+		Connection connection = null;
 		try {
 			connection = DBConnections.getInstance().getConnection();
-			String query = "SELECT " +
-					DBSchema.UserTable.TABLE_NAME + "." + DBSchema.UserTable.GUID + ", " +
-					DBSchema.UserTable.TABLE_NAME + "." + DBSchema.UserTable.USER_EMAIL + ", " +
-					DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.ROLE + ", " +
-					DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.TOU + ", " +
-					DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS + " " +
-					"FROM " +
-					DBSchema.UserTable.TABLE_NAME + ", " + DBSchema.UserVmMapTable.TABLE_NAME + " " +
-					"WHERE " + DBSchema.UserTable.TABLE_NAME + "." + DBSchema.UserTable.GUID + "=" +
-					DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.GUID + " " +
-					"AND " + DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.VM_ID + "=\"" +
-					vmid + "\" " +
-					"AND " + DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.ROLE +
-					" LIKE \"%%" + VMRole.OWNER + "%%\"";
-			pst = connection.prepareStatement(query);
-			ResultSet result = pst.executeQuery();
-			if (result.next()) {
-				return new VmUserRole(
-						result.getString(DBSchema.UserTable.USER_EMAIL),
-						VMRole.fromName(result.getString(DBSchema.UserVmMapTable.ROLE)),
-						result.getBoolean(DBSchema.UserVmMapTable.TOU),
-						result.getString(DBSchema.UserTable.GUID),
-						result.getObject(
-								DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS) == null
-								? null
-								: result.getBoolean(DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS));
-			} else {
-				throw new NoItemIsFoundInDBException(vmid + " is not associated with any user!");
-			}
+			loadRolesWithVmids(connection, rolesByVmid, getUsername);
 		} finally {
-			if (pst != null)
-				pst.close();
 			if (connection != null)
 				connection.close();
 		}
-
+		return rolesByVmid;
 	}
 
-	public List<VmUserRole> getRolesWithVmid(String vmid, boolean getUsername) throws SQLException {
-		Connection connection = null;
-		PreparedStatement pst = null;
-		ResultSet rs = null;
-		List<VmUserRole> roles = new ArrayList<VmUserRole>();
+	/**
+	 * Adds the roles of every vm in the map to the list mapped to its vmid.
+	 * The vmids are queried in batches with an IN list on the given
+	 * connection, so listing N VMs costs ceil(N / ROLE_BATCH_SIZE) queries.
+	 */
+	private void loadRolesWithVmids(Connection connection, Map<String, List<VmUserRole>> rolesByVmid,
+			boolean getUsername) throws SQLException {
+		List<String> vmids = new ArrayList<String>(rolesByVmid.keySet());
 
-		try {
-			connection = DBConnections.getInstance().getConnection();
-			String role_sql = "SELECT " +
-					DBSchema.UserTable.TABLE_NAME + "." + DBSchema.UserTable.GUID + ", " +
-					DBSchema.UserTable.TABLE_NAME + "." + DBSchema.UserTable.USER_EMAIL + ", " +
-					DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.ROLE + ", " +
-					DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.TOU + ", " +
-					DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS + " " +
-					"FROM " +
-					DBSchema.VmTable.TABLE_NAME + ", " +
-					DBSchema.UserTable.TABLE_NAME + ", " +
-					DBSchema.UserVmMapTable.TABLE_NAME + " " +
-					"WHERE " + DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.VM_ID + "=" +
-					DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.VM_ID + " " +
-					"AND "  + DBSchema.UserTable.TABLE_NAME + "." + DBSchema.UserTable.GUID + "=" +
-					DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.GUID + " " +
-					"AND " + DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.VM_ID + "=\"" + vmid + "\"";
-			pst = connection.prepareStatement(role_sql);
-			rs = pst.executeQuery();
-			while (rs.next()) {
-				VmUserRole role;
-				if(getUsername) {
-					role = new VmUserRole(
-							rs.getString(DBSchema.UserTable.USER_EMAIL),
-							VMRole.fromName(rs.getString(DBSchema.UserVmMapTable.ROLE)),
-							rs.getBoolean(DBSchema.UserVmMapTable.TOU),
-							rs.getString(DBSchema.UserTable.GUID),
-							rs.getObject(
-									DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS) == null
-									? null
-									: rs.getBoolean(DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS));
-				} else {
-					role = new VmUserRole(
-							rs.getString(DBSchema.UserTable.USER_EMAIL),
-							VMRole.fromName(rs.getString(DBSchema.UserVmMapTable.ROLE)),
-							rs.getBoolean(DBSchema.UserVmMapTable.TOU),
-							rs.getObject(
-									DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS) == null
-									? null
-									: rs.getBoolean(DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS));
+		for (int from = 0; from < vmids.size(); from += ROLE_BATCH_SIZE) {
+			List<String> batch = vmids.subList(from, Math.min(from + ROLE_BATCH_SIZE, vmids.size()));
+			String role_sql = getRolesSQL() +
+					"AND " + DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.VM_ID + " IN (" +
+					String.join(",", Collections.nCopies(batch.size(), "?")) + ")";
+			logger.debug(role_sql);
+
+			PreparedStatement pst = null;
+			ResultSet rs = null;
+			try {
+				pst = connection.prepareStatement(role_sql);
+				for (int i = 0; i < batch.size(); i++) {
+					pst.setString(i + 1, batch.get(i));
 				}
-				roles.add(role);
+				rs = pst.executeQuery();
+				while (rs.next()) {
+					String vmid = rs.getString(DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.VM_ID);
+					rolesByVmid.get(vmid).add(toVmUserRole(rs, getUsername));
+				}
+			} finally {
+				if (rs != null)
+					rs.close();
+				if (pst != null)
+					pst.close();
 			}
-		} finally {
-			if (pst != null)
-				pst.close();
-			if (connection != null)
-				connection.close();
+		}
+	}
+
+	private static List<VmUserRole> getRoleList(Map<String, List<VmUserRole>> rolesByVmid, String vmid) {
+		List<VmUserRole> roles = rolesByVmid.get(vmid);
+		if (roles == null) {
+			roles = new ArrayList<VmUserRole>();
+			rolesByVmid.put(vmid, roles);
 		}
 		return roles;
 	}
 
+	private String getRolesSQL() {
+		return "SELECT " +
+				DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.VM_ID + ", " +
+				DBSchema.UserTable.TABLE_NAME + "." + DBSchema.UserTable.GUID + ", " +
+				DBSchema.UserTable.TABLE_NAME + "." + DBSchema.UserTable.USER_EMAIL + ", " +
+				DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.ROLE + ", " +
+				DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.TOU + ", " +
+				DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS + " " +
+				"FROM " +
+				DBSchema.VmTable.TABLE_NAME + ", " +
+				DBSchema.UserTable.TABLE_NAME + ", " +
+				DBSchema.UserVmMapTable.TABLE_NAME + " " +
+				"WHERE " + DBSchema.VmTable.TABLE_NAME + "." + DBSchema.VmTable.VM_ID + "=" +
+				DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.VM_ID + " " +
+				"AND "  + DBSchema.UserTable.TABLE_NAME + "." + DBSchema.UserTable.GUID + "=" +
+				DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.GUID + " ";
+	}
+
+	private VmUserRole toVmUserRole(ResultSet rs, boolean getUsername) throws SQLException {
+		Boolean full_access = rs.getObject(
+				DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS) == null
+				? null
+				: rs.getBoolean(DBSchema.UserVmMapTable.TABLE_NAME + "." + DBSchema.UserVmMapTable.FULL_ACCESS);
+		if (getUsername) {
+			return new VmUserRole(
+					rs.getString(DBSchema.UserTable.USER_EMAIL),
+					VMRole.fromName(rs.getString(DBSchema.UserVmMapTable.ROLE)),
+					rs.getBoolean(DBSchema.UserVmMapTable.TOU),
+					rs.getString(DBSchema.UserTable.GUID),
+					full_access);
+		} else {
+			return new VmUserRole(
+					rs.getString(DBSchema.UserTable.USER_EMAIL),
+					VMRole.fromName(rs.getString(DBSchema.UserVmMapTable.ROLE)),
+					rs.getBoolean(DBSchema.UserVmMapTable.TOU),
+					full_access);
+		}
+	}
+
 
 	public VMPorts getPortsWithVMId(String vmid) throws SQLException,
 		NoItemIsFoundInDBException {
@@ -1919,36 +2086,17 @@ public class DBOperations {
 
 	public String getUserPubKey(String userName) throws SQLException,
 			NoItemIsFoundInDBException, UnsupportedEncodingException {
-		Connection connection = null;
-		PreparedStatement pst = null;
-
-		try {
-			connection = DBConnections.getInstance().getConnection();
-			String query = String.format(
-					"SELECT %s FROM %s WHERE %s=\"%s\"",
-					DBSchema.UserTable.PUB_KEY, DBSchema.UserTable.TABLE_NAME,
-					DBSchema.UserTable.TABLE_NAME+"."+DBSchema.UserTable.GUID,
-					userName);
-			pst = connection.prepareStatement(query);
-
-			ResultSet result = pst.executeQuery();
-			if (result.next()) {
-				String encodedKey = result.getNString(DBSchema.UserTable.PUB_KEY);
-				if(encodedKey != null ) {
-					byte[] asBytes = Base64.getDecoder().decode(encodedKey);
-					return new String(asBytes, "utf-8");
-				} else {
-					return null;
-				}
-			} else {
-				throw new NoItemIsFoundInDBException(userName + " user could not be found!");
-			}
-
-		} finally {
-			if (pst != null)
-				pst.close();
-			if (connection != null)
-				connection.close();
+		List<String> keys = USER_PUB_KEY.list(
+				result -> result.getNString(DBSchema.UserTable.PUB_KEY), userName);
+		if (keys.isEmpty())
+			throw new NoItemIsFoundInDBException(userName + " user could not be found!");
+
+		String encodedKey = keys.get(0);
+		if(encodedKey != null ) {
+			byte[] asBytes = Base64.getDecoder().decode(encodedKey);
+			return new String(asBytes, "utf-8");
+		} else {
+			return null;
 		}
 	}
 
@@ -2085,6 +2233,7 @@ public class DBOperations {
 				, tou, userName, vmid);
 		updates.add(updateusersql);
 		executeTransaction(updates);
+		cache.invalidate(vmid);
 	}
 
 	public void updateUserTOU(String userName, boolean tou) throws SQLException, UnsupportedEncodingException {
@@ -2105,6 +2254,7 @@ public class DBOperations {
 				+ DBSchema.UserTable.GUID + "=\"%s\"", email, userName);
 		updates.add(updateusersql);
 		executeTransaction(updates);
+		cache.invalidateAll();
 	}
 
 	public void updateVm(String vmid, String type, String title, Boolean consent,
@@ -2146,6 +2296,7 @@ public class DBOperations {
 		updates.add(updatevmsql);
 		updates.add(update_uservmmap_sql);
 		executeTransaction(updates);
+		cache.invalidate(vmid);
 	}
 
 	public void updateVmType(String vmid, String type, Boolean full_access, List<String> guid_list) throws SQLException {
@@ -2169,6 +2320,7 @@ public class DBOperations {
 				+ "\")";
 		updates.add(update_uservmmap_sql);
 		executeTransaction(updates);
+		cache.invalidate(vmid);
 	}
 
 	public void updateVmHostAndPorts(String vmid, VMPorts vmports) throws SQLException {
@@ -2183,6 +2335,7 @@ public class DBOperations {
 				vmports.publicip, vmports.sshport, vmports.vncport, vmid);
 		updates.add(updatevmsql);
 		executeTransaction(updates);
+		cache.invalidate(vmid);
 	}
 
 	public void close() {
@@ -2302,34 +2455,34 @@ public class DBOperations {
 
 	public List<Integer> getPortsOfHost(String host) throws SQLException {
 		List<Integer> res = new ArrayList<Integer>();
-		Connection connection = null;
-		PreparedStatement pst = null;
-		ResultSet rs = null;
-
-		try {
-			connection = DBConnections.getInstance().getConnection();
-			String query = String.format("SELECT * FROM %s WHERE %s=\"%s\"",
-					DBSchema.PortTable.TABLE_NAME,
-					DBSchema.PortTable.HOST, host);
-			logger.debug(query);
-
-			pst = connection.prepareStatement(query);
-			rs = pst.executeQuery();
-			while (rs.next()) {
-				res.add(rs.getInt(DBSchema.PortTable.SSH_PORT));
-				res.add(rs.getInt(DBSchema.PortTable.VNC_PORT));
-			}
-		} finally {
-			if (rs != null)
-				rs.close();
-			if (pst != null)
-				pst.close();
-			if (connection != null)
-				connection.close();
+		List<int[]> portPairs = PORTS_OF_HOST.list(rs -> new int[] {
+				rs.getInt(DBSchema.PortTable.SSH_PORT), rs.getInt(DBSchema.PortTable.VNC_PORT)}, host);
+		for (int[] ports : portPairs) {
+			res.add(ports[0]);
+			res.add(ports[1]);
 		}
 		return res;
 	}
 
+	public List<HostCapacityBean> getHostCapacities() throws SQLException {
+		return HOST_CAPACITIES.list(rs -> new HostCapacityBean(
+				rs.getString(DBSchema.HostTable.HOST_NAME),
+				rs.getInt(DBSchema.HostTable.CPU_CORES),
+				rs.getInt(DBSchema.HostTable.MEMORY_GB)));
+	}
+
+	/**
+	 * resources taken by each VM that is not deleted
+	 */
+	public List<VmFootprintBean> getVmFootprints() throws SQLException {
+		return VM_FOOTPRINTS.list(rs -> new VmFootprintBean(
+				rs.getString(DBSchema.VmTable.VM_ID),
+				rs.getString(DBSchema.VmTable.HOST),
+				rs.getInt(DBSchema.VmTable.NUM_CPUS),
+				rs.getInt(DBSchema.VmTable.MEMORY_SIZE),
+				rs.getInt(DBSchema.VmTable.DISK_SPACE)));
+	}
+
 	public List<VMPorts> getPortsOfVm(String vmid) throws SQLException {
 		List<VMPorts> res = new ArrayList<VMPorts>();
 		Connection connection = null;
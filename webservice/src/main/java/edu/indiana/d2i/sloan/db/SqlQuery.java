@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A parameterized SQL statement. Values are bound to ? placeholders instead of
+ * being quoted into the SQL text, so the text of a query never changes and the
+ * prepared statement can be reused by MySQL and by the c3p0 statement cache.
+ */
+public class SqlQuery {
+	private static Logger logger = LoggerFactory.getLogger(SqlQuery.class);
+
+	public interface RowMapper<T> {
+		T map(ResultSet rs) throws SQLException;
+	}
+
+	private final String sql;
+
+	public SqlQuery(String sql) {
+		this.sql = sql;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * prepare the statement on the connection and bind the parameters in
+	 * order, the caller closes the statement
+	 */
+	public PreparedStatement prepare(Connection connection, Object... params)
+			throws SQLException {
+		logger.debug(sql);
+		PreparedStatement pst = connection.prepareStatement(sql);
+		try {
+			bind(pst, params);
+		} catch (SQLException e) {
+			pst.close();
+			throw e;
+		}
+		return pst;
+	}
+
+	public <T> List<T> list(Connection connection, RowMapper<T> mapper,
+			Object... params) throws SQLException {
+		List<T> res = new ArrayList<T>();
+		PreparedStatement pst = null;
+		ResultSet rs = null;
+		try {
+			pst = prepare(connection, params);
+			rs = pst.executeQuery();
+			while (rs.next()) {
+				res.add(mapper.map(rs));
+			}
+		} finally {
+			if (rs != null)
+				rs.close();
+			if (pst != null)
+				pst.close();
+		}
+		return res;
+	}
+
+	public <T> List<T> list(RowMapper<T> mapper, Object... params)
+			throws SQLException {
+		Connection connection = null;
+		try {
+			connection = DBConnections.getInstance().getConnection();
+			return list(connection, mapper, params);
+		} finally {
+			if (connection != null)
+				connection.close();
+		}
+	}
+
+	/**
+	 * @return the first row mapped, or null if the query returns no rows
+	 */
+	public <T> T first(RowMapper<T> mapper, Object... params)
+			throws SQLException {
+		Connection connection = null;
+		PreparedStatement pst = null;
+		ResultSet rs = null;
+		try {
+			connection = DBConnections.getInstance().getConnection();
+			pst = prepare(connection, params);
+			rs = pst.executeQuery();
+			return rs.next() ? mapper.map(rs) : null;
+		} finally {
+			if (rs != null)
+				rs.close();
+			if (pst != null)
+				pst.close();
+			if (connection != null)
+				connection.close();
+		}
+	}
+
+	/**
+	 * @return the number of affected rows
+	 */
+	public int update(Connection connection, Object... params)
+			throws SQLException {
+		PreparedStatement pst = null;
+		try {
+			pst = prepare(connection, params);
+			return pst.executeUpdate();
+		} finally {
+			if (pst != null)
+				pst.close();
+		}
+	}
+
+	/**
+	 * execute the statement on a connection of its own, committed at once
+	 * 
+	 * @return the number of affected rows
+	 */
+	public int update(Object... params) throws SQLException {
+		Connection connection = null;
+		try {
+			connection = DBConnections.getInstance().getConnection();
+			return update(connection, params);
+		} finally {
+			if (connection != null)
+				connection.close();
+		}
+	}
+
+	/**
+	 * execute the statement once for each list of parameters in a single
+	 * batch, the caller commits
+	 * 
+	 * @return the number of affected rows of each
+	 */
+	public int[] batchUpdate(Connection connection, List<Object[]> paramsList)
+			throws SQLException {
+		logger.debug(sql + " x " + paramsList.size());
+		PreparedStatement pst = null;
+		try {
+			pst = connection.prepareStatement(sql);
+			for (Object[] params : paramsList) {
+				bind(pst, params);
+				pst.addBatch();
+			}
+			return pst.executeBatch();
+		} finally {
+			if (pst != null)
+				pst.close();
+		}
+	}
+
+	static void bind(PreparedStatement pst, Object... params)
+			throws SQLException {
+		for (int i = 0; i < params.length; i++) {
+			Object param = params[i];
+			int index = i + 1;
+			if (param == null) {
+				pst.setNull(index, Types.NULL);
+			} else if (param instanceof String) {
+				pst.setString(index, (String) param);
+			} else if (param instanceof Integer) {
+				pst.setInt(index, (Integer) param);
+			} else if (param instanceof Long) {
+				pst.setLong(index, (Long) param);
+			} else if (param instanceof Boolean) {
+				pst.setBoolean(index, (Boolean) param);
+			} else if (param instanceof Timestamp) {
+				pst.setTimestamp(index, (Timestamp) param);
+			} else if (param instanceof Enum) {
+				pst.setString(index, ((Enum<?>) param).toString());
+			} else {
+				pst.setObject(index, param);
+			}
+		}
+	}
+}
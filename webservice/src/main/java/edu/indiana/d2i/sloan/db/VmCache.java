@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.db;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.indiana.d2i.sloan.bean.VmInfoBean;
+import edu.indiana.d2i.sloan.bean.VmUserRole;
+
+/**
+ * Bounded cache of vm info and vm user roles in front of MySQL. Entries are
+ * grouped by vmid so that a write to a VM drops everything cached for it,
+ * the least recently used VM is evicted once max VMs is reached and every
+ * entry expires after the ttl.
+ *
+ * A loader reads {@link #generation()} before querying the DB and passes it
+ * to the put method, the put is dropped if any invalidation happened in
+ * between, so a read racing with a write never caches the old row.
+ *
+ * Beans are copied on the way in and out since callers modify them.
+ */
+public class VmCache {
+	private static final String OWNER_KEY = "owner";
+	private static final String ROLE_KEY_PREFIX = "role:";
+	private static final String VM_INFO_KEY_PREFIX = "info:";
+
+	private final boolean enabled;
+	private final int maxVms;
+	private final long ttlInMillis;
+
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private final AtomicLong evictions = new AtomicLong(0);
+	private final AtomicLong invalidations = new AtomicLong(0);
+
+	/* guarded by this */
+	private long generation = 0;
+	private final LinkedHashMap<String, Map<String, Entry>> vms;
+
+	private static class Entry {
+		final Object value;
+		final long expiresAt;
+
+		Entry(Object value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	public static class CacheStats {
+		private boolean enabled;
+		private int vms;
+		private int maxVms;
+		private long ttlInMs;
+		private long hits;
+		private long misses;
+		private long evictions;
+		private long invalidations;
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public int getVms() {
+			return vms;
+		}
+
+		public int getMaxVms() {
+			return maxVms;
+		}
+
+		public long getTtlInMs() {
+			return ttlInMs;
+		}
+
+		public long getHits() {
+			return hits;
+		}
+
+		public long getMisses() {
+			return misses;
+		}
+
+		public long getEvictions() {
+			return evictions;
+		}
+
+		public long getInvalidations() {
+			return invalidations;
+		}
+	}
+
+	VmCache(boolean enabled, int maxVms, long ttlInMillis) {
+		this.enabled = enabled && maxVms > 0 && ttlInMillis > 0;
+		this.maxVms = maxVms;
+		this.ttlInMillis = ttlInMillis;
+		this.vms = new LinkedHashMap<String, Map<String, Entry>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Map<String, Entry>> eldest) {
+				if (size() > VmCache.this.maxVms) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public synchronized long generation() {
+		return generation;
+	}
+
+	public VmUserRole getUserRole(String vmid, String guid) {
+		VmUserRole role = (VmUserRole) lookup(vmid, ROLE_KEY_PREFIX + guid);
+		return (role == null) ? null : new VmUserRole(role);
+	}
+
+	public void putUserRole(String vmid, String guid, VmUserRole role, long generation) {
+		store(vmid, ROLE_KEY_PREFIX + guid, new VmUserRole(role), generation);
+	}
+
+	public VmUserRole getOwner(String vmid) {
+		VmUserRole owner = (VmUserRole) lookup(vmid, OWNER_KEY);
+		return (owner == null) ? null : new VmUserRole(owner);
+	}
+
+	public void putOwner(String vmid, VmUserRole owner, long generation) {
+		store(vmid, OWNER_KEY, new VmUserRole(owner), generation);
+	}
+
+	public VmInfoBean getVmInfo(String vmid, String guid) {
+		VmInfoBean vminfo = (VmInfoBean) lookup(vmid, VM_INFO_KEY_PREFIX + guid);
+		return (vminfo == null) ? null : new VmInfoBean(vminfo);
+	}
+
+	public void putVmInfo(String vmid, String guid, VmInfoBean vminfo, long generation) {
+		store(vmid, VM_INFO_KEY_PREFIX + guid, new VmInfoBean(vminfo), generation);
+	}
+
+	/**
+	 * drop everything cached for the VM, called after each write to it
+	 */
+	public synchronized void invalidate(String vmid) {
+		if (!enabled)
+			return;
+		generation++;
+		invalidations.incrementAndGet();
+		vms.remove(vmid);
+	}
+
+	/**
+	 * drop everything, for writes that touch rows of many VMs
+	 */
+	public synchronized void invalidateAll() {
+		if (!enabled)
+			return;
+		generation++;
+		invalidations.incrementAndGet();
+		vms.clear();
+	}
+
+	public synchronized CacheStats getStats() {
+		CacheStats stats = new CacheStats();
+		stats.enabled = enabled;
+		stats.vms = vms.size();
+		stats.maxVms = maxVms;
+		stats.ttlInMs = ttlInMillis;
+		stats.hits = hits.get();
+		stats.misses = misses.get();
+		stats.evictions = evictions.get();
+		stats.invalidations = invalidations.get();
+		return stats;
+	}
+
+	private synchronized Object lookup(String vmid, String key) {
+		if (!enabled)
+			return null;
+		Map<String, Entry> entries = vms.get(vmid);
+		Entry entry = (entries == null) ? null : entries.get(key);
+		if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+			entries.remove(key);
+			if (entries.isEmpty())
+				vms.remove(vmid);
+			entry = null;
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.value;
+	}
+
+	private synchronized void store(String vmid, String key, Object value, long loadedAtGeneration) {
+		if (!enabled || loadedAtGeneration != generation)
+			return;
+		Map<String, Entry> entries = vms.get(vmid);
+		if (entries == null) {
+			entries = new HashMap<String, Entry>();
+			vms.put(vmid, entries);
+		}
+		entries.put(key, new Entry(value, System.currentTimeMillis() + ttlInMillis));
+	}
+}
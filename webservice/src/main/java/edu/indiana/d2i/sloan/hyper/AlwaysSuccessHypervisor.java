@@ -55,6 +55,11 @@ public class AlwaysSuccessHypervisor implements IHypervisor {
 		return genFakeResponse(VMState.RUNNING);
 	}
 
+	@Override
+	public HypervisorResponse queryVMs(String host, List<VmInfoBean> vms) throws Exception {
+		return genFakeResponse(VMState.RUNNING);
+	}
+
 	@Override
 	public HypervisorResponse switchVM(VmInfoBean vminfo) throws Exception {
 		return genFakeResponse(VMState.RUNNING);
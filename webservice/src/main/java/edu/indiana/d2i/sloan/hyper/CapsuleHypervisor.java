@@ -16,13 +16,16 @@
 package edu.indiana.d2i.sloan.hyper;
 
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import edu.indiana.d2i.sloan.vm.VMPorts;
 import edu.indiana.d2i.sloan.vm.VMState;
@@ -31,13 +34,16 @@ import org.slf4j.LoggerFactory;
 import com.jcraft.jsch.JSchException;
 
 import edu.indiana.d2i.sloan.Configuration;
+import edu.indiana.d2i.sloan.Constants;
 import edu.indiana.d2i.sloan.bean.VmInfoBean;
 import edu.indiana.d2i.sloan.utils.CommandUtils;
 import edu.indiana.d2i.sloan.utils.CommandUtils.HYPERVISOR_CMD;
 import edu.indiana.d2i.sloan.utils.RetriableTask;
+import edu.indiana.d2i.sloan.utils.RetryPolicy;
 import edu.indiana.d2i.sloan.utils.SSHProxy;
 import edu.indiana.d2i.sloan.utils.SSHProxy.CmdsExecResult;
 import edu.indiana.d2i.sloan.utils.SSHProxy.Commands;
+import edu.indiana.d2i.sloan.utils.SSHProxy.OutputLineListener;
 
 class CapsuleHypervisor implements IHypervisor {
 	private static Logger logger = LoggerFactory.getLogger(CapsuleHypervisor.class);
@@ -46,13 +52,28 @@ class CapsuleHypervisor implements IHypervisor {
 	private static String sshPasswd;
 	private static String privateKeyPath;
 	private static boolean retriable;
-	protected static long retryWaitInMs = 500;
-	protected static int maxRetry = 5;
+	/* retries are scheduled by the hypervisor proxy, calls here are made once */
+	protected static boolean asyncRetry = false;
+	protected static long retryWaitInMs = Constants.DEFAULT_RETRY_TASK_WAIT_IN_MILLIS;
+	protected static int maxRetry = Constants.DEFAULT_RETRY_TASK_MAX_ATTEMPT;
 	private static Set<String> retriableExpNames = null;
 
+	/* commands that may legitimately run for a long time unless configured otherwise */
+	private static final Set<HYPERVISOR_CMD> NO_TIMEOUT_CMDS = Collections.unmodifiableSet(
+		EnumSet.of(HYPERVISOR_CMD.CREATE_VM, HYPERVISOR_CMD.MIGRATE_VM));
+
+	/* shared by all hypervisor tasks, it only interrupts tasks that run too long */
+	private static final ScheduledExecutorService TIMEOUT_WATCHDOG =
+		Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "hypervisor-task-watchdog");
+			t.setDaemon(true);
+			return t;
+		});
+
 	static {
-		timeoutInMillis = Configuration.getInstance().getInt(
-			Configuration.PropertyName.HYPERVISOR_TASK_TIMEOUT);
+		timeoutInMillis = Configuration.getInstance().getLong(
+			Configuration.PropertyName.HYPERVISOR_TASK_TIMEOUT,
+			Long.parseLong(Constants.DEFAULT_HYPERVISOR_TASK_TIMEOUT));
 
 		sshUsername = Configuration.getInstance().getString(
 				Configuration.PropertyName.SSH_USERNAME);
@@ -77,63 +98,110 @@ class CapsuleHypervisor implements IHypervisor {
 					.getString(
 							Configuration.PropertyName.RETRY_TASK_MAX_ATTEMPT));
 
-//			String[] classNames = Configuration
-//					.getInstance()
-//					.getString(
-//							Configuration.PropertyName.RETRY_TASK_RETRIABLE_EXPS)
-//					.split(";");
-//			retriableExpNames = new HashSet<String>(Arrays.<String> asList(classNames));
+			retriableExpNames = RetryPolicy.parseExceptionNames(Configuration
+					.getInstance()
+					.getString(
+							Configuration.PropertyName.RETRY_TASK_RETRIABLE_EXPS,
+							Constants.DEFAULT_RETRY_TASK_RETRIABLE_EXPS));
+
+			asyncRetry = Configuration.getInstance().getBoolean(
+					Configuration.PropertyName.RETRY_TASK_ASYNC, Constants.DEFAULT_RETRY_TASK_ASYNC);
 		}
 	}
 
 	class CapsuleTask implements Callable<CmdsExecResult> {
 		private SSHProxy sshProxy;
 		private Commands cmds;
+		private OutputLineListener listener;
 
 		public CapsuleTask(SSHProxy sshProxy, Commands cmds) {
+			this(sshProxy, cmds, null);
+		}
+
+		public CapsuleTask(SSHProxy sshProxy, Commands cmds, OutputLineListener listener) {
 			super();
 			this.sshProxy = sshProxy;
 			this.cmds = cmds;
+			this.listener = listener;
 		}
 
 		@Override
 		public CmdsExecResult call() throws Exception {
-			return sshProxy.execCmdSync(cmds);
+			return sshProxy.execCmdSync(cmds, listener);
 		}
 	}
 
+	/**
+	 * logs script output as it comes in, used by long running scripts
+	 */
+	private static OutputLineListener progressLogger(final HYPERVISOR_CMD cmd, final String vmid) {
+		return line -> logger.info(String.format("[%s %s] %s", cmd.name().toLowerCase(), vmid, line));
+	}
+
 	/**
 	 * It only retries SSH connection error, and script execution time out exception.
-	 * It will NOT retry script errors.
+	 * It will NOT retry script errors. With async retry the call is made once
+	 * and the hypervisor proxy retries the command without holding a worker.
 	 */
-	private static <T> T executeRetriableTask(final Callable<T> task)
-			throws Exception {
-		if (retriable) {
+	private static <T> T executeRetriableTask(final Callable<T> task,
+			final HYPERVISOR_CMD cmd) throws Exception {
+		final long timeout = getTimeoutInMillis(cmd);
+		if (retriable && !asyncRetry) {
 			RetriableTask<T> r = new RetriableTask<T>(
 				new Callable<T>() {
 					@Override
 					public T call() throws Exception {
-						return executeTask(task);
+						return executeTask(task, timeout);
 					}
-				},  retryWaitInMs, maxRetry, retriableExpNames);
+				}, new RetryPolicy(maxRetry, retryWaitInMs, retryWaitInMs, 1.0, 0.0, retriableExpNames));
 			return r.call();	
 		} else {
-			return executeTask(task);
+			return executeTask(task, timeout);
 		}
 	}
 
-	private static <T> T executeTask(Callable<T> task) throws Exception {
-		ExecutorService executor = null;
+	/**
+	 * timeout of a command type, 0 means the command is never interrupted
+	 */
+	static long getTimeoutInMillis(HYPERVISOR_CMD cmd) {
+		return Configuration.getInstance().getLong(
+			Configuration.PropertyName.HYPERVISOR_TASK_TIMEOUT_PREFIX + cmd.name().toLowerCase(),
+			NO_TIMEOUT_CMDS.contains(cmd) ? 0 : timeoutInMillis);
+	}
+
+	/**
+	 * Runs the task on the calling (hypervisor worker) thread. If a timeout is
+	 * given, a shared watchdog interrupts the caller when it expires, which
+	 * aborts the blocking ssh read and closes the channel.
+	 */
+	private static <T> T executeTask(Callable<T> task, long timeout) throws Exception {
+		if (timeout <= 0)
+			return task.call();
+
+		final Thread caller = Thread.currentThread();
+		/* set by whichever of the task and the watchdog finishes first */
+		final AtomicBoolean finished = new AtomicBoolean(false);
+		ScheduledFuture<?> watchdog = TIMEOUT_WATCHDOG.schedule(() -> {
+			synchronized (finished) {
+				if (finished.compareAndSet(false, true))
+					caller.interrupt();
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+
 		try {
-			executor = Executors.newSingleThreadExecutor();
-			Future<T> future = executor.submit(task);
-			//return future.get(timeoutInMillis, TimeUnit.MILLISECONDS);
-			//Capsule tasks can take a long time to execute and shouldn't be stopped in the middle of execution
-			//hence removing the Future timeout
-			return future.get();
+			return task.call();
+		} catch (Exception e) {
+			if (finished.compareAndSet(false, true))
+				throw e;
+			throw new TimeoutException(String.format(
+				"Hypervisor task did not finish in %d ms: %s", timeout, e.getMessage()));
 		} finally {
-			if (executor != null)
-				executor.shutdownNow();
+			watchdog.cancel(false);
+			synchronized (finished) {
+				/* the watchdog fired, don't leak its interrupt to the worker */
+				if (!finished.compareAndSet(false, true))
+					Thread.interrupted();
+			}
 		}
 	}
 
@@ -179,7 +247,8 @@ class CapsuleHypervisor implements IHypervisor {
 
 			/* execute task */
 			CmdsExecResult res = executeRetriableTask(new CapsuleTask(sshProxy,
-					createVMCmd));
+					createVMCmd, progressLogger(HYPERVISOR_CMD.CREATE_VM, vminfo.getVmid())),
+					HYPERVISOR_CMD.CREATE_VM);
 
 			return HypervisorResponse.commandRes2HyResp(res);
 		} finally {
@@ -215,7 +284,7 @@ class CapsuleHypervisor implements IHypervisor {
 
 			/* execute task */
 			CmdsExecResult res = executeRetriableTask(new CapsuleTask(sshProxy,
-					launchVMCmd));
+					launchVMCmd), HYPERVISOR_CMD.LAUNCH_VM);
 
 			return HypervisorResponse.commandRes2HyResp(res);
 		} finally {
@@ -247,7 +316,40 @@ class CapsuleHypervisor implements IHypervisor {
 
 			/* execute task */
 			CmdsExecResult res = executeRetriableTask(new CapsuleTask(sshProxy,
-					queryVMCmd));
+					queryVMCmd), HYPERVISOR_CMD.QUERY_VM);
+
+			return HypervisorResponse.commandRes2HyResp(res);
+		} finally {
+			/* close ssh connection */
+			if (sshProxy != null)
+				sshProxy.close();
+		}
+	}
+
+	@Override
+	public HypervisorResponse queryVMs(String host, List<VmInfoBean> vms) throws Exception {
+		logger.debug("query " + vms.size() + " vms at " + host);
+
+		SSHProxy sshProxy = null;
+
+		try {
+			/* establish ssh connection */
+			sshProxy = establishSShCon(host, SSHProxy.SSH_DEFAULT_PORT);
+
+			/* compose script command, one working directory per vm */
+			CommandUtils.ArgsBuilder args = new CommandUtils.ArgsBuilder();
+			for (VmInfoBean vminfo : vms) {
+				args.addArgument("--wdir", vminfo.getWorkDir());
+			}
+
+			Commands queryVMsCmd = new Commands(
+					Collections.<String> singletonList(CommandUtils
+							.composeFullCommand(HYPERVISOR_CMD.QUERY_VMS,
+									args.build())), false);
+
+			/* execute task */
+			CmdsExecResult res = executeRetriableTask(new CapsuleTask(sshProxy,
+					queryVMsCmd), HYPERVISOR_CMD.QUERY_VMS);
 
 			return HypervisorResponse.commandRes2HyResp(res);
 		} finally {
@@ -282,7 +384,7 @@ class CapsuleHypervisor implements IHypervisor {
 
 			/* execute task */
 			CmdsExecResult res = executeRetriableTask(new CapsuleTask(sshProxy,
-					switchVMCmd));
+					switchVMCmd), HYPERVISOR_CMD.SWITCH_VM);
 
 			return HypervisorResponse.commandRes2HyResp(res);
 		} finally {
@@ -316,7 +418,7 @@ class CapsuleHypervisor implements IHypervisor {
 
 			/* execute task */
 			CmdsExecResult res = executeRetriableTask(new CapsuleTask(sshProxy,
-					stopVMCmd));
+					stopVMCmd), HYPERVISOR_CMD.STOP_VM);
 
 			return HypervisorResponse.commandRes2HyResp(res);
 		} finally {
@@ -349,7 +451,7 @@ class CapsuleHypervisor implements IHypervisor {
 
 			/* execute task */
 			CmdsExecResult res = executeRetriableTask(new CapsuleTask(sshProxy,
-					deleteVMCmd));
+					deleteVMCmd), HYPERVISOR_CMD.DELETE_VM);
 
 			return HypervisorResponse.commandRes2HyResp(res);
 		} finally {
@@ -383,7 +485,7 @@ class CapsuleHypervisor implements IHypervisor {
 
 			/* execute task */
 			CmdsExecResult res = executeRetriableTask(new CapsuleTask(sshProxy,
-					updateKeyCmd));
+					updateKeyCmd), HYPERVISOR_CMD.UPDATE_KEY);
 
 			return HypervisorResponse.commandRes2HyResp(res);
 		} finally {
@@ -417,7 +519,7 @@ class CapsuleHypervisor implements IHypervisor {
 
 			/* execute task */
 			CmdsExecResult res = executeRetriableTask(new CapsuleTask(sshProxy,
-					updateCustosCredsCmd));
+					updateCustosCredsCmd), HYPERVISOR_CMD.UPDATE_CUSTOS_CREDS);
 
 			return HypervisorResponse.commandRes2HyResp(res);
 		} finally {
@@ -454,7 +556,8 @@ class CapsuleHypervisor implements IHypervisor {
 
 			/* execute task */
 			CmdsExecResult res = executeRetriableTask(new CapsuleTask(sshProxy,
-					migrateVMCmd));
+					migrateVMCmd, progressLogger(HYPERVISOR_CMD.MIGRATE_VM, vminfo.getVmid())),
+					HYPERVISOR_CMD.MIGRATE_VM);
 
 			return HypervisorResponse.commandRes2HyResp(res);
 		} finally {
@@ -490,7 +593,7 @@ class CapsuleHypervisor implements IHypervisor {
 
 			/* execute task */
 			CmdsExecResult res = executeRetriableTask(new CapsuleTask(sshProxy,
-					shareVMCmd));
+					shareVMCmd), HYPERVISOR_CMD.DELETE_KEY);
 
 			return HypervisorResponse.commandRes2HyResp(res);
 		} finally {
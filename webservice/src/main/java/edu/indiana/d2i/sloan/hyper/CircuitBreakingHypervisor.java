@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.hyper;
+
+import java.util.List;
+
+import edu.indiana.d2i.sloan.bean.VmInfoBean;
+import edu.indiana.d2i.sloan.vm.VMPorts;
+
+/**
+ * Runs every call of the wrapped hypervisor through the breaker of the host
+ * it goes to, see {@link HostCircuitBreaker}.
+ */
+class CircuitBreakingHypervisor implements IHypervisor {
+	private final IHypervisor hypervisor;
+
+	CircuitBreakingHypervisor(IHypervisor hypervisor) {
+		this.hypervisor = hypervisor;
+	}
+
+	@Override
+	public HypervisorResponse createVM(final VmInfoBean vminfo, final String pubKey,
+			final String userId) throws Exception {
+		return HostCircuitBreaker.getInstance().call(vminfo.getPublicip(),
+				() -> hypervisor.createVM(vminfo, pubKey, userId));
+	}
+
+	@Override
+	public HypervisorResponse launchVM(final VmInfoBean vminfo) throws Exception {
+		return HostCircuitBreaker.getInstance().call(vminfo.getPublicip(),
+				() -> hypervisor.launchVM(vminfo));
+	}
+
+	@Override
+	public HypervisorResponse queryVM(final VmInfoBean vminfo) throws Exception {
+		return HostCircuitBreaker.getInstance().call(vminfo.getPublicip(),
+				() -> hypervisor.queryVM(vminfo));
+	}
+
+	@Override
+	public HypervisorResponse queryVMs(final String host, final List<VmInfoBean> vms) throws Exception {
+		return HostCircuitBreaker.getInstance().call(host,
+				() -> hypervisor.queryVMs(host, vms));
+	}
+
+	@Override
+	public HypervisorResponse switchVM(final VmInfoBean vminfo) throws Exception {
+		return HostCircuitBreaker.getInstance().call(vminfo.getPublicip(),
+				() -> hypervisor.switchVM(vminfo));
+	}
+
+	@Override
+	public HypervisorResponse stopVM(final VmInfoBean vminfo) throws Exception {
+		return HostCircuitBreaker.getInstance().call(vminfo.getPublicip(),
+				() -> hypervisor.stopVM(vminfo));
+	}
+
+	@Override
+	public HypervisorResponse delete(final VmInfoBean vminfo) throws Exception {
+		return HostCircuitBreaker.getInstance().call(vminfo.getPublicip(),
+				() -> hypervisor.delete(vminfo));
+	}
+
+	@Override
+	public HypervisorResponse updatePubKey(final VmInfoBean vminfo, final String pubKey,
+			final String userId) throws Exception {
+		return HostCircuitBreaker.getInstance().call(vminfo.getPublicip(),
+				() -> hypervisor.updatePubKey(vminfo, pubKey, userId));
+	}
+
+	@Override
+	public HypervisorResponse updateCustosCreds(final VmInfoBean vminfo, final String custos_client_id,
+			final String custos_client_secret) throws Exception {
+		return HostCircuitBreaker.getInstance().call(vminfo.getPublicip(),
+				() -> hypervisor.updateCustosCreds(vminfo, custos_client_id, custos_client_secret));
+	}
+
+	@Override
+	public HypervisorResponse migrateVM(final VmInfoBean vminfo, final VMPorts vmports) throws Exception {
+		return HostCircuitBreaker.getInstance().call(vminfo.getPublicip(),
+				() -> hypervisor.migrateVM(vminfo, vmports));
+	}
+
+	@Override
+	public HypervisorResponse deletePubKey(final VmInfoBean vminfo, final String pubKey,
+			final String userId) throws Exception {
+		return HostCircuitBreaker.getInstance().call(vminfo.getPublicip(),
+				() -> hypervisor.deletePubKey(vminfo, pubKey, userId));
+	}
+}
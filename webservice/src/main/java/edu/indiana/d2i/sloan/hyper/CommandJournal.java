@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.hyper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only file of the hypervisor commands that were accepted but have not
+ * finished. A command is written before it is queued and marked done once it
+ * has run or been cleaned up, so the entries left without a done mark after a
+ * restart are the commands that were lost with the process. The file is
+ * rewritten with only the unfinished entries when it is opened and after
+ * every so many finished commands.
+ */
+class CommandJournal {
+	private static Logger logger = LoggerFactory.getLogger(CommandJournal.class);
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String BEGIN = "begin";
+	private static final String DONE = "done";
+
+	private final File file;
+	private final boolean sync;
+	private final int compactThreshold;
+
+	/* guarded by this */
+	private final Map<Long, Entry> unfinished = new LinkedHashMap<Long, Entry>();
+	private FileOutputStream out;
+	private Writer writer;
+	private long nextSeq = 1;
+	private int finishedSinceCompact = 0;
+
+	static class Entry {
+		private final long seq;
+		private final long time;
+		private final String vmid;
+		private final String command;
+
+		Entry(long seq, long time, String vmid, String command) {
+			this.seq = seq;
+			this.time = time;
+			this.vmid = vmid;
+			this.command = command;
+		}
+
+		long getSeq() {
+			return seq;
+		}
+
+		long getTime() {
+			return time;
+		}
+
+		String getVmid() {
+			return vmid;
+		}
+
+		String getCommand() {
+			return command;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("[%d %s %s]", seq, command, vmid);
+		}
+	}
+
+	/**
+	 * @param sync
+	 *            force every record to the disk before the command goes on
+	 * @param compactThreshold
+	 *            finished commands after which the file is rewritten
+	 */
+	CommandJournal(File file, boolean sync, int compactThreshold) throws IOException {
+		this.file = file;
+		this.sync = sync;
+		this.compactThreshold = Math.max(compactThreshold, 1);
+
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create directory of command journal " + file);
+		if (file.exists())
+			read();
+		compact();
+	}
+
+	private void read() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+			new FileInputStream(file), UTF_8));
+		try {
+			String line;
+			int lineNo = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNo++;
+				String[] fields = line.split("\t");
+				try {
+					if (BEGIN.equals(fields[0]) && fields.length == 5) {
+						Entry entry = new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+							fields[3], fields[4]);
+						unfinished.put(entry.seq, entry);
+						nextSeq = Math.max(nextSeq, entry.seq + 1);
+					} else if (DONE.equals(fields[0]) && fields.length == 2) {
+						unfinished.remove(Long.parseLong(fields[1]));
+					} else {
+						throw new IllegalArgumentException(line);
+					}
+				} catch (IllegalArgumentException e) {
+					// the last line is cut short if the process died writing it
+					logger.warn("Skip malformed line " + lineNo + " of command journal " + file + ": " + line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * rewrite the file with the unfinished entries and append to it from then on
+	 */
+	private void compact() throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream tmpOut = new FileOutputStream(tmp);
+		try {
+			Writer tmpWriter = new BufferedWriter(new OutputStreamWriter(tmpOut, UTF_8));
+			for (Entry entry : unfinished.values())
+				tmpWriter.write(beginRecord(entry));
+			tmpWriter.flush();
+			tmpOut.getFD().sync();
+		} finally {
+			tmpOut.close();
+		}
+
+		if (writer != null)
+			writer.close();
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+		out = new FileOutputStream(file, true);
+		writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+		finishedSinceCompact = 0;
+	}
+
+	private static String beginRecord(Entry entry) {
+		return BEGIN + "\t" + entry.seq + "\t" + entry.time + "\t" + entry.vmid + "\t"
+			+ entry.command + "\n";
+	}
+
+	private void append(String record) throws IOException {
+		if (writer == null)
+			throw new IOException("Command journal " + file + " is closed");
+		writer.write(record);
+		writer.flush();
+		if (sync)
+			out.getFD().sync();
+	}
+
+	/**
+	 * record a command that is about to be queued
+	 * 
+	 * @return the sequence number to finish the command with
+	 */
+	synchronized long begin(String vmid, String command) throws IOException {
+		Entry entry = new Entry(nextSeq++, System.currentTimeMillis(), vmid, command);
+		append(beginRecord(entry));
+		unfinished.put(entry.seq, entry);
+		return entry.seq;
+	}
+
+	/**
+	 * record that the command has run or was cleaned up after it failed
+	 */
+	synchronized void finish(long seq) throws IOException {
+		if (!unfinished.containsKey(seq))
+			return;
+		append(DONE + "\t" + seq + "\n");
+		unfinished.remove(seq);
+		if (++finishedSinceCompact >= compactThreshold)
+			compact();
+	}
+
+	synchronized List<Entry> getUnfinished() {
+		return new ArrayList<Entry>(unfinished.values());
+	}
+
+	synchronized void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+	}
+}
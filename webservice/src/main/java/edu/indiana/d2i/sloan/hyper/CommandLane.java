@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.hyper;
+
+/**
+ * Hypervisor commands wait in one queue per lane. A free worker takes the
+ * oldest command of the first lane, in declaration order, that has one
+ * queued and is below its worker limit.
+ */
+public enum CommandLane {
+	/* launch, stop and switch, a user is waiting for them */
+	CONTROL(false),
+	/* create, delete and migrate, slow */
+	PROVISION(false),
+	/* public keys and credentials */
+	MAINTENANCE(false),
+	/* status queries of /show polling, only refresh what is in DB */
+	QUERY(true);
+
+	private final boolean shedWhenFull;
+
+	private CommandLane(boolean shedWhenFull) {
+		this.shedWhenFull = shedWhenFull;
+	}
+
+	/**
+	 * true if a command that finds the lane full is dropped quietly, false if
+	 * it is rejected and cleaned up as a failed command
+	 */
+	public boolean isShedWhenFull() {
+		return shedWhenFull;
+	}
+
+	/**
+	 * name used in the configuration, e.g. sloan.ws.hyper.lane.query.workers
+	 */
+	public String getConfigName() {
+		return name().toLowerCase();
+	}
+}
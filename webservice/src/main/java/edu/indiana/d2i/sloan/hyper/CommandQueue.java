@@ -0,0 +1,756 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.hyper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import edu.indiana.d2i.sloan.exception.CommandQueueFullException;
+import edu.indiana.d2i.sloan.utils.LatencyHistogram;
+
+/**
+ * Bounded queue of hypervisor commands with one lane per
+ * {@link CommandLane}. Each lane has its own capacity and a limit on the
+ * workers running its commands at the same time, so status queries can not
+ * take the workers launches wait for. Lanes are served in priority order.
+ *
+ * Commands with a coalesce key are single-flight: while one is queued or
+ * running, the same command is not queued again, and a lane with a freshness
+ * window does not queue it again for that long after it succeeded.
+ *
+ * The commands of one VM form its mailbox and run one at a time in the order
+ * they were queued, only the oldest of them waits in its lane while the others
+ * wait behind it. Commands of different VMs still run in parallel. A failed
+ * command that is retried keeps its place at the head of the mailbox.
+ *
+ * With fair share, each lane keeps one queue per user and takes their
+ * commands in weighted round robin, a user with weight 2 gets two commands
+ * for each one of a user with weight 1, so one user flooding the queue does
+ * not hold up the others. A user may also be limited to a number of commands
+ * running at the same time. Without fair share a lane is first in, first
+ * out.
+ */
+public class CommandQueue {
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private final Map<CommandLane, Lane> lanes = new EnumMap<CommandLane, Lane>(CommandLane.class);
+	private final Map<String, TypeCounters> types = new ConcurrentHashMap<String, TypeCounters>();
+	/* vmid -> its commands queued or running, oldest first, guarded by lock */
+	private final Map<String, ArrayDeque<Entry>> mailboxes = new HashMap<String, ArrayDeque<Entry>>();
+	private final int maxMailboxDepth;
+	private final boolean fairShare;
+	/* user -> its weight if not 1 */
+	private final Map<String, Integer> userWeights;
+	private final int maxRunningPerUser;
+	/* user -> its commands running, guarded by lock */
+	private final Map<String, Integer> runningByUser = new HashMap<String, Integer>();
+	/* guarded by lock */
+	private boolean closed = false;
+
+	public enum Result {
+		QUEUED,
+		/* the same command is already queued or running */
+		COALESCED,
+		/* the same command succeeded within the freshness window */
+		FRESH,
+		/* the lane is full and sheds its load */
+		DROPPED
+	}
+
+	/**
+	 * a command taken from the queue, to be passed back to
+	 * {@link CommandQueue#done} once it finished
+	 */
+	public static class Entry {
+		private final HypervisorCommand command;
+		private final String type;
+		/* null if the command is not for a single VM */
+		private final String vmid;
+		/* empty if not known */
+		private final String user;
+		private final long queuedAtNanos;
+
+		Entry(HypervisorCommand command, String type) {
+			this.command = command;
+			this.type = type;
+			this.vmid = (command.vminfo == null) ? null : command.vminfo.getVmid();
+			this.user = (command.getOperator() == null) ? "" : command.getOperator();
+			this.queuedAtNanos = System.nanoTime();
+		}
+
+		public HypervisorCommand getCommand() {
+			return command;
+		}
+	}
+
+	private static class Lane {
+		final CommandLane lane;
+		final int maxWorkers;
+		final int capacity;
+		final long freshNanos;
+		/* commands a worker may take */
+		final FairQueue queue;
+		/* commands in the queue and those waiting behind a command of their VM */
+		int waiting = 0;
+		/* key -> the command queued or running with it */
+		final Map<String, Entry> active = new HashMap<String, Entry>();
+		/* key -> when it last succeeded, oldest first */
+		final LinkedHashMap<String, Long> succeededAt = new LinkedHashMap<String, Long>();
+		int running = 0;
+		long submitted = 0, rejected = 0, coalesced = 0, fresh = 0;
+
+		Lane(CommandLane lane, FairQueue queue, int maxWorkers, int capacity, long freshInMillis) {
+			this.lane = lane;
+			this.queue = queue;
+			this.maxWorkers = maxWorkers;
+			this.capacity = capacity;
+			this.freshNanos = TimeUnit.MILLISECONDS.toNanos(freshInMillis);
+		}
+
+		boolean isFresh(String key, long now) {
+			// forget what is older than the window, entries are in time order
+			Iterator<Long> it = succeededAt.values().iterator();
+			while (it.hasNext() && now - it.next() >= freshNanos)
+				it.remove();
+			return succeededAt.containsKey(key);
+		}
+
+		boolean hasRunnable() {
+			return !queue.isEmpty() && (maxWorkers <= 0 || running < maxWorkers);
+		}
+	}
+
+	/* the commands of one user waiting in a lane */
+	private static class UserQueue {
+		final String user;
+		final int weight;
+		final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+		/* commands the user may still take in its current turn */
+		int credit = 0;
+
+		UserQueue(String user, int weight) {
+			this.user = user;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * commands of a lane a worker may take, in deficit round robin over the
+	 * users: a user at the head of the turns takes up to its weight in
+	 * commands, then it goes to the back. Guarded by lock.
+	 */
+	private class FairQueue {
+		/* users with commands waiting, the one whose turn it is first */
+		final ArrayDeque<UserQueue> turns = new ArrayDeque<UserQueue>();
+		final Map<String, UserQueue> users = new HashMap<String, UserQueue>();
+
+		void addLast(Entry entry) {
+			userQueue(entry).entries.addLast(entry);
+		}
+
+		void addFirst(Entry entry) {
+			userQueue(entry).entries.addFirst(entry);
+		}
+
+		boolean isEmpty() {
+			return turns.isEmpty();
+		}
+
+		/**
+		 * @return null if all users with commands waiting are at their limit
+		 */
+		Entry poll() {
+			for (int i = turns.size(); i > 0; i--) {
+				UserQueue user = turns.peekFirst();
+				if (!mayRun(user.user)) {
+					// its turn is over, it has to wait for the next one
+					user.credit = 0;
+					turns.addLast(turns.pollFirst());
+					continue;
+				}
+				if (user.credit <= 0)
+					user.credit = user.weight;
+				Entry entry = user.entries.pollFirst();
+				user.credit--;
+				if (user.entries.isEmpty()) {
+					turns.pollFirst();
+					users.remove(user.user);
+				} else if (user.credit <= 0) {
+					turns.addLast(turns.pollFirst());
+				}
+				return entry;
+			}
+			return null;
+		}
+
+		private UserQueue userQueue(Entry entry) {
+			// without fair share all users share one queue
+			String key = fairShare ? entry.user : "";
+			UserQueue user = users.get(key);
+			if (user == null) {
+				Integer weight = fairShare ? userWeights.get(key) : null;
+				user = new UserQueue(key, (weight == null) ? 1 : weight);
+				users.put(key, user);
+				turns.addLast(user);
+			}
+			return user;
+		}
+	}
+
+	private static class TypeCounters {
+		final AtomicLong submitted = new AtomicLong(0);
+		final AtomicLong rejected = new AtomicLong(0);
+		final AtomicLong coalesced = new AtomicLong(0);
+		final AtomicLong fresh = new AtomicLong(0);
+		final AtomicLong queued = new AtomicLong(0);
+		final AtomicLong running = new AtomicLong(0);
+		final LatencyHistogram waitTime = new LatencyHistogram();
+	}
+
+	public static class LaneStats {
+		private String lane;
+		private int queued, running, maxWorkers, capacity;
+		private long freshInMs, submitted, rejected, coalesced, fresh;
+
+		public String getLane() {
+			return lane;
+		}
+
+		/**
+		 * including the commands waiting behind a command of the same VM
+		 */
+		public int getQueued() {
+			return queued;
+		}
+
+		public int getRunning() {
+			return running;
+		}
+
+		/**
+		 * 0 if only bound by the number of workers
+		 */
+		public int getMaxWorkers() {
+			return maxWorkers;
+		}
+
+		public int getCapacity() {
+			return capacity;
+		}
+
+		/**
+		 * 0 if a command is queued again as soon as it finished
+		 */
+		public long getFreshInMs() {
+			return freshInMs;
+		}
+
+		public long getSubmitted() {
+			return submitted;
+		}
+
+		public long getRejected() {
+			return rejected;
+		}
+
+		public long getCoalesced() {
+			return coalesced;
+		}
+
+		public long getFresh() {
+			return fresh;
+		}
+	}
+
+	public static class CommandTypeStats {
+		private long submitted, rejected, coalesced, fresh, queued, running;
+		private LatencyHistogram.Snapshot waitTime;
+
+		public long getSubmitted() {
+			return submitted;
+		}
+
+		public long getRejected() {
+			return rejected;
+		}
+
+		public long getCoalesced() {
+			return coalesced;
+		}
+
+		public long getFresh() {
+			return fresh;
+		}
+
+		public long getQueued() {
+			return queued;
+		}
+
+		public long getRunning() {
+			return running;
+		}
+
+		/**
+		 * time between being queued and taken by a worker
+		 */
+		public LatencyHistogram.Snapshot getWaitTime() {
+			return waitTime;
+		}
+	}
+
+	public static class QueueStats {
+		private int workers;
+		private int maxMailboxDepth;
+		private boolean fairShare;
+		private int maxRunningPerUser;
+		private Map<String, Integer> runningByUser = new TreeMap<String, Integer>();
+		private List<LaneStats> lanes = new ArrayList<LaneStats>();
+		private Map<String, CommandTypeStats> commands = new TreeMap<String, CommandTypeStats>();
+		private Map<String, Integer> mailboxes = new TreeMap<String, Integer>();
+
+		public int getWorkers() {
+			return workers;
+		}
+
+		/**
+		 * 0 if not limited
+		 */
+		public int getMaxMailboxDepth() {
+			return maxMailboxDepth;
+		}
+
+		/**
+		 * vmid -> number of its commands queued or running, only VMs that
+		 * have any
+		 */
+		public Map<String, Integer> getMailboxes() {
+			return mailboxes;
+		}
+
+		public boolean isFairShare() {
+			return fairShare;
+		}
+
+		/**
+		 * 0 if not limited
+		 */
+		public int getMaxRunningPerUser() {
+			return maxRunningPerUser;
+		}
+
+		/**
+		 * user -> number of its commands running, only users that have any
+		 */
+		public Map<String, Integer> getRunningByUser() {
+			return runningByUser;
+		}
+
+		public List<LaneStats> getLanes() {
+			return lanes;
+		}
+
+		public Map<String, CommandTypeStats> getCommands() {
+			return commands;
+		}
+	}
+
+	/**
+	 * @param maxWorkers
+	 *            per lane, 0 for no limit
+	 * @param capacity
+	 *            per lane, the number of commands that may wait
+	 * @param freshInMillis
+	 *            per lane, how long a command with a coalesce key is not
+	 *            queued again after it succeeded, 0 for not at all
+	 * @param maxMailboxDepth
+	 *            the number of commands of one VM that may be queued or
+	 *            running, 0 for no limit
+	 * @param fairShare
+	 *            false if the commands of a lane are taken in the order they
+	 *            were queued, whichever user they are for
+	 * @param userWeights
+	 *            with fair share, user -> its share relative to the users
+	 *            not in it, which have weight 1
+	 * @param maxRunningPerUser
+	 *            with fair share, the number of commands of one user that
+	 *            may run at the same time, 0 for no limit
+	 */
+	public CommandQueue(Map<CommandLane, Integer> maxWorkers, Map<CommandLane, Integer> capacity,
+			Map<CommandLane, Long> freshInMillis, int maxMailboxDepth, boolean fairShare,
+			Map<String, Integer> userWeights, int maxRunningPerUser) {
+		this.maxMailboxDepth = maxMailboxDepth;
+		this.fairShare = fairShare;
+		this.userWeights = new HashMap<String, Integer>(userWeights);
+		this.maxRunningPerUser = maxRunningPerUser;
+		for (CommandLane lane : CommandLane.values()) {
+			lanes.put(lane, new Lane(lane, new FairQueue(), maxWorkers.get(lane), capacity.get(lane),
+				freshInMillis.get(lane)));
+		}
+	}
+
+	/**
+	 * a first in, first out queue
+	 */
+	public CommandQueue(Map<CommandLane, Integer> maxWorkers, Map<CommandLane, Integer> capacity,
+			Map<CommandLane, Long> freshInMillis, int maxMailboxDepth) {
+		this(maxWorkers, capacity, freshInMillis, maxMailboxDepth, false,
+			Collections.<String, Integer>emptyMap(), 0);
+	}
+
+	/**
+	 * a queue without a limit on the commands of one VM
+	 */
+	public CommandQueue(Map<CommandLane, Integer> maxWorkers, Map<CommandLane, Integer> capacity,
+			Map<CommandLane, Long> freshInMillis) {
+		this(maxWorkers, capacity, freshInMillis, 0);
+	}
+
+	/**
+	 * queue the command in its lane, or behind the commands of its VM queued
+	 * or running before it
+	 * 
+	 * @throws CommandQueueFullException
+	 *             if the lane or the mailbox of the VM is full and the lane
+	 *             does not shed load, or the queue is closed
+	 */
+	public Result offer(HypervisorCommand command) throws CommandQueueFullException {
+		String type = command.getClass().getSimpleName();
+		TypeCounters counters = counters(type);
+		counters.submitted.incrementAndGet();
+
+		CommandLane commandLane = command.getLane();
+		Lane lane = lanes.get(commandLane);
+		String key = command.getCoalesceKey();
+		Entry entry = new Entry(command, type);
+		lock.lock();
+		try {
+			lane.submitted++;
+			ArrayDeque<Entry> mailbox = (entry.vmid == null) ? null : mailboxes.get(entry.vmid);
+			if (mailbox != null && mailbox.peekFirst().command == command)
+				return retry(mailbox, entry, lane, counters);
+			Entry same = (key == null) ? null : lane.active.get(key);
+			if (same != null) {
+				// its operation completes with the command it was coalesced with
+				same.command.coalesced(command);
+				lane.coalesced++;
+				counters.coalesced.incrementAndGet();
+				return Result.COALESCED;
+			}
+			if (key != null && lane.freshNanos > 0 && lane.isFresh(key, System.nanoTime())) {
+				lane.fresh++;
+				counters.fresh.incrementAndGet();
+				return Result.FRESH;
+			}
+			int depth = (mailbox == null) ? 0 : mailbox.size();
+			boolean mailboxFull = maxMailboxDepth > 0 && depth >= maxMailboxDepth;
+			if (closed || lane.waiting >= lane.capacity || mailboxFull) {
+				lane.rejected++;
+				counters.rejected.incrementAndGet();
+				if (!closed && commandLane.isShedWhenFull())
+					return Result.DROPPED;
+				if (closed)
+					throw new CommandQueueFullException("Hypervisor command queue is shut down");
+				throw new CommandQueueFullException(mailboxFull ?
+					String.format("Vm %s has %d hypervisor commands queued or running, cannot accept %s",
+						entry.vmid, depth, type) :
+					String.format("Hypervisor command lane %s is full (%d queued), cannot accept %s",
+						commandLane, lane.waiting, type));
+			}
+			if (entry.vmid != null) {
+				if (mailbox == null) {
+					mailbox = new ArrayDeque<Entry>();
+					mailboxes.put(entry.vmid, mailbox);
+				}
+				mailbox.addLast(entry);
+			}
+			lane.waiting++;
+			if (key != null)
+				lane.active.put(key, entry);
+			counters.queued.incrementAndGet();
+			// otherwise it is handed on once the commands before it are done
+			if (mailbox == null || mailbox.size() == 1) {
+				lane.queue.addLast(entry);
+				changed.signal();
+			}
+			return Result.QUEUED;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * queue a retried command again at the head of the mailbox of its VM, it is
+	 * not coalesced or rejected as the commands behind it wait for it
+	 */
+	private Result retry(ArrayDeque<Entry> mailbox, Entry entry, Lane lane, TypeCounters counters)
+			throws CommandQueueFullException {
+		if (closed) {
+			lane.rejected++;
+			counters.rejected.incrementAndGet();
+			String key = entry.command.getCoalesceKey();
+			if (key != null)
+				lane.active.remove(key);
+			release(mailbox.peekFirst());
+			changed.signalAll();
+			throw new CommandQueueFullException("Hypervisor command queue is shut down");
+		}
+		mailbox.pollFirst();
+		mailbox.addFirst(entry);
+		String key = entry.command.getCoalesceKey();
+		if (key != null)
+			lane.active.put(key, entry);
+		lane.queue.addFirst(entry);
+		lane.waiting++;
+		counters.queued.incrementAndGet();
+		changed.signal();
+		return Result.QUEUED;
+	}
+
+	/**
+	 * wait for the next command a worker may run
+	 * 
+	 * @return null once the queue is closed and empty
+	 */
+	public Entry take() throws InterruptedException {
+		lock.lock();
+		try {
+			while (true) {
+				Entry entry = next();
+				if (entry != null)
+					return entry;
+				if (closed && isEmpty())
+					return null;
+				changed.await();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * the next command a worker may run, null if there is none right now
+	 */
+	// unit test purpose
+	Entry poll() {
+		lock.lock();
+		try {
+			return next();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * call with the lock held
+	 */
+	private Entry next() {
+		for (Lane lane : lanes.values()) {
+			if (!lane.hasRunnable())
+				continue;
+			Entry entry = lane.queue.poll();
+			if (entry == null)
+				continue;
+			lane.waiting--;
+			lane.running++;
+			Integer running = runningByUser.get(entry.user);
+			runningByUser.put(entry.user, (running == null) ? 1 : running + 1);
+
+			TypeCounters counters = counters(entry.type);
+			counters.queued.decrementAndGet();
+			counters.running.incrementAndGet();
+			counters.waitTime.record(System.nanoTime() - entry.queuedAtNanos,
+					TimeUnit.NANOSECONDS);
+			return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * call with the lock held
+	 */
+	private boolean mayRun(String user) {
+		if (!fairShare || maxRunningPerUser <= 0)
+			return true;
+		Integer running = runningByUser.get(user);
+		return running == null || running < maxRunningPerUser;
+	}
+
+	/**
+	 * the command taken by {@link #take} finished for good
+	 * 
+	 * @param succeeded
+	 *            false if it failed, it may then be queued again right away
+	 */
+	public void done(Entry entry, boolean succeeded) {
+		done(entry, succeeded, false);
+	}
+
+	/**
+	 * the command taken by {@link #take} finished
+	 * 
+	 * @param succeeded
+	 *            false if it failed, it may then be queued again right away
+	 * @param retrying
+	 *            the command is offered again later, the commands of its VM
+	 *            wait for it and the same command is still coalesced with it
+	 */
+	public void done(Entry entry, boolean succeeded, boolean retrying) {
+		counters(entry.type).running.decrementAndGet();
+		String key = entry.getCommand().getCoalesceKey();
+		lock.lock();
+		try {
+			Lane lane = lanes.get(entry.getCommand().getLane());
+			lane.running--;
+			int running = runningByUser.get(entry.user) - 1;
+			if (running > 0)
+				runningByUser.put(entry.user, running);
+			else
+				runningByUser.remove(entry.user);
+			if (!retrying)
+				release(entry);
+			if (key != null && !retrying) {
+				lane.active.remove(key);
+				if (succeeded && lane.freshNanos > 0) {
+					// re-insert so that the map stays in time order
+					lane.succeededAt.remove(key);
+					lane.succeededAt.put(key, System.nanoTime());
+				}
+			}
+			// a worker waiting on a lane or a user at its limit may go on now
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * remove the command from the head of the mailbox of its VM and hand the
+	 * next one on to its lane, call with the lock held
+	 */
+	private void release(Entry entry) {
+		if (entry.vmid == null)
+			return;
+		ArrayDeque<Entry> mailbox = mailboxes.get(entry.vmid);
+		if (mailbox == null || mailbox.peekFirst() != entry)
+			return;
+		mailbox.pollFirst();
+		Entry next = mailbox.peekFirst();
+		if (next == null)
+			mailboxes.remove(entry.vmid);
+		else
+			lanes.get(next.command.getLane()).queue.addLast(next);
+	}
+
+	/**
+	 * @return the number of commands of the VM queued or running
+	 */
+	public int getMailboxDepth(String vmid) {
+		lock.lock();
+		try {
+			ArrayDeque<Entry> mailbox = mailboxes.get(vmid);
+			return (mailbox == null) ? 0 : mailbox.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * stop accepting commands, the queued ones are still handed out
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public QueueStats getStats(int workers) {
+		QueueStats stats = new QueueStats();
+		stats.workers = workers;
+		stats.maxMailboxDepth = maxMailboxDepth;
+		stats.fairShare = fairShare;
+		stats.maxRunningPerUser = maxRunningPerUser;
+		lock.lock();
+		try {
+			for (Lane lane : lanes.values()) {
+				LaneStats laneStats = new LaneStats();
+				laneStats.lane = lane.lane.name();
+				laneStats.queued = lane.waiting;
+				laneStats.running = lane.running;
+				laneStats.maxWorkers = lane.maxWorkers;
+				laneStats.capacity = lane.capacity;
+				laneStats.freshInMs = TimeUnit.NANOSECONDS.toMillis(lane.freshNanos);
+				laneStats.submitted = lane.submitted;
+				laneStats.rejected = lane.rejected;
+				laneStats.coalesced = lane.coalesced;
+				laneStats.fresh = lane.fresh;
+				stats.lanes.add(laneStats);
+			}
+			for (Map.Entry<String, ArrayDeque<Entry>> mailbox : mailboxes.entrySet())
+				stats.mailboxes.put(mailbox.getKey(), mailbox.getValue().size());
+			stats.runningByUser.putAll(runningByUser);
+		} finally {
+			lock.unlock();
+		}
+		for (Map.Entry<String, TypeCounters> type : types.entrySet()) {
+			TypeCounters counters = type.getValue();
+			CommandTypeStats typeStats = new CommandTypeStats();
+			typeStats.submitted = counters.submitted.get();
+			typeStats.rejected = counters.rejected.get();
+			typeStats.coalesced = counters.coalesced.get();
+			typeStats.fresh = counters.fresh.get();
+			typeStats.queued = counters.queued.get();
+			typeStats.running = counters.running.get();
+			typeStats.waitTime = counters.waitTime.snapshot();
+			stats.commands.put(type.getKey(), typeStats);
+		}
+		return stats;
+	}
+
+	private boolean isEmpty() {
+		for (Lane lane : lanes.values()) {
+			// commands waiting behind a running one are handed on once it is done
+			if (lane.waiting > 0)
+				return false;
+		}
+		return true;
+	}
+
+	private TypeCounters counters(String type) {
+		TypeCounters counters = types.get(type);
+		if (counters == null) {
+			types.putIfAbsent(type, new TypeCounters());
+			counters = types.get(type);
+		}
+		return counters;
+	}
+}
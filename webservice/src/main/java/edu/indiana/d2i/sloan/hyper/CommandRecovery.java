@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.hyper;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.indiana.d2i.sloan.bean.VmInfoBean;
+import edu.indiana.d2i.sloan.bean.VmStateChangeBean;
+import edu.indiana.d2i.sloan.bean.VmUserRole;
+import edu.indiana.d2i.sloan.db.DBOperations;
+import edu.indiana.d2i.sloan.utils.RolePermissionUtils;
+import edu.indiana.d2i.sloan.vm.VMEventBus;
+import edu.indiana.d2i.sloan.vm.VMMode;
+import edu.indiana.d2i.sloan.vm.VMState;
+
+/**
+ * Takes the VMs of the commands lost in a restart, the unfinished entries of
+ * the {@link CommandJournal}, out of their pending state. The hosts of the
+ * VMs are probed in parallel, one batch status call per host, and a VM is
+ * moved to the state its command would have left it in when the status tells
+ * which, otherwise to the state a failed command leaves it in. A VM that was
+ * being deleted has its delete command run again.
+ */
+class CommandRecovery {
+	private static Logger logger = LoggerFactory.getLogger(CommandRecovery.class);
+
+	interface StatusProbe {
+		/**
+		 * status of each of the VMs of the host, keyed by working directory
+		 */
+		Map<String, String> probe(String host, List<VmInfoBean> vms) throws Exception;
+	}
+
+	static class Plan {
+		private final List<VmStateChangeBean> changes = new ArrayList<VmStateChangeBean>();
+		private final List<VmInfoBean> deletes = new ArrayList<VmInfoBean>();
+
+		List<VmStateChangeBean> getChanges() {
+			return changes;
+		}
+
+		/**
+		 * VMs whose delete command is run again
+		 */
+		List<VmInfoBean> getDeletes() {
+			return deletes;
+		}
+	}
+
+	private final StatusProbe probe;
+	private final int parallelism;
+	private final long timeoutInMs;
+
+	CommandRecovery(StatusProbe probe, int parallelism, long timeoutInMs) {
+		this.probe = probe;
+		this.parallelism = Math.max(parallelism, 1);
+		this.timeoutInMs = timeoutInMs;
+	}
+
+	/**
+	 * @param pendingVms
+	 *            VMs in a pending state, only the ones of the journal entries
+	 *            are recovered
+	 */
+	Plan plan(List<CommandJournal.Entry> entries, List<VmInfoBean> pendingVms)
+			throws InterruptedException {
+		Set<String> vmids = new HashSet<String>();
+		for (CommandJournal.Entry entry : entries)
+			vmids.add(entry.getVmid());
+
+		Map<String, List<VmInfoBean>> vmsByHost = new LinkedHashMap<String, List<VmInfoBean>>();
+		List<VmInfoBean> vms = new ArrayList<VmInfoBean>();
+		for (VmInfoBean vminfo : pendingVms) {
+			if (!vmids.contains(vminfo.getVmid()))
+				continue;
+			vms.add(vminfo);
+			if (vminfo.getVmstate() == VMState.DELETE_PENDING)
+				continue;
+			List<VmInfoBean> hostVms = vmsByHost.get(vminfo.getPublicip());
+			if (hostVms == null) {
+				hostVms = new ArrayList<VmInfoBean>();
+				vmsByHost.put(vminfo.getPublicip(), hostVms);
+			}
+			hostVms.add(vminfo);
+		}
+		Map<String, Map<String, String>> statuses = probeHosts(vmsByHost);
+
+		Plan plan = new Plan();
+		for (VmInfoBean vminfo : vms) {
+			if (vminfo.getVmstate() == VMState.DELETE_PENDING) {
+				plan.deletes.add(vminfo);
+				continue;
+			}
+			VmUserRole owner = (vminfo.getRoles() == null) ? null
+				: RolePermissionUtils.findOwner(vminfo.getRoles());
+			if (owner == null) {
+				logger.warn("Cannot find owner of vm " + vminfo.getVmid() + " to recover it from "
+					+ vminfo.getVmstate());
+				continue;
+			}
+			Map<String, String> hostStatuses = statuses.get(vminfo.getPublicip());
+			String status = (hostStatuses == null) ? null : hostStatuses.get(vminfo.getWorkDir());
+			plan.changes.add(new VmStateChangeBean(vminfo.getVmid(), vminfo.getVmmode(),
+				vminfo.getVmstate(), getRecoveredState(vminfo.getVmstate(), status), owner.getGuid()));
+		}
+		return plan;
+	}
+
+	/**
+	 * @return statuses by host, a host that could not be probed is left out
+	 */
+	private Map<String, Map<String, String>> probeHosts(Map<String, List<VmInfoBean>> vmsByHost)
+			throws InterruptedException {
+		Map<String, Map<String, String>> statuses = new HashMap<String, Map<String, String>>();
+		if (vmsByHost.isEmpty())
+			return statuses;
+
+		final AtomicInteger n = new AtomicInteger(1);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, vmsByHost.size()), r -> {
+			Thread t = new Thread(r, "command-recovery-" + n.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			Map<String, Future<Map<String, String>>> futures = new LinkedHashMap<String, Future<Map<String, String>>>();
+			for (final Map.Entry<String, List<VmInfoBean>> host : vmsByHost.entrySet()) {
+				futures.put(host.getKey(), pool.submit(() -> probe.probe(host.getKey(), host.getValue())));
+			}
+
+			long deadline = System.currentTimeMillis() + timeoutInMs;
+			for (Map.Entry<String, Future<Map<String, String>>> future : futures.entrySet()) {
+				try {
+					statuses.put(future.getKey(), future.getValue().get(
+						Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS));
+				} catch (ExecutionException e) {
+					logger.error("Cannot probe vm status at " + future.getKey(), e.getCause());
+				} catch (TimeoutException e) {
+					logger.error("Probing vm status at " + future.getKey() + " did not finish in "
+						+ timeoutInMs + " ms");
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return statuses;
+	}
+
+	/**
+	 * state to recover a VM to from the pending state of the lost command
+	 * 
+	 * @param status
+	 *            status reported by the host, null if it is not known
+	 */
+	static VMState getRecoveredState(VMState pending, String status) {
+		switch (pending) {
+			case CREATE_PENDING :
+				// created VMs are shut down
+				return HypervisorResponse.STATUS_NOT_RUNNING.equals(status) ? VMState.SHUTDOWN : VMState.ERROR;
+			case LAUNCH_PENDING :
+				// the mode a running VM was launched in is not known
+				return HypervisorResponse.STATUS_NOT_RUNNING.equals(status) ? VMState.SHUTDOWN : VMState.ERROR;
+			case SHUTDOWN_PENDING :
+				if (HypervisorResponse.STATUS_NOT_RUNNING.equals(status))
+					return VMState.SHUTDOWN;
+				return HypervisorResponse.STATUS_RUNNING.equals(status) ? VMState.RUNNING : VMState.ERROR;
+			default :
+				// the mode of a switched VM or the host of a migrated one is not known
+				return VMState.ERROR;
+		}
+	}
+
+	/**
+	 * write the state changes back and queue the delete commands again
+	 */
+	static void apply(Plan plan, HypervisorProxy proxy) throws SQLException {
+		List<VmStateChangeBean> applied = DBOperations.getInstance().updateVMStates(plan.getChanges());
+		for (VmStateChangeBean change : applied) {
+			VMEventBus.getInstance().publishState(change.getVmid(), change.getFrom(), change.getTo(),
+				change.getOperator());
+			// as a stopped vm
+			if (change.getFrom() == VMState.SHUTDOWN_PENDING && change.getTo() == VMState.SHUTDOWN)
+				DBOperations.getInstance().updateVMMode(change.getVmid(), VMMode.NOT_DEFINED,
+					change.getOperator());
+		}
+
+		for (VmInfoBean vminfo : plan.getDeletes()) {
+			VmUserRole owner = (vminfo.getRoles() == null) ? null
+				: RolePermissionUtils.findOwner(vminfo.getRoles());
+			if (owner == null) {
+				logger.warn("Cannot find owner of vm " + vminfo.getVmid() + " to delete it again");
+				continue;
+			}
+			try {
+				proxy.addCommand(new DeleteVMCommand(owner.getGuid(), owner.getGuid(), vminfo));
+			} catch (Exception e) {
+				// a full queue cleans it up as a failed delete
+				logger.error("Cannot delete vm " + vminfo.getVmid() + " again", e);
+			}
+		}
+	}
+}
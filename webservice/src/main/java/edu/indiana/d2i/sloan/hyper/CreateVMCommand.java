@@ -40,7 +40,7 @@ public class CreateVMCommand extends HypervisorCommand {
 
 	@Override
 	public void execute() throws Exception {
-		HypervisorResponse resp = hypervisor.createVM(vminfo, publicKey, operator);
+		HypervisorResponse resp = recordResponse(hypervisor.createVM(vminfo, publicKey, operator));
 		logger.info(resp.toString());
 
 		if (resp.getResponseCode() != 0) {
@@ -81,6 +81,11 @@ public class CreateVMCommand extends HypervisorCommand {
 		r.call();
 	}
 
+	@Override
+	public String getOperator() {
+		return operator;
+	}
+
 	@Override
 	public String toString() {
 		return "createvm " + vminfo;
@@ -42,7 +42,7 @@ public class DeletePublicKeyCommand extends HypervisorCommand {
 
 	@Override
 	public void execute() throws Exception {
-		HypervisorResponse resp = hypervisor.deletePubKey(vminfo, publicKey, username);
+		HypervisorResponse resp = recordResponse(hypervisor.deletePubKey(vminfo, publicKey, username));
 		logger.info(resp.toString());
 
 		if (resp.getResponseCode() != 0) {
@@ -81,6 +81,16 @@ public class DeletePublicKeyCommand extends HypervisorCommand {
 		r.call();
 	}
 
+	@Override
+	public CommandLane getLane() {
+		return CommandLane.MAINTENANCE;
+	}
+
+	@Override
+	public String getOperator() {
+		return operator;
+	}
+
 	@Override
 	public String toString() {
 		return "DeleteUserKey " + vminfo;
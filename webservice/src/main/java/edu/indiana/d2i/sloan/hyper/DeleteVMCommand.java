@@ -20,7 +20,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.Callable;
 
+import edu.indiana.d2i.sloan.scheduler.ResourceTracker;
 import edu.indiana.d2i.sloan.vm.PortsPool;
+import edu.indiana.d2i.sloan.vm.VMEventBus;
 import edu.indiana.d2i.sloan.vm.VMPorts;
 import edu.indiana.d2i.sloan.vm.VMState;
 import edu.indiana.d2i.sloan.vm.VMStateManager;
@@ -49,7 +51,7 @@ public class DeleteVMCommand extends HypervisorCommand {
 		execution. Also restore user quota and release ports when the hypervisor call is successful.
 		Does not update VmMode in the vms table
 		 */
-		HypervisorResponse resp = hypervisor.delete(vminfo);
+		HypervisorResponse resp = recordResponse(hypervisor.delete(vminfo));
 		logger.info(resp.toString());
 		if (resp.getResponseCode() != 0) {
 			throw new ScriptCmdErrorException(String.format(
@@ -61,6 +63,9 @@ public class DeleteVMCommand extends HypervisorCommand {
 				@Override
 				public Void call() throws Exception {
 					DBOperations.getInstance().deleteVMs(username, operator, vminfo);
+					VMEventBus.getInstance().publishState(vminfo.getVmid(), vminfo.getVmstate(),
+							VMState.DELETED, operator);
+					ResourceTracker.getInstance().remove(vminfo.getVmid());
 
 					//remove all ports in ports table for this capsule upon successful deletion
 					//PortsPool.getInstance().release(vminfo.getVmid(),
@@ -106,6 +111,11 @@ public class DeleteVMCommand extends HypervisorCommand {
 		r.call();
 	}
 
+	@Override
+	public String getOperator() {
+		return operator;
+	}
+
 	@Override
 	public String toString() {
 		return "deletevm " + vminfo;
@@ -0,0 +1,330 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.hyper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.indiana.d2i.sloan.Configuration;
+import edu.indiana.d2i.sloan.Constants;
+import edu.indiana.d2i.sloan.exception.HostUnavailableException;
+import edu.indiana.d2i.sloan.utils.RetryPolicy;
+
+/**
+ * Guards the ssh calls to each host. Once the failure rate of the last calls
+ * to a host reaches the threshold its breaker opens and calls to the host
+ * fail at once with {@link HostUnavailableException}. After the open time a
+ * single call probes the host, the breaker closes if it reaches the host and
+ * opens again otherwise. Only failures to reach the host count, a script that
+ * ran and failed does not.
+ * 
+ * Each host also runs a bounded number of calls at a time (bulkhead), so a
+ * host that hangs holds at most that many hypervisor workers.
+ */
+public class HostCircuitBreaker {
+	private static Logger logger = LoggerFactory.getLogger(HostCircuitBreaker.class);
+	private static HostCircuitBreaker instance = null;
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final boolean enabled;
+	private final int windowSize;
+	private final int minCalls;
+	private final double failureRate;
+	private final long openInMs;
+	private final int maxCalls;
+	private final long waitInMs;
+	private final Set<String> failureExceptions;
+	private final LongSupplier clock;
+	private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+
+	private class Circuit {
+		private final String host;
+		private final Semaphore bulkhead = new Semaphore(maxCalls);
+
+		/* guarded by this, outcomes of the last calls with true for a failure */
+		private final boolean[] window = new boolean[windowSize];
+		private int calls = 0, failures = 0, next = 0;
+		private State state = State.CLOSED;
+		private long openedAt = 0;
+		/* a call is probing the host while the breaker is half open */
+		private boolean probing = false;
+		private long rejected = 0, timesOpened = 0;
+
+		private Circuit(String host) {
+			this.host = host;
+		}
+
+		/**
+		 * @return false if the breaker turns the call away
+		 */
+		private synchronized boolean tryEnter() {
+			if (state == State.OPEN && clock.getAsLong() - openedAt >= openInMs) {
+				state = State.HALF_OPEN;
+				logger.info("Circuit breaker of host " + host + " is half open, probing the host");
+			}
+			if (state == State.CLOSED)
+				return true;
+			if (state == State.HALF_OPEN && !probing) {
+				probing = true;
+				return true;
+			}
+			rejected++;
+			return false;
+		}
+
+		/**
+		 * the call let in never ran, the bulkhead was full
+		 */
+		private synchronized void abandon() {
+			rejected++;
+			if (state == State.HALF_OPEN)
+				probing = false;
+		}
+
+		private synchronized void record(boolean failed) {
+			if (state == State.HALF_OPEN) {
+				probing = false;
+				if (failed) {
+					open();
+				} else {
+					state = State.CLOSED;
+					calls = failures = next = 0;
+					logger.info("Circuit breaker of host " + host + " is closed, the probe reached the host");
+				}
+				return;
+			}
+			if (state == State.OPEN)
+				return; // let in before the breaker opened
+
+			if (calls == windowSize) {
+				if (window[next])
+					failures--;
+			} else {
+				calls++;
+			}
+			window[next] = failed;
+			if (failed)
+				failures++;
+			next = (next + 1) % windowSize;
+
+			if (calls >= minCalls && failures >= failureRate * calls)
+				open();
+		}
+
+		private void open() {
+			logger.warn(String.format("Circuit breaker of host %s is open for %d ms after %d of %d calls failed",
+				host, openInMs, failures, calls));
+			state = State.OPEN;
+			openedAt = clock.getAsLong();
+			timesOpened++;
+		}
+
+		private synchronized boolean allowsCalls() {
+			return state != State.OPEN || clock.getAsLong() - openedAt >= openInMs;
+		}
+
+		private synchronized HostStats getStats() {
+			HostStats stats = new HostStats();
+			stats.host = host;
+			stats.state = state;
+			stats.windowCalls = calls;
+			stats.windowFailures = failures;
+			stats.activeCalls = maxCalls - bulkhead.availablePermits();
+			stats.rejectedCalls = rejected;
+			stats.timesOpened = timesOpened;
+			return stats;
+		}
+	}
+
+	public static class HostStats {
+		private String host;
+		private State state;
+		private int windowCalls;
+		private int windowFailures;
+		private int activeCalls;
+		private long rejectedCalls;
+		private long timesOpened;
+
+		public String getHost() {
+			return host;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		/**
+		 * recent calls the failure rate is taken over
+		 */
+		public int getWindowCalls() {
+			return windowCalls;
+		}
+
+		public int getWindowFailures() {
+			return windowFailures;
+		}
+
+		public int getActiveCalls() {
+			return activeCalls;
+		}
+
+		/**
+		 * calls turned away by the open breaker or the full bulkhead
+		 */
+		public long getRejectedCalls() {
+			return rejectedCalls;
+		}
+
+		public long getTimesOpened() {
+			return timesOpened;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("[host:%s, state:%s, window:%d/%d failed, active:%d, rejected:%d, opened:%d]",
+				host, state, windowFailures, windowCalls, activeCalls, rejectedCalls, timesOpened);
+		}
+	}
+
+	// unit test purpose
+	HostCircuitBreaker(boolean enabled, int windowSize, int minCalls, double failureRate,
+			long openInMs, int maxCalls, long waitInMs, Set<String> failureExceptions,
+			LongSupplier clock) {
+		this.enabled = enabled;
+		this.windowSize = Math.max(windowSize, 1);
+		this.minCalls = Math.max(Math.min(minCalls, this.windowSize), 1);
+		this.failureRate = failureRate;
+		this.openInMs = openInMs;
+		this.maxCalls = Math.max(maxCalls, 1);
+		this.waitInMs = waitInMs;
+		this.failureExceptions = failureExceptions;
+		this.clock = clock;
+	}
+
+	public static synchronized HostCircuitBreaker getInstance() {
+		if (instance == null) {
+			Configuration conf = Configuration.getInstance();
+			instance = new HostCircuitBreaker(
+				conf.getBoolean(Configuration.PropertyName.HOST_BREAKER_ENABLED,
+					Constants.DEFAULT_HOST_BREAKER_ENABLED),
+				conf.getInt(Configuration.PropertyName.HOST_BREAKER_WINDOW_SIZE,
+					Constants.DEFAULT_HOST_BREAKER_WINDOW_SIZE),
+				conf.getInt(Configuration.PropertyName.HOST_BREAKER_MIN_CALLS,
+					Constants.DEFAULT_HOST_BREAKER_MIN_CALLS),
+				conf.getDouble(Configuration.PropertyName.HOST_BREAKER_FAILURE_RATE,
+					Constants.DEFAULT_HOST_BREAKER_FAILURE_RATE),
+				conf.getLong(Configuration.PropertyName.HOST_BREAKER_OPEN_MS,
+					Constants.DEFAULT_HOST_BREAKER_OPEN_MS),
+				conf.getInt(Configuration.PropertyName.HOST_BULKHEAD_MAX_CALLS,
+					Constants.DEFAULT_HOST_BULKHEAD_MAX_CALLS),
+				conf.getLong(Configuration.PropertyName.HOST_BULKHEAD_WAIT_MS,
+					Constants.DEFAULT_HOST_BULKHEAD_WAIT_MS),
+				RetryPolicy.parseExceptionNames(conf.getString(
+					Configuration.PropertyName.HOST_BREAKER_FAILURE_EXPS,
+					Constants.DEFAULT_HOST_BREAKER_FAILURE_EXPS)),
+				System::currentTimeMillis);
+			/* report configured hosts before they are first called */
+			for (String host : conf.getString(Configuration.PropertyName.HOSTS).split(";"))
+				instance.circuit(host);
+		}
+		return instance;
+	}
+
+	private Circuit circuit(String host) {
+		Circuit circuit = circuits.get(host);
+		if (circuit == null) {
+			circuit = new Circuit(host);
+			Circuit existing = circuits.putIfAbsent(host, circuit);
+			if (existing != null)
+				circuit = existing;
+		}
+		return circuit;
+	}
+
+	/**
+	 * run a call to the host through its breaker and bulkhead
+	 * 
+	 * @throws HostUnavailableException
+	 *             if the breaker of the host is open or the host keeps
+	 *             running as many calls as it may for the wait time
+	 */
+	public <T> T call(String host, Callable<T> call) throws Exception {
+		if (!enabled)
+			return call.call();
+
+		Circuit circuit = circuit(host);
+		if (!circuit.tryEnter())
+			throw new HostUnavailableException("Circuit breaker of host " + host + " is open");
+
+		boolean acquired = false;
+		try {
+			acquired = circuit.bulkhead.tryAcquire(waitInMs, TimeUnit.MILLISECONDS);
+		} finally {
+			if (!acquired)
+				circuit.abandon();
+		}
+		if (!acquired)
+			throw new HostUnavailableException(String.format(
+				"Host %s is running %d calls already", host, maxCalls));
+
+		boolean failed = false;
+		try {
+			return call.call();
+		} catch (Exception e) {
+			failed = RetryPolicy.matches(e, failureExceptions);
+			throw e;
+		} finally {
+			circuit.bulkhead.release();
+			circuit.record(failed);
+		}
+	}
+
+	/**
+	 * whether the host may be called, false while its breaker is open; the
+	 * scheduler does not place VMs on such a host
+	 */
+	public boolean allowsCalls(String host) {
+		if (!enabled)
+			return true;
+		Circuit circuit = circuits.get(host);
+		return circuit == null || circuit.allowsCalls();
+	}
+
+	public State getState(String host) {
+		Circuit circuit = circuits.get(host);
+		return (circuit == null) ? State.CLOSED : circuit.getStats().getState();
+	}
+
+	public List<HostStats> getStats() {
+		List<HostStats> stats = new ArrayList<HostStats>();
+		for (Circuit circuit : circuits.values())
+			stats.add(circuit.getStats());
+		return stats;
+	}
+}
@@ -15,17 +15,120 @@
  ******************************************************************************/
 package edu.indiana.d2i.sloan.hyper;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import edu.indiana.d2i.sloan.bean.VmInfoBean;
 
 public abstract class HypervisorCommand {
 	protected final IHypervisor hypervisor;
 	protected final VmInfoBean vminfo;
 
+	/* set if a client tracks the command */
+	private volatile Operation operation = null;
+	/* operations of identical commands coalesced with this one */
+	private final List<Operation> coalesced = new CopyOnWriteArrayList<Operation>();
+	private volatile HypervisorResponse response = null;
+	/* failed attempts that were retried, only changed by the worker running the command */
+	private volatile int retries = 0;
+	/* entry of the command in the command journal, 0 if it is not journaled */
+	private volatile long journalSeq = 0;
+
 	public HypervisorCommand(VmInfoBean vminfo) throws Exception {
 		this.hypervisor = HypervisorFactory.createHypervisor();
 		this.vminfo = vminfo;
 	}
 
+	// unit test purpose
+	protected HypervisorCommand(IHypervisor hypervisor, VmInfoBean vminfo) {
+		this.hypervisor = hypervisor;
+		this.vminfo = vminfo;
+	}
+
+	/**
+	 * lane of the command queue the command waits in
+	 */
+	public CommandLane getLane() {
+		return CommandLane.PROVISION;
+	}
+
+	/**
+	 * a command is dropped while another one with the same key is still
+	 * queued, null never coalesces
+	 */
+	public String getCoalesceKey() {
+		return null;
+	}
+
+	/**
+	 * guid of the user the command runs for, workers are shared fairly
+	 * between them, null if not known
+	 */
+	public String getOperator() {
+		return null;
+	}
+
+	/**
+	 * name of the command in operations, e.g. launchvm
+	 */
+	public String getName() {
+		return getClass().getSimpleName().replaceFirst("Command$", "").toLowerCase();
+	}
+
+	Operation getOperation() {
+		return operation;
+	}
+
+	void setOperation(Operation operation) {
+		this.operation = operation;
+	}
+
+	/**
+	 * an identical command is not run since this one is queued or running,
+	 * its operation completes with this command
+	 */
+	void coalesced(HypervisorCommand other) {
+		Operation op = other.getOperation();
+		if (op != null)
+			coalesced.add(op);
+	}
+
+	List<Operation> getCoalesced() {
+		return coalesced;
+	}
+
+	/**
+	 * keep the response of the hypervisor script, it is reported to the
+	 * operation of the command
+	 */
+	protected HypervisorResponse recordResponse(HypervisorResponse resp) {
+		this.response = resp;
+		return resp;
+	}
+
+	HypervisorResponse getResponse() {
+		return response;
+	}
+
+	int getRetries() {
+		return retries;
+	}
+
+	/**
+	 * @return the number of the retry about to be made, starting at 1
+	 */
+	int retried() {
+		return ++retries;
+	}
+
+	long getJournalSeq() {
+		return journalSeq;
+	}
+
+	void setJournalSeq(long journalSeq) {
+		this.journalSeq = journalSeq;
+	}
+
 	public abstract void execute() throws Exception;
 	public abstract void cleanupOnFailed() throws Exception;
 }
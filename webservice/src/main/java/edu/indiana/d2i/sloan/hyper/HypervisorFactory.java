@@ -48,6 +48,7 @@ class HypervisorFactory {
 	public static IHypervisor createHypervisor()
 			throws IllegalArgumentException, InstantiationException,
 			IllegalAccessException, InvocationTargetException {
-		return (IHypervisor) constructor.newInstance();
+		/* every call to a host goes through its breaker */
+		return new CircuitBreakingHypervisor((IHypervisor) constructor.newInstance());
 	}
 }
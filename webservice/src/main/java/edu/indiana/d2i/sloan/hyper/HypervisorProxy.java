@@ -15,20 +15,46 @@
  ******************************************************************************/
 package edu.indiana.d2i.sloan.hyper;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import edu.indiana.d2i.sloan.Configuration;
+import edu.indiana.d2i.sloan.Constants;
+import edu.indiana.d2i.sloan.db.DBOperations;
+import edu.indiana.d2i.sloan.exception.CommandQueueFullException;
+import edu.indiana.d2i.sloan.exception.ScriptCmdErrorException;
+import edu.indiana.d2i.sloan.utils.AsyncRetrier;
+import edu.indiana.d2i.sloan.utils.RetryPolicy;
+import edu.indiana.d2i.sloan.vm.VMState;
 
+/**
+ * Runs hypervisor commands on a fixed set of workers that take them from a
+ * {@link CommandQueue}, see {@link CommandLane} for the priorities. The
+ * commands of one VM run one at a time in the order they were added, and
+ * the workers are shared fairly between the users the commands run for.
+ */
 public final class HypervisorProxy {
 	private static Logger logger = LoggerFactory.getLogger(HypervisorProxy.class);
 	private static HypervisorProxy instance = null;
 
-	private ExecutorService executorService = null;
+	private final CommandQueue queue;
+	private final List<Thread> workers = new ArrayList<Thread>();
+	/* null if failed commands are not retried here */
+	private final RetryPolicy retryPolicy;
+	/* null if commands are not journaled */
+	private final CommandJournal journal;
+	/* unfinished in the journal before this process queued anything */
+	private final List<CommandJournal.Entry> lost;
 
 	class WorkerThreadFactory implements ThreadFactory {
 		private final AtomicInteger n = new AtomicInteger(1);
@@ -45,31 +71,296 @@ public final class HypervisorProxy {
 	}
 
 	class Worker implements Runnable {
-		private HypervisorCommand command;
-
-		public Worker(HypervisorCommand command) {
-			this.command = command;
-		}
-
 		@Override
 		public void run() {
-			try {
-				command.execute();
-			} catch (Exception ex) {
+			while (true) {
+				CommandQueue.Entry entry;
 				try {
-					logger.error(ex.getMessage(), ex);
-					command.cleanupOnFailed();
-				} catch (Exception e) {
-					logger.error("Uable to clean up after error because " + e.getMessage(), e);
+					entry = queue.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
 				}
+				if (entry == null)
+					return;
+				HypervisorCommand command = entry.getCommand();
+				Operation operation = command.getOperation();
+				if (operation != null)
+					operation.started();
+				for (Operation coalesced : command.getCoalesced())
+					coalesced.started();
+				Exception error = null;
+				boolean finished = false;
+				boolean retrying = false;
+				try {
+					error = execute(command);
+					finished = true;
+					retrying = (error != null) && shouldRetry(command, error);
+					if (error != null && !retrying)
+						cleanup(command, error);
+				} finally {
+					queue.done(entry, finished && error == null, retrying);
+				}
+				// only once done, so the retry finds the command at the head of its mailbox
+				if (retrying)
+					scheduleRetry(command, error);
+				if (!retrying)
+					finish(command);
+				if (!retrying)
+					complete(command, error);
+			}
+		}
+	}
+
+	/**
+	 * @return the error the command failed with, null if it succeeded
+	 */
+	private static Exception execute(HypervisorCommand command) {
+		try {
+			command.execute();
+			return null;
+		} catch (Exception ex) {
+			return ex;
+		}
+	}
+
+	/**
+	 * @return false if the command has failed for good
+	 */
+	private boolean shouldRetry(HypervisorCommand command, Exception error) {
+		return retryPolicy != null && retryPolicy.shouldRetry(error, command.getRetries());
+	}
+
+	/**
+	 * queue the command again after the backoff, the worker is free in the
+	 * meantime
+	 */
+	private void scheduleRetry(final HypervisorCommand command, Exception error) {
+		int retry = command.retried();
+		long delay = retryPolicy.getDelayInMs(retry);
+		logger.warn(String.format("Retry %s in %d ms (%d of %d) after: %s", command, delay, retry,
+			retryPolicy.getMaxRetries(), error.getMessage()));
+		AsyncRetrier.getInstance().schedule(() -> requeue(command), delay);
+	}
+
+	private void requeue(HypervisorCommand command) {
+		try {
+			CommandQueue.Result result = queue.offer(command);
+			if (result != CommandQueue.Result.QUEUED) {
+				// only status queries, an identical one is queued or just ran
+				logger.debug(result + " retry of " + command);
+				finish(command);
+				complete(command, null);
 			}
+		} catch (CommandQueueFullException e) {
+			cleanup(command, e);
+			finish(command);
+			complete(command, e);
+		}
+	}
+
+	/**
+	 * report the outcome to the operation of the command and to those of the
+	 * commands coalesced with it
+	 */
+	private static void complete(HypervisorCommand command, Exception error) {
+		if (command.getOperation() != null)
+			complete(command.getOperation(), command, error);
+		for (Operation operation : command.getCoalesced())
+			complete(operation, command, error);
+	}
+
+	/**
+	 * report the outcome to the waiters, with the state the command or its
+	 * cleanup left the VM in
+	 */
+	private static void complete(Operation operation, HypervisorCommand command, Exception error) {
+		VMState state = null;
+		try {
+			state = DBOperations.getInstance().getVMState(operation.getVmid());
+		} catch (Exception e) {
+			logger.warn("Cannot read state of vm " + operation.getVmid() + " for operation "
+				+ operation.getId(), e);
+		}
+		HypervisorResponse resp = command.getResponse();
+		operation.complete(error == null, state,
+			(resp == null) ? null : resp.getResponseCode(),
+			(resp == null) ? null : resp.getDescription(),
+			(error == null) ? null : error.getMessage());
+	}
+
+	private static void cleanup(HypervisorCommand command, Exception ex) {
+		try {
+			logger.error(ex.getMessage(), ex);
+			command.cleanupOnFailed();
+		} catch (Exception e) {
+			logger.error("Uable to clean up after error because " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * record the command in the journal before it is queued, a command that
+	 * cannot be journaled still runs. Status queries are not journaled, they
+	 * do not change the VM and the sweeper queries it again after a restart.
+	 */
+	private void journal(HypervisorCommand command) {
+		if (journal == null || command.getLane() == CommandLane.QUERY)
+			return;
+		try {
+			command.setJournalSeq(journal.begin(command.vminfo.getVmid(), command.getName()));
+		} catch (IOException e) {
+			logger.error("Cannot journal " + command + ", it is not recovered after a restart", e);
+		}
+	}
+
+	/**
+	 * mark the command done in the journal once it ran or was cleaned up
+	 */
+	private void finish(HypervisorCommand command) {
+		if (journal == null || command.getJournalSeq() == 0)
+			return;
+		try {
+			journal.finish(command.getJournalSeq());
+		} catch (IOException e) {
+			logger.error("Cannot mark " + command + " done in the journal", e);
 		}
 	}
 
 	private HypervisorProxy() {
-		int workers = Configuration.getInstance().getInt(Configuration.PropertyName.WORKER_POOL_SIZE); 
-		executorService = Executors.newFixedThreadPool(workers,
-			new WorkerThreadFactory());
+		this(Configuration.getInstance().getInt(Configuration.PropertyName.WORKER_POOL_SIZE),
+			createQueue(), createRetryPolicy(), openJournal());
+		if (!lost.isEmpty()) {
+			Thread recovery = new Thread(() -> recover(lost), "command-recovery");
+			recovery.setDaemon(true);
+			recovery.start();
+		}
+	}
+
+	// unit test purpose
+	HypervisorProxy(int numWorkers, CommandQueue queue, RetryPolicy retryPolicy, CommandJournal journal) {
+		this.queue = queue;
+		this.retryPolicy = retryPolicy;
+		this.journal = journal;
+		// taken before any worker starts, the commands journaled from now on
+		// belong to this process and are not lost
+		this.lost = (journal == null) ? Collections.<CommandJournal.Entry>emptyList()
+			: journal.getUnfinished();
+		logger.info("Hypervisor proxy with " + numWorkers + " workers");
+
+		WorkerThreadFactory threadFactory = new WorkerThreadFactory();
+		for (int i = 0; i < numWorkers; i++) {
+			Thread thread = threadFactory.newThread(new Worker());
+			workers.add(thread);
+			thread.start();
+		}
+	}
+
+	private static CommandQueue createQueue() {
+		Configuration conf = Configuration.getInstance();
+		Map<CommandLane, Integer> maxWorkers = new EnumMap<CommandLane, Integer>(CommandLane.class);
+		Map<CommandLane, Integer> capacity = new EnumMap<CommandLane, Integer>(CommandLane.class);
+		Map<CommandLane, Long> freshInMillis = new EnumMap<CommandLane, Long>(CommandLane.class);
+		for (CommandLane lane : CommandLane.values()) {
+			String prefix = Configuration.PropertyName.HYPERVISOR_LANE_PREFIX + lane.getConfigName();
+			maxWorkers.put(lane, conf.getInt(prefix + Configuration.PropertyName.HYPERVISOR_LANE_WORKERS_SUFFIX,
+				(lane == CommandLane.QUERY) ? Constants.DEFAULT_HYPERVISOR_QUERY_LANE_WORKERS : 0));
+			capacity.put(lane, conf.getInt(prefix + Configuration.PropertyName.HYPERVISOR_LANE_QUEUE_SIZE_SUFFIX,
+				(lane == CommandLane.QUERY) ? Constants.DEFAULT_HYPERVISOR_QUERY_LANE_QUEUE_SIZE :
+					Constants.DEFAULT_HYPERVISOR_LANE_QUEUE_SIZE));
+			freshInMillis.put(lane, conf.getLong(prefix + Configuration.PropertyName.HYPERVISOR_LANE_FRESH_MS_SUFFIX,
+				(lane == CommandLane.QUERY) ? Constants.DEFAULT_HYPERVISOR_QUERY_LANE_FRESH_MS : 0));
+		}
+		int maxMailboxDepth = conf.getInt(Configuration.PropertyName.HYPERVISOR_MAILBOX_MAX_DEPTH,
+			Constants.DEFAULT_HYPERVISOR_MAILBOX_MAX_DEPTH);
+		logger.info("Hypervisor command lane worker limits " + maxWorkers + ", lane capacities "
+			+ capacity + ", lane freshness " + freshInMillis + ", vm mailbox depth " + maxMailboxDepth);
+
+		boolean fairShare = conf.getBoolean(Configuration.PropertyName.HYPERVISOR_FAIRSHARE_ENABLED,
+			Constants.DEFAULT_HYPERVISOR_FAIRSHARE_ENABLED);
+		int maxRunningPerUser = conf.getInt(Configuration.PropertyName.HYPERVISOR_FAIRSHARE_USER_MAX_RUNNING,
+			Constants.DEFAULT_HYPERVISOR_FAIRSHARE_USER_MAX_RUNNING);
+		int adminWeight = Math.max(1, conf.getInt(Configuration.PropertyName.HYPERVISOR_FAIRSHARE_ADMIN_WEIGHT,
+			Constants.DEFAULT_HYPERVISOR_FAIRSHARE_ADMIN_WEIGHT));
+		Map<String, Integer> userWeights = new HashMap<String, Integer>();
+		for (String admin : conf.getString(Configuration.PropertyName.HYPERVISOR_FAIRSHARE_ADMIN_OPERATORS,
+				Constants.DEFAULT_HYPERVISOR_FAIRSHARE_ADMIN_OPERATORS).split(";")) {
+			if (!admin.trim().isEmpty())
+				userWeights.put(admin.trim(), adminWeight);
+		}
+		logger.info(fairShare ? "Hypervisor workers are shared between users, at most " + maxRunningPerUser
+			+ " commands of a user run at once, weights " + userWeights :
+			"Hypervisor commands run first in, first out");
+		return new CommandQueue(maxWorkers, capacity, freshInMillis, maxMailboxDepth, fairShare,
+			userWeights, maxRunningPerUser);
+	}
+
+	private static RetryPolicy createRetryPolicy() {
+		Configuration conf = Configuration.getInstance();
+		RetryPolicy retryPolicy = (conf.getBoolean(Configuration.PropertyName.USE_RETRY_TASK, false)
+			&& conf.getBoolean(Configuration.PropertyName.RETRY_TASK_ASYNC, Constants.DEFAULT_RETRY_TASK_ASYNC))
+			? RetryPolicy.fromConfiguration() : null;
+		logger.info("Hypervisor command retry policy " + retryPolicy);
+		return retryPolicy;
+	}
+
+	/**
+	 * @return null if no journal is configured or it cannot be opened
+	 */
+	private static CommandJournal openJournal() {
+		Configuration conf = Configuration.getInstance();
+		String path = conf.getString(Configuration.PropertyName.HYPERVISOR_JOURNAL_PATH,
+			Constants.DEFAULT_HYPERVISOR_JOURNAL_PATH);
+		if (path == null || path.trim().isEmpty()) {
+			logger.info("Hypervisor commands are not journaled");
+			return null;
+		}
+		try {
+			CommandJournal journal = new CommandJournal(new File(path.trim()),
+				conf.getBoolean(Configuration.PropertyName.HYPERVISOR_JOURNAL_SYNC,
+					Constants.DEFAULT_HYPERVISOR_JOURNAL_SYNC),
+				conf.getInt(Configuration.PropertyName.HYPERVISOR_JOURNAL_COMPACT_THRESHOLD,
+					Constants.DEFAULT_HYPERVISOR_JOURNAL_COMPACT_THRESHOLD));
+			logger.info("Hypervisor commands are journaled in " + path);
+			return journal;
+		} catch (IOException e) {
+			logger.error("Cannot open hypervisor command journal " + path
+				+ ", commands are not recovered after a restart", e);
+			return null;
+		}
+	}
+
+	/**
+	 * recover the VMs of the commands that did not finish before the restart,
+	 * their entries are kept if that fails so the next start tries again
+	 */
+	private void recover(List<CommandJournal.Entry> entries) {
+		long start = System.currentTimeMillis();
+		logger.warn(entries.size() + " hypervisor commands did not finish before the restart: " + entries);
+
+		Configuration conf = Configuration.getInstance();
+		try {
+			final IHypervisor hypervisor = HypervisorFactory.createHypervisor();
+			CommandRecovery recovery = new CommandRecovery((host, vms) -> {
+				HypervisorResponse resp = hypervisor.queryVMs(host, vms);
+				if (resp.getResponseCode() != 0)
+					throw new ScriptCmdErrorException("Cannot query vm status at " + host + ": " + resp);
+				return resp.getVmStatuses();
+			}, conf.getInt(Configuration.PropertyName.HYPERVISOR_RECOVERY_PARALLELISM,
+					Constants.DEFAULT_HYPERVISOR_RECOVERY_PARALLELISM),
+				conf.getLong(Configuration.PropertyName.HYPERVISOR_RECOVERY_TIMEOUT_MS,
+					Constants.DEFAULT_HYPERVISOR_RECOVERY_TIMEOUT_MS));
+
+			CommandRecovery.Plan plan = recovery.plan(entries, DBOperations.getInstance().getPendingVmInfo());
+			CommandRecovery.apply(plan, this);
+			for (CommandJournal.Entry entry : entries)
+				journal.finish(entry.getSeq());
+			logger.info(String.format("Recovered %d hypervisor commands in %d ms, state changes %s, deleted again %d",
+				entries.size(), System.currentTimeMillis() - start, plan.getChanges(), plan.getDeletes().size()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			logger.error("Cannot recover hypervisor commands, they are recovered at the next start", e);
+		}
 	}
 
 	public static synchronized HypervisorProxy getInstance() {
@@ -79,11 +370,85 @@ public final class HypervisorProxy {
 		return instance;
 	}
 
-	public void addCommand(HypervisorCommand command) {
-		executorService.execute(new Worker(command));
+	/**
+	 * queue the command, a status query is dropped if the same one is already
+	 * queued or running, succeeded within the freshness window of its lane,
+	 * or its lane or the mailbox of its VM is full
+	 * 
+	 * @throws CommandQueueFullException
+	 *             if the lane of the command or the mailbox of its VM is full,
+	 *             the command is cleaned up as if it had failed
+	 */
+	public CommandQueue.Result addCommand(HypervisorCommand command) throws CommandQueueFullException {
+		journal(command);
+		try {
+			CommandQueue.Result result = queue.offer(command);
+			if (result != CommandQueue.Result.QUEUED) {
+				logger.debug(result + " " + command);
+				finish(command);
+			}
+			return result;
+		} catch (CommandQueueFullException e) {
+			cleanup(command, e);
+			finish(command);
+			throw e;
+		}
+	}
+
+	/**
+	 * queue the command and track it as an operation clients can wait for. If
+	 * an identical command is queued or running, the operation completes with
+	 * that one, if it succeeded within the freshness window it completes at
+	 * once with the state it left the VM in.
+	 * 
+	 * @throws CommandQueueFullException
+	 *             if the lane of the command is full, the operation is then
+	 *             failed
+	 */
+	public Operation addTrackedCommand(HypervisorCommand command, String operator)
+			throws CommandQueueFullException {
+		Operation operation = OperationTracker.getInstance().track(command, operator);
+		CommandQueue.Result result;
+		try {
+			result = addCommand(command);
+		} catch (CommandQueueFullException e) {
+			operation.complete(false, null, null, null, e.getMessage());
+			throw e;
+		}
+		if (result == CommandQueue.Result.FRESH) {
+			// the same command just succeeded, the VM is in the state it left
+			complete(operation, command, null);
+		} else if (result == CommandQueue.Result.DROPPED) {
+			operation.complete(false, null, null, null, "Command is not run, its lane is full");
+		}
+		// a coalesced one completes with the command it was coalesced with
+		return operation;
+	}
+
+	/**
+	 * @return the number of commands of the VM queued or running
+	 */
+	public int getMailboxDepth(String vmid) {
+		return queue.getMailboxDepth(vmid);
+	}
+
+	// unit test purpose
+	List<CommandJournal.Entry> getLost() {
+		return lost;
+	}
+
+	public CommandQueue.QueueStats getStats() {
+		return queue.getStats(workers.size());
 	}
 
 	public void shutdown() {
-		executorService.shutdown();
+		queue.close();
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				logger.error("Cannot close hypervisor command journal", e);
+			}
+		}
 	}
 }
@@ -17,6 +17,7 @@ package edu.indiana.d2i.sloan.hyper;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import edu.indiana.d2i.sloan.Configuration;
 import edu.indiana.d2i.sloan.utils.SSHProxy.CmdsExecResult;
@@ -26,6 +27,11 @@ class HypervisorResponse {
 	public static final String KV_DELIMITER;
 	public static final String VM_STATUS_KEY;
 
+	/* statuses reported by the batch status script */
+	public static final String STATUS_RUNNING = "Running";
+	public static final String STATUS_NOT_RUNNING = "Not_Running";
+	public static final String STATUS_MISSING = "Missing";
+
 	private final int responseCode; // code from hyper script
 	private final VMState state; // non-error, or error
 	private final String description;
@@ -80,6 +86,39 @@ class HypervisorResponse {
 		return attributes.get(key);
 	}
 
+	/**
+	 * status of each VM in the output of the batch status script, keyed by
+	 * working directory
+	 */
+	public Map<String, String> getVmStatuses() {
+		return BatchStatusParser.parse(description);
+	}
+
+	/* kept apart so parsing does not load the configuration */
+	static class BatchStatusParser {
+		private static final Pattern LINE_SEPARATOR = Pattern.compile("\\r?\\n");
+
+		/**
+		 * one "working directory TAB status" line per VM, lines that are not
+		 * in this form are skipped
+		 */
+		static Map<String, String> parse(String output) {
+			Map<String, String> statuses = new HashMap<String, String>();
+			if (output == null)
+				return statuses;
+			for (String line : LINE_SEPARATOR.split(output)) {
+				int tab = line.lastIndexOf('\t');
+				if (tab <= 0)
+					continue;
+				String status = line.substring(tab + 1).trim();
+				if (STATUS_RUNNING.equals(status) || STATUS_NOT_RUNNING.equals(status)
+						|| STATUS_MISSING.equals(status))
+					statuses.put(line.substring(0, tab), status);
+			}
+			return statuses;
+		}
+	}
+
 	public static HypervisorResponse commandRes2HyResp(CmdsExecResult cmdRes) {
 		int respCode = cmdRes.getExitCode();
 		String description = cmdRes.getScreenOutput().trim();
@@ -27,6 +27,12 @@ interface IHypervisor {
 
 	public HypervisorResponse queryVM(VmInfoBean vminfo) throws Exception;
 
+	/**
+	 * status of all the given VMs of a host in one round trip, see
+	 * {@link HypervisorResponse#getVmStatuses()}
+	 */
+	public HypervisorResponse queryVMs(String host, List<VmInfoBean> vms) throws Exception;
+
 	public HypervisorResponse switchVM(VmInfoBean vminfo) throws Exception;
 
 	public HypervisorResponse stopVM(VmInfoBean vminfo) throws Exception;
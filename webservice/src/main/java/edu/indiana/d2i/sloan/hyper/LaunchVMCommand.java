@@ -40,7 +40,7 @@ public class LaunchVMCommand extends HypervisorCommand {
 
 	@Override
 	public void execute() throws Exception {
-		HypervisorResponse resp = hypervisor.launchVM(vminfo);
+		HypervisorResponse resp = recordResponse(hypervisor.launchVM(vminfo));
 		logger.info(resp.toString());
 
 		if (resp.getResponseCode() != 0) {
@@ -91,6 +91,16 @@ public class LaunchVMCommand extends HypervisorCommand {
 		r.call();
 	}
 
+	@Override
+	public CommandLane getLane() {
+		return CommandLane.CONTROL;
+	}
+
+	@Override
+	public String getOperator() {
+		return operator;
+	}
+
 	@Override
 	public String toString() {
 		return "launchvm " + vminfo;
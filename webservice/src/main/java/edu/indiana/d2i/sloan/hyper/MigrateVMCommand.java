@@ -18,6 +18,7 @@ package edu.indiana.d2i.sloan.hyper;
 import edu.indiana.d2i.sloan.bean.VmInfoBean;
 import edu.indiana.d2i.sloan.db.DBOperations;
 import edu.indiana.d2i.sloan.exception.ScriptCmdErrorException;
+import edu.indiana.d2i.sloan.scheduler.ResourceTracker;
 import edu.indiana.d2i.sloan.utils.RetriableTask;
 import edu.indiana.d2i.sloan.vm.*;
 import org.slf4j.Logger;
@@ -39,7 +40,7 @@ public class MigrateVMCommand extends HypervisorCommand {
 
 	@Override
 	public void execute() throws Exception {
-		HypervisorResponse resp = hypervisor.migrateVM(vminfo, vmports);
+		HypervisorResponse resp = recordResponse(hypervisor.migrateVM(vminfo, vmports));
 		logger.info(resp.toString());
 
 		if (resp.getResponseCode() != 0) {
@@ -57,6 +58,7 @@ public class MigrateVMCommand extends HypervisorCommand {
 				public Void call() throws Exception {
 
 					DBOperations.getInstance().updateVmHostAndPorts(vminfo.getVmid(), vmports);
+					ResourceTracker.getInstance().move(vminfo.getVmid(), vmports.publicip);
 
 					VMStateManager.getInstance().transitTo(vminfo.getVmid(),
 							vminfo.getVmstate(), VMState.SHUTDOWN, operator);
@@ -104,6 +106,11 @@ public class MigrateVMCommand extends HypervisorCommand {
 		r.call();
 	}
 
+	@Override
+	public String getOperator() {
+		return operator;
+	}
+
 	@Override
 	public String toString() {
 		return "migratevm " + vminfo;
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.hyper;
+
+import java.util.concurrent.CompletableFuture;
+
+import edu.indiana.d2i.sloan.bean.OperationBean;
+import edu.indiana.d2i.sloan.vm.VMState;
+
+/**
+ * a hypervisor command a client can wait for, see {@link OperationTracker}
+ */
+public class Operation {
+	public enum Status {
+		QUEUED, RUNNING, SUCCEEDED, FAILED
+	}
+
+	private final String id;
+	private final String vmid;
+	private final String command;
+	private final String operator;
+	private final long submittedAt = System.currentTimeMillis();
+	private final CompletableFuture<OperationBean> result = new CompletableFuture<OperationBean>();
+	private volatile Status status = Status.QUEUED;
+
+	Operation(String id, String vmid, String command, String operator) {
+		this.id = id;
+		this.vmid = vmid;
+		this.command = command;
+		this.operator = operator;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getVmid() {
+		return vmid;
+	}
+
+	/**
+	 * user who submitted the command
+	 */
+	public String getOperator() {
+		return operator;
+	}
+
+	public boolean isDone() {
+		return result.isDone();
+	}
+
+	/**
+	 * completes once the command finished, never exceptionally
+	 */
+	public CompletableFuture<OperationBean> getResult() {
+		return result;
+	}
+
+	/**
+	 * the final state once done, the current status otherwise
+	 */
+	public OperationBean toBean() {
+		OperationBean done = result.getNow(null);
+		return (done != null) ? done : new OperationBean(id, vmid, command, status.name(), submittedAt);
+	}
+
+	void started() {
+		if (status == Status.QUEUED)
+			status = Status.RUNNING;
+	}
+
+	void complete(boolean succeeded, VMState vmState, Integer exitCode, String output, String error) {
+		status = succeeded ? Status.SUCCEEDED : Status.FAILED;
+		OperationBean bean = new OperationBean(id, vmid, command, status.name(), submittedAt);
+		bean.setResult(vmState, exitCode, output, error, System.currentTimeMillis());
+		result.complete(bean);
+	}
+}
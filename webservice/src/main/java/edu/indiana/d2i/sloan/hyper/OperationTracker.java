@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.hyper;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.indiana.d2i.sloan.Configuration;
+import edu.indiana.d2i.sloan.Constants;
+
+/**
+ * Recent hypervisor operations by id so that clients can wait for a command
+ * instead of polling the VM state. At most capacity operations are kept, once
+ * full the oldest finished one is dropped, or the oldest one if none has
+ * finished.
+ */
+public class OperationTracker {
+	private static Logger logger = LoggerFactory.getLogger(OperationTracker.class);
+	private static OperationTracker instance = null;
+
+	private final int capacity;
+	/* guarded by this, oldest first */
+	private final LinkedHashMap<String, Operation> operations = new LinkedHashMap<String, Operation>();
+	private long evictedRunning = 0;
+
+	// unit test purpose
+	OperationTracker(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public static synchronized OperationTracker getInstance() {
+		if (instance == null) {
+			instance = new OperationTracker(Configuration.getInstance().getInt(
+				Configuration.PropertyName.OPERATION_HISTORY_SIZE,
+				Constants.DEFAULT_OPERATION_HISTORY_SIZE));
+		}
+		return instance;
+	}
+
+	/**
+	 * start tracking the command, it reports to the operation while it runs
+	 */
+	public Operation track(HypervisorCommand command, String operator) {
+		Operation operation = new Operation(UUID.randomUUID().toString(),
+			command.vminfo.getVmid(), command.getName(), operator);
+		command.setOperation(operation);
+		synchronized (this) {
+			operations.put(operation.getId(), operation);
+			if (operations.size() > capacity)
+				evict();
+		}
+		return operation;
+	}
+
+	/**
+	 * @return null if there is no such operation or it was evicted
+	 */
+	public synchronized Operation get(String id) {
+		return (id == null) ? null : operations.get(id);
+	}
+
+	public synchronized int size() {
+		return operations.size();
+	}
+
+	private void evict() {
+		Iterator<Operation> it = operations.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().isDone()) {
+				it.remove();
+				return;
+			}
+		}
+		// every operation is still running, its waiters keep their future
+		Operation eldest = operations.values().iterator().next();
+		operations.remove(eldest.getId());
+		if (evictedRunning++ % 1000 == 0)
+			logger.warn("Dropped unfinished operation " + eldest.getId() + ", " + capacity
+				+ " operations are in progress");
+	}
+}
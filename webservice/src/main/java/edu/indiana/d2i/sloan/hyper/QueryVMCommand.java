@@ -38,7 +38,7 @@ public class QueryVMCommand extends HypervisorCommand {
 
 	@Override
 	public void execute() throws Exception {
-		HypervisorResponse resp = hypervisor.queryVM(vminfo);
+		HypervisorResponse resp = recordResponse(hypervisor.queryVM(vminfo));
 		logger.info(resp.toString());
 
 		if (resp.getResponseCode() != 0) {
@@ -74,6 +74,21 @@ public class QueryVMCommand extends HypervisorCommand {
 				vminfo.getVmstate(), VMState.ERROR, operator);
 	}
 
+	@Override
+	public CommandLane getLane() {
+		return CommandLane.QUERY;
+	}
+
+	@Override
+	public String getCoalesceKey() {
+		return vminfo.getVmid();
+	}
+
+	@Override
+	public String getOperator() {
+		return operator;
+	}
+
 	@Override
 	public String toString() {
 		return "queryvm " + vminfo;
@@ -105,6 +105,11 @@ public class RandomFailHypervisor implements IHypervisor {
 		return simulateRandProcess();
 	}
 
+	@Override
+	public HypervisorResponse queryVMs(String host, List<VmInfoBean> vms) throws Exception {
+		return simulateRandProcess();
+	}
+
 	@Override
 	public HypervisorResponse switchVM(VmInfoBean vminfo) throws Exception {
 		return simulateRandProcess();
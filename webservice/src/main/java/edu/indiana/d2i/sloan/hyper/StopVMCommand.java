@@ -40,7 +40,7 @@ public class StopVMCommand extends HypervisorCommand {
 
 	@Override
 	public void execute() throws Exception {
-		HypervisorResponse resp = hypervisor.stopVM(vminfo);
+		HypervisorResponse resp = recordResponse(hypervisor.stopVM(vminfo));
 		logger.info(resp.toString());
 
 		if (resp.getResponseCode() != 0) {
@@ -90,6 +90,16 @@ public class StopVMCommand extends HypervisorCommand {
 		r.call();
 	}
 
+	@Override
+	public CommandLane getLane() {
+		return CommandLane.CONTROL;
+	}
+
+	@Override
+	public String getOperator() {
+		return operator;
+	}
+
 	@Override
 	public String toString() {
 		return "stopvm " + vminfo;
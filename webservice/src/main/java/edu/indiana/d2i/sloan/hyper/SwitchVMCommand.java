@@ -41,7 +41,7 @@ public class SwitchVMCommand extends HypervisorCommand {
 
 	@Override
 	public void execute() throws Exception {
-		HypervisorResponse resp = hypervisor.switchVM(vminfo);
+		HypervisorResponse resp = recordResponse(hypervisor.switchVM(vminfo));
 		logger.info(resp.toString());
 
 		if (resp.getResponseCode() != 0) {
@@ -97,6 +97,16 @@ public class SwitchVMCommand extends HypervisorCommand {
 		// TODO: should we also update VM mode to NOT_DEFINED ?
 	}
 
+	@Override
+	public CommandLane getLane() {
+		return CommandLane.CONTROL;
+	}
+
+	@Override
+	public String getOperator() {
+		return operator;
+	}
+
 	@Override
 	public String toString() {
 		return "switchvm " + vminfo;
@@ -43,7 +43,7 @@ public class UpdateCustosCredsCommand extends HypervisorCommand {
 
 	@Override
 	public void execute() throws Exception {
-		HypervisorResponse resp = hypervisor.updateCustosCreds(vminfo, custos_client_id, custos_client_secret);
+		HypervisorResponse resp = recordResponse(hypervisor.updateCustosCreds(vminfo, custos_client_id, custos_client_secret));
 		logger.info(resp.toString());
 
 		if (resp.getResponseCode() != 0) {
@@ -80,6 +80,16 @@ public class UpdateCustosCredsCommand extends HypervisorCommand {
 		r.call();
 	}
 
+	@Override
+	public CommandLane getLane() {
+		return CommandLane.MAINTENANCE;
+	}
+
+	@Override
+	public String getOperator() {
+		return username;
+	}
+
 	@Override
 	public String toString() {
 		return "UpdateCustosCreds " + vminfo;
@@ -43,7 +43,7 @@ public class UpdatePublicKeyCommand extends HypervisorCommand {
 
 	@Override
 	public void execute() throws Exception {
-		HypervisorResponse resp = hypervisor.updatePubKey(vminfo, publicKey, username);
+		HypervisorResponse resp = recordResponse(hypervisor.updatePubKey(vminfo, publicKey, username));
 		logger.info(resp.toString());
 
 		if (resp.getResponseCode() != 0) {
@@ -82,6 +82,16 @@ public class UpdatePublicKeyCommand extends HypervisorCommand {
 		r.call();
 	}
 
+	@Override
+	public CommandLane getLane() {
+		return CommandLane.MAINTENANCE;
+	}
+
+	@Override
+	public String getOperator() {
+		return operator;
+	}
+
 	@Override
 	public String toString() {
 		return "UpdatePublicKey " + vminfo;
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.hyper;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.indiana.d2i.sloan.Configuration;
+import edu.indiana.d2i.sloan.Constants;
+import edu.indiana.d2i.sloan.bean.VmInfoBean;
+import edu.indiana.d2i.sloan.bean.VmStateChangeBean;
+import edu.indiana.d2i.sloan.bean.VmUserRole;
+import edu.indiana.d2i.sloan.db.DBOperations;
+import edu.indiana.d2i.sloan.utils.RolePermissionUtils;
+import edu.indiana.d2i.sloan.vm.VMEventBus;
+import edu.indiana.d2i.sloan.vm.VMMode;
+import edu.indiana.d2i.sloan.vm.VMState;
+import edu.indiana.d2i.sloan.vm.VMStateManager;
+
+/**
+ * Periodically probes the status of all VMs of each host with one batch
+ * status script call per host, instead of one call per VM whenever a VM is
+ * queried, and writes the state changes back in one batched DB update.
+ *
+ * A VM that is not running any more is set to SHUTDOWN, a VM whose working
+ * directory is gone is set to ERROR. VMs in a pending state are left to the
+ * command that is working on them.
+ */
+public class VMStatusSweeper {
+	private static Logger logger = LoggerFactory.getLogger(VMStatusSweeper.class);
+	private static VMStatusSweeper instance = null;
+
+	private final String[] hosts;
+	private final long periodInMs;
+	private ScheduledExecutorService sweeper = null;
+
+	private final AtomicLong sweeps = new AtomicLong(0);
+	private final AtomicLong hostsFailed = new AtomicLong(0);
+	private final AtomicLong stateChanges = new AtomicLong(0);
+	private volatile long lastSweepAt = 0;
+	private volatile long lastSweepInMs = 0;
+	private volatile int lastSweepVms = 0;
+
+	public static class SweepStats {
+		private boolean enabled;
+		private long periodInMs, sweeps, hostsFailed, stateChanges, lastSweepAt, lastSweepInMs;
+		private int lastSweepVms;
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public long getPeriodInMs() {
+			return periodInMs;
+		}
+
+		public long getSweeps() {
+			return sweeps;
+		}
+
+		/**
+		 * host probes that failed, summed over all sweeps
+		 */
+		public long getHostsFailed() {
+			return hostsFailed;
+		}
+
+		/**
+		 * VM states changed, summed over all sweeps
+		 */
+		public long getStateChanges() {
+			return stateChanges;
+		}
+
+		/**
+		 * when the last sweep finished, in ms since the epoch, 0 if none did
+		 */
+		public long getLastSweepAt() {
+			return lastSweepAt;
+		}
+
+		public long getLastSweepInMs() {
+			return lastSweepInMs;
+		}
+
+		public int getLastSweepVms() {
+			return lastSweepVms;
+		}
+	}
+
+	private VMStatusSweeper() {
+		Configuration conf = Configuration.getInstance();
+		hosts = conf.getString(Configuration.PropertyName.HOSTS).split(";");
+		periodInMs = conf.getLong(Configuration.PropertyName.STATUS_SWEEP_PERIOD_MS,
+			Constants.DEFAULT_STATUS_SWEEP_PERIOD_MS);
+
+		if (periodInMs > 0) {
+			sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "vm-status-sweeper");
+				t.setDaemon(true);
+				return t;
+			});
+			sweeper.scheduleWithFixedDelay(() -> {
+				try {
+					sweep();
+				} catch (Exception e) {
+					logger.error("Cannot sweep vm status", e);
+				}
+			}, 0, periodInMs, TimeUnit.MILLISECONDS);
+			logger.info("Sweep vm status of " + hosts.length + " hosts every " + periodInMs + " ms");
+		}
+	}
+
+	public static synchronized VMStatusSweeper getInstance() {
+		if (instance == null) {
+			instance = new VMStatusSweeper();
+		}
+		return instance;
+	}
+
+	/**
+	 * false if VMs are probed one by one when they are queried
+	 */
+	public boolean isEnabled() {
+		return periodInMs > 0;
+	}
+
+	/**
+	 * probe every host once and write the state changes back
+	 */
+	public void sweep() throws Exception {
+		long start = System.currentTimeMillis();
+		IHypervisor hypervisor = HypervisorFactory.createHypervisor();
+		Map<String, List<VmInfoBean>> vmsByHost = groupByHost(
+			DBOperations.getInstance().getExistingVmInfo());
+
+		int probed = 0;
+		List<VmStateChangeBean> changes = new ArrayList<VmStateChangeBean>();
+		for (String host : hosts) {
+			List<VmInfoBean> vms = vmsByHost.get(host);
+			if (vms == null)
+				continue;
+			try {
+				HypervisorResponse resp = hypervisor.queryVMs(host, vms);
+				if (resp.getResponseCode() != 0) {
+					hostsFailed.incrementAndGet();
+					logger.error("Cannot query vm status at " + host + ": " + resp);
+					continue;
+				}
+				probed += vms.size();
+				changes.addAll(getStateChanges(vms, resp.getVmStatuses()));
+			} catch (Exception e) {
+				hostsFailed.incrementAndGet();
+				logger.error("Cannot query vm status at " + host, e);
+			}
+		}
+
+		List<VmStateChangeBean> applied = updateVMStates(changes);
+		stateChanges.addAndGet(applied.size());
+		sweeps.incrementAndGet();
+		lastSweepVms = probed;
+		lastSweepAt = System.currentTimeMillis();
+		lastSweepInMs = lastSweepAt - start;
+		logger.info(String.format("Swept status of %d vms in %d ms, %d state changes",
+			probed, lastSweepInMs, applied.size()));
+	}
+
+	private static List<VmStateChangeBean> updateVMStates(List<VmStateChangeBean> changes)
+			throws SQLException {
+		List<VmStateChangeBean> applied = DBOperations.getInstance().updateVMStates(changes);
+		for (VmStateChangeBean change : applied) {
+			VMEventBus.getInstance().publishState(change.getVmid(), change.getFrom(), change.getTo(),
+				change.getOperator());
+		}
+		if (applied.size() < changes.size())
+			logger.info((changes.size() - applied.size()) + " vm state changes are skipped, "
+				+ "the vms changed state during the sweep");
+		return applied;
+	}
+
+	/**
+	 * VMs that are not in a pending state by host
+	 */
+	static Map<String, List<VmInfoBean>> groupByHost(List<VmInfoBean> vms) {
+		Map<String, List<VmInfoBean>> vmsByHost = new HashMap<String, List<VmInfoBean>>();
+		for (VmInfoBean vminfo : vms) {
+			if (VMStateManager.isPendingState(vminfo.getVmstate()))
+				continue;
+			List<VmInfoBean> hostVms = vmsByHost.get(vminfo.getPublicip());
+			if (hostVms == null) {
+				hostVms = new ArrayList<VmInfoBean>();
+				vmsByHost.put(vminfo.getPublicip(), hostVms);
+			}
+			hostVms.add(vminfo);
+		}
+		return vmsByHost;
+	}
+
+	/**
+	 * compare the states in DB with the statuses reported by the host,
+	 * keyed by working directory; the owner is recorded as operator
+	 */
+	static List<VmStateChangeBean> getStateChanges(List<VmInfoBean> vms, Map<String, String> statuses) {
+		List<VmStateChangeBean> changes = new ArrayList<VmStateChangeBean>();
+		for (VmInfoBean vminfo : vms) {
+			String status = statuses.get(vminfo.getWorkDir());
+			VMState state = vminfo.getVmstate();
+			if (status == null || VMStateManager.isPendingState(state))
+				continue;
+
+			VMState target = null;
+			VMMode targetMode = null;
+			if (HypervisorResponse.STATUS_MISSING.equals(status)) {
+				if (state != VMState.ERROR)
+					target = VMState.ERROR;
+			} else if (HypervisorResponse.STATUS_NOT_RUNNING.equals(status)) {
+				if (state == VMState.RUNNING) {
+					// as a vm stopped through the api
+					target = VMState.SHUTDOWN;
+					targetMode = VMMode.NOT_DEFINED;
+				}
+			} else if (state == VMState.SHUTDOWN) {
+				logger.warn("VM " + vminfo.getVmid() + " is running but its state is " + state);
+			}
+			if (target == null)
+				continue;
+
+			VmUserRole owner = (vminfo.getRoles() == null) ? null
+				: RolePermissionUtils.findOwner(vminfo.getRoles());
+			if (owner == null) {
+				logger.warn("Cannot find owner of vm " + vminfo.getVmid() + " to change its state to " + target);
+				continue;
+			}
+			changes.add(new VmStateChangeBean(vminfo.getVmid(), vminfo.getVmmode(), state, target,
+				targetMode, owner.getGuid()));
+		}
+		return changes;
+	}
+
+	public SweepStats getStats() {
+		SweepStats stats = new SweepStats();
+		stats.enabled = isEnabled();
+		stats.periodInMs = periodInMs;
+		stats.sweeps = sweeps.get();
+		stats.hostsFailed = hostsFailed.get();
+		stats.stateChanges = stateChanges.get();
+		stats.lastSweepAt = lastSweepAt;
+		stats.lastSweepInMs = lastSweepInMs;
+		stats.lastSweepVms = lastSweepVms;
+		return stats;
+	}
+}
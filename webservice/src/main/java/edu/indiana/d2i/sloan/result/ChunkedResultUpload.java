@@ -0,0 +1,379 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.result;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.indiana.d2i.sloan.Configuration;
+import edu.indiana.d2i.sloan.Constants;
+import edu.indiana.d2i.sloan.bean.UploadStatusBean;
+import edu.indiana.d2i.sloan.exception.ResultUploadException;
+
+/**
+ * Resumable result uploads. An upload is opened with its size, sent as chunks
+ * at explicit offsets that are written into a preallocated staging file with
+ * positional writes, and completed once every byte has arrived. A SHA-256 of
+ * the content is computed while the chunks are written in order and verified
+ * on completion, chunks that arrive out of order or overlap what was already
+ * hashed are hashed from the file at completion instead.
+ *
+ * If a connection drops in the middle of a chunk, the bytes written so far
+ * are kept; the client asks for the status and resumes from nextOffset.
+ */
+public class ChunkedResultUpload {
+	private static Logger logger = LoggerFactory.getLogger(ChunkedResultUpload.class);
+	private static ChunkedResultUpload instance = null;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final String PART_SUFFIX = ".part";
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+
+	private final Path uploadDir;
+	private final long expireInMillis;
+	private final Map<String, Upload> uploads = new ConcurrentHashMap<String, Upload>();
+	/* null until expiring is started */
+	private ScheduledExecutorService expirer = null;
+
+	private static class Upload {
+		final String uploadId;
+		final String vmid;
+		final long size;
+		final String expectedSha256;
+		final Path file;
+		final FileChannel channel;
+		final MessageDigest digest;
+		/* the digest covers [0, digestedUpTo) */
+		long digestedUpTo = 0;
+		/* received byte ranges, start -> end (exclusive), never overlapping */
+		final TreeMap<Long, Long> received = new TreeMap<Long, Long>();
+		volatile long lastActivity = System.currentTimeMillis();
+		boolean closed = false;
+
+		Upload(String uploadId, String vmid, long size, String expectedSha256, Path file,
+				FileChannel channel) throws IOException {
+			this.uploadId = uploadId;
+			this.vmid = vmid;
+			this.size = size;
+			this.expectedSha256 = expectedSha256;
+			this.file = file;
+			this.channel = channel;
+			this.digest = newDigest();
+		}
+
+		long nextOffset() {
+			Long end = received.get(0L);
+			return (end == null) ? 0 : end;
+		}
+
+		long receivedBytes() {
+			long total = 0;
+			for (Map.Entry<Long, Long> range : received.entrySet())
+				total += range.getValue() - range.getKey();
+			return total;
+		}
+
+		UploadStatusBean toStatus() {
+			return new UploadStatusBean(uploadId, vmid, size, receivedBytes(), nextOffset());
+		}
+
+		void discard() {
+			closed = true;
+			try {
+				channel.close();
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				logger.error("Cannot remove staging file " + file, e);
+			}
+		}
+	}
+
+	ChunkedResultUpload(Path uploadDir, long expireInMillis) {
+		this.uploadDir = uploadDir;
+		this.expireInMillis = expireInMillis;
+	}
+
+	public static synchronized ChunkedResultUpload getInstance() {
+		if (instance == null) {
+			Configuration conf = Configuration.getInstance();
+			// next to the result files so that completed uploads are moved, not copied
+			String resultDir = conf.getString(Configuration.PropertyName.RESULT_FILES_DIR, "/tmp");
+			instance = new ChunkedResultUpload(
+					Paths.get(conf.getString(Configuration.PropertyName.RESULT_UPLOAD_DIR,
+							resultDir + "/" + Constants.DEFAULT_RESULT_UPLOAD_DIR_NAME)),
+					conf.getLong(Configuration.PropertyName.RESULT_UPLOAD_EXPIRE_MS,
+							Constants.DEFAULT_RESULT_UPLOAD_EXPIRE_MS));
+			instance.startExpiring(conf.getLong(Configuration.PropertyName.RESULT_UPLOAD_EXPIRE_CHECK_PERIOD_MS,
+					Constants.DEFAULT_RESULT_UPLOAD_EXPIRE_CHECK_PERIOD_MS));
+		}
+		return instance;
+	}
+
+	/**
+	 * drop idle uploads every period, the staging files of abandoned uploads
+	 * are allocated to full size and would stay on a node nobody uploads to
+	 */
+	void startExpiring(long periodInMillis) {
+		expirer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "result-upload-expirer");
+			t.setDaemon(true);
+			return t;
+		});
+		expirer.scheduleWithFixedDelay(() -> {
+			try {
+				expireIdleUploads();
+			} catch (RuntimeException e) {
+				logger.error("Cannot expire idle result uploads", e);
+			}
+		}, periodInMillis, periodInMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public void shutdown() {
+		if (expirer != null)
+			expirer.shutdownNow();
+	}
+
+	/**
+	 * open an upload
+	 *
+	 * @param size
+	 *            number of bytes, the staging file is allocated up front; -1
+	 *            if unknown, the upload then ends at the last byte received
+	 * @param sha256
+	 *            hex checksum of the content, may be null and given at
+	 *            completion instead
+	 */
+	public UploadStatusBean init(String vmid, long size, String sha256) throws IOException {
+		expireIdleUploads();
+
+		Files.createDirectories(uploadDir);
+		String uploadId = UUID.randomUUID().toString();
+		Path file = uploadDir.resolve(uploadId + PART_SUFFIX);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		Upload upload;
+		try {
+			if (size > 0) {
+				// allocate the whole file so chunks can be written at any offset
+				channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+			}
+			upload = new Upload(uploadId, vmid, size, sha256, file, channel);
+		} catch (IOException e) {
+			channel.close();
+			Files.deleteIfExists(file);
+			throw e;
+		}
+		uploads.put(uploadId, upload);
+		logger.info("Open result upload " + uploadId + " of " + size + " bytes for " + vmid);
+		return upload.toStatus();
+	}
+
+	public UploadStatusBean getStatus(String uploadId) throws ResultUploadException {
+		Upload upload = getUpload(uploadId);
+		synchronized (upload) {
+			return upload.toStatus();
+		}
+	}
+
+	/**
+	 * write the content of the stream at the given offset; what was written
+	 * before a read error is kept and reported by the status. The stream is
+	 * read outside of the upload lock, so a stalled client does not hold up
+	 * status queries or the resumed upload.
+	 */
+	public UploadStatusBean putChunk(String uploadId, long offset, InputStream in)
+			throws IOException, ResultUploadException {
+		Upload upload = getUpload(uploadId);
+		synchronized (upload) {
+			checkOpen(upload);
+			if (offset < 0 || (upload.size >= 0 && offset > upload.size))
+				throw new ResultUploadException("Offset " + offset + " is outside of upload " + uploadId);
+		}
+
+		byte[] buf = new byte[BUFFER_SIZE];
+		long position = offset;
+		int n;
+		while ((n = in.read(buf)) >= 0) {
+			synchronized (upload) {
+				checkOpen(upload);
+				if (upload.size >= 0 && position + n > upload.size)
+					throw new ResultUploadException("Chunk at " + offset + " goes past the end of upload "
+							+ uploadId + " (" + upload.size + " bytes)");
+
+				if (position < upload.digestedUpTo) {
+					// the chunk may change bytes that are already hashed
+					upload.digest.reset();
+					upload.digestedUpTo = 0;
+				}
+
+				ByteBuffer buffer = ByteBuffer.wrap(buf, 0, n);
+				long written = position;
+				while (buffer.hasRemaining())
+					written += upload.channel.write(buffer, written);
+
+				if (position == upload.digestedUpTo) {
+					upload.digest.update(buf, 0, n);
+					upload.digestedUpTo = written;
+				}
+				addRange(upload.received, position, written);
+				position = written;
+				upload.lastActivity = System.currentTimeMillis();
+			}
+		}
+		logger.debug("Upload " + uploadId + " received " + (position - offset) + " bytes at " + offset);
+		synchronized (upload) {
+			return upload.toStatus();
+		}
+	}
+
+	/**
+	 * verify that every byte arrived and that the content matches the
+	 * checksum, the staging file is then handed over to the caller, who moves
+	 * it to its final place
+	 *
+	 * @param sha256
+	 *            hex checksum, overrides the one given at init; nothing is
+	 *            verified if neither is given
+	 */
+	public Path complete(String uploadId, String sha256) throws IOException, ResultUploadException {
+		Upload upload = getUpload(uploadId);
+		synchronized (upload) {
+			checkOpen(upload);
+			long length = (upload.size >= 0) ? upload.size
+					: (upload.received.isEmpty() ? 0 : upload.received.lastEntry().getValue());
+			if (upload.nextOffset() != length)
+				throw new ResultUploadException("Upload " + uploadId + " is missing bytes from offset "
+						+ upload.nextOffset() + " of " + length);
+
+			// hash what arrived out of order
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			while (upload.digestedUpTo < length) {
+				buffer.clear();
+				buffer.limit((int) Math.min(BUFFER_SIZE, length - upload.digestedUpTo));
+				int n = upload.channel.read(buffer, upload.digestedUpTo);
+				if (n < 0)
+					throw new IOException("Unexpected end of " + upload.file);
+				upload.digest.update(buffer.array(), 0, n);
+				upload.digestedUpTo += n;
+			}
+			String actual = toHex(upload.digest.digest());
+			String expected = (sha256 != null) ? sha256 : upload.expectedSha256;
+
+			uploads.remove(uploadId);
+			if (expected != null && !expected.equalsIgnoreCase(actual)) {
+				upload.discard();
+				throw new ResultUploadException("Checksum of upload " + uploadId + " is " + actual
+						+ ", expected " + expected);
+			}
+
+			upload.channel.force(true);
+			upload.channel.close();
+			upload.closed = true;
+			logger.info("Complete result upload " + uploadId + " of " + length + " bytes, sha256 " + actual);
+			return upload.file;
+		}
+	}
+
+	public void abort(String uploadId) throws ResultUploadException {
+		Upload upload = getUpload(uploadId);
+		synchronized (upload) {
+			uploads.remove(uploadId);
+			upload.discard();
+		}
+		logger.info("Abort result upload " + uploadId);
+	}
+
+	/**
+	 * drop uploads nobody wrote to within the expire time
+	 */
+	public void expireIdleUploads() {
+		long now = System.currentTimeMillis();
+		Iterator<Upload> it = uploads.values().iterator();
+		while (it.hasNext()) {
+			Upload upload = it.next();
+			if (now - upload.lastActivity > expireInMillis) {
+				synchronized (upload) {
+					it.remove();
+					upload.discard();
+				}
+				logger.info("Result upload " + upload.uploadId + " of " + upload.vmid + " expired");
+			}
+		}
+	}
+
+	private Upload getUpload(String uploadId) throws ResultUploadException {
+		Upload upload = (uploadId == null) ? null : uploads.get(uploadId);
+		if (upload == null)
+			throw new ResultUploadException("No result upload " + uploadId + " is in progress");
+		return upload;
+	}
+
+	private static void checkOpen(Upload upload) throws ResultUploadException {
+		if (upload.closed)
+			throw new ResultUploadException("Result upload " + upload.uploadId + " is closed");
+	}
+
+	/* merge [start, end) into the ranges */
+	static void addRange(TreeMap<Long, Long> ranges, long start, long end) {
+		if (end <= start)
+			return;
+		Map.Entry<Long, Long> floor = ranges.floorEntry(start);
+		if (floor != null && floor.getValue() >= start) {
+			start = floor.getKey();
+			end = Math.max(end, floor.getValue());
+		}
+		Map.Entry<Long, Long> next;
+		while ((next = ranges.ceilingEntry(start)) != null && next.getKey() <= end) {
+			end = Math.max(end, next.getValue());
+			ranges.remove(next.getKey());
+		}
+		ranges.put(start, end);
+	}
+
+	private static MessageDigest newDigest() throws IOException {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+			sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+}
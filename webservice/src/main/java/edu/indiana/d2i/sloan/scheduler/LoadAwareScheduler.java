@@ -16,12 +16,25 @@
 package edu.indiana.d2i.sloan.scheduler;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import edu.indiana.d2i.sloan.bean.CreateVmRequestBean;
 import edu.indiana.d2i.sloan.bean.VmInfoBean;
+import edu.indiana.d2i.sloan.exception.NoItemIsFoundInDBException;
 import edu.indiana.d2i.sloan.exception.NoResourceAvailableException;
+import edu.indiana.d2i.sloan.vm.VMPorts;
 
+/**
+ * Places a VM on the host picked by {@link ResourceTracker} from the vCPUs,
+ * memory and disk already allocated on each host, and refuses the request
+ * when no host has room for it.
+ */
 public class LoadAwareScheduler extends Scheduler {
+	private static Logger logger = LoggerFactory.getLogger(LoadAwareScheduler.class);
 
 	private LoadAwareScheduler() {
 
@@ -29,10 +42,42 @@ public class LoadAwareScheduler extends Scheduler {
 
 	@Override
 	protected VmInfoBean doSchedule(CreateVmRequestBean request)
-			throws NoResourceAvailableException, SQLException {
+			throws NoResourceAvailableException, SQLException, NoItemIsFoundInDBException {
+		ResourceTracker tracker = ResourceTracker.getInstance();
+		tracker.refreshIfStale();
+
+		String vmid = request.getVmId();
+		List<String> candidates = new ArrayList<String>();
+		for (String host : hosts) {
+			if (isAvailable(host))
+				candidates.add(host);
+		}
+		while (!candidates.isEmpty()) {
+			String host = tracker.place(vmid, request.getVcpu(), request.getMemory(),
+					request.getVolumeSizeInGB(), candidates);
+			if (host == null)
+				break;
+
+			VMPorts vmhost = reservePorts(vmid, host);
+			if (vmhost == null) {
+				logger.info("Host " + host + " has room for " + vmid + " but no ports left");
+				tracker.remove(vmid);
+				candidates.remove(host);
+				continue;
+			}
 
-		throw new UnsupportedOperationException();
+			try {
+				return createVm(request, vmhost);
+			} catch (Exception e) {
+				// whatever failed, the host must not stay booked for the VM
+				tracker.remove(vmid);
+				throw e;
+			}
+		}
 
+		throw new NoResourceAvailableException(String.format(
+				"No host has room for %d vCPUs, %d MB memory and %d GB disk.",
+				request.getVcpu(), request.getMemory(), request.getVolumeSizeInGB()));
 	}
 
 }
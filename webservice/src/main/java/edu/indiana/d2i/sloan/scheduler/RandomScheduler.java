@@ -16,18 +16,12 @@
 package edu.indiana.d2i.sloan.scheduler;
 
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import edu.indiana.d2i.sloan.Configuration;
 import edu.indiana.d2i.sloan.Constants;
 import edu.indiana.d2i.sloan.bean.CreateVmRequestBean;
-import edu.indiana.d2i.sloan.bean.UserBean;
 import edu.indiana.d2i.sloan.bean.VmInfoBean;
-import edu.indiana.d2i.sloan.bean.VmUserRole;
-import edu.indiana.d2i.sloan.db.DBOperations;
-import edu.indiana.d2i.sloan.db.DBSchema;
 import edu.indiana.d2i.sloan.exception.NoItemIsFoundInDBException;
 import edu.indiana.d2i.sloan.exception.NoResourceAvailableException;
 import edu.indiana.d2i.sloan.vm.*;
@@ -41,13 +35,7 @@ public class RandomScheduler extends Scheduler {
 	@Override
 	protected VmInfoBean doSchedule(CreateVmRequestBean request)
 			throws NoResourceAvailableException, SQLException, NoItemIsFoundInDBException {
-		//PortsPool portsPool = new PortsPool();
-		boolean success = false;
-
-		String workDir = request.getWorkDir();
-
 		int scheduleIndex;
-		Random rand = new Random(System.currentTimeMillis());
 
 		int maxNumAttempts = Integer.parseInt(Configuration.getInstance()
 				.getString(
@@ -56,47 +44,14 @@ public class RandomScheduler extends Scheduler {
 
 		int numAttempts = 0;
 
-		while (!success && numAttempts < maxNumAttempts) {
+		while (numAttempts < maxNumAttempts) {
 			numAttempts++;
-			scheduleIndex = rand.nextInt(hosts.length);
+			scheduleIndex = ThreadLocalRandom.current().nextInt(hosts.length);
 
-			VMPorts vmhost = PortsPool.getInstance().nextAvailablePortPairAtHost(request.getVmId(), hosts[scheduleIndex]);
+			VMPorts vmhost = reservePorts(request.getVmId(), hosts[scheduleIndex]);
 
 			if (vmhost != null) {
-				java.util.Date dt = new java.util.Date();
-				String created_at = DATE_FORMATOR.format(dt);
-
-				DBOperations.getInstance().addVM(request.getUserName(),
-						request.getVmId(), request.getImageName(),
-						request.getVncLoginID(), request.getVncLoginPasswd(),
-						vmhost, created_at, workDir, request.getVcpu(),
-						request.getMemory(), request.getVolumeSizeInGB(),
-						request.getType(), request.getTitle(), request.isConsent(), request.getDesc_nature(),
-						request.getDesc_requirement(), request.getDesc_links(), request.getDesc_outside_data(),
-						request.getRr_data_files(), request.getRr_result_usage(), request.isFull_access(),
-						request.getDesc_shared());
-
-				DBOperations.getInstance().addPorts(request.getVmId(), vmhost);
-
-				List<VmUserRole> roles = new ArrayList<VmUserRole>();
-				String email = DBOperations.getInstance().getUserEmail(request.getUserName());
-				roles.add(new VmUserRole(email, VMRole.OWNER_CONTROLLER, true, request.getUserName(), request.isFull_access()));
-
-				return new VmInfoBean(request.getVmId(), vmhost.publicip, created_at, workDir,
-						null, // image path
-						null, // policy path
-						vmhost.sshport, vmhost.vncport, 
-						request.getVcpu(), request.getMemory(), request.getVolumeSizeInGB(),
-						VMMode.NOT_DEFINED, VMState.CREATE_PENDING,
-						request.getVncLoginID(), request.getVncLoginPasswd(),
-						request.getImageName(), 
-						null, null, /* login username && login password */
-						null /* policy name */, 
-						VMMode.MAINTENANCE /* user requested vm mode when launching, currently default to maintenance */,
-						request.getType(), request.getTitle(), request.isConsent(), request.getDesc_nature(),
-						request.getDesc_requirement(), request.getDesc_links(), request.getDesc_outside_data(),
-						request.getRr_data_files(), request.getRr_result_usage(), request.isFull_access(), roles,
-						request.getDesc_shared());
+				return createVm(request, vmhost);
 			}
 		}
 
@@ -0,0 +1,370 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.scheduler;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.indiana.d2i.sloan.Configuration;
+import edu.indiana.d2i.sloan.Constants;
+import edu.indiana.d2i.sloan.bean.HostCapacityBean;
+import edu.indiana.d2i.sloan.bean.VmFootprintBean;
+import edu.indiana.d2i.sloan.db.DBOperations;
+
+/**
+ * In-memory view of the vCPUs, memory and disk allocated on each host, used by
+ * {@link LoadAwareScheduler}. Capacity comes from the vmhosts table and is
+ * multiplied by the overcommit ratio of each resource; a resource whose
+ * capacity is 0 is not checked.
+ *
+ * Creates, deletes and migrations update the view right away, it is read
+ * again from DB once it is older than the refresh period to pick up changes
+ * made elsewhere. Changes made here while the DB was read are applied again
+ * on top of what was read, and a VM placed here but not in the DB yet
+ * survives a refresh for one refresh period.
+ */
+public class ResourceTracker {
+	private static Logger logger = LoggerFactory.getLogger(ResourceTracker.class);
+	private static ResourceTracker instance = null;
+
+	public enum Policy {
+		/* the host left with the least room, keeps other hosts free for large VMs */
+		BEST_FIT,
+		/* the host whose busiest resource is the least used, spreads the load */
+		LEAST_LOADED
+	}
+
+	/**
+	 * allocated and total resources of one host
+	 */
+	public static class HostLoad {
+		private final String host;
+		private final int cpuCapacity, memoryCapacityInMB, diskCapacityInGB;
+		private int cpus = 0, memoryInMB = 0, diskInGB = 0;
+
+		HostLoad(String host, int cpuCapacity, int memoryCapacityInMB, int diskCapacityInGB) {
+			this.host = host;
+			this.cpuCapacity = cpuCapacity;
+			this.memoryCapacityInMB = memoryCapacityInMB;
+			this.diskCapacityInGB = diskCapacityInGB;
+		}
+
+		HostLoad(HostLoad other) {
+			this(other.host, other.cpuCapacity, other.memoryCapacityInMB, other.diskCapacityInGB);
+			this.cpus = other.cpus;
+			this.memoryInMB = other.memoryInMB;
+			this.diskInGB = other.diskInGB;
+		}
+
+		public String getHost() {
+			return host;
+		}
+
+		public int getCpus() {
+			return cpus;
+		}
+
+		public int getCpuCapacity() {
+			return cpuCapacity;
+		}
+
+		public int getMemoryInMB() {
+			return memoryInMB;
+		}
+
+		public int getMemoryCapacityInMB() {
+			return memoryCapacityInMB;
+		}
+
+		public int getDiskInGB() {
+			return diskInGB;
+		}
+
+		public int getDiskCapacityInGB() {
+			return diskCapacityInGB;
+		}
+
+		void add(VmFootprintBean vm, int sign) {
+			cpus += sign * vm.getNumCPUs();
+			memoryInMB += sign * vm.getMemorySizeInMB();
+			diskInGB += sign * vm.getVolumeSizeInGB();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("[host=%s, cpus=%d/%d, memoryInMB=%d/%d, diskInGB=%d/%d]", host,
+					cpus, cpuCapacity, memoryInMB, memoryCapacityInMB, diskInGB, diskCapacityInGB);
+		}
+	}
+
+	private final Policy policy;
+	private final double cpuOvercommit, memoryOvercommit, diskOvercommit;
+	private final int hostDiskInGB;
+	private final long refreshPeriodInMs;
+
+	/* guarded by this */
+	private final Map<String, HostLoad> hosts = new LinkedHashMap<String, HostLoad>();
+	private final Map<String, VmFootprintBean> vms = new HashMap<String, VmFootprintBean>();
+	/* vmid -> time it was placed, not seen in DB yet */
+	private final Map<String, Long> pending = new HashMap<String, Long>();
+	/* vmid -> modCount of its last change here, since the view was loaded */
+	private final Map<String, Long> changedAt = new HashMap<String, Long>();
+	private long modCount = 0;
+	private long loadedAt = 0;
+	/* modCount the loaded DB snapshot was read at */
+	private long loadedFrom = -1;
+
+	ResourceTracker(Policy policy, double cpuOvercommit, double memoryOvercommit,
+			double diskOvercommit, int hostDiskInGB, long refreshPeriodInMs) {
+		this.policy = policy;
+		this.cpuOvercommit = cpuOvercommit;
+		this.memoryOvercommit = memoryOvercommit;
+		this.diskOvercommit = diskOvercommit;
+		this.hostDiskInGB = hostDiskInGB;
+		this.refreshPeriodInMs = refreshPeriodInMs;
+	}
+
+	public static synchronized ResourceTracker getInstance() {
+		if (instance == null) {
+			Configuration conf = Configuration.getInstance();
+			instance = new ResourceTracker(
+				Policy.valueOf(conf.getString(Configuration.PropertyName.SCHEDULER_PLACEMENT_POLICY,
+					Constants.DEFAULT_SCHEDULER_PLACEMENT_POLICY)),
+				conf.getDouble(Configuration.PropertyName.SCHEDULER_CPU_OVERCOMMIT,
+					Constants.DEFAULT_SCHEDULER_CPU_OVERCOMMIT),
+				conf.getDouble(Configuration.PropertyName.SCHEDULER_MEMORY_OVERCOMMIT,
+					Constants.DEFAULT_SCHEDULER_MEMORY_OVERCOMMIT),
+				conf.getDouble(Configuration.PropertyName.SCHEDULER_DISK_OVERCOMMIT,
+					Constants.DEFAULT_SCHEDULER_DISK_OVERCOMMIT),
+				conf.getInt(Configuration.PropertyName.SCHEDULER_HOST_DISK_GB,
+					Constants.DEFAULT_SCHEDULER_HOST_DISK_GB),
+				conf.getLong(Configuration.PropertyName.SCHEDULER_REFRESH_PERIOD_MS,
+					Constants.DEFAULT_SCHEDULER_REFRESH_PERIOD_MS));
+		}
+		return instance;
+	}
+
+	synchronized long modCount() {
+		return modCount;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * read host capacities and VM footprints from DB if the view is older
+	 * than the refresh period
+	 */
+	public void refreshIfStale() throws SQLException {
+		long readAtModCount;
+		synchronized (this) {
+			if (loadedAt > 0 && System.currentTimeMillis() - loadedAt < refreshPeriodInMs)
+				return;
+			readAtModCount = modCount();
+		}
+		List<HostCapacityBean> capacities = DBOperations.getInstance().getHostCapacities();
+		List<VmFootprintBean> footprints = DBOperations.getInstance().getVmFootprints();
+		if (!load(capacities, footprints, readAtModCount, System.currentTimeMillis())) {
+			logger.debug("Host load read from DB is older than the in-memory view, drop it");
+		}
+	}
+
+	/**
+	 * replace the view, VMs changed here since readAtModCount keep their
+	 * state in the view, VMs placed but not in the footprints yet are kept
+	 * while they are younger than the refresh period
+	 * 
+	 * @return false if a snapshot read later was loaded already and nothing
+	 *         was done
+	 */
+	synchronized boolean load(List<HostCapacityBean> capacities, List<VmFootprintBean> footprints,
+			long readAtModCount, long now) {
+		if (readAtModCount < loadedFrom)
+			return false;
+
+		// null if the VM was removed
+		Map<String, VmFootprintBean> changed = new HashMap<String, VmFootprintBean>();
+		Iterator<Map.Entry<String, Long>> changes = changedAt.entrySet().iterator();
+		while (changes.hasNext()) {
+			Map.Entry<String, Long> entry = changes.next();
+			if (entry.getValue() > readAtModCount) {
+				changed.put(entry.getKey(), vms.get(entry.getKey()));
+			} else {
+				changes.remove();
+			}
+		}
+
+		Map<String, VmFootprintBean> placed = new HashMap<String, VmFootprintBean>();
+		Iterator<Map.Entry<String, Long>> it = pending.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Long> entry = it.next();
+			if (now - entry.getValue() < refreshPeriodInMs) {
+				placed.put(entry.getKey(), vms.get(entry.getKey()));
+			} else {
+				it.remove();
+			}
+		}
+
+		hosts.clear();
+		vms.clear();
+		for (HostCapacityBean capacity : capacities) {
+			hosts.put(capacity.getHost(), new HostLoad(capacity.getHost(),
+				(int) (capacity.getCpuCores() * cpuOvercommit),
+				(int) (capacity.getMemoryGB() * 1024 * memoryOvercommit),
+				(int) (hostDiskInGB * diskOvercommit)));
+		}
+		for (VmFootprintBean vm : footprints) {
+			if (changed.containsKey(vm.getVmid()))
+				continue;
+			pending.remove(vm.getVmid());
+			placed.remove(vm.getVmid());
+			track(vm);
+		}
+		for (VmFootprintBean vm : placed.values()) {
+			if (!changed.containsKey(vm.getVmid()))
+				track(vm);
+		}
+		for (VmFootprintBean vm : changed.values()) {
+			if (vm != null)
+				track(vm);
+		}
+
+		loadedAt = now;
+		loadedFrom = readAtModCount;
+		return true;
+	}
+
+	/**
+	 * pick one of the candidate hosts for the VM by the policy and allocate
+	 * its resources there
+	 * 
+	 * @return the host, null if none of the candidates has room
+	 */
+	public synchronized String place(String vmid, int numCPUs, int memorySizeInMB,
+			int volumeSizeInGB, Collection<String> candidates) {
+		VmFootprintBean vm = new VmFootprintBean(vmid, null, numCPUs, memorySizeInMB, volumeSizeInGB);
+		HostLoad best = null;
+		double bestScore = Double.MAX_VALUE;
+		for (String candidate : candidates) {
+			HostLoad host = hosts.get(candidate);
+			if (host == null || !fits(host, vm))
+				continue;
+			double score = score(host, vm);
+			if (score < bestScore) {
+				best = host;
+				bestScore = score;
+			}
+		}
+		if (best == null)
+			return null;
+
+		track(new VmFootprintBean(vmid, best.getHost(), numCPUs, memorySizeInMB, volumeSizeInGB));
+		pending.put(vmid, System.currentTimeMillis());
+		changed(vmid);
+		return best.getHost();
+	}
+
+	/**
+	 * give back the resources of a VM that was deleted or never created
+	 */
+	public synchronized void remove(String vmid) {
+		VmFootprintBean vm = vms.remove(vmid);
+		pending.remove(vmid);
+		if (vm != null) {
+			HostLoad host = hosts.get(vm.getHost());
+			if (host != null)
+				host.add(vm, -1);
+			changed(vmid);
+		}
+	}
+
+	/**
+	 * the VM was migrated to another host
+	 */
+	public synchronized void move(String vmid, String toHost) {
+		VmFootprintBean vm = vms.get(vmid);
+		if (vm != null && !toHost.equals(vm.getHost())) {
+			remove(vmid);
+			track(new VmFootprintBean(vmid, toHost, vm.getNumCPUs(), vm.getMemorySizeInMB(),
+					vm.getVolumeSizeInGB()));
+			changed(vmid);
+		}
+	}
+
+	public synchronized List<HostLoad> getHostLoads() {
+		List<HostLoad> res = new ArrayList<HostLoad>();
+		for (HostLoad host : hosts.values())
+			res.add(new HostLoad(host));
+		return res;
+	}
+
+	private void changed(String vmid) {
+		changedAt.put(vmid, ++modCount);
+	}
+
+	private void track(VmFootprintBean vm) {
+		VmFootprintBean old = vms.put(vm.getVmid(), vm);
+		if (old != null && hosts.containsKey(old.getHost()))
+			hosts.get(old.getHost()).add(old, -1);
+		HostLoad host = hosts.get(vm.getHost());
+		if (host != null)
+			host.add(vm, 1);
+	}
+
+	private static boolean fits(HostLoad host, VmFootprintBean vm) {
+		return fits(host.cpus + vm.getNumCPUs(), host.cpuCapacity)
+				&& fits(host.memoryInMB + vm.getMemorySizeInMB(), host.memoryCapacityInMB)
+				&& fits(host.diskInGB + vm.getVolumeSizeInGB(), host.diskCapacityInGB);
+	}
+
+	private static boolean fits(int allocated, int capacity) {
+		return capacity <= 0 || allocated <= capacity;
+	}
+
+	/* lower is better */
+	private double score(HostLoad host, VmFootprintBean vm) {
+		double[] usage = {
+			usage(host.cpus + vm.getNumCPUs(), host.cpuCapacity),
+			usage(host.memoryInMB + vm.getMemorySizeInMB(), host.memoryCapacityInMB),
+			usage(host.diskInGB + vm.getVolumeSizeInGB(), host.diskCapacityInGB)
+		};
+		double score = 0;
+		for (double u : usage) {
+			if (u < 0)
+				continue;
+			if (policy == Policy.BEST_FIT)
+				score += 1 - u;
+			else
+				score = Math.max(score, u);
+		}
+		return score;
+	}
+
+	/* -1 if the resource is not checked */
+	private static double usage(int allocated, int capacity) {
+		return (capacity <= 0) ? -1 : (double) allocated / capacity;
+	}
+}
@@ -16,72 +16,38 @@
 package edu.indiana.d2i.sloan.scheduler;
 
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.indiana.d2i.sloan.bean.CreateVmRequestBean;
 import edu.indiana.d2i.sloan.bean.VmInfoBean;
-import edu.indiana.d2i.sloan.bean.VmUserRole;
-import edu.indiana.d2i.sloan.db.DBOperations;
 import edu.indiana.d2i.sloan.exception.NoItemIsFoundInDBException;
 import edu.indiana.d2i.sloan.exception.NoResourceAvailableException;
 import edu.indiana.d2i.sloan.vm.*;
 
 public class RoundRobinScheduler extends Scheduler {
-	private int scheduleIndex = 0;
+	private final AtomicInteger scheduleIndex = new AtomicInteger(0);
 
 	private RoundRobinScheduler() {
 
 	}
 
+	// unit test purpose
+	RoundRobinScheduler(String[] hosts) {
+		super(hosts);
+	}
+
 	@Override
 	protected VmInfoBean doSchedule(CreateVmRequestBean request)
 			throws NoResourceAvailableException, SQLException, NoItemIsFoundInDBException {
-		//PortsPool portsPool = new PortsPool();
-		int start = scheduleIndex;
+		// concurrent requests start at different hosts
+		int start = Math.floorMod(scheduleIndex.getAndIncrement(), hosts.length);
 
-		String workDir = request.getWorkDir();
-
-		do {
-			VMPorts vmhost = PortsPool.getInstance().nextAvailablePortPairAtHost(request.getVmId(), hosts[scheduleIndex]);
-			scheduleIndex = (scheduleIndex + 1) % hosts.length;
+		for (int i = 0; i < hosts.length; i++) {
+			VMPorts vmhost = reservePorts(request.getVmId(), hosts[(start + i) % hosts.length]);
 			if (vmhost != null) {
-				java.util.Date dt = new java.util.Date();
-				String created_at = DATE_FORMATOR.format(dt);
-
-				DBOperations.getInstance().addVM(request.getUserName(),
-						request.getVmId(), request.getImageName(),
-						request.getVncLoginID(), request.getVncLoginPasswd(),
-						vmhost, created_at, workDir, request.getVcpu(),
-						request.getMemory(), request.getVolumeSizeInGB(),
-						request.getType(), request.getTitle(), request.isConsent(), request.getDesc_nature(),
-						request.getDesc_requirement(), request.getDesc_links(), request.getDesc_outside_data(),
-						request.getRr_data_files(), request.getRr_result_usage(), request.isFull_access(),
-						request.getDesc_shared());
-
-				DBOperations.getInstance().addPorts(request.getVmId(), vmhost);
-
-				List<VmUserRole> roles = new ArrayList<VmUserRole>();
-				String email = DBOperations.getInstance().getUserEmail(request.getUserName());
-				roles.add(new VmUserRole(email, VMRole.OWNER_CONTROLLER, true, request.getUserName(), request.isFull_access()));
-
-				return new VmInfoBean(request.getVmId(), vmhost.publicip, created_at, workDir,
-						null, // image path
-						null, // policy path
-						vmhost.sshport, vmhost.vncport, 
-						request.getVcpu(), request.getMemory(), request.getVolumeSizeInGB(),
-						VMMode.NOT_DEFINED, VMState.CREATE_PENDING,
-						request.getVncLoginID(), request.getVncLoginPasswd(),
-						request.getImageName(), 
-						null, null, /* login username && login password */
-						null /* policy name */, 
-						VMMode.MAINTENANCE /* user requested vm mode when launching, currently default to maintenance */,
-						request.getType(), request.getTitle(), request.isConsent(), request.getDesc_nature(),
-						request.getDesc_requirement(), request.getDesc_links(), request.getDesc_outside_data(),
-						request.getRr_data_files(), request.getRr_result_usage(), request.isFull_access(), roles,
-						request.getDesc_shared());
+				return createVm(request, vmhost);
 			}
-		} while (scheduleIndex != start);
+		}
 
 		throw new NoResourceAvailableException("No port resource available.");
 	}
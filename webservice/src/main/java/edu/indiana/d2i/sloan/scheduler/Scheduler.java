@@ -16,28 +16,134 @@
 package edu.indiana.d2i.sloan.scheduler;
 
 import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 
 import edu.indiana.d2i.sloan.Configuration;
 import edu.indiana.d2i.sloan.bean.CreateVmRequestBean;
 import edu.indiana.d2i.sloan.bean.VmInfoBean;
+import edu.indiana.d2i.sloan.bean.VmUserRole;
+import edu.indiana.d2i.sloan.db.DBOperations;
 import edu.indiana.d2i.sloan.exception.NoItemIsFoundInDBException;
 import edu.indiana.d2i.sloan.exception.NoResourceAvailableException;
+import edu.indiana.d2i.sloan.hyper.HostCircuitBreaker;
+import edu.indiana.d2i.sloan.vm.PortsPool;
+import edu.indiana.d2i.sloan.vm.VMMode;
+import edu.indiana.d2i.sloan.vm.VMPorts;
+import edu.indiana.d2i.sloan.vm.VMRole;
+import edu.indiana.d2i.sloan.vm.VMState;
 
+/**
+ * Requests are scheduled concurrently. Picking a host only takes the lock of
+ * that host in {@link PortsPool} while its ports are reserved, the VM is then
+ * stored without holding any lock.
+ */
 public abstract class Scheduler {
-	protected static final String[] hosts;
-	protected final java.text.SimpleDateFormat DATE_FORMATOR =
-			new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	protected final String[] hosts;
+	protected static final DateTimeFormatter DATE_FORMATOR =
+			DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
-	static {
-		hosts = Configuration.getInstance()
-				.getString(Configuration.PropertyName.HOSTS).split(";");
+	protected Scheduler() {
+		this(Configuration.getInstance()
+				.getString(Configuration.PropertyName.HOSTS).split(";"));
 	}
 
-	public synchronized final VmInfoBean schedule(CreateVmRequestBean request)
+	protected Scheduler(String[] hosts) {
+		this.hosts = hosts;
+	}
+
+	public final VmInfoBean schedule(CreateVmRequestBean request)
 			throws NoResourceAvailableException, SQLException, NoItemIsFoundInDBException {
 		return doSchedule(request);
 	}
 
+	/**
+	 * pick a host with {@link #reservePorts} and hand the ports to
+	 * {@link #createVm}
+	 */
 	abstract protected VmInfoBean doSchedule(CreateVmRequestBean request)
 			throws NoResourceAvailableException, SQLException, NoItemIsFoundInDBException;
+
+	/**
+	 * @return null if the host has no port pair left or is not available
+	 */
+	protected VMPorts reservePorts(String vmid, String host) throws SQLException {
+		if (!isAvailable(host))
+			return null;
+		return PortsPool.getInstance().nextAvailablePortPairAtHost(vmid, host);
+	}
+
+	/**
+	 * a host whose circuit breaker is open is skipped, the VM could not be
+	 * created on it
+	 */
+	protected boolean isAvailable(String host) {
+		return HostCircuitBreaker.getInstance().allowsCalls(host);
+	}
+
+	protected void cancelPorts(VMPorts ports) {
+		PortsPool.getInstance().cancel(ports);
+	}
+
+	/**
+	 * store the VM with its ports in one transaction
+	 */
+	protected void storeVm(CreateVmRequestBean request, VMPorts vmhost, String createdAt)
+			throws SQLException {
+		DBOperations.getInstance().addVM(request.getUserName(),
+				request.getVmId(), request.getImageName(),
+				request.getVncLoginID(), request.getVncLoginPasswd(),
+				vmhost, createdAt, request.getWorkDir(), request.getVcpu(),
+				request.getMemory(), request.getVolumeSizeInGB(),
+				request.getType(), request.getTitle(), request.isConsent(), request.getDesc_nature(),
+				request.getDesc_requirement(), request.getDesc_links(), request.getDesc_outside_data(),
+				request.getRr_data_files(), request.getRr_result_usage(), request.isFull_access(),
+				request.getDesc_shared());
+	}
+
+	protected String getUserEmail(String userName) throws SQLException, NoItemIsFoundInDBException {
+		return DBOperations.getInstance().getUserEmail(userName);
+	}
+
+	/**
+	 * store the VM on the reserved ports, the ports are given back if that
+	 * fails
+	 */
+	protected final VmInfoBean createVm(CreateVmRequestBean request, VMPorts vmhost)
+			throws SQLException, NoItemIsFoundInDBException {
+		String created_at = LocalDateTime.now().format(DATE_FORMATOR);
+		String workDir = request.getWorkDir();
+
+		try {
+			storeVm(request, vmhost, created_at);
+		} catch (SQLException e) {
+			cancelPorts(vmhost);
+			throw e;
+		} catch (RuntimeException e) {
+			cancelPorts(vmhost);
+			throw e;
+		}
+
+		List<VmUserRole> roles = new ArrayList<VmUserRole>();
+		String email = getUserEmail(request.getUserName());
+		roles.add(new VmUserRole(email, VMRole.OWNER_CONTROLLER, true, request.getUserName(), request.isFull_access()));
+
+		return new VmInfoBean(request.getVmId(), vmhost.publicip, created_at, workDir,
+				null, // image path
+				null, // policy path
+				vmhost.sshport, vmhost.vncport, 
+				request.getVcpu(), request.getMemory(), request.getVolumeSizeInGB(),
+				VMMode.NOT_DEFINED, VMState.CREATE_PENDING,
+				request.getVncLoginID(), request.getVncLoginPasswd(),
+				request.getImageName(), 
+				null, null, /* login username && login password */
+				null /* policy name */, 
+				VMMode.MAINTENANCE /* user requested vm mode when launching, currently default to maintenance */,
+				request.getType(), request.getTitle(), request.isConsent(), request.getDesc_nature(),
+				request.getDesc_requirement(), request.getDesc_links(), request.getDesc_outside_data(),
+				request.getRr_data_files(), request.getRr_result_usage(), request.isFull_access(), roles,
+				request.getDesc_shared());
+	}
 }
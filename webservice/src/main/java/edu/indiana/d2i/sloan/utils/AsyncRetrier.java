@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.utils;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Waits out the backoff of failed tasks without holding a thread. The wait
+ * before the next attempt is a timer on a single shared scheduler thread
+ * that only hands the attempt back, e.g. to the command queue of
+ * {@link edu.indiana.d2i.sloan.hyper.HypervisorProxy}, see
+ * {@link RetryPolicy} for the backoff.
+ */
+public class AsyncRetrier {
+	private static Logger logger = LoggerFactory.getLogger(AsyncRetrier.class);
+	private static AsyncRetrier instance = null;
+
+	private final ScheduledExecutorService scheduler;
+	private final AtomicInteger waiting = new AtomicInteger(0);
+	private final AtomicLong retries = new AtomicLong(0);
+
+	public static class RetryStats {
+		private int waiting;
+		private long retries;
+
+		/**
+		 * tasks whose next attempt is due later
+		 */
+		public int getWaiting() {
+			return waiting;
+		}
+
+		public long getRetries() {
+			return retries;
+		}
+	}
+
+	// unit test purpose
+	AsyncRetrier() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "retry-scheduler");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	public static synchronized AsyncRetrier getInstance() {
+		if (instance == null) {
+			instance = new AsyncRetrier();
+		}
+		return instance;
+	}
+
+	/**
+	 * run the action on the scheduler thread after the delay, it must be
+	 * short, e.g. hand the real work to a queue
+	 */
+	public void schedule(final Runnable action, long delayInMs) {
+		waiting.incrementAndGet();
+		retries.incrementAndGet();
+		scheduler.schedule(() -> {
+			waiting.decrementAndGet();
+			try {
+				action.run();
+			} catch (RuntimeException e) {
+				logger.error("Retry failed to start: " + e.getMessage(), e);
+			}
+		}, delayInMs, TimeUnit.MILLISECONDS);
+	}
+
+	public RetryStats getStats() {
+		RetryStats stats = new RetryStats();
+		stats.waiting = waiting.get();
+		stats.retries = retries.get();
+		return stats;
+	}
+}
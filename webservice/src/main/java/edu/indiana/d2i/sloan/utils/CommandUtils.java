@@ -26,7 +26,7 @@ import edu.indiana.d2i.sloan.Configuration;
 
 public class CommandUtils {
 	public enum HYPERVISOR_CMD {
-		CREATE_VM, LAUNCH_VM, QUERY_VM, SWITCH_VM, STOP_VM, DELETE_VM, UPDATE_KEY, MIGRATE_VM, DELETE_KEY, UPDATE_CUSTOS_CREDS
+		CREATE_VM, LAUNCH_VM, QUERY_VM, QUERY_VMS, SWITCH_VM, STOP_VM, DELETE_VM, UPDATE_KEY, MIGRATE_VM, DELETE_KEY, UPDATE_CUSTOS_CREDS
 	}
 
 	private static final Map<HYPERVISOR_CMD, String> commands;
@@ -45,6 +45,9 @@ public class CommandUtils {
 				put(HYPERVISOR_CMD.QUERY_VM, Configuration.getInstance()
 						.getString(Configuration.PropertyName.CMD_QUERY_VM));
 
+				put(HYPERVISOR_CMD.QUERY_VMS, Configuration.getInstance()
+						.getString(Configuration.PropertyName.CMD_QUERY_VMS));
+
 				put(HYPERVISOR_CMD.SWITCH_VM, Configuration.getInstance()
 						.getString(Configuration.PropertyName.CMD_SWITCH_VM));
 
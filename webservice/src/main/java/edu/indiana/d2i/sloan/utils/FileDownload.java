@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds download responses that stream a file from disk instead of loading
+ * it on the heap. Supports a single byte range ("Range: bytes=...") so that an
+ * interrupted download can resume, and an ETag derived from the file size and
+ * modification time so that an unchanged file is not sent again. If-Range
+ * may hold the ETag or the Last-Modified date of the file.
+ */
+public class FileDownload {
+	private static Logger logger = LoggerFactory.getLogger(FileDownload.class);
+
+	private static final String BYTES_UNIT = "bytes";
+
+	/**
+	 * inclusive range of bytes of a file of the given length
+	 */
+	public static class ByteRange {
+		private final long first;
+		private final long last;
+		private final long length;
+
+		public ByteRange(long first, long last, long length) {
+			this.first = first;
+			this.last = last;
+			this.length = length;
+		}
+
+		public long getFirst() {
+			return first;
+		}
+
+		public long getLast() {
+			return last;
+		}
+
+		public long getCount() {
+			return last - first + 1;
+		}
+
+		public String toContentRange() {
+			return String.format("%s %d-%d/%d", BYTES_UNIT, first, last, length);
+		}
+
+		@Override
+		public String toString() {
+			return toContentRange();
+		}
+	}
+
+	/**
+	 * thrown when the requested range does not overlap the file
+	 */
+	public static class RangeNotSatisfiableException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		public RangeNotSatisfiableException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * writes a region of a file to the response, transferTo lets the JDK move
+	 * the bytes in chunks without buffering the region on the heap
+	 */
+	public static class FileRegionOutput implements StreamingOutput {
+		private final Path file;
+		private final long position;
+		private final long count;
+
+		public FileRegionOutput(Path file, long position, long count) {
+			this.file = file;
+			this.position = position;
+			this.count = count;
+		}
+
+		@Override
+		public void write(OutputStream output) throws IOException {
+			FileChannel in = null;
+			try {
+				in = FileChannel.open(file, StandardOpenOption.READ);
+				WritableByteChannel out = Channels.newChannel(output);
+				long sent = 0;
+				while (sent < count) {
+					long n = in.transferTo(position + sent, count - sent, out);
+					if (n <= 0) {
+						// file got shorter while being sent
+						throw new IOException("Unexpected end of " + file + " after " + sent + " bytes");
+					}
+					sent += n;
+				}
+				output.flush();
+			} finally {
+				if (in != null)
+					in.close();
+			}
+		}
+	}
+
+	/**
+	 * response for a GET of the file, 200 with the whole file, 206 with the
+	 * requested range, 304 if the client already has it or 416 if the range
+	 * is outside of the file
+	 */
+	public static Response download(Path file, String contentType, String filename,
+			HttpServletRequest request) throws IOException {
+		long length = Files.size(file);
+		String etag = getETag(file);
+		long lastModified = Files.getLastModifiedTime(file).toMillis();
+
+		if (matchesETag(request.getHeader("If-None-Match"), etag)) {
+			return Response.status(304).header("ETag", etag).build();
+		}
+
+		ByteRange range = null;
+		String rangeHeader = request.getHeader("Range");
+		String ifRange = request.getHeader("If-Range");
+		// a range of a different version of the file is useless, send it all
+		if (rangeHeader != null && matchesIfRange(ifRange, etag, lastModified)) {
+			try {
+				range = parseRange(rangeHeader, length);
+			} catch (RangeNotSatisfiableException e) {
+				logger.warn(e.getMessage() + " for " + file);
+				return Response.status(416)
+						.header("Content-Range", BYTES_UNIT + " */" + length)
+						.header("ETag", etag)
+						.build();
+			}
+		}
+
+		Response.ResponseBuilder builder;
+		if (range == null) {
+			builder = Response.status(200)
+					.entity(new FileRegionOutput(file, 0, length))
+					.header("Content-Length", length);
+		} else {
+			logger.info("Sending " + range + " of " + file);
+			builder = Response.status(206)
+					.entity(new FileRegionOutput(file, range.getFirst(), range.getCount()))
+					.header("Content-Range", range.toContentRange())
+					.header("Content-Length", range.getCount());
+		}
+		return builder.type(contentType)
+				.header("Accept-Ranges", BYTES_UNIT)
+				.header("ETag", etag)
+				.header("Last-Modified", formatHttpDate(lastModified))
+				.header("Content-Disposition", "attachment; filename=\"" + filename + "\"")
+				.build();
+	}
+
+	/**
+	 * strong validator of the file content, result files are written once and
+	 * never modified in place
+	 */
+	public static String getETag(Path file) throws IOException {
+		return String.format("\"%x-%x\"", Files.size(file),
+				Files.getLastModifiedTime(file).toMillis());
+	}
+
+	public static boolean matchesETag(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null)
+			return false;
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/"))
+				tag = tag.substring(2);
+			if (tag.equals("*") || tag.equals(etag))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * whether the range of an If-Range header may be sent, the header holds
+	 * either an entity tag, compared strongly, or an HTTP-date, which must be
+	 * the Last-Modified date of the file to the second
+	 */
+	public static boolean matchesIfRange(String ifRange, String etag, long lastModifiedInMillis) {
+		if (ifRange == null)
+			return true;
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+			return ifRange.equals(etag);
+		try {
+			long date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME)
+					.toInstant().getEpochSecond();
+			return date == lastModifiedInMillis / 1000;
+		} catch (DateTimeParseException e) {
+			return false;
+		}
+	}
+
+	public static String formatHttpDate(long millis) {
+		return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+				ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+	}
+
+	/**
+	 * parse a Range header of a file of the given length, returns null when
+	 * the header should be ignored (other units, several ranges or malformed)
+	 * so that the whole file is sent
+	 */
+	public static ByteRange parseRange(String header, long length) throws RangeNotSatisfiableException {
+		String prefix = BYTES_UNIT + "=";
+		if (header == null || !header.startsWith(prefix))
+			return null;
+		String spec = header.substring(prefix.length()).trim();
+		if (spec.contains(","))
+			return null;
+
+		int dash = spec.indexOf('-');
+		if (dash < 0)
+			return null;
+		String firstPart = spec.substring(0, dash).trim();
+		String lastPart = spec.substring(dash + 1).trim();
+
+		long first, last;
+		try {
+			if (firstPart.isEmpty()) {
+				// suffix range, the final N bytes
+				if (lastPart.isEmpty())
+					return null;
+				long suffix = Long.parseLong(lastPart);
+				if (suffix <= 0 || length == 0)
+					throw new RangeNotSatisfiableException("Empty suffix range " + header);
+				first = Math.max(0, length - suffix);
+				last = length - 1;
+			} else {
+				first = Long.parseLong(firstPart);
+				last = lastPart.isEmpty() ? length - 1 : Long.parseLong(lastPart);
+				if (last < first)
+					return null;
+				if (first >= length)
+					throw new RangeNotSatisfiableException("Range " + header + " starts after end of file");
+				last = Math.min(last, length - 1);
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return new ByteRange(first, last, length);
+	}
+}
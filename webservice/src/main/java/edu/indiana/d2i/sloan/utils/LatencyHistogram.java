@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with fixed buckets, cheap enough to record on
+ * every call of a hot path and read from the admin stats endpoint.
+ */
+public class LatencyHistogram {
+	/* bucket upper bounds in microseconds, the last bucket is unbounded */
+	private static final long[] DEFAULT_BOUNDS_IN_MICROS = {
+		100, 500, 1000, 5000, 10000, 50000, 100000, 500000, 1000000, 5000000 };
+
+	private final long[] boundsInMicros;
+	private final AtomicLongArray buckets;
+	private final AtomicLong count = new AtomicLong(0);
+	private final AtomicLong totalInMicros = new AtomicLong(0);
+	private final AtomicLong maxInMicros = new AtomicLong(0);
+
+	public static class Snapshot {
+		private long count;
+		private double meanInMs;
+		private double maxInMs;
+		private Map<String, Long> buckets = new LinkedHashMap<String, Long>();
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMeanInMs() {
+			return meanInMs;
+		}
+
+		public double getMaxInMs() {
+			return maxInMs;
+		}
+
+		/**
+		 * number of samples per bucket, keyed by the bucket upper bound
+		 */
+		public Map<String, Long> getBuckets() {
+			return buckets;
+		}
+	}
+
+	public LatencyHistogram() {
+		this(DEFAULT_BOUNDS_IN_MICROS);
+	}
+
+	public LatencyHistogram(long[] boundsInMicros) {
+		this.boundsInMicros = boundsInMicros.clone();
+		this.buckets = new AtomicLongArray(boundsInMicros.length + 1);
+	}
+
+	public void record(long duration, TimeUnit unit) {
+		long micros = Math.max(0, unit.toMicros(duration));
+		int i = 0;
+		while (i < boundsInMicros.length && micros > boundsInMicros[i])
+			i++;
+		buckets.incrementAndGet(i);
+		count.incrementAndGet();
+		totalInMicros.addAndGet(micros);
+
+		long max;
+		while (micros > (max = maxInMicros.get())
+			&& !maxInMicros.compareAndSet(max, micros)) {
+			// retry
+		}
+	}
+
+	public void recordNanosSince(long startNanos) {
+		record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public Snapshot snapshot() {
+		Snapshot snapshot = new Snapshot();
+		snapshot.count = count.get();
+		snapshot.meanInMs = (snapshot.count == 0) ? 0 :
+			totalInMicros.get() / 1000.0 / snapshot.count;
+		snapshot.maxInMs = maxInMicros.get() / 1000.0;
+		for (int i = 0; i < boundsInMicros.length; i++) {
+			snapshot.buckets.put("<=" + format(boundsInMicros[i]), buckets.get(i));
+		}
+		snapshot.buckets.put(">" + format(boundsInMicros[boundsInMicros.length - 1]),
+			buckets.get(boundsInMicros.length));
+		return snapshot;
+	}
+
+	private static String format(long micros) {
+		if (micros >= 1000000 && micros % 1000000 == 0)
+			return (micros / 1000000) + "s";
+		if (micros >= 1000 && micros % 1000 == 0)
+			return (micros / 1000) + "ms";
+		return micros + "us";
+	}
+}
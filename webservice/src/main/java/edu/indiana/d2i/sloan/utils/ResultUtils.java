@@ -44,6 +44,16 @@ public class ResultUtils {
         Files.copy(inputStream,filePath, StandardCopyOption.REPLACE_EXISTING);
     }
 
+    /**
+     * move a file that was already written completely into place as the result file
+     */
+    public static void moveToResultFile(String result_id, Path source) throws IOException {
+        Path dirPath = Paths.get(String.format(RESULT_DIR_LOCATION, result_id));
+        Path filePath = Paths.get(String.format(RESULT_FILE_LOCATION, result_id));
+        if(!Files.exists(dirPath)) Files.createDirectory(dirPath);
+        Files.move(source, filePath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
     public static void saveResultFileToDir(String result_id, InputStream inputStream, String dir) throws IOException {
         Path dirPath = Paths.get(dir + "/" + result_id);
         Path filePath = Paths.get(dir + "/" + result_id + "/results.zip");
@@ -53,12 +63,16 @@ public class ResultUtils {
     }
 
     public static InputStream getResultFile(String result_id) throws IOException, NoResultFileFoundException {
+        return Files.newInputStream(getResultFilePath(result_id));
+    }
+
+    public static Path getResultFilePath(String result_id) throws NoResultFileFoundException {
         Path filePath = Paths.get(String.format(RESULT_FILE_LOCATION, result_id));
         if(!Files.exists(filePath)) {
             logger.error("No result file found for result ID " + result_id);
             throw new NoResultFileFoundException("No result file found for result ID " + result_id);
         }
-        return Files.newInputStream(filePath);
+        return filePath;
     }
 
     public static void backupResultFile(String result_id) throws IOException {
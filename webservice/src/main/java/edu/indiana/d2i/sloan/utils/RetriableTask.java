@@ -20,48 +20,49 @@ import java.util.concurrent.Callable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+
+/**
+ * Retries a task on the calling thread, sleeping in between. Use
+ * {@link AsyncRetrier} where the thread is shared and should do other work
+ * while the task waits.
+ */
 public class RetriableTask<T> implements Callable<T> {
 	private static Logger logger = LoggerFactory.getLogger(RetriableTask.class);
 	
 	private final Callable<T> task;
-	private long waitInMs = 1000;
-	private int retry = 5;
-	private Set<String> retriableExceptions = null;
+	private final RetryPolicy policy;
 
 	public RetriableTask(Callable<T> task) {
-		this.task = task;
+		this(task, 1000, 5);
 	}
 	
 	public RetriableTask(Callable<T> task, long waitInMs, int maxRetry) {
-		this.task = task;
-		this.waitInMs = waitInMs;
-		this.retry = maxRetry;
+		this(task, waitInMs, maxRetry, null);
 	}
 	
 	public RetriableTask(Callable<T> task, long waitInMs, int maxRetry,
 		Set<String> retriableExceptions) {
+		this(task, new RetryPolicy(maxRetry, waitInMs, waitInMs, 1.0, 0.0, retriableExceptions));
+	}
+
+	public RetriableTask(Callable<T> task, RetryPolicy policy) {
 		this.task = task;
-		this.waitInMs = waitInMs;
-		this.retry = maxRetry;
-		this.retriableExceptions = retriableExceptions;
+		this.policy = policy;
 	}
 
 	@Override
 	public T call() throws Exception {
+		int retries = 0;
 		while (true) {
 			try {
 				return task.call();
 			} catch (Exception ex) {
 				logger.error(ex.getMessage(), ex);
-				if (retriableExceptions == null || 
-					retriableExceptions.contains(ex.getClass().getName())) {
-					if (retry == 0) throw ex;
-					Thread.sleep(waitInMs);
-					retry--;
-					logger.info("Retry " + task.getClass().getName() + ", " + retry + " times left.");
-				} else {
+				if (!policy.shouldRetry(ex, retries))
 					throw ex;
-				}
+				Thread.sleep(policy.getDelayInMs(++retries));
+				logger.info("Retry " + task.getClass().getName() + ", "
+					+ (policy.getMaxRetries() - retries) + " times left.");
 			}
 		}
 	}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import edu.indiana.d2i.sloan.Configuration;
+import edu.indiana.d2i.sloan.Constants;
+import edu.indiana.d2i.sloan.exception.ScriptCmdErrorException;
+
+/**
+ * How often and how soon a failed task is tried again. The wait grows by the
+ * multiplier with each retry up to the max wait, and a random part of it,
+ * up to the jitter fraction, is taken off so that tasks failing together do
+ * not all come back at the same moment.
+ */
+public class RetryPolicy {
+	/* a script that ran and failed fails again, retrying only repeats its side effects */
+	private static final Set<String> NEVER_RETRIED = Collections.unmodifiableSet(new HashSet<String>(
+		Arrays.asList(ScriptCmdErrorException.class.getName(), InterruptedException.class.getName())));
+
+	private final int maxRetries;
+	private final long initialWaitInMs;
+	private final long maxWaitInMs;
+	private final double multiplier;
+	private final double jitter;
+	private final Set<String> retriableExceptions;
+
+	/**
+	 * @param retriableExceptions
+	 *            fully qualified class names, subclasses are retried as well;
+	 *            null retries every exception but script errors
+	 */
+	public RetryPolicy(int maxRetries, long initialWaitInMs, long maxWaitInMs, double multiplier,
+			double jitter, Set<String> retriableExceptions) {
+		this.maxRetries = maxRetries;
+		this.initialWaitInMs = initialWaitInMs;
+		this.maxWaitInMs = Math.max(maxWaitInMs, initialWaitInMs);
+		this.multiplier = Math.max(multiplier, 1.0);
+		this.jitter = Math.min(Math.max(jitter, 0.0), 1.0);
+		this.retriableExceptions = retriableExceptions;
+	}
+
+	/**
+	 * the retry.task.* properties, retrying failures of the ssh call to a
+	 * host unless other exceptions are configured
+	 */
+	public static RetryPolicy fromConfiguration() {
+		Configuration conf = Configuration.getInstance();
+		return new RetryPolicy(
+			conf.getInt(Configuration.PropertyName.RETRY_TASK_MAX_ATTEMPT,
+				Constants.DEFAULT_RETRY_TASK_MAX_ATTEMPT),
+			conf.getLong(Configuration.PropertyName.RETRY_TASK_WAIT_IN_MILLIS,
+				Constants.DEFAULT_RETRY_TASK_WAIT_IN_MILLIS),
+			conf.getLong(Configuration.PropertyName.RETRY_TASK_MAX_WAIT_IN_MILLIS,
+				Constants.DEFAULT_RETRY_TASK_MAX_WAIT_IN_MILLIS),
+			conf.getDouble(Configuration.PropertyName.RETRY_TASK_BACKOFF_MULTIPLIER,
+				Constants.DEFAULT_RETRY_TASK_BACKOFF_MULTIPLIER),
+			conf.getDouble(Configuration.PropertyName.RETRY_TASK_JITTER,
+				Constants.DEFAULT_RETRY_TASK_JITTER),
+			parseExceptionNames(conf.getString(Configuration.PropertyName.RETRY_TASK_RETRIABLE_EXPS,
+				Constants.DEFAULT_RETRY_TASK_RETRIABLE_EXPS)));
+	}
+
+	/**
+	 * semicolon separated class names
+	 */
+	public static Set<String> parseExceptionNames(String names) {
+		Set<String> parsed = new HashSet<String>();
+		for (String name : names.split(";")) {
+			if (!name.trim().isEmpty())
+				parsed.add(name.trim());
+		}
+		return Collections.unmodifiableSet(parsed);
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * @param retries
+	 *            retries done so far
+	 */
+	public boolean shouldRetry(Throwable e, int retries) {
+		return retries < maxRetries && isRetriable(e);
+	}
+
+	public boolean isRetriable(Throwable e) {
+		if (matches(e, NEVER_RETRIED))
+			return false;
+		return retriableExceptions == null || matches(e, retriableExceptions);
+	}
+
+	/**
+	 * @param retry
+	 *            the retry about to be made, starting at 1
+	 */
+	public long getDelayInMs(int retry) {
+		double wait = initialWaitInMs * Math.pow(multiplier, Math.max(retry - 1, 0));
+		long delay = (long) Math.min(wait, maxWaitInMs);
+		if (jitter > 0 && delay > 0)
+			delay -= (long) (delay * jitter * ThreadLocalRandom.current().nextDouble());
+		return delay;
+	}
+
+	/**
+	 * whether the exception, or the cause of a failed future, is one of the
+	 * named classes or a subclass of one
+	 */
+	public static boolean matches(Throwable e, Set<String> names) {
+		while ((e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null)
+			e = e.getCause();
+		for (Class<?> c = e.getClass(); c != null; c = c.getSuperclass()) {
+			if (names.contains(c.getName()))
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("[maxRetries=%d, wait=%d-%d ms, multiplier=%.1f, jitter=%.2f, retriable=%s]",
+			maxRetries, initialWaitInMs, maxWaitInMs, multiplier, jitter,
+			(retriableExceptions == null) ? "all" : retriableExceptions);
+	}
+}
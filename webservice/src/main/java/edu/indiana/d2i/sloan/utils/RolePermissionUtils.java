@@ -11,9 +11,13 @@ import org.slf4j.LoggerFactory;
 import java.io.UnsupportedEncodingException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class RolePermissionUtils {
@@ -37,85 +41,63 @@ public class RolePermissionUtils {
         }
     }
 
+    /* commands each role may run, immutable after class init */
+    private static final Map<VMRole, Set<API_CMD>> PERMITTED_CMDS;
+
+    static {
+        Map<VMRole, Set<API_CMD>> permitted = new EnumMap<VMRole, Set<API_CMD>>(VMRole.class);
+        permitted.put(VMRole.OWNER_CONTROLLER, EnumSet.of(
+                API_CMD.QUERY_VM, API_CMD.DELETE_VM, API_CMD.ADD_SHAREES, API_CMD.DELETE_SHAREES,
+                API_CMD.UPDATE_VM, API_CMD.LAUNCH_VM, API_CMD.STOP_VM, API_CMD.SWITCH_VM,
+                API_CMD.MIGRATE_VM, API_CMD.UPDATE_SSH_KEY, API_CMD.UPDATE_CUSTOS_CREDS,
+                API_CMD.VIEW_RESULT, API_CMD.ADD_SUPPORT_USER));
+        permitted.put(VMRole.OWNER, EnumSet.of(
+                API_CMD.QUERY_VM, API_CMD.DELETE_VM, API_CMD.ADD_SHAREES, API_CMD.DELETE_SHAREES,
+                API_CMD.UPDATE_VM, API_CMD.MIGRATE_VM, API_CMD.UPDATE_SSH_KEY, API_CMD.UPDATE_CUSTOS_CREDS,
+                API_CMD.OBTAIN_CONTROLLER, API_CMD.VIEW_RESULT, API_CMD.ADD_SUPPORT_USER));
+        permitted.put(VMRole.CONTROLLER, EnumSet.of(
+                API_CMD.QUERY_VM, API_CMD.LAUNCH_VM, API_CMD.STOP_VM, API_CMD.SWITCH_VM,
+                API_CMD.UPDATE_SSH_KEY, API_CMD.VIEW_RESULT, API_CMD.ADD_SUPPORT_USER));
+        permitted.put(VMRole.SHAREE, EnumSet.of(
+                API_CMD.QUERY_VM, API_CMD.UPDATE_SSH_KEY, API_CMD.OBTAIN_CONTROLLER,
+                API_CMD.VIEW_RESULT, API_CMD.EXIT_SHAREE, API_CMD.ADD_SUPPORT_USER));
+        for (Map.Entry<VMRole, Set<API_CMD>> entry : permitted.entrySet()) {
+            entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+        }
+        PERMITTED_CMDS = Collections.unmodifiableMap(permitted);
+    }
+
     public static boolean isPermittedCommand(String username, String vmid, API_CMD api_cmd)
             throws NoItemIsFoundInDBException, SQLException {
 
         VmUserRole vmUserRole = DBOperations.getInstance().getUserRoleWithVmid(username, vmid);
-        VMRole user_role = vmUserRole.getRole();
         VmUserRole owner = DBOperations.getInstance().getOwnerOfVM(vmid);
 
-        boolean isPermitted = false;
+        return isPermittedCommand(vmUserRole, owner, api_cmd);
+    }
 
+    /**
+     * decide on roles that are already loaded, no DB access
+     */
+    public static boolean isPermittedCommand(VmUserRole vmUserRole, VmUserRole owner, API_CMD api_cmd) {
         if(!vmUserRole.getTou() // if user has not yet accepted tou
                 // if the VM has full access but user's full access request is not yet granted
                 || ((owner.isFull_access() != null && owner.isFull_access())
                         && (vmUserRole.isFull_access() == null || !vmUserRole.isFull_access()))) {
-            return isPermitted;
+            return false;
         }
 
-        switch (user_role) {
-            case OWNER_CONTROLLER:
-                if (api_cmd == API_CMD.QUERY_VM
-                        || api_cmd == API_CMD.DELETE_VM
-                        || api_cmd == API_CMD.ADD_SHAREES
-                        || api_cmd == API_CMD.DELETE_SHAREES
-                        || api_cmd == API_CMD.UPDATE_VM
-                        || api_cmd == API_CMD.LAUNCH_VM
-                        || api_cmd == API_CMD.STOP_VM
-                        || api_cmd == API_CMD.SWITCH_VM
-                        || api_cmd == API_CMD.MIGRATE_VM
-                        || api_cmd == API_CMD.UPDATE_SSH_KEY
-                        || api_cmd == API_CMD.UPDATE_CUSTOS_CREDS
-                        || api_cmd == API_CMD.VIEW_RESULT
-                        || api_cmd == API_CMD.ADD_SUPPORT_USER) {
-                    isPermitted = true;
-                }
-                break;
-
-            case OWNER:
-                if (api_cmd == API_CMD.QUERY_VM
-                        || api_cmd == API_CMD.DELETE_VM
-                        || api_cmd == API_CMD.ADD_SHAREES
-                        || api_cmd == API_CMD.DELETE_SHAREES
-                        || api_cmd == API_CMD.UPDATE_VM
-                        || api_cmd == API_CMD.MIGRATE_VM
-                        || api_cmd == API_CMD.UPDATE_SSH_KEY
-                        || api_cmd == API_CMD.UPDATE_CUSTOS_CREDS
-                        || api_cmd == API_CMD.OBTAIN_CONTROLLER
-                        || api_cmd == API_CMD.VIEW_RESULT
-                        || api_cmd == API_CMD.ADD_SUPPORT_USER) {
-                    isPermitted = true;
-                }
-                break;
-
-            case CONTROLLER:
-                if (api_cmd == API_CMD.QUERY_VM
-                        || api_cmd == API_CMD.LAUNCH_VM
-                        || api_cmd == API_CMD.STOP_VM
-                        || api_cmd == API_CMD.SWITCH_VM
-                        || api_cmd == API_CMD.UPDATE_SSH_KEY
-                        || api_cmd == API_CMD.VIEW_RESULT
-                        || api_cmd == API_CMD.ADD_SUPPORT_USER) {
-                    isPermitted = true;
-                }
-                break;
-
-            case SHAREE:
-                if (api_cmd == API_CMD.QUERY_VM
-                        || api_cmd == API_CMD.UPDATE_SSH_KEY
-                        || api_cmd == API_CMD.OBTAIN_CONTROLLER
-                        || api_cmd == API_CMD.VIEW_RESULT
-                        || api_cmd == API_CMD.EXIT_SHAREE
-                        || api_cmd == API_CMD.ADD_SUPPORT_USER) {
-                    isPermitted = true;
-                }
-                break;
-
-            default :
-                logger.error("Unknown vm role " + user_role);
+        Set<API_CMD> permitted = PERMITTED_CMDS.get(vmUserRole.getRole());
+        if (permitted == null) {
+            logger.error("Unknown vm role " + vmUserRole.getRole());
+            return false;
         }
+        return permitted.contains(api_cmd);
+    }
 
-        return isPermitted;
+    public static Set<API_CMD> getPermittedCommands(VMRole role) {
+        Set<API_CMD> permitted = PERMITTED_CMDS.get(role);
+        return (permitted == null) ? Collections.<API_CMD>emptySet() : permitted;
     }
 
     public static Map<VMRole, VMRole> getValidCntrlAction(String vmid, VmUserRole owner,
@@ -188,14 +170,43 @@ public class RolePermissionUtils {
         return false;
     }
 
+    /**
+     * filter the roles of a VM, as loaded by getRolesWithVmid, in one pass;
+     * the owner is taken from the list and only read from DB when the list
+     * does not contain it
+     */
     public static List<VmUserRole> filterPermittedRoles(List<VmUserRole> vmUserRoles, String vmid, API_CMD api_cmd)
             throws NoItemIsFoundInDBException, SQLException {
+        VmUserRole owner = findOwner(vmUserRoles);
+        if (owner == null)
+            owner = DBOperations.getInstance().getOwnerOfVM(vmid);
+        return filterPermittedRoles(vmUserRoles, owner, api_cmd);
+    }
+
+    public static List<VmUserRole> filterPermittedRoles(List<VmUserRole> vmUserRoles, VmUserRole owner,
+                                                        API_CMD api_cmd) {
         List<VmUserRole> filteredList = new ArrayList<VmUserRole>();
         for (VmUserRole vmUserRole : vmUserRoles) {
-            if (isPermittedCommand(vmUserRole.getGuid(), vmid, api_cmd)) {
+            if (isPermittedCommand(vmUserRole, owner, api_cmd)) {
                 filteredList.add(vmUserRole);
             }
         }
         return filteredList;
     }
+
+    public static VmUserRole findOwner(List<VmUserRole> vmUserRoles) {
+        for (VmUserRole vmUserRole : vmUserRoles) {
+            if (vmUserRole.getRole() == VMRole.OWNER || vmUserRole.getRole() == VMRole.OWNER_CONTROLLER)
+                return vmUserRole;
+        }
+        return null;
+    }
+
+    public static VmUserRole findRole(List<VmUserRole> vmUserRoles, String guid) {
+        for (VmUserRole vmUserRole : vmUserRoles) {
+            if (guid.equals(vmUserRole.getGuid()))
+                return vmUserRole;
+        }
+        return null;
+    }
 }
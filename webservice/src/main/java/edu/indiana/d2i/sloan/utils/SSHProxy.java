@@ -15,12 +15,13 @@
  ******************************************************************************/
 package edu.indiana.d2i.sloan.utils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Properties;
 
-import edu.indiana.d2i.sloan.Configuration;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -44,9 +45,11 @@ public class SSHProxy {
 
 	public static int SSH_DEFAULT_PORT = 22;
 
-	private static int BUFFER_SIZE = 1024;
-	/* sleep duration in milliseconds */
-	private static long THREAD_SLEEP_DURATION;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final Charset OUTPUT_CHARSET = Charset.forName("UTF-8");
+	/* bound on the wait between end of output and channel close */
+	private static final long EXIT_STATUS_WAIT_IN_MS = 5000;
+	private static final long EXIT_STATUS_POLL_IN_MS = 5;
 
 	private String hostname;
 	private int port;
@@ -56,9 +59,17 @@ public class SSHProxy {
 
 	private JSch jsch = null;
 	private Session session = null;
+	private SSHSessionPool.Lease lease = null;
 
 	private final String SUDO_PREFIX = "sudo ";
 
+	/**
+	 * receives script output line by line while a command is running
+	 */
+	public interface OutputLineListener {
+		void onLine(String line);
+	}
+
 	public static class Commands {
 		private List<String> commands;
 		private boolean isSudoCmds;
@@ -176,10 +187,22 @@ public class SSHProxy {
 		this.username = builder.username;
 		this.passwd = builder.passwd;
 		this.privateKeyPath = builder.privateKeyPath;
-		this.THREAD_SLEEP_DURATION = Configuration.getInstance().getLong(Configuration.PropertyName.THREAD_SLEEP_DURATION);
 
+		if (SSHSessionPool.isEnabled()) {
+			lease = SSHSessionPool.getInstance().borrow(getPoolKey(), this::connect);
+			session = lease.getSession();
+		} else {
+			session = connect();
+		}
+	}
+
+	private String getPoolKey() {
+		return String.format("%s@%s:%d", username, hostname, port);
+	}
+
+	private Session connect() throws JSchException {
 		int maxtry = 3;
-		for (int i = 0; i < maxtry; i++) {
+		for (int i = 0; ; i++) {
 			try {
 				jsch = new JSch();
 
@@ -190,19 +213,20 @@ public class SSHProxy {
 				
 				Properties sshConfig = new Properties();
 				sshConfig.put("StrictHostKeyChecking", "no");
-				session = jsch.getSession(username, hostname, port);
+				Session newSession = jsch.getSession(username, hostname, port);
 
 				if (privateKeyPath == null) {
-					session.setPassword(passwd);
+					newSession.setPassword(passwd);
 				}
 
-				session.setConfig(sshConfig);
-				session.connect();
-				break;
+				newSession.setConfig(sshConfig);
+				newSession.connect();
+				return newSession;
 			} catch (JSchException ex) {
 				logger.error(ex.getMessage(), ex);
 				jsch = null;
-				session = null;
+				if (i + 1 >= maxtry)
+					throw ex;
 				logger.info("Retry ssh connection " + (i+1) + " times.");
 				try {
 					Thread.sleep(1000 * (i+1));
@@ -213,6 +237,24 @@ public class SSHProxy {
 		}
 	}
 
+	/**
+	 * open an exec channel, a pooled session that has gone stale is replaced
+	 * once with a fresh one
+	 */
+	private Channel openExecChannel() throws JSchException {
+		try {
+			return session.openChannel("exec");
+		} catch (JSchException e) {
+			if (lease == null)
+				throw e;
+			logger.warn("Pooled ssh session to " + hostname + " is unusable, reconnecting: " + e.getMessage());
+			lease.invalidate();
+			lease = SSHSessionPool.getInstance().borrow(getPoolKey(), this::connect);
+			session = lease.getSession();
+			return session.openChannel("exec");
+		}
+	}
+
 //	public SSHProxy(String hostname, int port, String username, String passwd,
 //			String privateKeyPath) throws JSchException {
 //		this.hostname = hostname;
@@ -242,9 +284,16 @@ public class SSHProxy {
 //		session.connect();
 //	}
 	
+	/**
+	 * pooled sessions go back to the pool and stay connected
+	 */
 	public void close() {
-		if (session != null)
+		if (lease != null) {
+			lease.release();
+			lease = null;
+		} else if (session != null) {
 			session.disconnect();
+		}
 	}
 
 	/**
@@ -260,7 +309,7 @@ public class SSHProxy {
 		if (cmds.isSudoCmds)
 			command = SUDO_PREFIX + command;
 
-		Channel channel = session.openChannel("exec");
+		Channel channel = openExecChannel();
 		((ChannelExec) channel).setCommand(command);
 
 		channel.connect();
@@ -271,65 +320,127 @@ public class SSHProxy {
 	 * execute a list of commands in blocking way
 	 * 
 	 * @param cmds
-	 * @param requireSudo
 	 * @return
 	 * @throws JSchException
 	 * @throws IOException
-	 * @throws Exception
 	 */
 	public CmdsExecResult execCmdSync(Commands cmds) throws JSchException,
 			IOException {
+		return execCmdSync(cmds, null);
+	}
+
+	/**
+	 * execute a list of commands in blocking way, each complete output line is
+	 * passed to the listener as soon as it is read so that long running
+	 * scripts can report progress; the full output is still returned
+	 * 
+	 * @param cmds
+	 * @param listener
+	 *            may be null
+	 * @return
+	 * @throws JSchException
+	 * @throws IOException
+	 */
+	public CmdsExecResult execCmdSync(Commands cmds, OutputLineListener listener)
+			throws JSchException, IOException {
 		String command = cmds.getConcatenatedForm();
-		int exitCode = Integer.MIN_VALUE;
 
 		if (cmds.isSudoCmds)
 			command = SUDO_PREFIX + command;
 		logger.info("ssh execute: " + command);
 
-		StringBuilder screenOutput = new StringBuilder();
+		ByteArrayOutputStream screenOutput = new ByteArrayOutputStream();
+		LineSplitter lines = (listener != null) ? new LineSplitter(listener) : null;
 
-		Channel channel = session.openChannel("exec");
+		Channel channel = openExecChannel();
 
 		((ChannelExec) channel).setCommand(command);
 		((ChannelExec) channel).setErrStream(System.err);
 
+		/* get the stream before connecting so no output is missed */
+		InputStream is = channel.getInputStream();
+
 		channel.connect();
 
-		InputStream is = channel.getInputStream();
+		try {
+			byte[] buf = new byte[BUFFER_SIZE];
+			int bytesRead;
 
-		byte[] buf = new byte[BUFFER_SIZE];
+			/* read blocks until output arrives and returns -1 once the remote side is done */
+			while ((bytesRead = is.read(buf, 0, buf.length)) >= 0) {
+				screenOutput.write(buf, 0, bytesRead);
+				if (lines != null)
+					lines.write(buf, bytesRead);
+			}
+
+			/* the exit status may arrive just after the end of the output */
+			int exitCode = waitForExitStatus(channel);
+
+			if (lines != null)
+				lines.finish();
 
-		while (true) {
+			return new CmdsExecResult(cmds, hostname, exitCode,
+					new String(screenOutput.toByteArray(), OUTPUT_CHARSET));
+		} finally {
+			// disconnect
+			channel.disconnect();
+		}
+	}
 
-			while (is.available() > 0) {
-				int bytesRead = is.read(buf, 0, 1024);
+	/**
+	 * splits the output stream into lines without copying what was already
+	 * emitted
+	 */
+	private static class LineSplitter {
+		private final OutputLineListener listener;
+		private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
 
-				if (bytesRead < 0)
-					break;
+		LineSplitter(OutputLineListener listener) {
+			this.listener = listener;
+		}
 
-				screenOutput.append(new String(buf, 0, bytesRead));
+		void write(byte[] buf, int len) {
+			int lineStart = 0;
+			for (int i = 0; i < len; i++) {
+				if (buf[i] == '\n') {
+					pending.write(buf, lineStart, i - lineStart);
+					flush();
+					lineStart = i + 1;
+				}
 			}
+			pending.write(buf, lineStart, len - lineStart);
+		}
 
-			if (channel.isClosed()) {
-				exitCode = channel.getExitStatus();
+		void flush() {
+			byte[] bytes = pending.toByteArray();
+			int len = bytes.length;
+			if (len > 0 && bytes[len - 1] == '\r')
+				len--;
+			pending.reset();
+			listener.onLine(new String(bytes, 0, len, OUTPUT_CHARSET));
+		}
+
+		void finish() {
+			if (pending.size() > 0)
+				flush();
+		}
+	}
+
+	private static int waitForExitStatus(Channel channel) throws IOException {
+		long deadline = System.currentTimeMillis() + EXIT_STATUS_WAIT_IN_MS;
+		while (!channel.isClosed()) {
+			if (System.currentTimeMillis() > deadline) {
+				logger.warn("Channel is not closed after end of output, exit status may be unknown");
 				break;
 			}
-
-			/**
-			 * sleep a while waiting for more outputs
-			 */
 			try {
-				Thread.sleep(THREAD_SLEEP_DURATION);
+				Thread.sleep(EXIT_STATUS_POLL_IN_MS);
 			} catch (InterruptedException e) {
-				logger.error(e.getMessage());
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for exit status", e);
 			}
 		}
-
-		// disconnect
-		channel.disconnect();
-
-		return new CmdsExecResult(cmds, hostname, exitCode,
-				screenOutput.toString());
+		return channel.getExitStatus();
 	}
 
 }
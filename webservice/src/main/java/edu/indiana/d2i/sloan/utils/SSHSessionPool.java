@@ -0,0 +1,380 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.utils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import edu.indiana.d2i.sloan.Configuration;
+import edu.indiana.d2i.sloan.Constants;
+
+/**
+ * 
+ * Keeps authenticated ssh sessions open per host so that commands can be run
+ * as exec channels on an existing session instead of doing a full ssh
+ * handshake for every hypervisor call. Several channels are multiplexed on one
+ * session, idle sessions are evicted and broken ones are dropped by a periodic
+ * health check.
+ * 
+ */
+public class SSHSessionPool {
+	private static final Logger logger = LoggerFactory.getLogger(SSHSessionPool.class);
+
+	private static SSHSessionPool instance = null;
+
+	private final int maxSessionsPerHost;
+	private final int maxChannelsPerSession;
+	private final long idleTimeoutInMs;
+	private final long borrowTimeoutInMs;
+
+	private final ConcurrentMap<String, HostSessions> hostSessions = new ConcurrentHashMap<String, HostSessions>();
+	private final ScheduledExecutorService maintainer;
+
+	private final AtomicLong handshakes = new AtomicLong(0);
+	private final AtomicLong handshakesAvoided = new AtomicLong(0);
+	private final AtomicLong evictions = new AtomicLong(0);
+
+	/**
+	 * opens and authenticates a new session, called outside of any pool lock
+	 */
+	interface SessionFactory {
+		Session connect() throws JSchException;
+	}
+
+	private static class PooledSession {
+		private final Session session;
+		private int activeChannels = 0;
+		private long lastUsed = System.currentTimeMillis();
+
+		PooledSession(Session session) {
+			this.session = session;
+		}
+	}
+
+	private static class HostSessions {
+		private final List<PooledSession> sessions = new ArrayList<PooledSession>();
+		/* sessions being connected outside of the lock */
+		private int connecting = 0;
+	}
+
+	/**
+	 * A borrowed slot on a pooled session. Each lease accounts for one exec
+	 * channel and must be released exactly once.
+	 */
+	public class Lease {
+		private final HostSessions host;
+		private final PooledSession pooled;
+		private boolean returned = false;
+
+		private Lease(HostSessions host, PooledSession pooled) {
+			this.host = host;
+			this.pooled = pooled;
+		}
+
+		public Session getSession() {
+			return pooled.session;
+		}
+
+		/**
+		 * give the session back to the pool, it stays connected for reuse
+		 */
+		public void release() {
+			synchronized (host) {
+				if (returned)
+					return;
+				returned = true;
+				pooled.activeChannels--;
+				pooled.lastUsed = System.currentTimeMillis();
+				host.notifyAll();
+			}
+		}
+
+		/**
+		 * drop the session from the pool, e.g. after it failed to open a
+		 * channel
+		 */
+		public void invalidate() {
+			synchronized (host) {
+				if (!returned) {
+					returned = true;
+					pooled.activeChannels--;
+				}
+				if (host.sessions.remove(pooled))
+					evictions.incrementAndGet();
+				host.notifyAll();
+			}
+			pooled.session.disconnect();
+		}
+	}
+
+	public static class PoolStats {
+		private int hosts;
+		private int activeSessions;
+		private int idleSessions;
+		private int openChannels;
+		private long handshakes;
+		private long handshakesAvoided;
+		private long evictions;
+
+		public int getHosts() {
+			return hosts;
+		}
+
+		public int getActiveSessions() {
+			return activeSessions;
+		}
+
+		public int getIdleSessions() {
+			return idleSessions;
+		}
+
+		public int getOpenChannels() {
+			return openChannels;
+		}
+
+		public long getHandshakes() {
+			return handshakes;
+		}
+
+		public long getHandshakesAvoided() {
+			return handshakesAvoided;
+		}
+
+		public long getEvictions() {
+			return evictions;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("[hosts:%d, active:%d, idle:%d, channels:%d, handshakes:%d, avoided:%d, evictions:%d]",
+				hosts, activeSessions, idleSessions, openChannels, handshakes, handshakesAvoided, evictions);
+		}
+	}
+
+	private SSHSessionPool() {
+		Configuration conf = Configuration.getInstance();
+		maxSessionsPerHost = conf.getInt(Configuration.PropertyName.SSH_POOL_MAX_SESSIONS_PER_HOST,
+			Constants.DEFAULT_SSH_POOL_MAX_SESSIONS_PER_HOST);
+		maxChannelsPerSession = conf.getInt(Configuration.PropertyName.SSH_POOL_MAX_CHANNELS_PER_SESSION,
+			Constants.DEFAULT_SSH_POOL_MAX_CHANNELS_PER_SESSION);
+		idleTimeoutInMs = conf.getLong(Configuration.PropertyName.SSH_POOL_IDLE_TIMEOUT_MS,
+			Constants.DEFAULT_SSH_POOL_IDLE_TIMEOUT_MS);
+		borrowTimeoutInMs = conf.getLong(Configuration.PropertyName.SSH_POOL_BORROW_TIMEOUT_MS,
+			Constants.DEFAULT_SSH_POOL_BORROW_TIMEOUT_MS);
+		long healthCheckPeriod = conf.getLong(Configuration.PropertyName.SSH_POOL_HEALTH_CHECK_PERIOD_MS,
+			Constants.DEFAULT_SSH_POOL_HEALTH_CHECK_PERIOD_MS);
+
+		maintainer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "ssh-session-pool-maintainer");
+			t.setDaemon(true);
+			return t;
+		});
+		maintainer.scheduleWithFixedDelay(this::maintain, healthCheckPeriod,
+			healthCheckPeriod, TimeUnit.MILLISECONDS);
+	}
+
+	public static synchronized SSHSessionPool getInstance() {
+		if (instance == null) {
+			instance = new SSHSessionPool();
+		}
+		return instance;
+	}
+
+	public static boolean isEnabled() {
+		return Configuration.getInstance().getBoolean(Configuration.PropertyName.SSH_POOL_ENABLED,
+			Constants.DEFAULT_SSH_POOL_ENABLED);
+	}
+
+	/**
+	 * Borrow a channel slot on a session to the given host. An existing
+	 * session with spare channels is preferred; a new one is connected only
+	 * when all sessions are busy and the per host limit is not reached,
+	 * otherwise the caller waits until a slot is released.
+	 * 
+	 * @param key
+	 *            identifies the host and credentials, e.g. user@host:port
+	 * @param factory
+	 *            connects a new session when needed
+	 */
+	Lease borrow(String key, SessionFactory factory) throws JSchException {
+		HostSessions host = hostSessions.computeIfAbsent(key, k -> new HostSessions());
+		long deadline = System.currentTimeMillis() + borrowTimeoutInMs;
+
+		synchronized (host) {
+			while (true) {
+				PooledSession pooled = leastBusy(host);
+				if (pooled != null) {
+					pooled.activeChannels++;
+					handshakesAvoided.incrementAndGet();
+					return new Lease(host, pooled);
+				}
+
+				if (host.sessions.size() + host.connecting < maxSessionsPerHost) {
+					host.connecting++;
+					break;
+				}
+
+				long waitInMs = deadline - System.currentTimeMillis();
+				if (waitInMs <= 0)
+					throw new JSchException("Timed out waiting for an ssh session to " + key);
+				try {
+					host.wait(waitInMs);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new JSchException("Interrupted while waiting for an ssh session to " + key);
+				}
+			}
+		}
+
+		/* handshake outside of the lock so other borrowers are not blocked */
+		Session session = null;
+		try {
+			session = factory.connect();
+			handshakes.incrementAndGet();
+			logger.info("Opened pooled ssh session to " + key);
+		} finally {
+			synchronized (host) {
+				host.connecting--;
+				host.notifyAll();
+			}
+		}
+
+		PooledSession pooled = new PooledSession(session);
+		synchronized (host) {
+			pooled.activeChannels = 1;
+			host.sessions.add(pooled);
+		}
+		return new Lease(host, pooled);
+	}
+
+	/* caller holds the host lock */
+	private PooledSession leastBusy(HostSessions host) {
+		PooledSession best = null;
+		Iterator<PooledSession> iter = host.sessions.iterator();
+		while (iter.hasNext()) {
+			PooledSession pooled = iter.next();
+			if (!pooled.session.isConnected()) {
+				if (pooled.activeChannels == 0) {
+					iter.remove();
+					evictions.incrementAndGet();
+				}
+				continue;
+			}
+			if (pooled.activeChannels < maxChannelsPerSession
+				&& (best == null || pooled.activeChannels < best.activeChannels))
+				best = pooled;
+		}
+		return best;
+	}
+
+	/**
+	 * evict idle and dead sessions, send keep alive on the remaining idle ones
+	 * outside of the host lock so a slow host does not hold up its borrowers
+	 */
+	private void maintain() {
+		long now = System.currentTimeMillis();
+		for (String key : hostSessions.keySet()) {
+			HostSessions host = hostSessions.get(key);
+			List<Session> toClose = new ArrayList<Session>();
+			List<PooledSession> toPing = new ArrayList<PooledSession>();
+
+			synchronized (host) {
+				Iterator<PooledSession> iter = host.sessions.iterator();
+				while (iter.hasNext()) {
+					PooledSession pooled = iter.next();
+					if (pooled.activeChannels > 0)
+						continue;
+
+					if (pooled.session.isConnected() && now - pooled.lastUsed < idleTimeoutInMs) {
+						toPing.add(pooled);
+						continue;
+					}
+					iter.remove();
+					evictions.incrementAndGet();
+					toClose.add(pooled.session);
+				}
+			}
+
+			for (PooledSession pooled : toPing) {
+				try {
+					pooled.session.sendKeepAliveMsg();
+				} catch (Exception e) {
+					logger.warn("ssh session to " + key + " failed health check: " + e.getMessage());
+					synchronized (host) {
+						// a session borrowed in the meantime is checked again at the next run
+						if (pooled.activeChannels == 0 && host.sessions.remove(pooled)) {
+							evictions.incrementAndGet();
+							toClose.add(pooled.session);
+						}
+					}
+				}
+			}
+
+			for (Session session : toClose) {
+				session.disconnect();
+			}
+			if (!toClose.isEmpty())
+				logger.info("Evicted " + toClose.size() + " ssh session(s) to " + key);
+		}
+	}
+
+	public PoolStats getStats() {
+		PoolStats stats = new PoolStats();
+		for (HostSessions host : hostSessions.values()) {
+			synchronized (host) {
+				if (host.sessions.isEmpty())
+					continue;
+				stats.hosts++;
+				for (PooledSession pooled : host.sessions) {
+					if (pooled.activeChannels > 0)
+						stats.activeSessions++;
+					else
+						stats.idleSessions++;
+					stats.openChannels += pooled.activeChannels;
+				}
+			}
+		}
+		stats.handshakes = handshakes.get();
+		stats.handshakesAvoided = handshakesAvoided.get();
+		stats.evictions = evictions.get();
+		return stats;
+	}
+
+	public void shutdown() {
+		maintainer.shutdownNow();
+		for (HostSessions host : hostSessions.values()) {
+			synchronized (host) {
+				for (PooledSession pooled : host.sessions) {
+					pooled.session.disconnect();
+				}
+				host.sessions.clear();
+			}
+		}
+	}
+}
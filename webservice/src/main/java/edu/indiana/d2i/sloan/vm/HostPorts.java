@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.vm;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Ports in use on one host, bit i stands for port min + i. Every method
+ * synchronizes on the instance, so hosts do not wait for each other.
+ *
+ * The scheduler stores allocated ports in the DB after it has added the VM,
+ * so an allocation is kept as pending until a reconcile sees it in the ports
+ * table; a pending allocation that never shows up there is dropped once it is
+ * older than the grace period.
+ */
+class HostPorts {
+	private final String host;
+	private final int min;
+	private final int size;
+
+	private final BitSet used;
+	/* port -> time it was handed out, not yet seen in the DB */
+	private final Map<Integer, Long> pending = new HashMap<Integer, Long>();
+	/* every port below it is in use */
+	private int lowestFree = 0;
+	private boolean loaded = false;
+	/* bumped on each change, a reconcile is skipped if it moved while the DB was read */
+	private long modCount = 0;
+
+	HostPorts(String host, int min, int max) {
+		this.host = host;
+		this.min = min;
+		this.size = max - min + 1;
+		this.used = new BitSet(size);
+	}
+
+	String getHost() {
+		return host;
+	}
+
+	synchronized boolean isLoaded() {
+		return loaded;
+	}
+
+	synchronized long modCount() {
+		return modCount;
+	}
+
+	/**
+	 * replace the state by the ports stored in the DB
+	 */
+	synchronized void load(Collection<Integer> ports) {
+		used.clear();
+		pending.clear();
+		for (int port : ports) {
+			if (inRange(port))
+				used.set(port - min);
+		}
+		lowestFree = 0;
+		loaded = true;
+		modCount++;
+	}
+
+	/**
+	 * @return the two lowest free ports, or null if fewer than two are left
+	 */
+	synchronized VMPorts allocatePair() {
+		int ssh = used.nextClearBit(lowestFree);
+		if (ssh >= size)
+			return null;
+		int vnc = used.nextClearBit(ssh + 1);
+		if (vnc >= size) {
+			lowestFree = ssh;
+			return null;
+		}
+		mark(ssh);
+		mark(vnc);
+		lowestFree = vnc + 1;
+		return new VMPorts(host, ssh + min, vnc + min);
+	}
+
+	/**
+	 * take the given ports if both are free
+	 */
+	synchronized boolean reserve(int sshport, int vncport) {
+		if (sshport == vncport || !inRange(sshport) || !inRange(vncport)
+				|| used.get(sshport - min) || used.get(vncport - min))
+			return false;
+		mark(sshport - min);
+		mark(vncport - min);
+		return true;
+	}
+
+	synchronized void release(int... ports) {
+		for (int port : ports) {
+			if (!inRange(port))
+				continue;
+			int index = port - min;
+			used.clear(index);
+			pending.remove(port);
+			lowestFree = Math.min(lowestFree, index);
+		}
+		modCount++;
+	}
+
+	synchronized boolean isUsed(int port) {
+		return inRange(port) && used.get(port - min);
+	}
+
+	synchronized int usedCount() {
+		return used.cardinality();
+	}
+
+	/**
+	 * replace the state by the ports stored in the DB, keeping allocations
+	 * that are younger than the grace period and not stored yet
+	 * 
+	 * @param dbPorts
+	 *            ports of the host in the DB
+	 * @param readAtModCount
+	 *            {@link #modCount()} before the DB was read
+	 * @return number of ports whose state changed, -1 if ports were allocated
+	 *         or released while the DB was read and nothing was done
+	 */
+	synchronized int reconcile(Collection<Integer> dbPorts, long readAtModCount, long now,
+			long pendingGraceInMillis) {
+		if (readAtModCount != modCount)
+			return -1;
+
+		BitSet fresh = new BitSet(size);
+		for (int port : dbPorts) {
+			if (inRange(port))
+				fresh.set(port - min);
+		}
+		Iterator<Map.Entry<Integer, Long>> it = pending.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Integer, Long> entry = it.next();
+			int index = entry.getKey() - min;
+			if (fresh.get(index)) {
+				it.remove();
+			} else if (now - entry.getValue() < pendingGraceInMillis) {
+				fresh.set(index);
+			} else {
+				it.remove();
+			}
+		}
+
+		BitSet diff = (BitSet) used.clone();
+		diff.xor(fresh);
+		used.clear();
+		used.or(fresh);
+		lowestFree = 0;
+		loaded = true;
+		modCount++;
+		return diff.cardinality();
+	}
+
+	private void mark(int index) {
+		used.set(index);
+		pending.put(index + min, System.currentTimeMillis());
+		modCount++;
+	}
+
+	private boolean inRange(int port) {
+		return port >= min && port - min < size;
+	}
+}
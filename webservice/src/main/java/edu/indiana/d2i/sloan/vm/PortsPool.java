@@ -17,37 +17,74 @@ package edu.indiana.d2i.sloan.vm;
 
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import edu.indiana.d2i.sloan.bean.PortBean;
 import edu.indiana.d2i.sloan.exception.InvalidHostNameException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import edu.indiana.d2i.sloan.Configuration;
-import edu.indiana.d2i.sloan.bean.VmInfoBean;
+import edu.indiana.d2i.sloan.Constants;
 import edu.indiana.d2i.sloan.db.DBOperations;
 
+/**
+ * Keeps the ports in use on each host in memory, loaded from the ports table
+ * and reconciled against it periodically. Each host has its own lock, see
+ * {@link HostPorts}.
+ */
 public class PortsPool {
 	private static Logger logger = LoggerFactory.getLogger(PortsPool.class);
 	
-	private ArrayList<String> vmHosts;
+	private final Map<String, HostPorts> vmHosts;
 	private final int PORT_RANGE_MIN, PORT_RANGE_MAX;
+	private final long reconcilePeriodInMs;
+	private ScheduledExecutorService reconciler = null;
 	
 	private static PortsPool instance = null;
 
 	private PortsPool() {
-		// load hosts
-		vmHosts = new ArrayList<String>();
-		String[] hosts = Configuration.getInstance().getString(
-				Configuration.PropertyName.HOSTS).split(";");
-		for (String host : hosts) {
-			vmHosts.add(host);
-		}
-		
 		// load port range from configuration
 		PORT_RANGE_MIN = Integer.valueOf(Configuration.getInstance()
 			.getString(Configuration.PropertyName.PORT_RANGE_MIN));
 		PORT_RANGE_MAX = Integer.valueOf(Configuration.getInstance()
 			.getString(Configuration.PropertyName.PORT_RANGE_MAX));
+
+		// load hosts
+		Map<String, HostPorts> hostPorts = new LinkedHashMap<String, HostPorts>();
+		String[] hosts = Configuration.getInstance().getString(
+				Configuration.PropertyName.HOSTS).split(";");
+		for (String host : hosts) {
+			hostPorts.put(host, new HostPorts(host, PORT_RANGE_MIN, PORT_RANGE_MAX));
+		}
+		vmHosts = Collections.unmodifiableMap(hostPorts);
+
+		reconcilePeriodInMs = Configuration.getInstance().getLong(
+			Configuration.PropertyName.PORT_RECONCILE_PERIOD_MS,
+			Constants.DEFAULT_PORT_RECONCILE_PERIOD_MS);
+
+		// hosts that fail to load here are loaded on first use
+		try {
+			reconcile();
+		} catch (SQLException e) {
+			logger.error("Cannot load ports from DB", e);
+		}
+
+		if (reconcilePeriodInMs > 0) {
+			reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "ports-pool-reconciler");
+				t.setDaemon(true);
+				return t;
+			});
+			reconciler.scheduleWithFixedDelay(() -> {
+				try {
+					reconcile();
+				} catch (Exception e) {
+					logger.error("Cannot reconcile ports with DB", e);
+				}
+			}, reconcilePeriodInMs, reconcilePeriodInMs, TimeUnit.MILLISECONDS);
+		}
 	}
 
 	public static PortsPool getInstance() {
@@ -62,62 +99,110 @@ public class PortsPool {
 	}
 	
 	/**
+	 * the ports are taken right away, the caller stores them in the DB
+	 * 
 	 * @param host
 	 * @return null if no available port pair is found
 	 */
-	public synchronized VMPorts nextAvailablePortPairAtHost(String vmid, String host) throws SQLException {
-		if (!vmHosts.contains(host)) {
+	public VMPorts nextAvailablePortPairAtHost(String vmid, String host) throws SQLException {
+		HostPorts hostPorts = vmHosts.get(host);
+		if (hostPorts == null) {
 			throw new IllegalArgumentException("Hostname " + host + " is illegal!");
 		}
-		List<Integer> portsUsed = DBOperations.getInstance().getPortsOfHost(host);
-		VMPorts vmport = new VMPorts(host, -1, -1);
-		for (int port = PORT_RANGE_MIN; port <= PORT_RANGE_MAX; port++) {
-			if (!portsUsed.contains(port)) {
-				if (vmport.sshport == -1) {
-					vmport.sshport = port;
-				} else {
-					vmport.vncport = port;
-					//DBOperations.getInstance().addPorts(vmid, vmport);
-					logger.debug("port allocated : " + vmport.toString());
-					return vmport;
-				}
-			}
-		}
-		return null;
+		VMPorts vmport = loaded(hostPorts).allocatePair();
+		if (vmport != null)
+			logger.debug("port allocated : " + vmport.toString());
+		return vmport;
 	}
 
-	public synchronized VMPorts getMigrationPortPair(String vmid, VMPorts vmPorts) throws InvalidHostNameException,
+	public VMPorts getMigrationPortPair(String vmid, VMPorts vmPorts) throws InvalidHostNameException,
 			SQLException {
 		String host = vmPorts.publicip;
-		if (!vmHosts.contains(host)) {
+		HostPorts hostPorts = vmHosts.get(host);
+		if (hostPorts == null) {
 			throw new InvalidHostNameException("Hostname " + host + " is invalid!");
 		}
 
-		List<Integer> portsUsed = DBOperations.getInstance().getPortsOfHost(host);
-		VMPorts vmport = new VMPorts(host, -1, -1);
+		VMPorts vmport;
+		if (loaded(hostPorts).reserve(vmPorts.sshport, vmPorts.vncport)) {
+			vmport = new VMPorts(host, vmPorts.sshport, vmPorts.vncport);
+		} else {
+			vmport = hostPorts.allocatePair();
+			if (vmport == null)
+				return null;
+		}
 
-		if (!portsUsed.contains(vmPorts.sshport)
-				&& !portsUsed.contains(vmPorts.vncport)) {
-			vmport.sshport = vmPorts.sshport;
-			vmport.vncport = vmPorts.vncport;
+		try {
 			DBOperations.getInstance().addPorts(vmid, vmport);
-			logger.debug("port allocated : " + vmport.toString());
-			return vmport;
+		} catch (SQLException e) {
+			hostPorts.release(vmport.sshport, vmport.vncport);
+			throw e;
 		}
-
-		vmport = nextAvailablePortPairAtHost(vmid, host);
-		if(vmport == null)
-			return null;
-
-		DBOperations.getInstance().addPorts(vmid, vmport);
+		logger.debug("port allocated : " + vmport.toString());
 		return vmport;
 	}
 	
-	public synchronized void release(String vmid, VMPorts ports) throws SQLException, InvalidHostNameException {
-		if (!vmHosts.contains(ports.publicip)) {
+	public void release(String vmid, VMPorts ports) throws SQLException, InvalidHostNameException {
+		HostPorts hostPorts = vmHosts.get(ports.publicip);
+		if (hostPorts == null) {
 			throw new InvalidHostNameException("Hostname " + ports.publicip + " is illegal!");
 		}
 		DBOperations.getInstance().deletePort(vmid, ports);
+		hostPorts.release(ports.sshport, ports.vncport);
 		logger.debug("port released : " + ports.toString());
 	}
+
+	/**
+	 * give back ports handed out by {@link #nextAvailablePortPairAtHost} that
+	 * were never stored
+	 */
+	public void cancel(VMPorts ports) {
+		HostPorts hostPorts = vmHosts.get(ports.publicip);
+		if (hostPorts != null) {
+			hostPorts.release(ports.sshport, ports.vncport);
+			logger.debug("port allocation cancelled : " + ports.toString());
+		}
+	}
+
+	/**
+	 * bring the in-memory state of every host in line with the ports table,
+	 * hosts that changed while the table was read are left for the next run
+	 */
+	public void reconcile() throws SQLException {
+		Map<HostPorts, Long> modCounts = new HashMap<HostPorts, Long>();
+		for (HostPorts hostPorts : vmHosts.values())
+			modCounts.put(hostPorts, hostPorts.modCount());
+
+		Map<String, List<Integer>> dbPorts = new HashMap<String, List<Integer>>();
+		for (PortBean port : DBOperations.getInstance().getPorts()) {
+			List<Integer> ports = dbPorts.get(port.getPublicip());
+			if (ports == null) {
+				ports = new ArrayList<Integer>();
+				dbPorts.put(port.getPublicip(), ports);
+			}
+			ports.add(port.getSshport());
+			ports.add(port.getVncport());
+		}
+
+		long now = System.currentTimeMillis();
+		for (HostPorts hostPorts : vmHosts.values()) {
+			List<Integer> ports = dbPorts.get(hostPorts.getHost());
+			int changed = hostPorts.reconcile(
+				(ports == null) ? Collections.<Integer>emptyList() : ports,
+				modCounts.get(hostPorts), now, reconcilePeriodInMs);
+			if (changed > 0) {
+				logger.warn(changed + " ports of host " + hostPorts.getHost()
+					+ " were out of sync with DB");
+			}
+		}
+	}
+
+	private HostPorts loaded(HostPorts hostPorts) throws SQLException {
+		synchronized (hostPorts) {
+			if (!hostPorts.isLoaded()) {
+				hostPorts.load(DBOperations.getInstance().getPortsOfHost(hostPorts.getHost()));
+			}
+		}
+		return hostPorts;
+	}
 }
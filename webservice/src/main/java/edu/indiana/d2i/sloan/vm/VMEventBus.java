@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.vm;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.indiana.d2i.sloan.Configuration;
+import edu.indiana.d2i.sloan.Constants;
+import edu.indiana.d2i.sloan.bean.VMEventBean;
+
+/**
+ * In-process publish/subscribe of VM state and mode changes. Each subscriber
+ * has a bounded buffer, a subscriber whose buffer is full is dropped instead
+ * of blocking the publisher or growing without limit; it learns so from
+ * {@link Subscription#isDropped()} and subscribes again.
+ */
+public class VMEventBus {
+	private static Logger logger = LoggerFactory.getLogger(VMEventBus.class);
+	private static VMEventBus instance = null;
+
+	private final int bufferSize;
+	private final int maxSubscribers;
+	private final CopyOnWriteArrayList<Subscription> subscribers = new CopyOnWriteArrayList<Subscription>();
+
+	/* guarded by this, ids follow the order events are delivered in */
+	private long lastId = 0;
+	private final AtomicLong published = new AtomicLong(0);
+	private final AtomicLong delivered = new AtomicLong(0);
+	private final AtomicLong droppedSubscribers = new AtomicLong(0);
+
+	public class Subscription {
+		private final String name;
+		private final BlockingQueue<VMEventBean> events;
+		private volatile boolean dropped = false;
+
+		private Subscription(String name) {
+			this.name = name;
+			this.events = new ArrayBlockingQueue<VMEventBean>(bufferSize);
+		}
+
+		/**
+		 * @return the next event, null if none arrived within the timeout
+		 */
+		public VMEventBean poll(long timeout, TimeUnit unit) throws InterruptedException {
+			return events.poll(timeout, unit);
+		}
+
+		/**
+		 * the subscriber fell behind by more than the buffer size, events
+		 * after the ones still buffered are lost
+		 */
+		public boolean isDropped() {
+			return dropped;
+		}
+
+		public void close() {
+			subscribers.remove(this);
+		}
+
+		private boolean offer(VMEventBean event) {
+			return events.offer(event);
+		}
+	}
+
+	public static class BusStats {
+		private int subscribers;
+		private int maxSubscribers;
+		private int bufferSize;
+		private long published;
+		private long delivered;
+		private long droppedSubscribers;
+
+		public int getSubscribers() {
+			return subscribers;
+		}
+
+		public int getMaxSubscribers() {
+			return maxSubscribers;
+		}
+
+		public int getBufferSize() {
+			return bufferSize;
+		}
+
+		public long getPublished() {
+			return published;
+		}
+
+		public long getDelivered() {
+			return delivered;
+		}
+
+		public long getDroppedSubscribers() {
+			return droppedSubscribers;
+		}
+	}
+
+	// unit test purpose
+	VMEventBus(int bufferSize, int maxSubscribers) {
+		this.bufferSize = bufferSize;
+		this.maxSubscribers = maxSubscribers;
+	}
+
+	public static synchronized VMEventBus getInstance() {
+		if (instance == null) {
+			Configuration conf = Configuration.getInstance();
+			instance = new VMEventBus(
+				conf.getInt(Configuration.PropertyName.EVENTS_BUFFER_SIZE,
+					Constants.DEFAULT_EVENTS_BUFFER_SIZE),
+				conf.getInt(Configuration.PropertyName.EVENTS_MAX_SUBSCRIBERS,
+					Constants.DEFAULT_EVENTS_MAX_SUBSCRIBERS));
+		}
+		return instance;
+	}
+
+	/**
+	 * @return null if there are max subscribers already
+	 */
+	public synchronized Subscription subscribe(String name) {
+		if (subscribers.size() >= maxSubscribers) {
+			logger.warn("Cannot subscribe " + name + " to vm events, " + maxSubscribers
+				+ " subscribers already");
+			return null;
+		}
+		Subscription subscription = new Subscription(name);
+		subscribers.add(subscription);
+		return subscription;
+	}
+
+	/**
+	 * never blocks, cheap when nobody subscribed
+	 */
+	public void publish(VMEventBean event) {
+		published.incrementAndGet();
+		if (subscribers.isEmpty())
+			return;
+		synchronized (this) {
+			event.setId(++lastId);
+			for (Subscription subscription : subscribers) {
+				if (subscription.offer(event)) {
+					delivered.incrementAndGet();
+				} else {
+					subscription.dropped = true;
+					subscribers.remove(subscription);
+					droppedSubscribers.incrementAndGet();
+					logger.warn("Dropped slow vm event subscriber " + subscription.name);
+				}
+			}
+		}
+	}
+
+	public void publishState(String vmid, VMState from, VMState to, String operator) {
+		publish(new VMEventBean(vmid, VMEventBean.TYPE_STATE,
+			(from == null) ? null : from.toString(), to.toString(), operator));
+	}
+
+	public void publishMode(String vmid, VMMode from, VMMode to, String operator) {
+		publish(new VMEventBean(vmid, VMEventBean.TYPE_MODE,
+			(from == null) ? null : from.toString(), to.toString(), operator));
+	}
+
+	public BusStats getStats() {
+		BusStats stats = new BusStats();
+		stats.subscribers = subscribers.size();
+		stats.maxSubscribers = maxSubscribers;
+		stats.bufferSize = bufferSize;
+		stats.published = published.get();
+		stats.delivered = delivered.get();
+		stats.droppedSubscribers = droppedSubscribers.get();
+		return stats;
+	}
+}
@@ -125,22 +125,39 @@ public class VMStateManager {
 		return canTrasist;
 	}
 
-	public synchronized boolean transitTo(String vmid, VMState src,
+	/**
+	 * move the VM from src to target if the transition is valid and the VM is
+	 * still in src in the DB. Any state goes to ERROR unconditionally, failure
+	 * cleanups pass the state the VM was read in, which the failed command
+	 * may have changed since.
+	 * 
+	 * @return false if the transition is not valid or the VM was changed by
+	 *         someone else since src was read
+	 */
+	public boolean transitTo(String vmid, VMState src,
 			VMState target, String operator) throws SQLException, NoItemIsFoundInDBException {
 		if (target == VMState.ERROR) {
 			DBOperations.getInstance().updateVMState(vmid, target, operator);
-			return true;
-		}
-
-		if (isValidTransition(src, target)) {
-			DBOperations.getInstance().updateVMState(vmid, target, operator);
+			VMEventBus.getInstance().publishState(vmid, src, target, operator);
 			logger.info("Transit from " + src + " to " + target + " for vm "
 					+ vmid);
 			return true;
-		} else {
+		}
+
+		if (!isValidTransition(src, target)) {
 			logger.error("Cannot transit from " + src + " to " + target
 					+ " for vm " + vmid);
 			return false;
 		}
+
+		if (!DBOperations.getInstance().compareAndSetVMState(vmid, src, target, operator)) {
+			logger.warn("Cannot transit from " + src + " to " + target + " for vm "
+					+ vmid + ", it is no longer " + src);
+			return false;
+		}
+		VMEventBus.getInstance().publishState(vmid, src, target, operator);
+		logger.info("Transit from " + src + " to " + target + " for vm "
+				+ vmid);
+		return true;
 	}
 }
@@ -18,6 +18,9 @@ package edu.indiana.d2i.sloan.db;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -26,8 +29,19 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
 
 import edu.indiana.d2i.sloan.utils.ResultUtils;
+import edu.indiana.d2i.sloan.utils.RolePermissionUtils;
+import edu.indiana.d2i.sloan.utils.RolePermissionUtils.API_CMD;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.junit.*;
@@ -37,9 +51,12 @@ import edu.indiana.d2i.sloan.Constants;
 import edu.indiana.d2i.sloan.bean.CreateVmRequestBean;
 import edu.indiana.d2i.sloan.bean.ResultBean;
 import edu.indiana.d2i.sloan.bean.VmInfoBean;
+import edu.indiana.d2i.sloan.bean.VmKeyInfoBean;
+import edu.indiana.d2i.sloan.bean.VmUserRole;
 import edu.indiana.d2i.sloan.exception.NoItemIsFoundInDBException;
 import edu.indiana.d2i.sloan.vm.VMMode;
 import edu.indiana.d2i.sloan.vm.VMPorts;
+import edu.indiana.d2i.sloan.vm.VMRole;
 import edu.indiana.d2i.sloan.vm.VMState;
 
 @Ignore
@@ -48,6 +65,9 @@ public class TestDBOperations {
 	protected final java.text.SimpleDateFormat DATE_FORMATOR =
 			new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 	private int[] portsUsed = null;
+	/* statements prepared since countStatements() */
+	private final AtomicLong statements = new AtomicLong(0);
+	private DataSource originalDataSource = null;
 	private void loadDataToImageTable(int records) throws SQLException {
 		Connection connection = null;
 		PreparedStatement pst = null;
@@ -203,6 +223,7 @@ public class TestDBOperations {
 		script.runScript(new java.io.FileReader("src/main/resources/dc_schema.sql"));
 		//script.runScript(new java.io.FileReader("src/main/resources/loaddata.sql"));
 		connection.close();
+		DBOperations.getInstance().getCache().invalidateAll();
 	}
 	
 	@Test
@@ -320,6 +341,23 @@ public class TestDBOperations {
 		}
 	}
 	
+	@Test
+	public void testCompareAndSetVMState() throws SQLException {
+		loadDataToVmTable(1);
+
+		Assert.assertTrue(DBOperations.getInstance().compareAndSetVMState(
+			"vmid-0", VMState.RUNNING, VMState.SHUTDOWN_PENDING, "username-0"));
+		Assert.assertEquals(VMState.SHUTDOWN_PENDING, DBOperations.getInstance().getVMState("vmid-0"));
+
+		// a second change made from the same old state loses
+		Assert.assertFalse(DBOperations.getInstance().compareAndSetVMState(
+			"vmid-0", VMState.RUNNING, VMState.DELETE_PENDING, "username-0"));
+		Assert.assertEquals(VMState.SHUTDOWN_PENDING, DBOperations.getInstance().getVMState("vmid-0"));
+
+		Assert.assertFalse(DBOperations.getInstance().compareAndSetVMState(
+			"vmid-missing", VMState.RUNNING, VMState.SHUTDOWN, "username-0"));
+	}
+
 	@Test
 	public void testGetImagePath() throws SQLException {
 		int count = 3;
@@ -354,6 +392,61 @@ public class TestDBOperations {
 		Assert.assertTrue(DBOperations.getInstance().quotasNotExceedLimit(request));
 	}
 	
+	@Test
+	public void testConcurrentQuotaReservation() throws Exception {
+		loadDataToUserTable(1);
+		int cpuQuota = Integer.valueOf(Constants.DEFAULT_USER_CPU_QUOTA_IN_NUM);
+		final CreateVmRequestBean request = new CreateVmRequestBean("username-0",
+				null, null, null, null, 1024, 1, 10,
+				"/path/to/work/dir", "DEMO", null, null, null, null, null, null, null, null, null ,null);
+
+		// twice as many creates as the cpu quota allows, all at once
+		int attempts = cpuQuota * 2;
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (int i = 0; i < attempts; i++) {
+			results.add(executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					start.await();
+					return DBOperations.getInstance().quotasNotExceedLimit(request);
+				}
+			}));
+		}
+		start.countDown();
+		int reserved = 0;
+		for (Future<Boolean> result : results) {
+			if (result.get(60, TimeUnit.SECONDS))
+				reserved++;
+		}
+		Assert.assertEquals(cpuQuota, reserved);
+		Assert.assertFalse(DBOperations.getInstance().quotasNotExceedLimit(request));
+
+		List<Future<Void>> restores = new ArrayList<Future<Void>>();
+		for (int i = 0; i < reserved; i++) {
+			restores.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					DBOperations.getInstance().restoreQuota("username-0", 1, 1024, 10);
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> restore : restores) {
+			restore.get(60, TimeUnit.SECONDS);
+		}
+		executor.shutdown();
+
+		// the whole quota is back, no restore was lost
+		CreateVmRequestBean all = new CreateVmRequestBean("username-0",
+				null, null, null, null,
+				Integer.valueOf(Constants.DEFAULT_USER_MEMORY_QUOTA_IN_MB), cpuQuota,
+				Integer.valueOf(Constants.DEFAULT_USER_DISK_QUOTA_IN_GB),
+				"/path/to/work/dir", "DEMO", null, null, null, null, null, null, null, null, null ,null);
+		Assert.assertTrue(DBOperations.getInstance().quotasNotExceedLimit(all));
+	}
+
 	@Test
 	public void testUpdateVMModeVMState() throws SQLException, NoItemIsFoundInDBException {
 		int records = 4;
@@ -450,4 +543,123 @@ public class TestDBOperations {
 		// remove tmp file
 		org.apache.commons.io.FileUtils.deleteQuietly(new java.io.File("./tmpfile"));
 	}
+
+	/*
+	 * count the statements this process prepares from here on, a counter of
+	 * the server would also count what other clients run
+	 */
+	private void countStatements() {
+		final DataSource original = DBConnections.getDataSource();
+		originalDataSource = original;
+		statements.set(0);
+		DBConnections.setDataSource((DataSource) Proxy.newProxyInstance(
+			DataSource.class.getClassLoader(), new Class<?>[] { DataSource.class },
+			(proxy, method, args) -> {
+				Object res = invoke(original, method, args);
+				return (res instanceof Connection) ? countingConnection((Connection) res) : res;
+			}));
+	}
+
+	private Connection countingConnection(final Connection connection) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+			new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+				if (method.getName().equals("prepareStatement") || method.getName().equals("createStatement")
+						|| method.getName().equals("prepareCall"))
+					statements.incrementAndGet();
+				return invoke(connection, method, args);
+			});
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	@After
+	public void after() {
+		if (originalDataSource != null) {
+			DBConnections.setDataSource(originalDataSource);
+			originalDataSource = null;
+		}
+	}
+
+	@Test
+	public void testRolesLoadedInBatch() throws SQLException {
+		int count = 20;
+		loadDataToUserTable(count);
+		loadDataToImageTable(1);
+		loadDataToHostsTable(count);
+
+		String created_at = DATE_FORMATOR.format(new java.util.Date());
+		for (int index = 0; index < count; index++) {
+			VMPorts host = new VMPorts("192.168.0." + (index+2), 2000 + index*2, 2000 + index*2 + 1);
+			DBOperations.getInstance().addVM("username-" + index, "vmid-" + index, "imagename-0",
+				"vncusername", "vncpassword", host, created_at, "/var/instance/vmid-" + index, 2, 1024, 10
+					,"DEMO", null, null, null, null, null, null, null, null, true, null);
+		}
+
+		// one query for the vms and one for the roles of all of them, not one per vm
+		countStatements();
+		List<VmInfoBean> vmInfos = DBOperations.getInstance().getExistingVmInfo();
+		long selects = statements.getAndSet(0);
+		Assert.assertEquals(count, vmInfos.size());
+		for (VmInfoBean vmInfo : vmInfos) {
+			Assert.assertEquals(1, vmInfo.getRoles().size());
+			Assert.assertEquals(Boolean.TRUE, vmInfo.isFull_access());
+		}
+		Assert.assertTrue("getExistingVmInfo issued " + selects + " selects", selects <= 2);
+
+		List<VmKeyInfoBean> vmKeyInfos = DBOperations.getInstance().getVmKeyInfo();
+		selects = statements.getAndSet(0);
+		Assert.assertEquals(count, vmKeyInfos.size());
+		for (VmKeyInfoBean vmKeyInfo : vmKeyInfos) {
+			Assert.assertEquals(1, vmKeyInfo.getRoles().size());
+		}
+		Assert.assertTrue("getVmKeyInfo issued " + selects + " selects", selects <= 2);
+	}
+
+	@Test
+	public void testPermissionChecksServedFromCache() throws Exception {
+		loadDataToUserTable(2);
+		loadDataToImageTable(1);
+		loadDataToHostsTable(1);
+
+		String vmid = "vmid-0";
+		VMPorts host = new VMPorts("192.168.0.2", 2000, 2001);
+		DBOperations.getInstance().addVM("username-0", vmid, "imagename-0",
+			"vncusername", "vncpassword", host, DATE_FORMATOR.format(new java.util.Date()),
+			"/var/instance/" + vmid, 2, 1024, 10
+				,"DEMO", null, null, null, null, null, null, null, null, true, null);
+		DBOperations.getInstance().addVmSharee(vmid,
+			new VmUserRole("username-1@gmail.com", VMRole.SHAREE, true, "username-1", true), null);
+
+		// the first checks load the roles, the following ones do not reach MySQL
+		Assert.assertTrue(RolePermissionUtils.isPermittedCommand("username-0", vmid, API_CMD.LAUNCH_VM));
+		Assert.assertFalse(RolePermissionUtils.isPermittedCommand("username-1", vmid, API_CMD.LAUNCH_VM));
+		VmCache.CacheStats stats = DBOperations.getInstance().getCacheStats();
+		countStatements();
+		for (int i = 0; i < 10; i++) {
+			Assert.assertTrue(RolePermissionUtils.isPermittedCommand("username-0", vmid, API_CMD.LAUNCH_VM));
+			Assert.assertFalse(RolePermissionUtils.isPermittedCommand("username-1", vmid, API_CMD.LAUNCH_VM));
+		}
+		Assert.assertEquals(0, statements.get());
+		Assert.assertEquals(stats.getHits() + 40, DBOperations.getInstance().getCacheStats().getHits());
+		Assert.assertEquals(stats.getMisses(), DBOperations.getInstance().getCacheStats().getMisses());
+
+		// a role change is visible right away
+		DBOperations.getInstance().manageController(vmid, "username-0", VMRole.OWNER,
+			"username-1", VMRole.CONTROLLER);
+		Assert.assertFalse(RolePermissionUtils.isPermittedCommand("username-0", vmid, API_CMD.LAUNCH_VM));
+		Assert.assertTrue(RolePermissionUtils.isPermittedCommand("username-1", vmid, API_CMD.LAUNCH_VM));
+
+		// as is a state change of a cached vm info
+		Assert.assertEquals(VMState.CREATE_PENDING,
+			DBOperations.getInstance().getVmInfo("username-0", vmid).getVmstate());
+		DBOperations.getInstance().updateVMState(vmid, VMState.RUNNING);
+		Assert.assertEquals(VMState.RUNNING,
+			DBOperations.getInstance().getVmInfo("username-0", vmid).getVmstate());
+	}
 }
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.indiana.d2i.sloan.Configuration;
+import edu.indiana.d2i.sloan.Constants;
+import edu.indiana.d2i.sloan.bean.CreateVmRequestBean;
+import edu.indiana.d2i.sloan.bean.PortBean;
+import edu.indiana.d2i.sloan.bean.VmInfoBean;
+import edu.indiana.d2i.sloan.scheduler.SchedulerFactory;
+
+/**
+ * Creates VMs from many threads through the real PortsPool and the addVM
+ * transaction, and logs how many creates per second they reach.
+ */
+@Ignore
+public class TestSchedulerConcurrency {
+	private static Logger logger = LoggerFactory.getLogger(TestSchedulerConcurrency.class);
+	private static final int NUM_HOSTS = 4;
+	private static final int NUM_REQUESTS = 48;
+	private static final int NUM_THREADS = 16;
+
+	@BeforeClass
+	public static void beforeClass() {
+		Configuration.getInstance().setProperty(
+				Configuration.PropertyName.SCHEDULER_IMPL_CLASS,
+				Constants.DEFAULT_SCHEDULER_IMPL_CLASS);
+		Configuration.getInstance().setProperty(
+				Configuration.PropertyName.SCHEDULER_MAX_NUM_ATTEMPTS,
+				Constants.DEFAULT_SCHEDULER_MAX_NUM_ATTEMPTS);
+
+		// room for all requests on every host
+		Configuration.getInstance().setProperty(
+				Configuration.PropertyName.PORT_RANGE_MIN, "2000");
+		Configuration.getInstance().setProperty(
+				Configuration.PropertyName.PORT_RANGE_MAX, String.valueOf(2000 + 2 * NUM_REQUESTS));
+		StringBuilder hosts = new StringBuilder();
+		for (int i = 0; i < NUM_HOSTS; i++)
+			hosts.append("host").append(i).append(";");
+		Configuration.getInstance().setProperty(
+				Configuration.PropertyName.HOSTS, hosts.toString());
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		DBOperations.getInstance().close();
+	}
+
+	@Before
+	public void before() throws Exception {
+		Class.forName(Configuration.getInstance().getString(Configuration.PropertyName.DB_DRIVER_CLASS));
+		Connection connection = DriverManager.getConnection(Configuration.getInstance().getString(
+				Configuration.PropertyName.JDBC_URL), Configuration.getInstance().getString(
+				Configuration.PropertyName.DB_USER),  Configuration.getInstance().getString(
+				Configuration.PropertyName.DB_PWD));
+		ScriptRunner script = new ScriptRunner(connection, false, false);
+		script.runScript(new java.io.FileReader(
+				"src/main/resources/dc_schema.sql"));
+		connection.close();
+	}
+
+	private void loadData(int records) throws SQLException {
+		Connection connection = null;
+		PreparedStatement pst = null;
+
+		try {
+			connection = DBConnections.getInstance().getConnection();
+			for (int i = 0; i < records; i++) {
+				pst = connection.prepareStatement("INSERT INTO users(username, usertype) VALUES (?, ?)");
+				pst.setString(1, "user-" + i);
+				pst.setString(2, "testtype");
+				pst.executeUpdate();
+				pst.close();
+
+				pst = connection.prepareStatement("INSERT INTO images"
+						+ "(imagename, imagepath, imagedescription, loginusername, loginpassword) "
+						+ "VALUES (?, ?, ?, ?, ?)");
+				pst.setString(1, "imagename-" + i);
+				pst.setString(2, "/var/instance/imagename-" + i);
+				pst.setString(3, "This is " + i + " image");
+				pst.setString(4, "user" + i);
+				pst.setString(5, "pwd" + i);
+				pst.executeUpdate();
+				pst.close();
+			}
+		} finally {
+			if (pst != null) pst.close();
+			if (connection != null) connection.close();
+		}
+	}
+
+	@Test
+	public void testConcurrentScheduling() throws Exception {
+		loadData(NUM_REQUESTS);
+
+		ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+		long start = System.currentTimeMillis();
+		try {
+			List<Future<VmInfoBean>> futures = new ArrayList<Future<VmInfoBean>>();
+			for (int i = 0; i < NUM_REQUESTS; i++) {
+				final CreateVmRequestBean request = new CreateVmRequestBean("user-" + i,
+						"imagename-" + i, "vmid-" + i, "vmusername-" + i, "vmpassword-" + i,
+						1024, 2, 10, "/path/to/work/dir",
+						"DEMO", null, null, null, null, null, null, null, null, null, null);
+				futures.add(pool.submit(new Callable<VmInfoBean>() {
+					@Override
+					public VmInfoBean call() throws Exception {
+						return SchedulerFactory.getInstance().schedule(request);
+					}
+				}));
+			}
+			for (Future<VmInfoBean> future : futures)
+				future.get();
+		} finally {
+			pool.shutdownNow();
+		}
+		long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+		logger.info(String.format("%d creates on %d hosts from %d threads in %d ms, %.0f creates/s",
+				NUM_REQUESTS, NUM_HOSTS, NUM_THREADS, elapsed, NUM_REQUESTS * 1000.0 / elapsed));
+
+		// every VM is stored with its own ports
+		List<PortBean> ports = DBOperations.getInstance().getPorts();
+		Assert.assertEquals(NUM_REQUESTS, ports.size());
+		Set<String> seen = new HashSet<String>();
+		for (PortBean port : ports) {
+			Assert.assertTrue(seen.add(port.getPublicip() + ":" + port.getSshport()));
+			Assert.assertTrue(seen.add(port.getPublicip() + ":" + port.getVncport()));
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.sloan.bean.VmUserRole;
+import edu.indiana.d2i.sloan.vm.VMRole;
+
+public class TestVmCache {
+	private static VmUserRole role(String guid, VMRole vmRole) {
+		return new VmUserRole(guid + "@gmail.com", vmRole, true, guid, true);
+	}
+
+	@Test
+	public void testHitMissAndInvalidate() {
+		VmCache cache = new VmCache(true, 10, 60000);
+		Assert.assertNull(cache.getUserRole("vmid-0", "user-0"));
+
+		cache.putUserRole("vmid-0", "user-0", role("user-0", VMRole.OWNER_CONTROLLER), cache.generation());
+		cache.putOwner("vmid-0", role("user-0", VMRole.OWNER_CONTROLLER), cache.generation());
+		Assert.assertEquals(VMRole.OWNER_CONTROLLER, cache.getUserRole("vmid-0", "user-0").getRole());
+		Assert.assertEquals("user-0", cache.getOwner("vmid-0").getGuid());
+		Assert.assertNull(cache.getUserRole("vmid-0", "user-1"));
+
+		cache.invalidate("vmid-0");
+		Assert.assertNull(cache.getUserRole("vmid-0", "user-0"));
+		Assert.assertNull(cache.getOwner("vmid-0"));
+
+		VmCache.CacheStats stats = cache.getStats();
+		Assert.assertEquals(2, stats.getHits());
+		Assert.assertEquals(4, stats.getMisses());
+		Assert.assertEquals(1, stats.getInvalidations());
+	}
+
+	@Test
+	public void testLoadRacingWithInvalidationIsDropped() {
+		VmCache cache = new VmCache(true, 10, 60000);
+		long generation = cache.generation();
+		// a write to the vm commits while the old row is being read
+		cache.invalidate("vmid-0");
+		cache.putUserRole("vmid-0", "user-0", role("user-0", VMRole.SHAREE), generation);
+		Assert.assertNull(cache.getUserRole("vmid-0", "user-0"));
+	}
+
+	@Test
+	public void testReturnedBeansAreCopies() {
+		VmCache cache = new VmCache(true, 10, 60000);
+		cache.putUserRole("vmid-0", "user-0", role("user-0", VMRole.SHAREE), cache.generation());
+		cache.getUserRole("vmid-0", "user-0").setFull_access(false);
+		Assert.assertEquals(Boolean.TRUE, cache.getUserRole("vmid-0", "user-0").isFull_access());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedVmIsEvicted() {
+		VmCache cache = new VmCache(true, 2, 60000);
+		cache.putOwner("vmid-0", role("user-0", VMRole.OWNER), cache.generation());
+		cache.putOwner("vmid-1", role("user-1", VMRole.OWNER), cache.generation());
+		Assert.assertNotNull(cache.getOwner("vmid-0"));
+		cache.putOwner("vmid-2", role("user-2", VMRole.OWNER), cache.generation());
+
+		Assert.assertNotNull(cache.getOwner("vmid-0"));
+		Assert.assertNull(cache.getOwner("vmid-1"));
+		Assert.assertNotNull(cache.getOwner("vmid-2"));
+		Assert.assertEquals(1, cache.getStats().getEvictions());
+		Assert.assertEquals(2, cache.getStats().getVms());
+	}
+
+	@Test
+	public void testEntriesExpire() throws InterruptedException {
+		VmCache cache = new VmCache(true, 10, 50);
+		cache.putOwner("vmid-0", role("user-0", VMRole.OWNER), cache.generation());
+		Assert.assertNotNull(cache.getOwner("vmid-0"));
+		Thread.sleep(100);
+		Assert.assertNull(cache.getOwner("vmid-0"));
+		Assert.assertEquals(0, cache.getStats().getVms());
+	}
+
+	@Test
+	public void testDisabledCacheKeepsNothing() {
+		VmCache cache = new VmCache(false, 10, 60000);
+		cache.putOwner("vmid-0", role("user-0", VMRole.OWNER), cache.generation());
+		Assert.assertNull(cache.getOwner("vmid-0"));
+		Assert.assertEquals(0, cache.getStats().getMisses());
+	}
+}
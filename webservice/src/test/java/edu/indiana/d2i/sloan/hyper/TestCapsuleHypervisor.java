@@ -44,7 +44,7 @@ public class TestCapsuleHypervisor {
 
 		}
 		
-		public CmdsExecResult execCmdSync(Commands cmds) throws JSchException,
+		public CmdsExecResult execCmdSync(Commands cmds, OutputLineListener listener) throws JSchException,
 			IOException {
 			try {
 				Thread.sleep(1000);
@@ -69,7 +69,7 @@ public class TestCapsuleHypervisor {
 			this.timesFailed = timesFailed;
 		}
 		
-		public CmdsExecResult execCmdSync(Commands cmds) throws JSchException,
+		public CmdsExecResult execCmdSync(Commands cmds, OutputLineListener listener) throws JSchException,
 			IOException {
 			try {
 				Thread.sleep(1000);
@@ -100,7 +100,7 @@ public class TestCapsuleHypervisor {
 
 		}
 		
-		public CmdsExecResult execCmdSync(Commands cmds) throws JSchException,
+		public CmdsExecResult execCmdSync(Commands cmds, OutputLineListener listener) throws JSchException,
 			IOException {
 			if (Math.random() > 0.5)
 				throw new IOException("non retriable io exception");
@@ -120,6 +120,7 @@ public class TestCapsuleHypervisor {
 			this.proxy = proxy;
 			CapsuleHypervisor.retryWaitInMs = 100;
 			CapsuleHypervisor.maxRetry = 3;
+			CapsuleHypervisor.asyncRetry = false;
 		}
 		
 		protected SSHProxy establishSShCon(String hostname, int port)
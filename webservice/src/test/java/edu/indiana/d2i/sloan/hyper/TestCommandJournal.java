@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.hyper;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.indiana.d2i.sloan.bean.VmInfoBean;
+import edu.indiana.d2i.sloan.bean.VmStateChangeBean;
+import edu.indiana.d2i.sloan.bean.VmUserRole;
+import edu.indiana.d2i.sloan.vm.VMMode;
+import edu.indiana.d2i.sloan.vm.VMRole;
+import edu.indiana.d2i.sloan.vm.VMState;
+
+public class TestCommandJournal {
+	private File file;
+
+	private static class BlockingCommand extends HypervisorCommand {
+		private final CountDownLatch release;
+		private final CountDownLatch started;
+		private final CountDownLatch done;
+
+		BlockingCommand(String vmid, CountDownLatch release, CountDownLatch started, CountDownLatch done) {
+			super(null, new VmInfoBean(vmid, null, true, null));
+			this.release = release;
+			this.started = started;
+			this.done = done;
+		}
+
+		@Override
+		public void execute() throws Exception {
+			if (release != null) {
+				started.countDown();
+				release.await();
+			}
+			done.countDown();
+		}
+
+		@Override
+		public void cleanupOnFailed() {
+		}
+	}
+
+	private static VmInfoBean vm(String vmid, String host, VMState state) {
+		List<VmUserRole> roles = Collections.singletonList(
+			new VmUserRole("owner@example.org", VMRole.OWNER, true, "owner-guid", true));
+		return new VmInfoBean(vmid, host, null, "/vms/" + vmid, "/path/to/image", "/path/to/policy",
+			2000, 2001, 2, 2048, 10, VMMode.MAINTENANCE, state, "ubuntu", "password",
+			"test-image", "ubuntu", "password", "test-policy", VMMode.MAINTENANCE, "DEMO",
+			null, null, null, null, null, null, null, null, true, roles, null);
+	}
+
+	private static CommandQueue queue() {
+		Map<CommandLane, Integer> maxWorkers = new EnumMap<CommandLane, Integer>(CommandLane.class);
+		Map<CommandLane, Integer> capacity = new EnumMap<CommandLane, Integer>(CommandLane.class);
+		Map<CommandLane, Long> freshInMillis = new EnumMap<CommandLane, Long>(CommandLane.class);
+		for (CommandLane lane : CommandLane.values()) {
+			maxWorkers.put(lane, 0);
+			capacity.put(lane, 100);
+			freshInMillis.put(lane, 0L);
+		}
+		return new CommandQueue(maxWorkers, capacity, freshInMillis);
+	}
+
+	private static Set<String> vmids(List<CommandJournal.Entry> entries) {
+		Set<String> vmids = new HashSet<String>();
+		for (CommandJournal.Entry entry : entries)
+			vmids.add(entry.getVmid());
+		return vmids;
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("commands", ".journal");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testKillInTheMiddleOfBatch() throws Exception {
+		CommandJournal journal = new CommandJournal(file, true, 1000);
+		HypervisorProxy proxy = new HypervisorProxy(2, queue(), null, journal);
+
+		// vm-0 to vm-3 finish, vm-4 and vm-5 hold both workers, vm-6 and vm-7 wait
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch done = new CountDownLatch(4);
+		for (int i = 0; i < 8; i++) {
+			proxy.addCommand(new BlockingCommand("vm-" + i, (i < 4) ? null : release, started, done));
+		}
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		// the process dies, nothing is written after this
+		journal.close();
+		release.countDown();
+		proxy.shutdown();
+
+		CommandJournal restarted = new CommandJournal(file, true, 1000);
+		List<CommandJournal.Entry> entries = restarted.getUnfinished();
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("vm-4", "vm-5", "vm-6", "vm-7")), vmids(entries));
+
+		// the two hosts are probed at the same time
+		final CountDownLatch probing = new CountDownLatch(2);
+		CommandRecovery recovery = new CommandRecovery((host, vms) -> {
+			probing.countDown();
+			Assert.assertTrue(probing.await(5, TimeUnit.SECONDS));
+			if (host.equals("host-2"))
+				throw new IOException("host-2 is down");
+			Map<String, String> statuses = new HashMap<String, String>();
+			statuses.put("/vms/vm-4", HypervisorResponse.STATUS_NOT_RUNNING);
+			statuses.put("/vms/vm-5", HypervisorResponse.STATUS_RUNNING);
+			return statuses;
+		}, 4, 5000);
+		CommandRecovery.Plan plan = recovery.plan(entries, Arrays.asList(
+			vm("vm-1", "host-1", VMState.CREATE_PENDING), // not lost with the process
+			vm("vm-4", "host-1", VMState.CREATE_PENDING),
+			vm("vm-5", "host-1", VMState.LAUNCH_PENDING),
+			vm("vm-6", "host-2", VMState.SHUTDOWN_PENDING),
+			vm("vm-7", "host-2", VMState.DELETE_PENDING)));
+
+		Map<String, VMState> targets = new HashMap<String, VMState>();
+		for (VmStateChangeBean change : plan.getChanges()) {
+			Assert.assertEquals("owner-guid", change.getOperator());
+			targets.put(change.getVmid(), change.getTo());
+		}
+		Assert.assertEquals(3, targets.size());
+		Assert.assertEquals(VMState.SHUTDOWN, targets.get("vm-4"));
+		Assert.assertEquals(VMState.ERROR, targets.get("vm-5"));
+		Assert.assertEquals(VMState.ERROR, targets.get("vm-6"));
+		Assert.assertEquals(1, plan.getDeletes().size());
+		Assert.assertEquals("vm-7", plan.getDeletes().get(0).getVmid());
+
+		for (CommandJournal.Entry entry : entries)
+			restarted.finish(entry.getSeq());
+		restarted.close();
+		Assert.assertTrue(new CommandJournal(file, true, 1000).getUnfinished().isEmpty());
+	}
+
+	@Test
+	public void testOnlyCommandsOfEarlierProcessAreLost() throws Exception {
+		CommandJournal journal = new CommandJournal(file, true, 1000);
+		journal.begin("vm-0", "launchvm");
+		HypervisorProxy proxy = new HypervisorProxy(1, queue(), null, journal);
+
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(2);
+		proxy.addCommand(new BlockingCommand("vm-1", release, started, done));
+		proxy.addCommand(new BlockingCommand("vm-2", null, started, done) {
+			@Override
+			public CommandLane getLane() {
+				return CommandLane.QUERY;
+			}
+		});
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		// vm-1 is running, the status query of vm-2 is not journaled
+		Assert.assertEquals(Collections.singleton("vm-0"), vmids(proxy.getLost()));
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("vm-0", "vm-1")), vmids(journal.getUnfinished()));
+
+		release.countDown();
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		proxy.shutdown();
+		journal.close();
+	}
+
+	@Test
+	public void testSkipTornRecordAndCompact() throws Exception {
+		CommandJournal journal = new CommandJournal(file, false, 2);
+		long first = journal.begin("vm-1", "launchvm");
+		long second = journal.begin("vm-2", "stopvm");
+		journal.finish(first);
+		journal.close();
+
+		// the process died while writing
+		FileWriter writer = new FileWriter(file, true);
+		writer.write("begin\t3\t12");
+		writer.close();
+
+		journal = new CommandJournal(file, false, 2);
+		List<CommandJournal.Entry> entries = journal.getUnfinished();
+		Assert.assertEquals(1, entries.size());
+		Assert.assertEquals(second, entries.get(0).getSeq());
+		Assert.assertEquals("stopvm", entries.get(0).getCommand());
+
+		// new entries do not reuse sequence numbers, the file only keeps unfinished ones
+		long third = journal.begin("vm-3", "deletevm");
+		Assert.assertTrue(third > second);
+		journal.finish(second);
+		journal.finish(third);
+		journal.close();
+		Assert.assertEquals(0, file.length());
+	}
+
+	@Test
+	public void testRecoveredStates() {
+		Assert.assertEquals(VMState.SHUTDOWN, CommandRecovery.getRecoveredState(VMState.SHUTDOWN_PENDING,
+			HypervisorResponse.STATUS_NOT_RUNNING));
+		Assert.assertEquals(VMState.RUNNING, CommandRecovery.getRecoveredState(VMState.SHUTDOWN_PENDING,
+			HypervisorResponse.STATUS_RUNNING));
+		Assert.assertEquals(VMState.ERROR, CommandRecovery.getRecoveredState(VMState.CREATE_PENDING,
+			HypervisorResponse.STATUS_MISSING));
+		Assert.assertEquals(VMState.ERROR, CommandRecovery.getRecoveredState(VMState.LAUNCH_PENDING, null));
+		Assert.assertEquals(VMState.ERROR, CommandRecovery.getRecoveredState(
+			VMState.SWITCH_TO_SECURE_PENDING, HypervisorResponse.STATUS_RUNNING));
+	}
+}
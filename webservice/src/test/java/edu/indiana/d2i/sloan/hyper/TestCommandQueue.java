@@ -0,0 +1,356 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.hyper;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.sloan.bean.VmInfoBean;
+import edu.indiana.d2i.sloan.exception.CommandQueueFullException;
+
+public class TestCommandQueue {
+	private static class TestCommand extends HypervisorCommand {
+		private final CommandLane lane;
+		private final String user;
+
+		TestCommand(CommandLane lane, String vmid) {
+			this(lane, vmid, null);
+		}
+
+		TestCommand(CommandLane lane, String vmid, String user) {
+			super(null, new VmInfoBean(vmid, null, true, null));
+			this.lane = lane;
+			this.user = user;
+		}
+
+		@Override
+		public void execute() {
+		}
+
+		@Override
+		public void cleanupOnFailed() {
+		}
+
+		@Override
+		public CommandLane getLane() {
+			return lane;
+		}
+
+		@Override
+		public String getCoalesceKey() {
+			return (lane == CommandLane.QUERY) ? vminfo.getVmid() : null;
+		}
+
+		@Override
+		public String getOperator() {
+			return user;
+		}
+	}
+
+	/* queries run one at a time and two may wait, one control command may wait */
+	private static CommandQueue queue(long queryFreshInMillis, int maxMailboxDepth, boolean fairShare,
+			Map<String, Integer> userWeights, int maxRunningPerUser) {
+		Map<CommandLane, Integer> maxWorkers = new EnumMap<CommandLane, Integer>(CommandLane.class);
+		Map<CommandLane, Integer> capacity = new EnumMap<CommandLane, Integer>(CommandLane.class);
+		Map<CommandLane, Long> freshInMillis = new EnumMap<CommandLane, Long>(CommandLane.class);
+		for (CommandLane lane : CommandLane.values()) {
+			maxWorkers.put(lane, 0);
+			capacity.put(lane, 10);
+			freshInMillis.put(lane, 0L);
+		}
+		maxWorkers.put(CommandLane.QUERY, 1);
+		capacity.put(CommandLane.QUERY, 2);
+		capacity.put(CommandLane.CONTROL, 1);
+		freshInMillis.put(CommandLane.QUERY, queryFreshInMillis);
+		return new CommandQueue(maxWorkers, capacity, freshInMillis, maxMailboxDepth, fairShare,
+			userWeights, maxRunningPerUser);
+	}
+
+	private static CommandQueue queue(long queryFreshInMillis, int maxMailboxDepth) {
+		return queue(queryFreshInMillis, maxMailboxDepth, false, Collections.<String, Integer>emptyMap(), 0);
+	}
+
+	private static CommandQueue queue(long queryFreshInMillis) {
+		return queue(queryFreshInMillis, 0);
+	}
+
+	private static CommandQueue queue() {
+		return queue(0);
+	}
+
+	private static String vmidOf(CommandQueue.Entry entry) {
+		return entry.getCommand().vminfo.getVmid();
+	}
+
+	private static CommandLane laneOf(CommandQueue.Entry entry) {
+		return entry.getCommand().getLane();
+	}
+
+	@Test
+	public void testLanesInPriorityOrder() throws Exception {
+		CommandQueue queue = queue();
+		queue.offer(new TestCommand(CommandLane.QUERY, "vmid-0"));
+		queue.offer(new TestCommand(CommandLane.MAINTENANCE, "vmid-1"));
+		queue.offer(new TestCommand(CommandLane.PROVISION, "vmid-2"));
+		queue.offer(new TestCommand(CommandLane.CONTROL, "vmid-3"));
+
+		Assert.assertEquals(CommandLane.CONTROL, laneOf(queue.take()));
+		Assert.assertEquals(CommandLane.PROVISION, laneOf(queue.take()));
+		Assert.assertEquals(CommandLane.MAINTENANCE, laneOf(queue.take()));
+		Assert.assertEquals(CommandLane.QUERY, laneOf(queue.take()));
+	}
+
+	@Test
+	public void testLaneWorkerLimit() throws Exception {
+		final CommandQueue queue = queue();
+		queue.offer(new TestCommand(CommandLane.QUERY, "vmid-0"));
+		queue.offer(new TestCommand(CommandLane.QUERY, "vmid-1"));
+		CommandQueue.Entry first = queue.take();
+
+		ExecutorService worker = Executors.newSingleThreadExecutor();
+		Callable<CommandQueue.Entry> take = new Callable<CommandQueue.Entry>() {
+			@Override
+			public CommandQueue.Entry call() throws Exception {
+				return queue.take();
+			}
+		};
+		try {
+			Future<CommandQueue.Entry> second = worker.submit(take);
+			try {
+				second.get(200, TimeUnit.MILLISECONDS);
+				Assert.fail("second query should wait for the first one");
+			} catch (TimeoutException e) {
+				// expected
+			}
+			// the waiting worker is not held up by the busy lane
+			queue.offer(new TestCommand(CommandLane.PROVISION, "vmid-2"));
+			Assert.assertEquals(CommandLane.PROVISION, laneOf(second.get(5, TimeUnit.SECONDS)));
+
+			Future<CommandQueue.Entry> third = worker.submit(take);
+			queue.done(first, true);
+			Assert.assertEquals("vmid-1", third.get(5, TimeUnit.SECONDS).getCommand().vminfo.getVmid());
+		} finally {
+			worker.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testCoalesceAndShedQueries() throws Exception {
+		CommandQueue queue = queue();
+		Assert.assertEquals(CommandQueue.Result.QUEUED, queue.offer(new TestCommand(CommandLane.QUERY, "vmid-0")));
+		Assert.assertEquals(CommandQueue.Result.COALESCED, queue.offer(new TestCommand(CommandLane.QUERY, "vmid-0")));
+		Assert.assertEquals(CommandQueue.Result.QUEUED, queue.offer(new TestCommand(CommandLane.QUERY, "vmid-1")));
+		Assert.assertEquals(CommandQueue.Result.DROPPED, queue.offer(new TestCommand(CommandLane.QUERY, "vmid-2")));
+
+		// while running it is still coalesced, once done it can be queued again
+		CommandQueue.Entry entry = queue.take();
+		Assert.assertEquals(CommandQueue.Result.COALESCED, queue.offer(new TestCommand(CommandLane.QUERY, "vmid-0")));
+		queue.done(entry, true);
+		Assert.assertEquals(CommandQueue.Result.QUEUED, queue.offer(new TestCommand(CommandLane.QUERY, "vmid-0")));
+
+		CommandQueue.LaneStats query = queue.getStats(4).getLanes().get(CommandLane.QUERY.ordinal());
+		Assert.assertEquals(6, query.getSubmitted());
+		Assert.assertEquals(2, query.getCoalesced());
+		Assert.assertEquals(1, query.getRejected());
+		Assert.assertEquals(2, query.getQueued());
+	}
+
+	@Test
+	public void testCoalescedOperationFollowsCommand() throws Exception {
+		CommandQueue queue = queue();
+		OperationTracker tracker = new OperationTracker(10);
+		TestCommand first = new TestCommand(CommandLane.QUERY, "vmid-0");
+		TestCommand second = new TestCommand(CommandLane.QUERY, "vmid-0");
+		queue.offer(first);
+		Operation operation = tracker.track(second, "alice");
+
+		Assert.assertEquals(CommandQueue.Result.COALESCED, queue.offer(second));
+		Assert.assertEquals(1, first.getCoalesced().size());
+		Assert.assertSame(operation, first.getCoalesced().get(0));
+	}
+
+	@Test
+	public void testFreshnessWindow() throws Exception {
+		CommandQueue queue = queue(200);
+		queue.offer(new TestCommand(CommandLane.QUERY, "vmid-0"));
+		queue.offer(new TestCommand(CommandLane.QUERY, "vmid-1"));
+		queue.done(queue.take(), true);
+		queue.done(queue.take(), false);
+
+		// a failed query is repeated right away, a successful one only once it got stale
+		Assert.assertEquals(CommandQueue.Result.FRESH, queue.offer(new TestCommand(CommandLane.QUERY, "vmid-0")));
+		Assert.assertEquals(CommandQueue.Result.QUEUED, queue.offer(new TestCommand(CommandLane.QUERY, "vmid-1")));
+		Thread.sleep(250);
+		Assert.assertEquals(CommandQueue.Result.QUEUED, queue.offer(new TestCommand(CommandLane.QUERY, "vmid-0")));
+
+		CommandQueue.LaneStats query = queue.getStats(4).getLanes().get(CommandLane.QUERY.ordinal());
+		Assert.assertEquals(1, query.getFresh());
+		Assert.assertEquals(200, query.getFreshInMs());
+		Assert.assertEquals(1, queue.getStats(4).getCommands().get("TestCommand").getFresh());
+	}
+
+	@Test(expected = CommandQueueFullException.class)
+	public void testRejectWhenFull() throws Exception {
+		CommandQueue queue = queue();
+		queue.offer(new TestCommand(CommandLane.CONTROL, "vmid-0"));
+		queue.offer(new TestCommand(CommandLane.CONTROL, "vmid-1"));
+	}
+
+	@Test
+	public void testCommandTypeStats() throws Exception {
+		CommandQueue queue = queue();
+		queue.offer(new TestCommand(CommandLane.PROVISION, "vmid-0"));
+		queue.offer(new TestCommand(CommandLane.PROVISION, "vmid-1"));
+		Thread.sleep(20);
+		CommandQueue.Entry entry = queue.take();
+
+		CommandQueue.CommandTypeStats stats = queue.getStats(4).getCommands().get("TestCommand");
+		Assert.assertEquals(2, stats.getSubmitted());
+		Assert.assertEquals(1, stats.getQueued());
+		Assert.assertEquals(1, stats.getRunning());
+		Assert.assertEquals(1, stats.getWaitTime().getCount());
+		Assert.assertTrue(stats.getWaitTime().getMaxInMs() >= 20);
+
+		queue.done(entry, true);
+		Assert.assertEquals(0, queue.getStats(4).getCommands().get("TestCommand").getRunning());
+	}
+
+	@Test
+	public void testCloseDrainsQueue() throws Exception {
+		CommandQueue queue = queue();
+		queue.offer(new TestCommand(CommandLane.PROVISION, "vmid-0"));
+		queue.close();
+		try {
+			queue.offer(new TestCommand(CommandLane.QUERY, "vmid-1"));
+			Assert.fail("closed queue should reject commands");
+		} catch (CommandQueueFullException e) {
+			// expected
+		}
+		Assert.assertNotNull(queue.take());
+		Assert.assertNull(queue.take());
+	}
+
+	@Test
+	public void testCommandsOfOneVmInOrder() throws Exception {
+		CommandQueue queue = queue();
+		HypervisorCommand launch = new TestCommand(CommandLane.PROVISION, "vmid-0");
+		HypervisorCommand stop = new TestCommand(CommandLane.CONTROL, "vmid-0");
+		queue.offer(launch);
+		queue.offer(stop);
+		queue.offer(new TestCommand(CommandLane.PROVISION, "vmid-1"));
+		Assert.assertEquals(2, queue.getMailboxDepth("vmid-0"));
+
+		// the stop waits behind the launch although its lane comes first
+		CommandQueue.Entry first = queue.take();
+		Assert.assertSame(launch, first.getCommand());
+		CommandQueue.Entry other = queue.take();
+		Assert.assertEquals("vmid-1", vmidOf(other));
+		Assert.assertEquals(2, queue.getStats(4).getMailboxes().get("vmid-0").intValue());
+
+		// a retry keeps its place
+		queue.done(first, false, true);
+		Assert.assertEquals(CommandQueue.Result.QUEUED, queue.offer(launch));
+		first = queue.take();
+		Assert.assertSame(launch, first.getCommand());
+
+		queue.done(first, true);
+		Assert.assertSame(stop, queue.take().getCommand());
+		Assert.assertEquals(1, queue.getMailboxDepth("vmid-0"));
+		queue.done(other, true);
+		Assert.assertFalse(queue.getStats(4).getMailboxes().containsKey("vmid-1"));
+	}
+
+	@Test
+	public void testMailboxDepthLimit() throws Exception {
+		CommandQueue queue = queue(0, 2);
+		queue.offer(new TestCommand(CommandLane.PROVISION, "vmid-0"));
+		queue.offer(new TestCommand(CommandLane.MAINTENANCE, "vmid-0"));
+		try {
+			queue.offer(new TestCommand(CommandLane.PROVISION, "vmid-0"));
+			Assert.fail("mailbox of vmid-0 should be full");
+		} catch (CommandQueueFullException e) {
+			// expected
+		}
+		// a full mailbox only sheds queries, and does not hold up other VMs
+		Assert.assertEquals(CommandQueue.Result.DROPPED, queue.offer(new TestCommand(CommandLane.QUERY, "vmid-0")));
+		Assert.assertEquals(CommandQueue.Result.QUEUED, queue.offer(new TestCommand(CommandLane.QUERY, "vmid-1")));
+
+		queue.done(queue.take(), true);
+		Assert.assertEquals(1, queue.getMailboxDepth("vmid-0"));
+		Assert.assertEquals(CommandQueue.Result.QUEUED,
+			queue.offer(new TestCommand(CommandLane.PROVISION, "vmid-0")));
+		Assert.assertEquals(2, queue.getStats(4).getMaxMailboxDepth());
+	}
+
+	@Test
+	public void testCloseHandsOutWaitingCommands() throws Exception {
+		CommandQueue queue = queue();
+		queue.offer(new TestCommand(CommandLane.PROVISION, "vmid-0"));
+		queue.offer(new TestCommand(CommandLane.CONTROL, "vmid-0"));
+		CommandQueue.Entry first = queue.take();
+		queue.close();
+		queue.done(first, true);
+		Assert.assertEquals(CommandLane.CONTROL, laneOf(queue.take()));
+		Assert.assertNull(queue.take());
+	}
+
+	@Test
+	public void testFairShareBetweenUsers() throws Exception {
+		CommandQueue queue = queue(0, 0, true, Collections.singletonMap("admin", 2), 0);
+		for (int i = 0; i < 4; i++)
+			queue.offer(new TestCommand(CommandLane.PROVISION, "a-" + i, "alice"));
+		for (int i = 0; i < 2; i++)
+			queue.offer(new TestCommand(CommandLane.PROVISION, "b-" + i, "bob"));
+		for (int i = 0; i < 3; i++)
+			queue.offer(new TestCommand(CommandLane.PROVISION, "c-" + i, "admin"));
+
+		// alice queued first but does not hold up bob, the admin takes two per turn
+		StringBuilder order = new StringBuilder();
+		CommandQueue.Entry entry;
+		while ((entry = queue.poll()) != null)
+			order.append(vmidOf(entry)).append(' ');
+		Assert.assertEquals("a-0 b-0 c-0 c-1 a-1 b-1 c-2 a-2 a-3", order.toString().trim());
+	}
+
+	@Test
+	public void testUserConcurrencyLimit() throws Exception {
+		CommandQueue queue = queue(0, 0, true, Collections.<String, Integer>emptyMap(), 2);
+		for (int i = 0; i < 3; i++)
+			queue.offer(new TestCommand(CommandLane.PROVISION, "a-" + i, "alice"));
+		queue.offer(new TestCommand(CommandLane.CONTROL, "b-0", "bob"));
+
+		Assert.assertEquals("b-0", vmidOf(queue.poll()));
+		CommandQueue.Entry first = queue.poll();
+		Assert.assertEquals("a-0", vmidOf(first));
+		Assert.assertEquals("a-1", vmidOf(queue.poll()));
+		// alice is at her limit although workers are free
+		Assert.assertNull(queue.poll());
+		Assert.assertEquals(2, queue.getStats(4).getRunningByUser().get("alice").intValue());
+
+		queue.done(first, true);
+		Assert.assertEquals("a-2", vmidOf(queue.poll()));
+	}
+}
@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.hyper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.indiana.d2i.sloan.bean.VmInfoBean;
+
+/**
+ * Replays a heavy user flooding the hypervisor workers with launches while a
+ * light user launches a capsule every now and then, and reports the latency
+ * of the light user from being queued to being done. Time is simulated, the
+ * workers take commands from a {@link CommandQueue} as they free up.
+ *
+ * Run main with a seed and a number of heavy commands to replay another
+ * trace.
+ */
+public class TestFairShareSimulation {
+	private static Logger logger = LoggerFactory.getLogger(TestFairShareSimulation.class);
+	private static final long SEED = 20141021L;
+	private static final int WORKERS = 16;
+	private static final int HEAVY_COMMANDS = Integer.getInteger("simulation.heavy.commands", 2000);
+	private static final int LIGHT_COMMANDS = 40;
+	private static final long LIGHT_PERIOD_MS = 250;
+	/* a launch takes 50 to 150 ms */
+	private static final long MIN_SERVICE_MS = 50;
+	private static final long MAX_SERVICE_MS = 150;
+	private static final String HEAVY = "heavy";
+	private static final String LIGHT = "light";
+
+	private enum Dispatch {
+		FIFO, FAIR_SHARE, FAIR_SHARE_CAPPED
+	}
+
+	static class Report {
+		final Dispatch dispatch;
+		final List<Long> lightLatencies = new ArrayList<Long>();
+		long heavyDoneAt = 0, allDoneAt = 0;
+
+		Report(Dispatch dispatch) {
+			this.dispatch = dispatch;
+		}
+
+		long lightPercentile(double p) {
+			List<Long> sorted = new ArrayList<Long>(lightLatencies);
+			Collections.sort(sorted);
+			return sorted.get(Math.max(0, (int) Math.ceil(p * sorted.size()) - 1));
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-17s light user p50 %6d ms  p99 %6d ms  max %6d ms  "
+					+ "heavy user done after %6d ms", dispatch, lightPercentile(0.5),
+					lightPercentile(0.99), lightPercentile(1.0), heavyDoneAt);
+		}
+	}
+
+	private static class SimCommand extends HypervisorCommand {
+		final String user;
+		final long queuedAt;
+		final long serviceMs;
+
+		SimCommand(String user, String vmid, long queuedAt, long serviceMs) {
+			super(null, new VmInfoBean(vmid, null, true, null));
+			this.user = user;
+			this.queuedAt = queuedAt;
+			this.serviceMs = serviceMs;
+		}
+
+		@Override
+		public void execute() {
+		}
+
+		@Override
+		public void cleanupOnFailed() {
+		}
+
+		@Override
+		public CommandLane getLane() {
+			return CommandLane.CONTROL;
+		}
+
+		@Override
+		public String getOperator() {
+			return user;
+		}
+	}
+
+	private static class Completion implements Comparable<Completion> {
+		final long at;
+		final CommandQueue.Entry entry;
+
+		Completion(long at, CommandQueue.Entry entry) {
+			this.at = at;
+			this.entry = entry;
+		}
+
+		@Override
+		public int compareTo(Completion other) {
+			return Long.compare(at, other.at);
+		}
+	}
+
+	private static CommandQueue queue(Dispatch dispatch) {
+		Map<CommandLane, Integer> maxWorkers = new EnumMap<CommandLane, Integer>(CommandLane.class);
+		Map<CommandLane, Integer> capacity = new EnumMap<CommandLane, Integer>(CommandLane.class);
+		Map<CommandLane, Long> freshInMillis = new EnumMap<CommandLane, Long>(CommandLane.class);
+		for (CommandLane lane : CommandLane.values()) {
+			maxWorkers.put(lane, 0);
+			capacity.put(lane, HEAVY_COMMANDS + LIGHT_COMMANDS);
+			freshInMillis.put(lane, 0L);
+		}
+		return new CommandQueue(maxWorkers, capacity, freshInMillis, 0, dispatch != Dispatch.FIFO,
+			Collections.<String, Integer>emptyMap(),
+			(dispatch == Dispatch.FAIR_SHARE_CAPPED) ? WORKERS / 2 : 0);
+	}
+
+	static Report simulate(Dispatch dispatch, long seed, int heavyCommands) throws Exception {
+		Random random = new Random(seed);
+		CommandQueue queue = queue(dispatch);
+		Report report = new Report(dispatch);
+
+		// the heavy user queues all its launches at once
+		for (int i = 0; i < heavyCommands; i++)
+			queue.offer(new SimCommand(HEAVY, "heavy-" + i, 0, serviceMs(random)));
+
+		PriorityQueue<Completion> running = new PriorityQueue<Completion>();
+		int light = 0;
+		long now = 0;
+		while (true) {
+			while (!running.isEmpty() && running.peek().at <= now) {
+				CommandQueue.Entry entry = running.poll().entry;
+				queue.done(entry, true);
+				SimCommand command = (SimCommand) entry.getCommand();
+				if (command.user.equals(LIGHT))
+					report.lightLatencies.add(now - command.queuedAt);
+				else
+					report.heavyDoneAt = now;
+				report.allDoneAt = now;
+			}
+			while (light < LIGHT_COMMANDS && light * LIGHT_PERIOD_MS <= now) {
+				queue.offer(new SimCommand(LIGHT, "light-" + light, now, serviceMs(random)));
+				light++;
+			}
+			CommandQueue.Entry entry;
+			while (running.size() < WORKERS && (entry = queue.poll()) != null)
+				running.add(new Completion(now + ((SimCommand) entry.getCommand()).serviceMs, entry));
+
+			long next = Long.MAX_VALUE;
+			if (!running.isEmpty())
+				next = running.peek().at;
+			if (light < LIGHT_COMMANDS)
+				next = Math.min(next, light * LIGHT_PERIOD_MS);
+			if (next == Long.MAX_VALUE)
+				break;
+			now = next;
+		}
+		return report;
+	}
+
+	private static long serviceMs(Random random) {
+		return MIN_SERVICE_MS + random.nextInt((int) (MAX_SERVICE_MS - MIN_SERVICE_MS + 1));
+	}
+
+	static Map<Dispatch, Report> simulateAll(long seed, int heavyCommands) throws Exception {
+		Map<Dispatch, Report> reports = new LinkedHashMap<Dispatch, Report>();
+		for (Dispatch dispatch : Dispatch.values())
+			reports.put(dispatch, simulate(dispatch, seed, heavyCommands));
+		return reports;
+	}
+
+	@Test
+	public void testLightUserIsNotHeldUp() throws Exception {
+		Map<Dispatch, Report> reports = simulateAll(SEED, HEAVY_COMMANDS);
+		for (Report report : reports.values())
+			logger.info(report.toString());
+
+		Report fifo = reports.get(Dispatch.FIFO);
+		Report fair = reports.get(Dispatch.FAIR_SHARE);
+		Report capped = reports.get(Dispatch.FAIR_SHARE_CAPPED);
+		for (Report report : reports.values())
+			Assert.assertEquals(LIGHT_COMMANDS, report.lightLatencies.size());
+
+		// first in, first out the light user waits for the whole flood
+		Assert.assertTrue(fifo.lightPercentile(0.99) > 10 * fair.lightPercentile(0.99));
+		// with fair share it waits for a worker at most, with a cap not even that
+		Assert.assertTrue(fair.lightPercentile(0.99) <= 2 * MAX_SERVICE_MS);
+		Assert.assertTrue(capped.lightPercentile(1.0) <= MAX_SERVICE_MS);
+		// fair share does not leave workers idle, the cap trades the heavy
+		// user's throughput for the head room
+		Assert.assertTrue(fair.allDoneAt <= fifo.allDoneAt + MAX_SERVICE_MS);
+		Assert.assertTrue(capped.heavyDoneAt > fair.heavyDoneAt);
+	}
+
+	public static void main(String[] args) throws Exception {
+		long seed = (args.length > 0) ? Long.parseLong(args[0]) : SEED;
+		int heavyCommands = (args.length > 1) ? Integer.parseInt(args[1]) : HEAVY_COMMANDS;
+		for (Report report : simulateAll(seed, heavyCommands).values())
+			logger.info(report.toString());
+	}
+}
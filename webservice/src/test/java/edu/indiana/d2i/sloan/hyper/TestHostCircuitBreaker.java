@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.hyper;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.sloan.Constants;
+import edu.indiana.d2i.sloan.exception.HostUnavailableException;
+import edu.indiana.d2i.sloan.exception.ScriptCmdErrorException;
+import edu.indiana.d2i.sloan.utils.RetryPolicy;
+
+public class TestHostCircuitBreaker {
+	private final AtomicLong now = new AtomicLong(0);
+
+	private HostCircuitBreaker breaker(int maxCalls) {
+		return new HostCircuitBreaker(true, 10, 4, 0.5, 1000, maxCalls, 0,
+			RetryPolicy.parseExceptionNames(Constants.DEFAULT_HOST_BREAKER_FAILURE_EXPS), now::get);
+	}
+
+	private static void fail(HostCircuitBreaker breaker, String host, Exception e) {
+		try {
+			breaker.call(host, () -> {
+				throw e;
+			});
+			Assert.fail("call should fail");
+		} catch (Exception ex) {
+			Assert.assertSame(e, ex);
+		}
+	}
+
+	@Test
+	public void testOpenAndRecover() throws Exception {
+		HostCircuitBreaker breaker = breaker(4);
+		breaker.call("h1", () -> "ok");
+		breaker.call("h1", () -> "ok");
+		fail(breaker, "h1", new IOException("connection refused"));
+		Assert.assertEquals(HostCircuitBreaker.State.CLOSED, breaker.getState("h1"));
+		fail(breaker, "h1", new IOException("connection refused"));
+		Assert.assertEquals(HostCircuitBreaker.State.OPEN, breaker.getState("h1"));
+		Assert.assertFalse(breaker.allowsCalls("h1"));
+		Assert.assertTrue(breaker.allowsCalls("h2"));
+
+		// fails fast without calling the host
+		try {
+			breaker.call("h1", () -> {
+				throw new AssertionError("host is called");
+			});
+			Assert.fail("breaker should be open");
+		} catch (HostUnavailableException e) {
+		}
+		Assert.assertEquals("ok", breaker.call("h2", () -> "ok"));
+
+		// a failed probe opens the breaker again
+		now.addAndGet(1000);
+		Assert.assertTrue(breaker.allowsCalls("h1"));
+		fail(breaker, "h1", new IOException("connection refused"));
+		Assert.assertEquals(HostCircuitBreaker.State.OPEN, breaker.getState("h1"));
+
+		now.addAndGet(1000);
+		Assert.assertEquals("ok", breaker.call("h1", () -> "ok"));
+		Assert.assertEquals(HostCircuitBreaker.State.CLOSED, breaker.getState("h1"));
+		for (HostCircuitBreaker.HostStats stats : breaker.getStats()) {
+			if (stats.getHost().equals("h1")) {
+				Assert.assertEquals(2, stats.getTimesOpened());
+				Assert.assertEquals(1, stats.getRejectedCalls());
+				Assert.assertEquals(0, stats.getWindowCalls());
+			}
+		}
+	}
+
+	@Test
+	public void testScriptErrorsDoNotOpen() throws Exception {
+		HostCircuitBreaker breaker = breaker(4);
+		for (int i = 0; i < 10; i++)
+			fail(breaker, "h1", new ScriptCmdErrorException("exit code 1"));
+		Assert.assertEquals(HostCircuitBreaker.State.CLOSED, breaker.getState("h1"));
+	}
+
+	@Test
+	public void testBulkheadAndSingleProbe() throws Exception {
+		final HostCircuitBreaker breaker = breaker(1);
+		final CountDownLatch running = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Thread slow = new Thread(() -> {
+			try {
+				breaker.call("h1", () -> {
+					running.countDown();
+					release.await();
+					return null;
+				});
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		slow.start();
+		running.await();
+
+		// the host runs its one call, others fail at once while other hosts are called
+		try {
+			breaker.call("h1", () -> "ok");
+			Assert.fail("bulkhead should be full");
+		} catch (HostUnavailableException e) {
+		}
+		Assert.assertEquals("ok", breaker.call("h2", () -> "ok"));
+		release.countDown();
+		slow.join();
+		Assert.assertEquals("ok", breaker.call("h1", () -> "ok"));
+
+		// one call succeeded, three failures make the minimum calls
+		for (int i = 0; i < 3; i++)
+			fail(breaker, "h2", new IOException("timeout"));
+		Assert.assertEquals(HostCircuitBreaker.State.OPEN, breaker.getState("h2"));
+		now.addAndGet(1000);
+
+		// only one call probes a half open host
+		final CountDownLatch probing = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		Thread probe = new Thread(() -> {
+			try {
+				breaker.call("h2", () -> {
+					probing.countDown();
+					done.await();
+					return null;
+				});
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		probe.start();
+		probing.await();
+		Assert.assertEquals(HostCircuitBreaker.State.HALF_OPEN, breaker.getState("h2"));
+		try {
+			breaker.call("h2", () -> "ok");
+			Assert.fail("only one probe is let in");
+		} catch (HostUnavailableException e) {
+		}
+		done.countDown();
+		probe.join();
+		Assert.assertEquals(HostCircuitBreaker.State.CLOSED, breaker.getState("h2"));
+	}
+}
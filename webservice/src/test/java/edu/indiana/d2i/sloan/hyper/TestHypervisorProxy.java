@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.hyper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.sloan.bean.VmInfoBean;
+import edu.indiana.d2i.sloan.utils.RetryPolicy;
+
+public class TestHypervisorProxy {
+	private static final long RETRY_WAIT_MS = 1000;
+
+	/* fails with an unreachable host the first times it runs */
+	private static class FlakyCommand extends HypervisorCommand {
+		private final String name;
+		private final int failures;
+		private final List<String> runs;
+		private final CountDownLatch done;
+		final AtomicInteger calls = new AtomicInteger(0);
+
+		FlakyCommand(String vmid, String name, int failures, List<String> runs, CountDownLatch done) {
+			super(null, new VmInfoBean(vmid, null, true, null));
+			this.name = name;
+			this.failures = failures;
+			this.runs = runs;
+			this.done = done;
+		}
+
+		@Override
+		public void execute() throws Exception {
+			runs.add(vminfo.getVmid() + " " + name);
+			if (calls.incrementAndGet() <= failures)
+				throw new IOException("host is unreachable");
+			done.countDown();
+		}
+
+		@Override
+		public void cleanupOnFailed() {
+		}
+	}
+
+	private static CommandQueue queue() {
+		Map<CommandLane, Integer> maxWorkers = new EnumMap<CommandLane, Integer>(CommandLane.class);
+		Map<CommandLane, Integer> capacity = new EnumMap<CommandLane, Integer>(CommandLane.class);
+		Map<CommandLane, Long> freshInMillis = new EnumMap<CommandLane, Long>(CommandLane.class);
+		for (CommandLane lane : CommandLane.values()) {
+			maxWorkers.put(lane, 0);
+			capacity.put(lane, 100);
+			freshInMillis.put(lane, 0L);
+		}
+		return new CommandQueue(maxWorkers, capacity, freshInMillis);
+	}
+
+	@Test
+	public void testWorkersAreFreeWhileCommandsWait() throws Exception {
+		int numCommands = 20;
+		HypervisorProxy proxy = new HypervisorProxy(2, queue(),
+			new RetryPolicy(3, RETRY_WAIT_MS, RETRY_WAIT_MS, 1.0, 0.0, null), null);
+		List<String> runs = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch done = new CountDownLatch(numCommands + 1);
+
+		List<FlakyCommand> flaky = new ArrayList<FlakyCommand>();
+		for (int i = 0; i < numCommands; i++) {
+			FlakyCommand command = new FlakyCommand("vm-" + i, "launch", 1, runs, done);
+			flaky.add(command);
+			proxy.addCommand(command);
+		}
+		// queued behind the failing launch of the same VM
+		proxy.addCommand(new FlakyCommand("vm-0", "stop", 0, runs, done));
+
+		// every command failed once and waits for its retry, the two workers
+		// still run a command that comes in meanwhile
+		CountDownLatch probed = new CountDownLatch(1);
+		proxy.addCommand(new FlakyCommand("vm-probe", "launch", 0, runs, probed));
+		Assert.assertTrue(probed.await(RETRY_WAIT_MS / 2, TimeUnit.MILLISECONDS));
+		for (FlakyCommand command : flaky)
+			Assert.assertTrue(command.calls.get() <= 1);
+
+		Assert.assertTrue(done.await(5 * RETRY_WAIT_MS, TimeUnit.MILLISECONDS));
+		for (FlakyCommand command : flaky)
+			Assert.assertEquals(2, command.calls.get());
+
+		// the retry kept the head of the mailbox, the stop waited for it
+		List<String> vm0 = new ArrayList<String>();
+		synchronized (runs) {
+			for (String run : runs)
+				if (run.startsWith("vm-0 "))
+					vm0.add(run);
+		}
+		Assert.assertEquals(Arrays.asList("vm-0 launch", "vm-0 launch", "vm-0 stop"), vm0);
+		proxy.shutdown();
+	}
+}
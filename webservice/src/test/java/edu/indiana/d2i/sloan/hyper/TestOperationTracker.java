@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.hyper;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.sloan.bean.OperationBean;
+import edu.indiana.d2i.sloan.bean.VmInfoBean;
+import edu.indiana.d2i.sloan.vm.VMState;
+
+public class TestOperationTracker {
+	private static class TestCommand extends HypervisorCommand {
+		TestCommand(String vmid) {
+			super(null, new VmInfoBean(vmid, null, true, null));
+		}
+
+		@Override
+		public void execute() {
+		}
+
+		@Override
+		public void cleanupOnFailed() {
+		}
+	}
+
+	@Test
+	public void testOperationLifecycle() throws Exception {
+		OperationTracker tracker = new OperationTracker(10);
+		TestCommand command = new TestCommand("vm1");
+		Operation operation = tracker.track(command, "alice");
+
+		Assert.assertSame(operation, command.getOperation());
+		Assert.assertSame(operation, tracker.get(operation.getId()));
+		Assert.assertEquals("vm1", operation.getVmid());
+		Assert.assertEquals("alice", operation.getOperator());
+
+		OperationBean bean = operation.toBean();
+		Assert.assertEquals("test", bean.getCommand());
+		Assert.assertEquals(Operation.Status.QUEUED.name(), bean.getStatus());
+
+		operation.started();
+		Assert.assertEquals(Operation.Status.RUNNING.name(), operation.toBean().getStatus());
+		Assert.assertFalse(operation.isDone());
+
+		operation.complete(true, VMState.RUNNING, 0, "launched", null);
+		OperationBean done = operation.getResult().get(1, TimeUnit.SECONDS);
+		Assert.assertEquals(Operation.Status.SUCCEEDED.name(), done.getStatus());
+		Assert.assertEquals(VMState.RUNNING, done.getVmState());
+		Assert.assertEquals(Integer.valueOf(0), done.getExitCode());
+		Assert.assertEquals("launched", done.getOutput());
+		Assert.assertSame(done, operation.toBean());
+	}
+
+	@Test
+	public void testEvictOldestFinishedFirst() {
+		OperationTracker tracker = new OperationTracker(2);
+		Operation running = tracker.track(new TestCommand("vm1"), "alice");
+		Operation finished = tracker.track(new TestCommand("vm2"), "alice");
+		finished.complete(false, VMState.ERROR, 1, "", "failed");
+
+		Operation added = tracker.track(new TestCommand("vm3"), "alice");
+		Assert.assertEquals(2, tracker.size());
+		Assert.assertSame(running, tracker.get(running.getId()));
+		Assert.assertNull(tracker.get(finished.getId()));
+		Assert.assertSame(added, tracker.get(added.getId()));
+	}
+
+	@Test
+	public void testEvictEldestWhenNoneFinished() {
+		OperationTracker tracker = new OperationTracker(2);
+		Operation first = tracker.track(new TestCommand("vm1"), "alice");
+		Operation second = tracker.track(new TestCommand("vm2"), "alice");
+		Operation third = tracker.track(new TestCommand("vm3"), "alice");
+
+		Assert.assertEquals(2, tracker.size());
+		Assert.assertNull(tracker.get(first.getId()));
+		Assert.assertSame(second, tracker.get(second.getId()));
+		Assert.assertSame(third, tracker.get(third.getId()));
+
+		// waiters of an evicted operation still learn the result
+		first.complete(true, VMState.SHUTDOWN, 0, "", null);
+		Assert.assertTrue(first.isDone());
+	}
+}
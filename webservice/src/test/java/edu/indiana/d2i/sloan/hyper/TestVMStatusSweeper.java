@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.hyper;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.sloan.bean.VmInfoBean;
+import edu.indiana.d2i.sloan.bean.VmStateChangeBean;
+import edu.indiana.d2i.sloan.bean.VmUserRole;
+import edu.indiana.d2i.sloan.vm.VMMode;
+import edu.indiana.d2i.sloan.vm.VMRole;
+import edu.indiana.d2i.sloan.vm.VMState;
+
+public class TestVMStatusSweeper {
+	private static VmInfoBean vm(String vmid, String host, VMState state) {
+		List<VmUserRole> roles = Collections.singletonList(
+			new VmUserRole("owner@example.org", VMRole.OWNER, true, "owner-guid", true));
+		return new VmInfoBean(vmid, host, null, "/vms/" + vmid, "/path/to/image", "/path/to/policy",
+			2000, 2001, 2, 2048, 10, VMMode.MAINTENANCE, state, "ubuntu", "password",
+			"test-image", "ubuntu", "password", "test-policy", VMMode.MAINTENANCE, "DEMO",
+			null, null, null, null, null, null, null, null, true, roles, null);
+	}
+
+	@Test
+	public void testParseVmStatuses() {
+		Map<String, String> statuses = HypervisorResponse.BatchStatusParser.parse(
+			"/vms/a\tRunning\r\n/vms/b\tNot_Running\nWARN: something\n/vms/c\tMissing\n/vms/d\tUnknown");
+		Assert.assertEquals(3, statuses.size());
+		Assert.assertEquals(HypervisorResponse.STATUS_RUNNING, statuses.get("/vms/a"));
+		Assert.assertEquals(HypervisorResponse.STATUS_NOT_RUNNING, statuses.get("/vms/b"));
+		Assert.assertEquals(HypervisorResponse.STATUS_MISSING, statuses.get("/vms/c"));
+		Assert.assertTrue(HypervisorResponse.BatchStatusParser.parse("").isEmpty());
+	}
+
+	@Test
+	public void testGroupByHostSkipsPendingVms() {
+		Map<String, List<VmInfoBean>> vmsByHost = VMStatusSweeper.groupByHost(Arrays.asList(
+			vm("a", "host-1", VMState.RUNNING), vm("b", "host-1", VMState.LAUNCH_PENDING),
+			vm("c", "host-2", VMState.SHUTDOWN)));
+		Assert.assertEquals(2, vmsByHost.size());
+		Assert.assertEquals(1, vmsByHost.get("host-1").size());
+		Assert.assertEquals("a", vmsByHost.get("host-1").get(0).getVmid());
+		Assert.assertEquals("c", vmsByHost.get("host-2").get(0).getVmid());
+	}
+
+	@Test
+	public void testStateChanges() {
+		List<VmInfoBean> vms = Arrays.asList(
+			vm("stopped", "host", VMState.RUNNING),
+			vm("running", "host", VMState.RUNNING),
+			vm("restarted", "host", VMState.SHUTDOWN),
+			vm("gone", "host", VMState.SHUTDOWN),
+			vm("broken", "host", VMState.ERROR),
+			vm("unreported", "host", VMState.RUNNING));
+		Map<String, String> statuses = HypervisorResponse.BatchStatusParser.parse(
+			"/vms/stopped\tNot_Running\n/vms/running\tRunning\n/vms/restarted\tRunning\n"
+			+ "/vms/gone\tMissing\n/vms/broken\tMissing");
+
+		List<VmStateChangeBean> changes = VMStatusSweeper.getStateChanges(vms, statuses);
+		Assert.assertEquals(2, changes.size());
+		Assert.assertEquals("stopped", changes.get(0).getVmid());
+		Assert.assertEquals(VMState.RUNNING, changes.get(0).getFrom());
+		Assert.assertEquals(VMState.SHUTDOWN, changes.get(0).getTo());
+		Assert.assertEquals("owner-guid", changes.get(0).getOperator());
+		Assert.assertEquals(VMMode.NOT_DEFINED, changes.get(0).getToVmmode());
+		Assert.assertEquals("gone", changes.get(1).getVmid());
+		Assert.assertEquals(VMState.ERROR, changes.get(1).getTo());
+		Assert.assertNull(changes.get(1).getToVmmode());
+	}
+}
@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.result;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.indiana.d2i.sloan.bean.UploadStatusBean;
+import edu.indiana.d2i.sloan.exception.ResultUploadException;
+
+public class TestChunkedResultUpload {
+	private Path dir;
+	private ChunkedResultUpload uploads;
+	private byte[] content;
+	private String sha256;
+
+	@Before
+	public void before() throws Exception {
+		dir = Files.createTempDirectory("uploads");
+		uploads = new ChunkedResultUpload(dir, 60000);
+		content = new byte[200000];
+		new Random(7).nextBytes(content);
+		sha256 = ChunkedResultUpload.toHex(MessageDigest.getInstance("SHA-256").digest(content));
+	}
+
+	@After
+	public void after() throws IOException {
+		for (Path file : Files.newDirectoryStream(dir))
+			Files.delete(file);
+		Files.delete(dir);
+	}
+
+	private InputStream chunk(int from, int to) {
+		return new ByteArrayInputStream(Arrays.copyOfRange(content, from, to));
+	}
+
+	@Test
+	public void testChunksInOrder() throws Exception {
+		String id = uploads.init("vmid-0", content.length, sha256).getUploadId();
+		Assert.assertEquals(content.length, Files.size(dir.resolve(id + ".part")));
+
+		uploads.putChunk(id, 0, chunk(0, 70000));
+		UploadStatusBean status = uploads.putChunk(id, 70000, chunk(70000, content.length));
+		Assert.assertEquals(content.length, status.getNextOffset());
+
+		Path file = uploads.complete(id, null);
+		Assert.assertArrayEquals(content, Files.readAllBytes(file));
+		Files.delete(file);
+	}
+
+	@Test
+	public void testChunksOutOfOrderAndResent() throws Exception {
+		String id = uploads.init("vmid-0", content.length, null).getUploadId();
+		uploads.putChunk(id, 150000, chunk(150000, content.length));
+		uploads.putChunk(id, 0, chunk(0, 100000));
+		// resending part of what was hashed already
+		uploads.putChunk(id, 50000, chunk(50000, 120000));
+		UploadStatusBean status = uploads.putChunk(id, 120000, chunk(120000, 150000));
+		Assert.assertEquals(content.length, status.getReceived());
+
+		Path file = uploads.complete(id, sha256.toUpperCase());
+		Assert.assertArrayEquals(content, Files.readAllBytes(file));
+		Files.delete(file);
+	}
+
+	@Test
+	public void testResumeAfterDroppedConnection() throws Exception {
+		String id = uploads.init("vmid-0", content.length, sha256).getUploadId();
+		InputStream dropped = new InputStream() {
+			private final InputStream in = chunk(0, 130000);
+			private int read = 0;
+
+			@Override
+			public int read() throws IOException {
+				if (read++ >= 90000)
+					throw new IOException("connection reset");
+				return in.read();
+			}
+		};
+		try {
+			uploads.putChunk(id, 0, dropped);
+			Assert.fail();
+		} catch (IOException e) {
+			// expected
+		}
+
+		long next = uploads.getStatus(id).getNextOffset();
+		Assert.assertTrue(next > 0 && next <= 90000);
+		uploads.putChunk(id, next, chunk((int) next, content.length));
+		Path file = uploads.complete(id, null);
+		Assert.assertArrayEquals(content, Files.readAllBytes(file));
+		Files.delete(file);
+	}
+
+	@Test
+	public void testStalledClientDoesNotBlockResume() throws Exception {
+		final String id = uploads.init("vmid-0", content.length, sha256).getUploadId();
+		final CountDownLatch stalled = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final InputStream stalling = new InputStream() {
+			private final InputStream in = chunk(0, 1000);
+
+			@Override
+			public int read() throws IOException {
+				int b = in.read();
+				if (b >= 0)
+					return b;
+				stalled.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new IOException("read timed out");
+			}
+
+			@Override
+			public int read(byte[] buf, int off, int len) throws IOException {
+				int n = in.read(buf, off, len);
+				return (n > 0) ? n : read();
+			}
+		};
+		ExecutorService client = Executors.newSingleThreadExecutor();
+		try {
+			Future<UploadStatusBean> first = client.submit(new Callable<UploadStatusBean>() {
+				@Override
+				public UploadStatusBean call() throws Exception {
+					return uploads.putChunk(id, 0, stalling);
+				}
+			});
+			Assert.assertTrue(stalled.await(5, TimeUnit.SECONDS));
+
+			// the status and the resumed upload go on while the first client hangs
+			Assert.assertEquals(1000, uploads.getStatus(id).getNextOffset());
+			uploads.putChunk(id, 1000, chunk(1000, content.length));
+			Path file = uploads.complete(id, null);
+			Assert.assertArrayEquals(content, Files.readAllBytes(file));
+			Files.delete(file);
+
+			release.countDown();
+			try {
+				first.get(5, TimeUnit.SECONDS);
+				Assert.fail();
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof IOException);
+			}
+		} finally {
+			release.countDown();
+			client.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testChecksumMismatchDiscardsUpload() throws Exception {
+		String id = uploads.init("vmid-0", content.length, null).getUploadId();
+		content[10]++;
+		uploads.putChunk(id, 0, chunk(0, content.length));
+		try {
+			uploads.complete(id, sha256);
+			Assert.fail();
+		} catch (ResultUploadException e) {
+			// expected
+		}
+		Assert.assertFalse(Files.exists(dir.resolve(id + ".part")));
+	}
+
+	@Test(expected = ResultUploadException.class)
+	public void testIncompleteUploadCannotComplete() throws Exception {
+		String id = uploads.init("vmid-0", content.length, null).getUploadId();
+		uploads.putChunk(id, 0, chunk(0, 1000));
+		uploads.putChunk(id, 2000, chunk(2000, content.length));
+		uploads.complete(id, null);
+	}
+
+	@Test(expected = ResultUploadException.class)
+	public void testChunkPastEnd() throws Exception {
+		String id = uploads.init("vmid-0", 1000, null).getUploadId();
+		uploads.putChunk(id, 500, chunk(0, 1000));
+	}
+
+	@Test
+	public void testUnknownSize() throws Exception {
+		String id = uploads.init("vmid-0", -1, null).getUploadId();
+		uploads.putChunk(id, 0, chunk(0, content.length));
+		Path file = uploads.complete(id, sha256);
+		Assert.assertArrayEquals(content, Files.readAllBytes(file));
+		Files.delete(file);
+	}
+
+	@Test
+	public void testIdleUploadExpiresWithoutNewUpload() throws Exception {
+		ChunkedResultUpload expiring = new ChunkedResultUpload(dir, 50);
+		String id = expiring.init("vmid-0", content.length, null).getUploadId();
+		expiring.startExpiring(20);
+		try {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (Files.exists(dir.resolve(id + ".part")) && System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			Assert.assertFalse(Files.exists(dir.resolve(id + ".part")));
+			try {
+				expiring.getStatus(id);
+				Assert.fail("expired upload is still in progress");
+			} catch (ResultUploadException e) {
+				// expected
+			}
+		} finally {
+			expiring.shutdown();
+		}
+	}
+
+	@Test
+	public void testAddRange() {
+		TreeMap<Long, Long> ranges = new TreeMap<Long, Long>();
+		ChunkedResultUpload.addRange(ranges, 10, 20);
+		ChunkedResultUpload.addRange(ranges, 30, 40);
+		ChunkedResultUpload.addRange(ranges, 0, 5);
+		Assert.assertEquals(3, ranges.size());
+		ChunkedResultUpload.addRange(ranges, 5, 30);
+		Assert.assertEquals(1, ranges.size());
+		Assert.assertEquals(Long.valueOf(40), ranges.get(0L));
+	}
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.scheduler;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.indiana.d2i.sloan.bean.CreateVmRequestBean;
+import edu.indiana.d2i.sloan.bean.VmInfoBean;
+import edu.indiana.d2i.sloan.vm.VMPorts;
+
+/**
+ * Schedules VMs from many threads against simulated hosts and DB. Reserving
+ * ports holds the lock of one host and storing the VM holds no lock, so
+ * creates should only queue up behind the other creates on the same host.
+ * Instead of timing them, the simulated reservations or stores wait until
+ * a number of them are in progress at once, which they can only be if no
+ * lock is held across them.
+ */
+public class TestConcurrentScheduling {
+	private static Logger logger = LoggerFactory.getLogger(TestConcurrentScheduling.class);
+	private static final int NUM_REQUESTS = 48;
+	private static final int NUM_THREADS = 16;
+	private static final long MEET_TIMEOUT_IN_MS = 5000;
+
+	private static class SimulatedScheduler extends RoundRobinScheduler {
+		private final Map<String, List<VMPorts>> allocated = new HashMap<String, List<VMPorts>>();
+		private final Set<VMPorts> cancelled = Collections.synchronizedSet(new HashSet<VMPorts>());
+		private volatile boolean failStore = false;
+		/* if set, reservations or stores wait until the latch is counted down */
+		private volatile CountDownLatch reserving = null;
+		private volatile CountDownLatch storing = null;
+		/* reservations or stores that did not meet the others */
+		private final AtomicInteger missed = new AtomicInteger(0);
+
+		SimulatedScheduler(String[] hosts) {
+			super(hosts);
+			for (String host : hosts)
+				allocated.put(host, new ArrayList<VMPorts>());
+		}
+
+		@Override
+		protected VMPorts reservePorts(String vmid, String host) throws SQLException {
+			List<VMPorts> ports = allocated.get(host);
+			synchronized (ports) {
+				meet(reserving);
+				int n = ports.size();
+				VMPorts pair = new VMPorts(host, 2000 + 2 * n, 2001 + 2 * n);
+				ports.add(pair);
+				return pair;
+			}
+		}
+
+		@Override
+		protected void cancelPorts(VMPorts ports) {
+			cancelled.add(ports);
+		}
+
+		@Override
+		protected void storeVm(CreateVmRequestBean request, VMPorts vmhost, String createdAt)
+				throws SQLException {
+			meet(storing);
+			if (failStore)
+				throw new SQLException("simulated failure");
+		}
+
+		@Override
+		protected String getUserEmail(String userName) {
+			return userName + "@gmail.com";
+		}
+
+		private void meet(CountDownLatch latch) {
+			if (latch == null)
+				return;
+			latch.countDown();
+			try {
+				if (!latch.await(MEET_TIMEOUT_IN_MS, TimeUnit.MILLISECONDS))
+					missed.incrementAndGet();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static CreateVmRequestBean request(int index) {
+		return new CreateVmRequestBean("user-" + index, "image", "vmid-" + index, "vnc", "vncpwd",
+				1024, 1, 10, "/workdir", "DEMO", "title", true, null, null, null, null, null, null,
+				false, null);
+	}
+
+	private static String[] hosts(int numHosts) {
+		String[] hosts = new String[numHosts];
+		for (int i = 0; i < numHosts; i++)
+			hosts[i] = "host-" + i;
+		return hosts;
+	}
+
+	private static void createConcurrently(final SimulatedScheduler scheduler) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+		try {
+			List<Future<VmInfoBean>> futures = new ArrayList<Future<VmInfoBean>>();
+			for (int i = 0; i < NUM_REQUESTS; i++) {
+				final int index = i;
+				futures.add(pool.submit(new Callable<VmInfoBean>() {
+					@Override
+					public VmInfoBean call() throws Exception {
+						return scheduler.schedule(request(index));
+					}
+				}));
+			}
+
+			Set<String> seen = new HashSet<String>();
+			for (Future<VmInfoBean> future : futures) {
+				VmInfoBean vminfo = future.get();
+				Assert.assertTrue(seen.add(vminfo.getPublicip() + ":" + vminfo.getSshport()));
+				Assert.assertTrue(seen.add(vminfo.getPublicip() + ":" + vminfo.getVncport()));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testStoresHoldNoLock() throws Exception {
+		int numHosts = 4;
+		SimulatedScheduler scheduler = new SimulatedScheduler(hosts(numHosts));
+		// as many stores as threads, also of the same host, are in progress at once
+		scheduler.storing = new CountDownLatch(NUM_THREADS);
+		createConcurrently(scheduler);
+		logger.info(String.format("%d creates on %d hosts, %d stores did not meet the others",
+				NUM_REQUESTS, numHosts, scheduler.missed.get()));
+
+		Assert.assertEquals(0, scheduler.missed.get());
+		// round robin spreads the requests evenly
+		for (String host : hosts(numHosts))
+			Assert.assertEquals(NUM_REQUESTS / numHosts, scheduler.allocated.get(host).size());
+	}
+
+	@Test
+	public void testHostsReserveConcurrently() throws Exception {
+		int numHosts = 4;
+		SimulatedScheduler scheduler = new SimulatedScheduler(hosts(numHosts));
+		// one reservation per host is in progress at once, a host lock only
+		// holds up the creates on that host
+		scheduler.reserving = new CountDownLatch(numHosts);
+		createConcurrently(scheduler);
+
+		Assert.assertEquals(0, scheduler.missed.get());
+		for (String host : hosts(numHosts))
+			Assert.assertEquals(NUM_REQUESTS / numHosts, scheduler.allocated.get(host).size());
+	}
+
+	@Test
+	public void testPortsAreCancelledWhenStoreFails() throws Exception {
+		SimulatedScheduler scheduler = new SimulatedScheduler(hosts(2));
+		scheduler.failStore = true;
+		try {
+			scheduler.schedule(request(0));
+			Assert.fail("store failure should be reported");
+		} catch (SQLException e) {
+			// expected
+		}
+		Assert.assertEquals(1, scheduler.cancelled.size());
+		Assert.assertEquals(scheduler.allocated.get("host-0").get(0),
+				scheduler.cancelled.iterator().next());
+	}
+}
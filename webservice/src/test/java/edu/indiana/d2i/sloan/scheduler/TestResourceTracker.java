@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.scheduler;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.sloan.bean.HostCapacityBean;
+import edu.indiana.d2i.sloan.bean.VmFootprintBean;
+
+public class TestResourceTracker {
+	private static final List<String> HOSTS = Arrays.asList("host-0", "host-1");
+
+	private static ResourceTracker tracker(ResourceTracker.Policy policy, List<VmFootprintBean> vms) {
+		ResourceTracker tracker = new ResourceTracker(policy, 2.0, 1.0, 1.0, 100, 60000);
+		Assert.assertTrue(tracker.load(Arrays.asList(
+				new HostCapacityBean("host-0", 4, 8), new HostCapacityBean("host-1", 8, 16)),
+				vms, 0, System.currentTimeMillis()));
+		return tracker;
+	}
+
+	private static ResourceTracker.HostLoad load(ResourceTracker tracker, String host) {
+		for (ResourceTracker.HostLoad load : tracker.getHostLoads()) {
+			if (load.getHost().equals(host))
+				return load;
+		}
+		return null;
+	}
+
+	@Test
+	public void testLoadFromDB() {
+		ResourceTracker tracker = tracker(ResourceTracker.Policy.BEST_FIT, Arrays.asList(
+				new VmFootprintBean("vmid-0", "host-0", 2, 4096, 20),
+				new VmFootprintBean("vmid-1", "host-0", 1, 1024, 10),
+				new VmFootprintBean("vmid-2", "unknown", 1, 1024, 10)));
+		ResourceTracker.HostLoad host0 = load(tracker, "host-0");
+		Assert.assertEquals(3, host0.getCpus());
+		Assert.assertEquals(8, host0.getCpuCapacity());
+		Assert.assertEquals(5120, host0.getMemoryInMB());
+		Assert.assertEquals(8192, host0.getMemoryCapacityInMB());
+		Assert.assertEquals(30, host0.getDiskInGB());
+		Assert.assertEquals(0, load(tracker, "host-1").getCpus());
+	}
+
+	@Test
+	public void testBestFitAndLeastLoaded() {
+		List<VmFootprintBean> vms = Collections.singletonList(
+				new VmFootprintBean("vmid-0", "host-0", 2, 4096, 20));
+
+		// host-0 is left with less room
+		Assert.assertEquals("host-0", tracker(ResourceTracker.Policy.BEST_FIT, vms)
+				.place("vmid-1", 1, 1024, 10, HOSTS));
+		Assert.assertEquals("host-1", tracker(ResourceTracker.Policy.LEAST_LOADED, vms)
+				.place("vmid-1", 1, 1024, 10, HOSTS));
+	}
+
+	@Test
+	public void testRefuseWhenFull() {
+		ResourceTracker tracker = tracker(ResourceTracker.Policy.BEST_FIT,
+				Collections.<VmFootprintBean>emptyList());
+		// 16 GB memory on host-1 and no memory overcommit
+		Assert.assertEquals("host-1", tracker.place("vmid-0", 1, 16384, 10, HOSTS));
+		Assert.assertEquals("host-0", tracker.place("vmid-1", 1, 8192, 10, HOSTS));
+		Assert.assertNull(tracker.place("vmid-2", 1, 1024, 10, HOSTS));
+
+		tracker.remove("vmid-1");
+		Assert.assertEquals("host-0", tracker.place("vmid-2", 1, 1024, 10, HOSTS));
+		// disk of 100 GB per host is checked too
+		Assert.assertNull(tracker.place("vmid-3", 1, 1024, 95, HOSTS));
+	}
+
+	@Test
+	public void testMove() {
+		ResourceTracker tracker = tracker(ResourceTracker.Policy.BEST_FIT,
+				Collections.singletonList(new VmFootprintBean("vmid-0", "host-0", 2, 4096, 20)));
+		tracker.move("vmid-0", "host-1");
+		Assert.assertEquals(0, load(tracker, "host-0").getCpus());
+		Assert.assertEquals(2, load(tracker, "host-1").getCpus());
+		Assert.assertEquals(4096, load(tracker, "host-1").getMemoryInMB());
+	}
+
+	@Test
+	public void testRefreshKeepsRecentPlacements() {
+		ResourceTracker tracker = tracker(ResourceTracker.Policy.BEST_FIT,
+				Collections.<VmFootprintBean>emptyList());
+		List<HostCapacityBean> capacities = Arrays.asList(
+				new HostCapacityBean("host-0", 4, 8), new HostCapacityBean("host-1", 8, 16));
+		long readAt = tracker.modCount();
+		Assert.assertEquals("host-0", tracker.place("vmid-0", 2, 2048, 10, HOSTS));
+		// placement happened while the DB was read, it is applied on top
+		Assert.assertTrue(tracker.load(capacities, Collections.<VmFootprintBean>emptyList(),
+				readAt, System.currentTimeMillis()));
+		Assert.assertEquals(2, load(tracker, "host-0").getCpus());
+
+		// not stored yet but recent
+		readAt = tracker.modCount();
+		Assert.assertTrue(tracker.load(capacities, Collections.<VmFootprintBean>emptyList(),
+				readAt, System.currentTimeMillis()));
+		Assert.assertEquals(2, load(tracker, "host-0").getCpus());
+
+		// never stored
+		Assert.assertTrue(tracker.load(capacities, Collections.<VmFootprintBean>emptyList(),
+				tracker.modCount(), System.currentTimeMillis() + 60000));
+		Assert.assertEquals(0, load(tracker, "host-0").getCpus());
+	}
+
+	@Test
+	public void testRefreshKeepsChangesMadeWhileReading() {
+		List<HostCapacityBean> capacities = Arrays.asList(
+				new HostCapacityBean("host-0", 4, 8), new HostCapacityBean("host-1", 8, 16));
+		List<VmFootprintBean> stored = Arrays.asList(
+				new VmFootprintBean("vmid-0", "host-0", 2, 2048, 10),
+				new VmFootprintBean("vmid-1", "host-0", 1, 1024, 10));
+		ResourceTracker tracker = tracker(ResourceTracker.Policy.BEST_FIT, stored);
+
+		// vmid-0 is deleted and vmid-1 migrated while the DB is read
+		long readAt = tracker.modCount();
+		tracker.remove("vmid-0");
+		tracker.move("vmid-1", "host-1");
+		long laterReadAt = tracker.modCount();
+		Assert.assertTrue(tracker.load(capacities, stored, readAt, System.currentTimeMillis()));
+		Assert.assertEquals(0, load(tracker, "host-0").getCpus());
+		Assert.assertEquals(1, load(tracker, "host-1").getCpus());
+
+		// a snapshot older than the loaded one is dropped
+		Assert.assertTrue(tracker.load(capacities, Collections.singletonList(
+				new VmFootprintBean("vmid-1", "host-1", 1, 1024, 10)), laterReadAt, System.currentTimeMillis()));
+		Assert.assertFalse(tracker.load(capacities, stored, readAt, System.currentTimeMillis()));
+		Assert.assertEquals(0, load(tracker, "host-0").getCpus());
+		Assert.assertEquals(1, load(tracker, "host-1").getCpus());
+	}
+}
@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.scheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.indiana.d2i.sloan.bean.HostCapacityBean;
+import edu.indiana.d2i.sloan.bean.VmFootprintBean;
+
+/**
+ * Replays a synthetic trace of creates and deletes against a simulated fleet
+ * and reports how well each scheduler packs it. Round robin and random only
+ * look at ports, so they are simulated blind to host capacity; a placement
+ * that takes a host past its capacity counts as an overload. The load aware
+ * policies use {@link ResourceTracker} and refuse such a request instead.
+ *
+ * Run main with a seed and a number of steps to replay another trace.
+ */
+public class TestSchedulingSimulation {
+	private static Logger logger = LoggerFactory.getLogger(TestSchedulingSimulation.class);
+	private static final double CPU_OVERCOMMIT = 4.0;
+	private static final int HOST_DISK_GB = 1000;
+	private static final long SEED = 20141021L;
+	private static final int STEPS = Integer.getInteger("simulation.steps", 5000);
+
+	/* vCPUs, memory in MB, disk in GB and how often each is asked for */
+	private static final int[][] VM_SIZES = {
+		{1, 2048, 20, 30},
+		{2, 4096, 50, 30},
+		{4, 8192, 100, 20},
+		{8, 16384, 200, 15},
+		{16, 32768, 400, 5}
+	};
+
+	private enum Strategy {
+		ROUND_ROBIN, RANDOM, BEST_FIT, LEAST_LOADED
+	}
+
+	static class Report {
+		final Strategy strategy;
+		int accepted = 0, rejected = 0, overloaded = 0;
+		double efficiencySum = 0, usedHostsSum = 0;
+		int samples = 0;
+
+		Report(Strategy strategy) {
+			this.strategy = strategy;
+		}
+
+		/* allocated memory over the memory of the hosts that run at least one VM */
+		double packingEfficiency() {
+			return efficiencySum / samples;
+		}
+
+		double meanHostsInUse() {
+			return usedHostsSum / samples;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-12s accepted %5d  rejected %5d  overloaded %5d  "
+					+ "hosts in use %5.2f  packing efficiency %5.1f%%", strategy, accepted,
+					rejected, overloaded, meanHostsInUse(), 100 * packingEfficiency());
+		}
+	}
+
+	private static class Event implements Comparable<Event> {
+		final int step;
+		final String vmid;
+
+		Event(int step, String vmid) {
+			this.step = step;
+			this.vmid = vmid;
+		}
+
+		@Override
+		public int compareTo(Event other) {
+			return Integer.compare(step, other.step);
+		}
+	}
+
+	private static List<HostCapacityBean> fleet() {
+		List<HostCapacityBean> hosts = new ArrayList<HostCapacityBean>();
+		for (int i = 0; i < 4; i++)
+			hosts.add(new HostCapacityBean("small-" + i, 16, 64));
+		for (int i = 0; i < 4; i++)
+			hosts.add(new HostCapacityBean("large-" + i, 32, 128));
+		return hosts;
+	}
+
+	static Report simulate(Strategy strategy, long seed, int steps) {
+		Random trace = new Random(seed);
+		Random random = new Random(seed + 1);
+		List<HostCapacityBean> fleet = fleet();
+		List<String> hostnames = new ArrayList<String>();
+		// the actual load of each host, whatever the scheduler believes
+		Map<String, int[]> capacity = new LinkedHashMap<String, int[]>();
+		Map<String, int[]> allocated = new HashMap<String, int[]>();
+		for (HostCapacityBean host : fleet) {
+			hostnames.add(host.getHost());
+			capacity.put(host.getHost(), new int[] {(int) (host.getCpuCores() * CPU_OVERCOMMIT),
+					host.getMemoryGB() * 1024, HOST_DISK_GB});
+			allocated.put(host.getHost(), new int[3]);
+		}
+
+		ResourceTracker tracker = null;
+		if (strategy == Strategy.BEST_FIT || strategy == Strategy.LEAST_LOADED) {
+			tracker = new ResourceTracker(ResourceTracker.Policy.valueOf(strategy.name()),
+					CPU_OVERCOMMIT, 1.0, 1.0, HOST_DISK_GB, Long.MAX_VALUE);
+			tracker.load(fleet, Collections.<VmFootprintBean>emptyList(), tracker.modCount(), 0);
+		}
+
+		Report report = new Report(strategy);
+		PriorityQueue<Event> deletes = new PriorityQueue<Event>();
+		Map<String, VmFootprintBean> live = new HashMap<String, VmFootprintBean>();
+		int roundRobin = 0;
+		int totalWeight = 0;
+		for (int[] size : VM_SIZES)
+			totalWeight += size[3];
+
+		for (int step = 0; step < steps; step++) {
+			while (!deletes.isEmpty() && deletes.peek().step <= step) {
+				VmFootprintBean vm = live.remove(deletes.poll().vmid);
+				add(allocated.get(vm.getHost()), vm, -1);
+				if (tracker != null)
+					tracker.remove(vm.getVmid());
+			}
+
+			// demand grows from a tenth of the fleet to more than it holds,
+			// each VM lives for 100 to 500 steps
+			if (trace.nextDouble() >= 0.03 + 0.4 * step / steps) {
+				sample(capacity, allocated, report);
+				continue;
+			}
+			int pick = trace.nextInt(totalWeight);
+			int[] size = VM_SIZES[0];
+			for (int[] candidate : VM_SIZES) {
+				if (pick < candidate[3]) {
+					size = candidate;
+					break;
+				}
+				pick -= candidate[3];
+			}
+			int lifetime = 100 + trace.nextInt(400);
+			String vmid = "vmid-" + step;
+
+			String host;
+			switch (strategy) {
+			case ROUND_ROBIN:
+				host = hostnames.get(roundRobin++ % hostnames.size());
+				break;
+			case RANDOM:
+				host = hostnames.get(random.nextInt(hostnames.size()));
+				break;
+			default:
+				host = tracker.place(vmid, size[0], size[1], size[2], hostnames);
+			}
+
+			if (host == null) {
+				report.rejected++;
+			} else {
+				report.accepted++;
+				VmFootprintBean vm = new VmFootprintBean(vmid, host, size[0], size[1], size[2]);
+				int[] used = allocated.get(host);
+				add(used, vm, 1);
+				int[] total = capacity.get(host);
+				if (used[0] > total[0] || used[1] > total[1] || used[2] > total[2])
+					report.overloaded++;
+				live.put(vmid, vm);
+				deletes.add(new Event(step + lifetime, vmid));
+			}
+
+			sample(capacity, allocated, report);
+		}
+		return report;
+	}
+
+	private static void add(int[] used, VmFootprintBean vm, int sign) {
+		used[0] += sign * vm.getNumCPUs();
+		used[1] += sign * vm.getMemorySizeInMB();
+		used[2] += sign * vm.getVolumeSizeInGB();
+	}
+
+	private static void sample(Map<String, int[]> capacity, Map<String, int[]> allocated,
+			Report report) {
+		long memory = 0, memoryCapacity = 0;
+		int used = 0;
+		for (Map.Entry<String, int[]> host : allocated.entrySet()) {
+			if (host.getValue()[1] == 0)
+				continue;
+			used++;
+			memory += host.getValue()[1];
+			memoryCapacity += capacity.get(host.getKey())[1];
+		}
+		if (used > 0) {
+			report.efficiencySum += (double) memory / memoryCapacity;
+			report.usedHostsSum += used;
+			report.samples++;
+		}
+	}
+
+	static Map<Strategy, Report> simulateAll(long seed, int steps) {
+		Map<Strategy, Report> reports = new LinkedHashMap<Strategy, Report>();
+		for (Strategy strategy : Strategy.values())
+			reports.put(strategy, simulate(strategy, seed, steps));
+		return reports;
+	}
+
+	@Test
+	public void testLoadAwarePoliciesNeverOverload() {
+		Map<Strategy, Report> reports = simulateAll(SEED, STEPS);
+		for (Report report : reports.values())
+			logger.info(report.toString());
+
+		for (Strategy strategy : Arrays.asList(Strategy.BEST_FIT, Strategy.LEAST_LOADED)) {
+			Assert.assertEquals(0, reports.get(strategy).overloaded);
+			Assert.assertTrue(reports.get(strategy).rejected > 0);
+		}
+		// the trace fills the fleet, blind placement overloads hosts
+		Assert.assertTrue(reports.get(Strategy.ROUND_ROBIN).overloaded > 0);
+		Assert.assertTrue(reports.get(Strategy.RANDOM).overloaded > 0);
+		// best fit packs the VMs on fewer hosts
+		Assert.assertTrue(reports.get(Strategy.BEST_FIT).packingEfficiency()
+				>= reports.get(Strategy.LEAST_LOADED).packingEfficiency());
+	}
+
+	public static void main(String[] args) {
+		long seed = (args.length > 0) ? Long.parseLong(args[0]) : SEED;
+		int steps = (args.length > 1) ? Integer.parseInt(args[1]) : STEPS;
+		for (Report report : simulateAll(seed, steps).values())
+			logger.info(report.toString());
+	}
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import edu.indiana.d2i.sloan.Constants;
+import edu.indiana.d2i.sloan.bean.VmUserRole;
+import edu.indiana.d2i.sloan.utils.RolePermissionUtils.API_CMD;
+import edu.indiana.d2i.sloan.vm.VMRole;
+
+/**
+ * Filters the roles of a VM for every command, once with the old per role
+ * evaluation and once with the permission matrix, with one sharee, the
+ * default maximum of sharees and ten times that to show how both scale. The old path also read the user role and the owner
+ * from MySQL for every role, those two round trips are not part of the
+ * numbers here; the benchmark only compares what is left on the CPU.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=edu.indiana.d2i.sloan.utils.RolePermissionBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RolePermissionBenchmark {
+	/* max.no.of.sharees */
+	@Param({ "1", "" + Constants.DEFAULT_MAX_NO_OF_SHAREES, "" + 10 * Constants.DEFAULT_MAX_NO_OF_SHAREES })
+	public int sharees;
+
+	private List<VmUserRole> roles;
+	private VmUserRole owner;
+
+	@Setup
+	public void setup() {
+		roles = createRoles(sharees);
+		owner = RolePermissionUtils.findOwner(roles);
+	}
+
+	@Benchmark
+	public void legacyPerRole(Blackhole bh) {
+		for (API_CMD cmd : API_CMD.values()) {
+			List<VmUserRole> permitted = new ArrayList<VmUserRole>();
+			for (VmUserRole role : roles) {
+				// stands for the two lookups the old code sent to MySQL
+				VmUserRole userRole = RolePermissionUtils.findRole(roles, role.getGuid());
+				VmUserRole vmOwner = RolePermissionUtils.findOwner(roles);
+				if (legacyIsPermitted(userRole, vmOwner, cmd))
+					permitted.add(role);
+			}
+			bh.consume(permitted);
+		}
+	}
+
+	@Benchmark
+	public void matrixBulk(Blackhole bh) {
+		for (API_CMD cmd : API_CMD.values()) {
+			bh.consume(RolePermissionUtils.filterPermittedRoles(roles, owner, cmd));
+		}
+	}
+
+	/* an owner-controller, a controller and sharees, some of which have not accepted tou or full access */
+	static List<VmUserRole> createRoles(int sharees) {
+		List<VmUserRole> roles = new ArrayList<VmUserRole>();
+		roles.add(new VmUserRole("owner@gmail.com", VMRole.OWNER_CONTROLLER, true, "owner", true));
+		for (int i = 0; i < sharees; i++) {
+			VMRole role = (i == 0) ? VMRole.CONTROLLER : VMRole.SHAREE;
+			roles.add(new VmUserRole("sharee-" + i + "@gmail.com", role, i % 3 != 2,
+					"sharee-" + i, i % 4 == 3 ? null : Boolean.TRUE));
+		}
+		return roles;
+	}
+
+	/* permission check as it was before the matrix */
+	static boolean legacyIsPermitted(VmUserRole vmUserRole, VmUserRole owner, API_CMD api_cmd) {
+		if (!vmUserRole.getTou()
+				|| ((owner.isFull_access() != null && owner.isFull_access())
+						&& (vmUserRole.isFull_access() == null || !vmUserRole.isFull_access()))) {
+			return false;
+		}
+
+		switch (vmUserRole.getRole()) {
+			case OWNER_CONTROLLER:
+				return api_cmd == API_CMD.QUERY_VM
+						|| api_cmd == API_CMD.DELETE_VM
+						|| api_cmd == API_CMD.ADD_SHAREES
+						|| api_cmd == API_CMD.DELETE_SHAREES
+						|| api_cmd == API_CMD.UPDATE_VM
+						|| api_cmd == API_CMD.LAUNCH_VM
+						|| api_cmd == API_CMD.STOP_VM
+						|| api_cmd == API_CMD.SWITCH_VM
+						|| api_cmd == API_CMD.MIGRATE_VM
+						|| api_cmd == API_CMD.UPDATE_SSH_KEY
+						|| api_cmd == API_CMD.UPDATE_CUSTOS_CREDS
+						|| api_cmd == API_CMD.VIEW_RESULT
+						|| api_cmd == API_CMD.ADD_SUPPORT_USER;
+			case OWNER:
+				return api_cmd == API_CMD.QUERY_VM
+						|| api_cmd == API_CMD.DELETE_VM
+						|| api_cmd == API_CMD.ADD_SHAREES
+						|| api_cmd == API_CMD.DELETE_SHAREES
+						|| api_cmd == API_CMD.UPDATE_VM
+						|| api_cmd == API_CMD.MIGRATE_VM
+						|| api_cmd == API_CMD.UPDATE_SSH_KEY
+						|| api_cmd == API_CMD.UPDATE_CUSTOS_CREDS
+						|| api_cmd == API_CMD.OBTAIN_CONTROLLER
+						|| api_cmd == API_CMD.VIEW_RESULT
+						|| api_cmd == API_CMD.ADD_SUPPORT_USER;
+			case CONTROLLER:
+				return api_cmd == API_CMD.QUERY_VM
+						|| api_cmd == API_CMD.LAUNCH_VM
+						|| api_cmd == API_CMD.STOP_VM
+						|| api_cmd == API_CMD.SWITCH_VM
+						|| api_cmd == API_CMD.UPDATE_SSH_KEY
+						|| api_cmd == API_CMD.VIEW_RESULT
+						|| api_cmd == API_CMD.ADD_SUPPORT_USER;
+			case SHAREE:
+				return api_cmd == API_CMD.QUERY_VM
+						|| api_cmd == API_CMD.UPDATE_SSH_KEY
+						|| api_cmd == API_CMD.OBTAIN_CONTROLLER
+						|| api_cmd == API_CMD.VIEW_RESULT
+						|| api_cmd == API_CMD.EXIT_SHAREE
+						|| api_cmd == API_CMD.ADD_SUPPORT_USER;
+			default:
+				return false;
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(RolePermissionBenchmark.class.getSimpleName())
+				.build()).run();
+	}
+}
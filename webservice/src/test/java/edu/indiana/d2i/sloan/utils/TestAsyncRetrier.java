@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.sloan.exception.ScriptCmdErrorException;
+
+public class TestAsyncRetrier {
+	private static final RetryPolicy IO_ONLY = new RetryPolicy(2, 10, 10, 1.0, 0.0,
+		Collections.singleton(IOException.class.getName()));
+
+	@Test
+	public void testScheduledActionsHoldNoThread() throws Exception {
+		int numTasks = 50;
+		AsyncRetrier retrier = new AsyncRetrier();
+		final CountDownLatch ran = new CountDownLatch(numTasks);
+		for (int i = 0; i < numTasks; i++)
+			retrier.schedule(ran::countDown, 200);
+
+		// all wait on the one scheduler thread
+		Assert.assertEquals(numTasks, retrier.getStats().getWaiting());
+		Assert.assertTrue(ran.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(0, retrier.getStats().getWaiting());
+		Assert.assertEquals(numTasks, retrier.getStats().getRetries());
+	}
+
+	@Test
+	public void testFailedActionDoesNotStopScheduler() throws Exception {
+		AsyncRetrier retrier = new AsyncRetrier();
+		final CountDownLatch ran = new CountDownLatch(1);
+		retrier.schedule(() -> {
+			throw new IllegalStateException("queue is shut down");
+		}, 10);
+		retrier.schedule(ran::countDown, 20);
+		Assert.assertTrue(ran.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testScriptErrorIsNotRetried() {
+		RetryPolicy policy = new RetryPolicy(3, 10, 10, 1.0, 0.0, null);
+		Assert.assertFalse(policy.shouldRetry(new ScriptCmdErrorException("exit code 1"), 0));
+		Assert.assertTrue(policy.shouldRetry(new IOException("host is unreachable"), 0));
+	}
+
+	@Test
+	public void testGiveUpAfterMaxRetries() {
+		IOException error = new IOException("host is unreachable");
+		for (int retries = 0; retries < IO_ONLY.getMaxRetries(); retries++)
+			Assert.assertTrue(IO_ONLY.shouldRetry(error, retries));
+		Assert.assertFalse(IO_ONLY.shouldRetry(error, IO_ONLY.getMaxRetries()));
+	}
+
+	@Test
+	public void testClassification() {
+		// subclasses of a retriable exception are retried
+		Assert.assertTrue(IO_ONLY.isRetriable(new java.io.FileNotFoundException()));
+		Assert.assertFalse(IO_ONLY.isRetriable(new java.sql.SQLException()));
+		Assert.assertTrue(IO_ONLY.isRetriable(new ExecutionException(new IOException())));
+		Assert.assertFalse(new RetryPolicy(3, 10, 10, 1.0, 0.0, null)
+			.isRetriable(new ScriptCmdErrorException("exit code 1")));
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("a.B", "c.D")),
+			RetryPolicy.parseExceptionNames(" a.B;;c.D "));
+	}
+
+	@Test
+	public void testExponentialBackoffWithJitter() {
+		RetryPolicy policy = new RetryPolicy(5, 100, 500, 2.0, 0.0, null);
+		Assert.assertEquals(100, policy.getDelayInMs(1));
+		Assert.assertEquals(200, policy.getDelayInMs(2));
+		Assert.assertEquals(400, policy.getDelayInMs(3));
+		Assert.assertEquals(500, policy.getDelayInMs(4));
+
+		RetryPolicy jittered = new RetryPolicy(5, 100, 500, 2.0, 0.5, null);
+		for (int i = 0; i < 100; i++) {
+			long delay = jittered.getDelayInMs(3);
+			Assert.assertTrue(delay > 200 && delay <= 400);
+		}
+	}
+}
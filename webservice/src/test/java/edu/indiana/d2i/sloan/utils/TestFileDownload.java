@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.sloan.utils.FileDownload.ByteRange;
+import edu.indiana.d2i.sloan.utils.FileDownload.RangeNotSatisfiableException;
+
+public class TestFileDownload {
+
+	@Test
+	public void testParseRange() throws Exception {
+		ByteRange range = FileDownload.parseRange("bytes=100-199", 1000);
+		Assert.assertEquals(100, range.getFirst());
+		Assert.assertEquals(100, range.getCount());
+		Assert.assertEquals("bytes 100-199/1000", range.toContentRange());
+
+		// open ended and past the end are cut at the last byte
+		Assert.assertEquals(999, FileDownload.parseRange("bytes=500-", 1000).getLast());
+		Assert.assertEquals(999, FileDownload.parseRange("bytes=500-5000", 1000).getLast());
+
+		// suffix
+		range = FileDownload.parseRange("bytes=-10", 1000);
+		Assert.assertEquals(990, range.getFirst());
+		Assert.assertEquals(10, range.getCount());
+		Assert.assertEquals(0, FileDownload.parseRange("bytes=-5000", 1000).getFirst());
+	}
+
+	@Test
+	public void testIgnoredRanges() throws Exception {
+		Assert.assertNull(FileDownload.parseRange(null, 1000));
+		Assert.assertNull(FileDownload.parseRange("items=0-1", 1000));
+		Assert.assertNull(FileDownload.parseRange("bytes=0-1,5-6", 1000));
+		Assert.assertNull(FileDownload.parseRange("bytes=9-1", 1000));
+		Assert.assertNull(FileDownload.parseRange("bytes=a-b", 1000));
+	}
+
+	@Test(expected = RangeNotSatisfiableException.class)
+	public void testRangeAfterEndOfFile() throws Exception {
+		FileDownload.parseRange("bytes=1000-", 1000);
+	}
+
+	@Test
+	public void testETagMatching() {
+		String etag = "\"3e8-abc\"";
+		Assert.assertTrue(FileDownload.matchesETag(etag, etag));
+		Assert.assertTrue(FileDownload.matchesETag("\"other\", W/" + etag, etag));
+		Assert.assertTrue(FileDownload.matchesETag("*", etag));
+		Assert.assertFalse(FileDownload.matchesETag("\"other\"", etag));
+		Assert.assertFalse(FileDownload.matchesETag(null, etag));
+	}
+
+	@Test
+	public void testIfRangeMatching() {
+		String etag = "\"3e8-abc\"";
+		long lastModified = 1413900000123L;
+		String date = FileDownload.formatHttpDate(lastModified);
+		Assert.assertEquals("Tue, 21 Oct 2014 14:00:00 GMT", date);
+
+		Assert.assertTrue(FileDownload.matchesIfRange(null, etag, lastModified));
+		Assert.assertTrue(FileDownload.matchesIfRange(etag, etag, lastModified));
+		Assert.assertTrue(FileDownload.matchesIfRange(date, etag, lastModified));
+		// weak tags never match, nor does another date or garbage
+		Assert.assertFalse(FileDownload.matchesIfRange("W/" + etag, etag, lastModified));
+		Assert.assertFalse(FileDownload.matchesIfRange("\"other\"", etag, lastModified));
+		Assert.assertFalse(FileDownload.matchesIfRange(date, etag, lastModified + 1000));
+		Assert.assertFalse(FileDownload.matchesIfRange("yesterday", etag, lastModified));
+	}
+
+	@Test
+	public void testStreamFileRegion() throws Exception {
+		Path file = Files.createTempFile("results", ".zip");
+		try {
+			byte[] content = new byte[300000];
+			for (int i = 0; i < content.length; i++)
+				content[i] = (byte) i;
+			Files.write(file, content);
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			new FileDownload.FileRegionOutput(file, 0, content.length).write(out);
+			Assert.assertArrayEquals(content, out.toByteArray());
+
+			out = new ByteArrayOutputStream();
+			new FileDownload.FileRegionOutput(file, 1000, 10).write(out);
+			byte[] expected = new byte[10];
+			System.arraycopy(content, 1000, expected, 0, 10);
+			Assert.assertArrayEquals(expected, out.toByteArray());
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.sloan.bean.VmUserRole;
+import edu.indiana.d2i.sloan.utils.RolePermissionUtils.API_CMD;
+import edu.indiana.d2i.sloan.vm.VMRole;
+
+public class TestRolePermissionUtils {
+
+	@Test
+	public void testMatrixMatchesLegacyChecks() {
+		for (Boolean ownerFullAccess : new Boolean[] { null, false, true }) {
+			VmUserRole owner = new VmUserRole("owner@gmail.com", VMRole.OWNER, true, "owner", ownerFullAccess);
+			for (VMRole role : VMRole.values()) {
+				for (boolean tou : new boolean[] { false, true }) {
+					for (Boolean fullAccess : new Boolean[] { null, false, true }) {
+						VmUserRole user = new VmUserRole("user@gmail.com", role, tou, "user", fullAccess);
+						for (API_CMD cmd : API_CMD.values()) {
+							Assert.assertEquals(user + " " + cmd,
+									RolePermissionBenchmark.legacyIsPermitted(user, owner, cmd),
+									RolePermissionUtils.isPermittedCommand(user, owner, cmd));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testBulkFilterMatchesPerRoleChecks() {
+		List<VmUserRole> roles = RolePermissionBenchmark.createRoles(6);
+		VmUserRole owner = RolePermissionUtils.findOwner(roles);
+		Assert.assertEquals("owner", owner.getGuid());
+
+		for (API_CMD cmd : API_CMD.values()) {
+			List<VmUserRole> expected = new ArrayList<VmUserRole>();
+			for (VmUserRole role : roles) {
+				if (RolePermissionBenchmark.legacyIsPermitted(role, owner, cmd))
+					expected.add(role);
+			}
+			Assert.assertEquals(expected, RolePermissionUtils.filterPermittedRoles(roles, owner, cmd));
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testMatrixIsImmutable() {
+		RolePermissionUtils.getPermittedCommands(VMRole.SHAREE).add(API_CMD.DELETE_VM);
+	}
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.vm;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHostPorts {
+	@Test
+	public void testAllocateLowestFreePair() {
+		HostPorts ports = new HostPorts("host-0", 10000, 10005);
+		ports.load(Arrays.asList(10000, 10002, 20000));
+
+		VMPorts pair = ports.allocatePair();
+		Assert.assertEquals("host-0", pair.publicip);
+		Assert.assertEquals(10001, pair.sshport);
+		Assert.assertEquals(10003, pair.vncport);
+
+		pair = ports.allocatePair();
+		Assert.assertEquals(10004, pair.sshport);
+		Assert.assertEquals(10005, pair.vncport);
+		Assert.assertNull(ports.allocatePair());
+
+		ports.release(10002, 10004);
+		pair = ports.allocatePair();
+		Assert.assertEquals(10002, pair.sshport);
+		Assert.assertEquals(10004, pair.vncport);
+	}
+
+	@Test
+	public void testSingleFreePortIsNotAPair() {
+		HostPorts ports = new HostPorts("host-0", 10000, 10002);
+		ports.load(Arrays.asList(10000, 10001));
+		Assert.assertNull(ports.allocatePair());
+		ports.release(10000);
+		Assert.assertNotNull(ports.allocatePair());
+	}
+
+	@Test
+	public void testReserve() {
+		HostPorts ports = new HostPorts("host-0", 10000, 10009);
+		ports.load(Arrays.asList(10000));
+		Assert.assertFalse(ports.reserve(10000, 10001));
+		Assert.assertFalse(ports.reserve(10001, 10001));
+		Assert.assertFalse(ports.reserve(10001, 20000));
+		Assert.assertTrue(ports.reserve(10001, 10005));
+		Assert.assertTrue(ports.isUsed(10005));
+
+		VMPorts pair = ports.allocatePair();
+		Assert.assertEquals(10002, pair.sshport);
+		Assert.assertEquals(10003, pair.vncport);
+	}
+
+	@Test
+	public void testReconcile() {
+		HostPorts ports = new HostPorts("host-0", 10000, 10009);
+		ports.load(Arrays.asList(10000, 10001, 10002, 10003));
+		long readAt = ports.modCount();
+
+		// 10002 and 10003 were deleted and 10008 added behind our back
+		Assert.assertEquals(3, ports.reconcile(Arrays.asList(10000, 10001, 10008), readAt,
+				System.currentTimeMillis(), 60000));
+		Assert.assertFalse(ports.isUsed(10002));
+		Assert.assertTrue(ports.isUsed(10008));
+		Assert.assertEquals(3, ports.usedCount());
+	}
+
+	@Test
+	public void testReconcileKeepsRecentAllocations() {
+		HostPorts ports = new HostPorts("host-0", 10000, 10009);
+		ports.load(Collections.<Integer>emptyList());
+		VMPorts stored = ports.allocatePair();
+		VMPorts notStored = ports.allocatePair();
+
+		long now = System.currentTimeMillis();
+		Assert.assertEquals(0, ports.reconcile(Arrays.asList(stored.sshport, stored.vncport),
+				ports.modCount(), now, 60000));
+		Assert.assertTrue(ports.isUsed(notStored.sshport));
+		Assert.assertTrue(ports.isUsed(notStored.vncport));
+
+		// the scheduler never stored the second pair
+		Assert.assertEquals(2, ports.reconcile(Arrays.asList(stored.sshport, stored.vncport),
+				ports.modCount(), now + 60000, 60000));
+		Assert.assertFalse(ports.isUsed(notStored.sshport));
+		Assert.assertTrue(ports.isUsed(stored.sshport));
+	}
+
+	@Test
+	public void testReconcileSkippedAfterConcurrentChange() {
+		HostPorts ports = new HostPorts("host-0", 10000, 10009);
+		ports.load(Collections.<Integer>emptyList());
+		long readAt = ports.modCount();
+		VMPorts pair = ports.allocatePair();
+
+		Assert.assertEquals(-1, ports.reconcile(Collections.<Integer>emptyList(), readAt,
+				System.currentTimeMillis() + 60000, 0));
+		Assert.assertTrue(ports.isUsed(pair.sshport));
+	}
+}
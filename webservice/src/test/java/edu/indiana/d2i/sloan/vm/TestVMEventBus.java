@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright 2014 The Trustees of Indiana University
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.indiana.d2i.sloan.vm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.sloan.bean.VMEventBean;
+
+public class TestVMEventBus {
+	@Test
+	public void testDeliverInOrder() throws Exception {
+		VMEventBus bus = new VMEventBus(8, 10);
+		VMEventBus.Subscription a = bus.subscribe("a");
+		VMEventBus.Subscription b = bus.subscribe("b");
+
+		bus.publishState("vm1", VMState.SHUTDOWN, VMState.LAUNCH_PENDING, "alice");
+		bus.publishMode("vm1", null, VMMode.MAINTENANCE, "alice");
+
+		for (VMEventBus.Subscription subscription : new VMEventBus.Subscription[] {a, b}) {
+			VMEventBean first = subscription.poll(1, TimeUnit.SECONDS);
+			VMEventBean second = subscription.poll(1, TimeUnit.SECONDS);
+			Assert.assertEquals(VMEventBean.TYPE_STATE, first.getType());
+			Assert.assertEquals("SHUTDOWN", first.getFrom());
+			Assert.assertEquals("LAUNCH_PENDING", first.getTo());
+			Assert.assertEquals(VMEventBean.TYPE_MODE, second.getType());
+			Assert.assertNull(second.getFrom());
+			Assert.assertTrue(first.getId() < second.getId());
+			Assert.assertNull(subscription.poll(10, TimeUnit.MILLISECONDS));
+		}
+		Assert.assertEquals(4, bus.getStats().getDelivered());
+	}
+
+	@Test
+	public void testDropSlowSubscriber() throws Exception {
+		VMEventBus bus = new VMEventBus(2, 10);
+		VMEventBus.Subscription slow = bus.subscribe("slow");
+		VMEventBus.Subscription fast = bus.subscribe("fast");
+
+		for (int i = 0; i < 3; i++) {
+			bus.publishState("vm" + i, VMState.RUNNING, VMState.SHUTDOWN, "alice");
+			Assert.assertEquals("vm" + i, fast.poll(1, TimeUnit.SECONDS).getVmid());
+		}
+
+		Assert.assertTrue(slow.isDropped());
+		Assert.assertFalse(fast.isDropped());
+		Assert.assertEquals(1, bus.getStats().getSubscribers());
+		Assert.assertEquals(1, bus.getStats().getDroppedSubscribers());
+
+		// what was buffered before the drop is still delivered
+		Assert.assertEquals("vm0", slow.poll(1, TimeUnit.SECONDS).getVmid());
+		Assert.assertEquals("vm1", slow.poll(1, TimeUnit.SECONDS).getVmid());
+		Assert.assertNull(slow.poll(10, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testMaxSubscribers() {
+		VMEventBus bus = new VMEventBus(2, 1);
+		VMEventBus.Subscription first = bus.subscribe("a");
+		Assert.assertNull(bus.subscribe("b"));
+
+		first.close();
+		Assert.assertEquals(0, bus.getStats().getSubscribers());
+		Assert.assertNotNull(bus.subscribe("b"));
+	}
+}